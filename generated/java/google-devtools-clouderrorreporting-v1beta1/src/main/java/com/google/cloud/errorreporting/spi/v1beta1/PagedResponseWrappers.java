@@ -37,6 +37,12 @@ public class PagedResponseWrappers {
       extends PagedListResponseImpl<
           ListGroupStatsRequest, ListGroupStatsResponse, ErrorGroupStats> {
 
+    private final UnaryApiCallable<ListGroupStatsRequest, ListGroupStatsResponse> callable;
+    private final PageStreamingDescriptor<
+            ListGroupStatsRequest, ListGroupStatsResponse, ErrorGroupStats>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListGroupStatsPagedResponse(
         UnaryApiCallable<ListGroupStatsRequest, ListGroupStatsResponse> callable,
         PageStreamingDescriptor<ListGroupStatsRequest, ListGroupStatsResponse, ErrorGroupStats>
@@ -44,18 +50,49 @@ public class PagedResponseWrappers {
         ListGroupStatsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListGroupStatsRequest, ListGroupStatsResponse, ErrorGroupStats> prefetch(
+        int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
     }
   }
 
   public static class ListEventsPagedResponse
       extends PagedListResponseImpl<ListEventsRequest, ListEventsResponse, ErrorEvent> {
 
+    private final UnaryApiCallable<ListEventsRequest, ListEventsResponse> callable;
+    private final PageStreamingDescriptor<ListEventsRequest, ListEventsResponse, ErrorEvent>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListEventsPagedResponse(
         UnaryApiCallable<ListEventsRequest, ListEventsResponse> callable,
         PageStreamingDescriptor<ListEventsRequest, ListEventsResponse, ErrorEvent> pageDescriptor,
         ListEventsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListEventsRequest, ListEventsResponse, ErrorEvent> prefetch(
+        int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
     }
   }
 }
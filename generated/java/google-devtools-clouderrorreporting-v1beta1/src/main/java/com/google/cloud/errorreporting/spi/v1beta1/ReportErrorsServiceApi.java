@@ -187,6 +187,34 @@ public class ReportErrorsServiceApi implements AutoCloseable {
     return reportErrorEvent(request);
   }
 
+  /**
+   * Report an individual error event, like {@link #reportErrorEvent(String, ReportedErrorEvent)},
+   * for a project name that was validated when it was created.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * ProjectName projectName = ProjectName.of("[PROJECT]");
+   * try (ReportErrorsServiceApi reportErrorsServiceApi = ReportErrorsServiceApi.create()) {
+   *   ReportedErrorEvent event = ReportedErrorEvent.newBuilder().build();
+   *   ReportErrorEventResponse response = reportErrorsServiceApi.reportErrorEvent(projectName, event);
+   * }
+   * </code></pre>
+   *
+   * @param projectName [Required] The Google Cloud Platform project.
+   * @param event [Required] The error event to be reported.
+   * @throws com.google.api.gax.grpc.ApiException if the remote call fails
+   */
+  public final ReportErrorEventResponse reportErrorEvent(
+      ProjectName projectName, ReportedErrorEvent event) {
+    ReportErrorEventRequest request =
+        ReportErrorEventRequest.newBuilder()
+            .setProjectNameBytes(projectName.toByteString())
+            .setEvent(event)
+            .build();
+    return reportErrorEvent(request);
+  }
+
   // AUTO-GENERATED DOCUMENTATION AND METHOD
   /**
    * Report an individual error event.
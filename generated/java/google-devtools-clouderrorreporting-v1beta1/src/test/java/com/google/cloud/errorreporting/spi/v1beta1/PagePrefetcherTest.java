@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.errorreporting.spi.v1beta1;
+
+import static com.google.cloud.errorreporting.spi.v1beta1.PagedResponseWrappers.ListEventsPagedResponse;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.devtools.clouderrorreporting.v1beta1.ErrorEvent;
+import com.google.devtools.clouderrorreporting.v1beta1.ListEventsRequest;
+import com.google.devtools.clouderrorreporting.v1beta1.ListEventsResponse;
+import com.google.protobuf.GeneratedMessageV3;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PagePrefetcherTest {
+  private static final String PROJECT = ErrorStatsServiceApi.formatProjectName("[PROJECT]");
+
+  private static MockErrorStatsService mockErrorStatsService;
+  private static MockServiceHelper serviceHelper;
+  private ErrorStatsServiceApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    mockErrorStatsService = new MockErrorStatsService();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-page-prefetcher", Arrays.<MockGrpcService>asList(mockErrorStatsService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    ErrorStatsServiceSettings settings =
+        ErrorStatsServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = ErrorStatsServiceApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void fetchesUpToLookAheadPages() throws Exception {
+    mockErrorStatsService.setResponses(pages(4));
+    ListEventsPagedResponse response = api.listEvents(PROJECT, "[GROUP]");
+
+    Iterator<ErrorEvent> elements =
+        response.prefetch(2, Long.MAX_VALUE).iterateAllElements().iterator();
+    Assert.assertEquals("event-0", elements.next().getMessage());
+    awaitRequestCount(3);
+    // Pages 2 and 3 fill the look-ahead, so page 4 is not requested yet.
+    Thread.sleep(100);
+    Assert.assertEquals(3, mockErrorStatsService.getRequests().size());
+
+    List<String> names = new ArrayList<>();
+    while (elements.hasNext()) {
+      names.add(elements.next().getMessage());
+    }
+    Assert.assertEquals(Arrays.asList("event-1", "event-2", "event-3"), names);
+    List<String> tokens = new ArrayList<>();
+    for (GeneratedMessageV3 request : mockErrorStatsService.getRequests()) {
+      tokens.add(((ListEventsRequest) request).getPageToken());
+    }
+    Assert.assertEquals(Arrays.asList("", "1", "2", "3"), tokens);
+  }
+
+  @Test
+  public void memoryCapPausesFetching() throws Exception {
+    mockErrorStatsService.setResponses(pages(3));
+    ListEventsPagedResponse response = api.listEvents(PROJECT, "[GROUP]");
+
+    Iterator<ListEventsResponse> pages = response.prefetch(10, 1).iteratePages().iterator();
+    // The first page is over the cap until the caller takes it.
+    Thread.sleep(100);
+    Assert.assertEquals(1, mockErrorStatsService.getRequests().size());
+    Assert.assertEquals("1", pages.next().getNextPageToken());
+    awaitRequestCount(2);
+    Assert.assertEquals("2", pages.next().getNextPageToken());
+    Assert.assertEquals("", pages.next().getNextPageToken());
+    Assert.assertFalse(pages.hasNext());
+    Assert.assertEquals(3, mockErrorStatsService.getRequests().size());
+  }
+
+  // Returns pages with one event each.
+  private static List<GeneratedMessageV3> pages(int count) {
+    List<GeneratedMessageV3> pages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      pages.add(
+          ListEventsResponse.newBuilder()
+              .setNextPageToken(i == count - 1 ? "" : Integer.toString(i + 1))
+              .addErrorEvents(ErrorEvent.newBuilder().setMessage("event-" + i))
+              .build());
+    }
+    return pages;
+  }
+
+  private static void awaitRequestCount(int count) throws InterruptedException {
+    for (int i = 0; i < 500 && mockErrorStatsService.getRequests().size() < count; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(count, mockErrorStatsService.getRequests().size());
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.errorreporting.spi.v1beta1;
+
+import com.google.api.gax.protobuf.ValidationException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.devtools.clouderrorreporting.v1beta1.ReportErrorEventRequest;
+import com.google.devtools.clouderrorreporting.v1beta1.ReportErrorEventResponse;
+import com.google.devtools.clouderrorreporting.v1beta1.ReportedErrorEvent;
+import com.google.protobuf.GeneratedMessageV3;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProjectNameTest {
+  @Test
+  public void ofFormatsName() {
+    ProjectName projectName = ProjectName.of("my-project");
+    Assert.assertEquals("projects/my-project", projectName.toString());
+    Assert.assertEquals("my-project", projectName.getProject());
+    Assert.assertEquals(
+        ReportErrorsServiceApi.formatProjectName("my-project"), projectName.toString());
+  }
+
+  @Test
+  public void parseRoundTrips() {
+    ProjectName projectName = ProjectName.parse("projects/my-project");
+    Assert.assertEquals(ProjectName.of("my-project"), projectName);
+    Assert.assertEquals(ProjectName.of("my-project").hashCode(), projectName.hashCode());
+    Assert.assertNotEquals(ProjectName.of("other-project"), projectName);
+    Assert.assertEquals(projectName.toString(), projectName.toByteString().toStringUtf8());
+    Assert.assertSame(projectName.toByteString(), projectName.toByteString());
+  }
+
+  @Test(expected = ValidationException.class)
+  public void parseRejectsInvalidName() {
+    ProjectName.parse("projects/my-project/events");
+  }
+
+  @Test(expected = ValidationException.class)
+  public void ofRejectsInvalidName() {
+    ProjectName.of("my/project");
+  }
+
+  @Test
+  public void reportErrorEventUsesName() throws Exception {
+    MockReportErrorsService mockReportErrorsService = new MockReportErrorsService();
+    MockServiceHelper serviceHelper =
+        new MockServiceHelper(
+            "in-process-project-name", Arrays.<MockGrpcService>asList(mockReportErrorsService));
+    serviceHelper.start();
+    ReportErrorsServiceSettings settings =
+        ReportErrorsServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    try (ReportErrorsServiceApi api = ReportErrorsServiceApi.create(settings)) {
+      ReportErrorEventResponse expectedResponse = ReportErrorEventResponse.newBuilder().build();
+      mockReportErrorsService.setResponses(Arrays.<GeneratedMessageV3>asList(expectedResponse));
+      ProjectName projectName = ProjectName.of("my-project");
+      ReportedErrorEvent event = ReportedErrorEvent.newBuilder().setMessage("message").build();
+
+      Assert.assertEquals(expectedResponse, api.reportErrorEvent(projectName, event));
+
+      List<GeneratedMessageV3> actualRequests = mockReportErrorsService.getRequests();
+      Assert.assertEquals(1, actualRequests.size());
+      ReportErrorEventRequest actualRequest = (ReportErrorEventRequest) actualRequests.get(0);
+      Assert.assertEquals(projectName.toString(), actualRequest.getProjectName());
+      Assert.assertEquals(event, actualRequest.getEvent());
+    } finally {
+      serviceHelper.stop();
+    }
+  }
+}
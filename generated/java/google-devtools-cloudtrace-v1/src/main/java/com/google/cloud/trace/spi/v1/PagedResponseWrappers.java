@@ -33,12 +33,30 @@ public class PagedResponseWrappers {
   public static class ListTracesPagedResponse
       extends PagedListResponseImpl<ListTracesRequest, ListTracesResponse, Trace> {
 
+    private final UnaryApiCallable<ListTracesRequest, ListTracesResponse> callable;
+    private final PageStreamingDescriptor<ListTracesRequest, ListTracesResponse, Trace>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListTracesPagedResponse(
         UnaryApiCallable<ListTracesRequest, ListTracesResponse> callable,
         PageStreamingDescriptor<ListTracesRequest, ListTracesResponse, Trace> pageDescriptor,
         ListTracesRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListTracesRequest, ListTracesResponse, Trace> prefetch(
+        int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
     }
   }
 }
@@ -0,0 +1,615 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.ApiException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import io.grpc.Status;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import org.joda.time.Duration;
+
+/**
+ * A bounded buffer of log entries in front of {@link LoggingServiceV2Api}. Entries are added
+ * without waiting for the backend, and written in the order they were added by a background thread,
+ * which retries with exponential backoff while the backend is unavailable. A write that fails with
+ * a status that retrying cannot fix, such as INVALID_ARGUMENT or PERMISSION_DENIED, is not retried:
+ * its entries are dropped, so that one bad entry cannot stall the buffer.
+ *
+ * <p>The entries waiting to be written are bounded in count and bytes. When the buffer is full, an
+ * added entry is handled according to the {@link OverflowPolicy}: the caller blocks, an entry is
+ * dropped, or the entry is spilled to memory-mapped segment files on disk. Spilled entries are
+ * replayed in order once the entries in memory have been written, and until then every new entry
+ * is spilled too, so the order of the entries is preserved. The number of dropped and spilled
+ * entries is exposed by {@link #getDroppedCount} and {@link #getSpilledCount}.
+ *
+ * <p>Entries that do not specify a log name or monitored resource get the defaults of the buffer,
+ * see {@link Builder#setLogName} and {@link Builder#setResource}.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (LoggingServiceV2Api loggingServiceV2Api = LoggingServiceV2Api.create()) {
+ *   String formattedLogName = LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]");
+ *   LogBuffer buffer =
+ *       LogBuffer.newBuilder(loggingServiceV2Api)
+ *           .setLogName(formattedLogName)
+ *           .setResource(resource)
+ *           .setOverflowPolicy(LogBuffer.OverflowPolicy.SPILL_TO_DISK)
+ *           .build();
+ *   buffer.start();
+ *   buffer.add(entry);
+ *   // Do something
+ *   buffer.close();
+ * }
+ * </code></pre>
+ */
+public class LogBuffer implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger(LogBuffer.class.getName());
+
+  private static final int DEFAULT_MAX_BUFFERED_ENTRIES = 10000;
+  private static final long DEFAULT_MAX_BUFFERED_BYTES = 16 * 1024 * 1024;
+  private static final int DEFAULT_MAX_ENTRIES_PER_WRITE = 1000;
+  private static final int DEFAULT_SPILL_SEGMENT_BYTES = 16 * 1024 * 1024;
+  // Stays well below the 10 MiB request limit of the service.
+  private static final long MAX_BYTES_PER_WRITE = 5 * 1024 * 1024;
+  private static final Duration INITIAL_RETRY_BACKOFF = Duration.millis(100L);
+  private static final Duration MAX_RETRY_BACKOFF = Duration.millis(10000L);
+  // LogSeverity values are multiples of 100, from DEFAULT (0) to EMERGENCY (800).
+  private static final int SEVERITY_LEVELS = 9;
+  private static final ImmutableSet<Status.Code> RETRYABLE_CODES =
+      ImmutableSet.of(
+          Status.Code.UNAVAILABLE,
+          Status.Code.DEADLINE_EXCEEDED,
+          Status.Code.RESOURCE_EXHAUSTED,
+          Status.Code.ABORTED);
+
+  /** What to do with an entry that is added while the buffer is full. */
+  public enum OverflowPolicy {
+    /** Blocks the caller until there is room for the entry. */
+    BLOCK,
+    /** Drops the oldest buffered entry to make room for the new one. */
+    DROP_OLDEST,
+    /**
+     * Drops the oldest of the least severe buffered entries to make room for the new one, or the
+     * new entry itself if it is less severe than every buffered entry.
+     */
+    DROP_BY_SEVERITY,
+    /** Appends the entry to the spill log on disk, to be written after the buffered entries. */
+    SPILL_TO_DISK
+  }
+
+  private final LoggingServiceV2Api loggingServiceV2Api;
+  private final WriteLogEntriesRequest requestTemplate;
+  private final int maxBufferedEntries;
+  private final long maxBufferedBytes;
+  private final int maxEntriesPerWrite;
+  private final OverflowPolicy overflowPolicy;
+  private final Duration shutdownTimeout;
+  @Nullable private final SpillSegmentLog spillLog;
+
+  // Guarded by this. The buffered entries, by severity level, each in the order they were added.
+  private final List<Deque<BufferedEntry>> entriesBySeverity = new ArrayList<>();
+  private long nextSequence;
+  private int bufferedCount;
+  private long bufferedBytes;
+  private int inFlightCount;
+  private long inFlightBytes;
+  private long writtenCount;
+  private long droppedCount;
+  private long spilledCount;
+  private boolean started;
+  private boolean closed;
+  private Thread writerThread;
+
+  private static class BufferedEntry {
+    final long sequence;
+    final LogEntry entry;
+    final long size;
+
+    BufferedEntry(long sequence, LogEntry entry, long size) {
+      this.sequence = sequence;
+      this.entry = entry;
+      this.size = size;
+    }
+  }
+
+  private LogBuffer(Builder builder) {
+    this.loggingServiceV2Api = builder.loggingServiceV2Api;
+    WriteLogEntriesRequest.Builder request =
+        WriteLogEntriesRequest.newBuilder()
+            .setLogName(builder.logName)
+            .putAllLabels(builder.labels);
+    if (builder.resource != null) {
+      request.setResource(builder.resource);
+    }
+    this.requestTemplate = request.build();
+    this.maxBufferedEntries = builder.maxBufferedEntries;
+    this.maxBufferedBytes = builder.maxBufferedBytes;
+    this.maxEntriesPerWrite = builder.maxEntriesPerWrite;
+    this.overflowPolicy = builder.overflowPolicy;
+    this.shutdownTimeout = builder.shutdownTimeout;
+    this.spillLog =
+        overflowPolicy == OverflowPolicy.SPILL_TO_DISK
+            ? new SpillSegmentLog(builder.spillDirectory, builder.spillSegmentBytes)
+            : null;
+    for (int i = 0; i < SEVERITY_LEVELS; i++) {
+      entriesBySeverity.add(new ArrayDeque<BufferedEntry>());
+    }
+  }
+
+  /** Returns a new builder for a buffer that writes to the given API. */
+  public static Builder newBuilder(LoggingServiceV2Api loggingServiceV2Api) {
+    return new Builder(loggingServiceV2Api);
+  }
+
+  /** Returns the number of entries held in memory, including the entries being written. */
+  public synchronized int getBufferedCount() {
+    return bufferedCount + inFlightCount;
+  }
+
+  /** Returns the number of entry bytes held in memory, including the entries being written. */
+  public synchronized long getBufferedBytes() {
+    return bufferedBytes + inFlightBytes;
+  }
+
+  /** Returns the total number of entries that have been written to the backend. */
+  public synchronized long getWrittenCount() {
+    return writtenCount;
+  }
+
+  /** Returns the total number of entries that have been dropped. */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /** Returns the total number of entries that have been spilled to disk. */
+  public synchronized long getSpilledCount() {
+    return spilledCount;
+  }
+
+  /** Returns the number of spilled entries that have not yet been read back from disk. */
+  public synchronized long getSpillBacklogCount() {
+    return spillLog != null ? spillLog.getPendingCount() : 0;
+  }
+
+  /** Starts the thread that writes the buffered entries. A buffer can only be started once. */
+  public synchronized void start() {
+    Preconditions.checkState(!started, "Buffer already started.");
+    Preconditions.checkState(!closed, "Buffer closed.");
+    started = true;
+    writerThread =
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("logging-buffer-%d")
+            .build()
+            .newThread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    writeLoop();
+                  }
+                });
+    writerThread.start();
+  }
+
+  /**
+   * Adds an entry to be written. If the buffer is full, the entry is handled according to the
+   * overflow policy of the buffer; with {@link OverflowPolicy#BLOCK} this waits for room.
+   *
+   * @throws IllegalStateException if the buffer is closed, including while waiting for room
+   */
+  public synchronized void add(LogEntry entry) throws InterruptedException {
+    Preconditions.checkState(!closed, "Buffer closed.");
+    BufferedEntry buffered = new BufferedEntry(nextSequence++, entry, entry.getSerializedSize());
+    if (spillLog != null && spillLog.getPendingCount() > 0) {
+      spill(buffered);
+      return;
+    }
+    while (!hasRoom(buffered.size)) {
+      switch (overflowPolicy) {
+        case BLOCK:
+          wait();
+          Preconditions.checkState(!closed, "Buffer closed.");
+          break;
+        case DROP_OLDEST:
+          Deque<BufferedEntry> oldest = oldestEntries();
+          if (oldest == null) {
+            droppedCount++;
+            return;
+          }
+          drop(oldest);
+          break;
+        case DROP_BY_SEVERITY:
+          Deque<BufferedEntry> leastSevere = leastSevereEntries();
+          if (leastSevere == null
+              || severityLevel(leastSevere.peekFirst().entry) > severityLevel(entry)) {
+            droppedCount++;
+            return;
+          }
+          drop(leastSevere);
+          break;
+        case SPILL_TO_DISK:
+          spill(buffered);
+          return;
+      }
+    }
+    entriesBySeverity.get(severityLevel(entry)).addLast(buffered);
+    bufferedCount++;
+    bufferedBytes += buffered.size;
+    notifyAll();
+  }
+
+  /**
+   * Stops accepting entries, and waits up to the shutdown timeout for the buffered and spilled
+   * entries to be written. Entries that could not be written in time, or at all if the buffer was
+   * never started, are dropped, and the spill log is deleted.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    Thread thread;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      thread = writerThread;
+      notifyAll();
+    }
+    if (thread != null) {
+      thread.join(shutdownTimeout.getMillis());
+      if (thread.isAlive()) {
+        thread.interrupt();
+        thread.join();
+      }
+    }
+    synchronized (this) {
+      long lost = bufferedCount + inFlightCount + getSpillBacklogCount();
+      if (lost > 0) {
+        logger.log(Level.WARNING, "Dropped " + lost + " unwritten log entries on close");
+        droppedCount += lost;
+      }
+      for (Deque<BufferedEntry> entries : entriesBySeverity) {
+        entries.clear();
+      }
+      bufferedCount = 0;
+      bufferedBytes = 0;
+      if (spillLog != null) {
+        spillLog.close();
+      }
+    }
+  }
+
+  private void writeLoop() {
+    long backoffMillis = INITIAL_RETRY_BACKOFF.getMillis();
+    while (true) {
+      List<BufferedEntry> batch;
+      synchronized (this) {
+        try {
+          while (!hasPendingEntries() && !closed) {
+            wait();
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (!hasPendingEntries()) {
+          return;
+        }
+        batch = takeBatch();
+      }
+      if (batch.isEmpty()) {
+        continue;
+      }
+      try {
+        loggingServiceV2Api.writeLogEntries(toRequest(batch));
+      } catch (RuntimeException e) {
+        if (!isRetryable(e)) {
+          logger.log(
+              Level.WARNING, "Failed to write " + batch.size() + " log entries, dropping them", e);
+          synchronized (this) {
+            completeBatch(batch);
+            droppedCount += batch.size();
+          }
+          continue;
+        }
+        logger.log(Level.WARNING, "Failed to write " + batch.size() + " log entries", e);
+        synchronized (this) {
+          returnBatch(batch);
+        }
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+        backoffMillis = Math.min(backoffMillis * 2, MAX_RETRY_BACKOFF.getMillis());
+        continue;
+      }
+      backoffMillis = INITIAL_RETRY_BACKOFF.getMillis();
+      synchronized (this) {
+        completeBatch(batch);
+        writtenCount += batch.size();
+      }
+    }
+  }
+
+  private static boolean isRetryable(RuntimeException e) {
+    return e instanceof ApiException
+        && RETRYABLE_CODES.contains(((ApiException) e).getStatusCode());
+  }
+
+  // Must be called with the lock held. Removes a written or dropped batch from the in-flight
+  // entries.
+  private void completeBatch(List<BufferedEntry> batch) {
+    for (BufferedEntry buffered : batch) {
+      inFlightBytes -= buffered.size;
+    }
+    inFlightCount -= batch.size();
+    notifyAll();
+  }
+
+  private WriteLogEntriesRequest toRequest(List<BufferedEntry> batch) {
+    WriteLogEntriesRequest.Builder request = requestTemplate.toBuilder();
+    for (BufferedEntry buffered : batch) {
+      request.addEntries(buffered.entry);
+    }
+    return request.build();
+  }
+
+  // Must be called with the lock held.
+  private boolean hasRoom(long size) {
+    int count = bufferedCount + inFlightCount;
+    if (count == 0) {
+      // An entry larger than the byte limit is accepted into an empty buffer.
+      return true;
+    }
+    return count < maxBufferedEntries && bufferedBytes + inFlightBytes + size <= maxBufferedBytes;
+  }
+
+  // Must be called with the lock held.
+  private boolean hasPendingEntries() {
+    return bufferedCount > 0 || (spillLog != null && spillLog.getPendingCount() > 0);
+  }
+
+  /**
+   * Removes the oldest entries, up to the limits of a single write, and marks them as in flight.
+   * The entries in memory are always older than the spilled ones, so they are taken first. Must be
+   * called with the lock held.
+   */
+  private List<BufferedEntry> takeBatch() {
+    int maxCount = Math.min(maxEntriesPerWrite, maxBufferedEntries);
+    long maxBytes = Math.min(MAX_BYTES_PER_WRITE, maxBufferedBytes);
+    List<BufferedEntry> batch = new ArrayList<>();
+    long batchBytes = 0;
+    while (batch.size() < maxCount && batchBytes < maxBytes) {
+      BufferedEntry next;
+      if (bufferedCount > 0) {
+        next = oldestEntries().removeFirst();
+        bufferedCount--;
+        bufferedBytes -= next.size;
+      } else if (spillLog != null && spillLog.getPendingCount() > 0) {
+        next = unspill();
+        if (next == null) {
+          continue;
+        }
+      } else {
+        break;
+      }
+      batch.add(next);
+      batchBytes += next.size;
+    }
+    inFlightCount += batch.size();
+    inFlightBytes += batchBytes;
+    return batch;
+  }
+
+  /**
+   * Puts a batch that failed to be written back in front of the buffered entries. The entries of
+   * the batch are older than any buffered entry, so every queue stays in order. Must be called with
+   * the lock held.
+   */
+  private void returnBatch(List<BufferedEntry> batch) {
+    for (int i = batch.size() - 1; i >= 0; i--) {
+      BufferedEntry buffered = batch.get(i);
+      entriesBySeverity.get(severityLevel(buffered.entry)).addFirst(buffered);
+      bufferedCount++;
+      bufferedBytes += buffered.size;
+      inFlightCount--;
+      inFlightBytes -= buffered.size;
+    }
+    notifyAll();
+  }
+
+  // Must be called with the lock held.
+  private void spill(BufferedEntry buffered) {
+    try {
+      spillLog.append(buffered.sequence, buffered.entry.toByteArray());
+      spilledCount++;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to spill log entry, dropping it", e);
+      droppedCount++;
+    }
+    notifyAll();
+  }
+
+  // Must be called with the lock held. Returns null if the spilled entry could not be read.
+  @Nullable
+  private BufferedEntry unspill() {
+    try {
+      SpillSegmentLog.Record record = spillLog.read();
+      return new BufferedEntry(
+          record.sequence, LogEntry.parseFrom(record.data), record.data.length);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to read spilled log entry, dropping it", e);
+      droppedCount++;
+      return null;
+    }
+  }
+
+  // Must be called with the lock held.
+  private void drop(Deque<BufferedEntry> entries) {
+    BufferedEntry dropped = entries.removeFirst();
+    bufferedCount--;
+    bufferedBytes -= dropped.size;
+    droppedCount++;
+  }
+
+  // Must be called with the lock held. Returns null if no entry is buffered.
+  @Nullable
+  private Deque<BufferedEntry> oldestEntries() {
+    Deque<BufferedEntry> oldest = null;
+    for (Deque<BufferedEntry> entries : entriesBySeverity) {
+      if (!entries.isEmpty()
+          && (oldest == null || entries.peekFirst().sequence < oldest.peekFirst().sequence)) {
+        oldest = entries;
+      }
+    }
+    return oldest;
+  }
+
+  // Must be called with the lock held. Returns null if no entry is buffered.
+  @Nullable
+  private Deque<BufferedEntry> leastSevereEntries() {
+    for (Deque<BufferedEntry> entries : entriesBySeverity) {
+      if (!entries.isEmpty()) {
+        return entries;
+      }
+    }
+    return null;
+  }
+
+  private static int severityLevel(LogEntry entry) {
+    return Math.max(0, Math.min(SEVERITY_LEVELS - 1, entry.getSeverityValue() / 100));
+  }
+
+  /** Builder for LogBuffer. */
+  public static class Builder {
+    private final LoggingServiceV2Api loggingServiceV2Api;
+    private String logName = "";
+    private MonitoredResource resource;
+    private Map<String, String> labels = Collections.emptyMap();
+    private int maxBufferedEntries = DEFAULT_MAX_BUFFERED_ENTRIES;
+    private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+    private int maxEntriesPerWrite = DEFAULT_MAX_ENTRIES_PER_WRITE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private File spillDirectory;
+    private int spillSegmentBytes = DEFAULT_SPILL_SEGMENT_BYTES;
+    private Duration shutdownTimeout = Duration.standardSeconds(60);
+
+    private Builder(LoggingServiceV2Api loggingServiceV2Api) {
+      this.loggingServiceV2Api = Preconditions.checkNotNull(loggingServiceV2Api);
+    }
+
+    /**
+     * Sets the log name assigned to entries that do not specify one. It must be a fully-qualified
+     * log name. By default every entry must specify its own.
+     */
+    public Builder setLogName(String logName) {
+      this.logName = Preconditions.checkNotNull(logName);
+      return this;
+    }
+
+    /**
+     * Sets the monitored resource assigned to entries that do not specify one. By default every
+     * entry must specify its own.
+     */
+    public Builder setResource(MonitoredResource resource) {
+      this.resource = resource;
+      return this;
+    }
+
+    /** Sets the labels added to every entry. */
+    public Builder setLabels(Map<String, String> labels) {
+      this.labels = new HashMap<>(labels);
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of entries held in memory, including the entries being written,
+     * beyond which the overflow policy applies.
+     */
+    public Builder setMaxBufferedEntries(int maxBufferedEntries) {
+      Preconditions.checkArgument(maxBufferedEntries > 0);
+      this.maxBufferedEntries = maxBufferedEntries;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of entry bytes held in memory, including the entries being written,
+     * beyond which the overflow policy applies.
+     */
+    public Builder setMaxBufferedBytes(long maxBufferedBytes) {
+      Preconditions.checkArgument(maxBufferedBytes > 0);
+      this.maxBufferedBytes = maxBufferedBytes;
+      return this;
+    }
+
+    /** Sets the maximum number of entries sent in a single write. */
+    public Builder setMaxEntriesPerWrite(int maxEntriesPerWrite) {
+      Preconditions.checkArgument(maxEntriesPerWrite > 0);
+      this.maxEntriesPerWrite = maxEntriesPerWrite;
+      return this;
+    }
+
+    /** Sets what happens to an entry that is added while the buffer is full. Defaults to BLOCK. */
+    public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = Preconditions.checkNotNull(overflowPolicy);
+      return this;
+    }
+
+    /**
+     * Sets the directory that segments are spilled to with {@link OverflowPolicy#SPILL_TO_DISK}.
+     * By default a temporary directory is created when the first entry is spilled, and deleted
+     * when the buffer is closed.
+     */
+    public Builder setSpillDirectory(File spillDirectory) {
+      this.spillDirectory = spillDirectory;
+      return this;
+    }
+
+    /**
+     * Sets the size of each memory-mapped spill segment. A segment is deleted once all of its
+     * entries have been written.
+     */
+    public Builder setSpillSegmentBytes(int spillSegmentBytes) {
+      Preconditions.checkArgument(spillSegmentBytes > 0);
+      this.spillSegmentBytes = spillSegmentBytes;
+      return this;
+    }
+
+    /** Sets how long {@link LogBuffer#close} waits for the remaining entries to be written. */
+    public Builder setShutdownTimeout(Duration shutdownTimeout) {
+      this.shutdownTimeout = Preconditions.checkNotNull(shutdownTimeout);
+      return this;
+    }
+
+    public LogBuffer build() {
+      return new LogBuffer(this);
+    }
+  }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.DefaultNanoClock;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.Duration;
+
+/**
+ * Coalesces repeated log entries, such as those of a crash loop, before they are written. Entries
+ * are identical if they have the same log name, severity and payload; their other fields, such as
+ * the resource and timestamp, are ignored.
+ *
+ * <p>The first of a run of identical entries is written as is, and the identical entries that
+ * follow it within the window are dropped. The first identical entry after the window is written
+ * with the {@link Builder#setRepeatCountLabel repeat count label} set to the number of entries it
+ * stands for, itself included, and starts the next window. Entries dropped in a window that no
+ * later entry closes are written as a summary: the last of them, with the repeat count label set
+ * to the number of dropped entries. A summary is a request of its own, with the log name, resource
+ * and labels of the request the last entry was dropped from, so that it is never written with the
+ * labels or settings of an unrelated request. {@link #pollSummaries} returns the summaries of the
+ * runs whose window has ended, and is called by {@link LoggingServiceV2Api} on every write; it can
+ * also be called periodically by applications that write rarely. {@link #drain} returns the
+ * summaries of all runs, and should be called before the application exits.
+ *
+ * <p>Runs are tracked in a table of bounded size. Each run is stored in one of a few slots chosen
+ * by its hash, and when those slots are all in use the oldest run is evicted, its summary being
+ * written early. The table is divided into stripes with their own locks, so concurrent writers
+ * rarely contend.
+ */
+public final class LogEntryCoalescer {
+  private static final int WAYS = 4;
+
+  private final long windowNanos;
+  private final String repeatCountLabel;
+  private final NanoClock clock;
+  private final Slot[] slots;
+  private final int setMask;
+  private final Object[] locks;
+  private final int lockMask;
+  private final AtomicLong nextSweepNanos;
+  private final AtomicLong coalescedCount = new AtomicLong();
+  // Summaries of runs that were evicted, waiting to be polled.
+  private final Queue<WriteLogEntriesRequest> evictedSummaries = new ConcurrentLinkedQueue<>();
+
+  // All fields are guarded by the lock of the slot's set.
+  private static class Slot {
+    int hash;
+    String logName;
+    MonitoredResource resource;
+    // The labels of the request that held the last entry.
+    Map<String, String> requestLabels;
+    // The last entry of the run, or null if the slot is free.
+    LogEntry last;
+    long windowStartNanos;
+    int dropped;
+
+    boolean matches(int hash, String logName, LogEntry entry) {
+      return this.hash == hash
+          && last.getSeverityValue() == entry.getSeverityValue()
+          && this.logName.equals(logName)
+          && samePayload(last, entry);
+    }
+
+    void start(
+        int hash,
+        String logName,
+        MonitoredResource resource,
+        Map<String, String> requestLabels,
+        LogEntry entry,
+        long now) {
+      this.hash = hash;
+      this.logName = logName;
+      this.resource = resource;
+      this.requestLabels = requestLabels;
+      this.last = entry;
+      this.windowStartNanos = now;
+      this.dropped = 0;
+    }
+
+    void clear() {
+      logName = null;
+      resource = null;
+      requestLabels = null;
+      last = null;
+    }
+  }
+
+  private LogEntryCoalescer(Builder builder) {
+    this.windowNanos = builder.window.getMillis() * 1000000L;
+    this.repeatCountLabel = builder.repeatCountLabel;
+    this.clock = builder.clock;
+    int capacity = Integer.highestOneBit(Math.max(builder.maxRuns, WAYS) - 1) << 1;
+    this.slots = new Slot[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new Slot();
+    }
+    int sets = capacity / WAYS;
+    this.setMask = sets - 1;
+    int lockCount = Math.min(Integer.highestOneBit(builder.concurrencyLevel - 1) << 1, sets);
+    this.locks = new Object[Math.max(lockCount, 1)];
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+    this.lockMask = locks.length - 1;
+    this.nextSweepNanos = new AtomicLong(clock.nanoTime() + windowNanos);
+  }
+
+  /** Returns a new builder for this class. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Returns the number of entries that were dropped because they repeated an earlier one. */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * Returns the given request with its repeated entries coalesced. The request itself is returned
+   * if nothing changed.
+   */
+  public WriteLogEntriesRequest coalesce(WriteLogEntriesRequest request) {
+    long now = clock.nanoTime();
+    WriteLogEntriesRequest.Builder builder = null;
+    for (int i = 0; i < request.getEntriesCount(); i++) {
+      LogEntry entry = request.getEntries(i);
+      String logName = entry.getLogName().isEmpty() ? request.getLogName() : entry.getLogName();
+      MonitoredResource resource =
+          entry.hasResource() ? entry.getResource() : request.getResource();
+      LogEntry result = offer(logName, resource, request.getLabelsMap(), entry, now);
+      if (result == entry) {
+        if (builder != null) {
+          builder.addEntries(entry);
+        }
+        continue;
+      }
+      if (builder == null) {
+        // Copies the request with the entries kept so far.
+        builder = request.toBuilder().clearEntries();
+        builder.addAllEntries(request.getEntriesList().subList(0, i));
+      }
+      if (result != null) {
+        builder.addEntries(result);
+      }
+    }
+    return builder == null ? request : builder.build();
+  }
+
+  /**
+   * Returns the summaries of the runs that were evicted or whose window has ended, each as a
+   * request of its own, and forgets those runs. The table is only searched for ended runs once
+   * per window.
+   */
+  public List<WriteLogEntriesRequest> pollSummaries() {
+    List<WriteLogEntriesRequest> summaries = new ArrayList<>(0);
+    pollEvicted(summaries);
+    long now = clock.nanoTime();
+    long nextSweep = nextSweepNanos.get();
+    if (now - nextSweep >= 0 && nextSweepNanos.compareAndSet(nextSweep, now + windowNanos)) {
+      sweep(now, false, summaries);
+    }
+    return summaries;
+  }
+
+  /**
+   * Returns the summaries of all runs with dropped entries, each as a request of its own, and
+   * forgets all runs.
+   */
+  public List<WriteLogEntriesRequest> drain() {
+    List<WriteLogEntriesRequest> summaries = new ArrayList<>();
+    pollEvicted(summaries);
+    sweep(clock.nanoTime(), true, summaries);
+    return summaries;
+  }
+
+  private void pollEvicted(List<WriteLogEntriesRequest> summaries) {
+    WriteLogEntriesRequest summary;
+    while ((summary = evictedSummaries.poll()) != null) {
+      summaries.add(summary);
+    }
+  }
+
+  // Returns the entry to write in place of the given one, or null if it is dropped.
+  private LogEntry offer(
+      String logName,
+      MonitoredResource resource,
+      Map<String, String> requestLabels,
+      LogEntry entry,
+      long now) {
+    int hash = hash(logName, entry);
+    int set = hash & setMask;
+    synchronized (locks[set & lockMask]) {
+      Slot victim = null;
+      for (int i = set * WAYS; i < (set + 1) * WAYS; i++) {
+        Slot slot = slots[i];
+        if (slot.last == null) {
+          if (victim == null || victim.last != null) {
+            victim = slot;
+          }
+          continue;
+        }
+        if (slot.matches(hash, logName, entry)) {
+          if (now - slot.windowStartNanos < windowNanos) {
+            slot.resource = resource;
+            slot.requestLabels = requestLabels;
+            slot.last = entry;
+            slot.dropped++;
+            coalescedCount.incrementAndGet();
+            return null;
+          }
+          int dropped = slot.dropped;
+          slot.start(hash, logName, resource, requestLabels, entry, now);
+          return dropped == 0 ? entry : withRepeatCount(entry, dropped + 1);
+        }
+        if (victim == null
+            || (victim.last != null && slot.windowStartNanos - victim.windowStartNanos < 0)) {
+          victim = slot;
+        }
+      }
+      if (victim.last != null && victim.dropped > 0) {
+        evictedSummaries.add(summary(victim));
+      }
+      victim.start(hash, logName, resource, requestLabels, entry, now);
+      return entry;
+    }
+  }
+
+  private void sweep(long now, boolean all, List<WriteLogEntriesRequest> summaries) {
+    for (int set = 0; set <= setMask; set++) {
+      synchronized (locks[set & lockMask]) {
+        for (int i = set * WAYS; i < (set + 1) * WAYS; i++) {
+          Slot slot = slots[i];
+          if (slot.last == null || (!all && now - slot.windowStartNanos < windowNanos)) {
+            continue;
+          }
+          if (slot.dropped > 0) {
+            summaries.add(summary(slot));
+          }
+          slot.clear();
+        }
+      }
+    }
+  }
+
+  private WriteLogEntriesRequest summary(Slot slot) {
+    return WriteLogEntriesRequest.newBuilder()
+        .setLogName(slot.logName)
+        .setResource(slot.resource)
+        .putAllLabels(slot.requestLabels)
+        .addEntries(withRepeatCount(slot.last, slot.dropped))
+        .build();
+  }
+
+  private LogEntry withRepeatCount(LogEntry entry, int count) {
+    return entry.toBuilder().putLabels(repeatCountLabel, Integer.toString(count)).build();
+  }
+
+  private static int hash(String logName, LogEntry entry) {
+    int hash = 31 * logName.hashCode() + entry.getSeverityValue();
+    switch (entry.getPayloadCase()) {
+      case TEXT_PAYLOAD:
+        hash = 31 * hash + entry.getTextPayload().hashCode();
+        break;
+      case JSON_PAYLOAD:
+        hash = 31 * hash + entry.getJsonPayload().hashCode();
+        break;
+      case PROTO_PAYLOAD:
+        hash = 31 * hash + entry.getProtoPayload().hashCode();
+        break;
+      default:
+        break;
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean samePayload(LogEntry a, LogEntry b) {
+    if (a.getPayloadCase() != b.getPayloadCase()) {
+      return false;
+    }
+    switch (a.getPayloadCase()) {
+      case TEXT_PAYLOAD:
+        return a.getTextPayload().equals(b.getTextPayload());
+      case JSON_PAYLOAD:
+        return a.getJsonPayload().equals(b.getJsonPayload());
+      case PROTO_PAYLOAD:
+        return a.getProtoPayload().equals(b.getProtoPayload());
+      default:
+        return true;
+    }
+  }
+
+  /** Builder for LogEntryCoalescer. */
+  public static class Builder {
+    private Duration window = Duration.standardSeconds(10);
+    private int maxRuns = 4096;
+    private int concurrencyLevel = 16;
+    private String repeatCountLabel = "repeat_count";
+    private NanoClock clock = DefaultNanoClock.create();
+
+    private Builder() {}
+
+    /**
+     * Sets how long identical entries are coalesced after an entry is written. Defaults to 10
+     * seconds.
+     */
+    public Builder setWindow(Duration window) {
+      Preconditions.checkArgument(window.getMillis() > 0);
+      this.window = window;
+      return this;
+    }
+
+    /**
+     * Sets the number of runs of identical entries that are tracked at once, which is rounded up
+     * to a power of two. Defaults to 4096.
+     */
+    public Builder setMaxRuns(int maxRuns) {
+      Preconditions.checkArgument(maxRuns > 0);
+      this.maxRuns = maxRuns;
+      return this;
+    }
+
+    /**
+     * Sets the number of stripes the table of runs is locked by, which is rounded up to a power of
+     * two. Defaults to 16.
+     */
+    public Builder setConcurrencyLevel(int concurrencyLevel) {
+      Preconditions.checkArgument(concurrencyLevel > 0);
+      this.concurrencyLevel = concurrencyLevel;
+      return this;
+    }
+
+    /** Sets the label that holds the repeat count of an entry. Defaults to "repeat_count". */
+    public Builder setRepeatCountLabel(String repeatCountLabel) {
+      this.repeatCountLabel = Preconditions.checkNotNull(repeatCountLabel);
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder setClock(NanoClock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public LogEntryCoalescer build() {
+      return new LogEntryCoalescer(this);
+    }
+  }
+}
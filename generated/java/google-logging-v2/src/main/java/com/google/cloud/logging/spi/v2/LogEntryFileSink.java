@@ -0,0 +1,374 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import static com.google.cloud.logging.spi.v2.PagedResponseWrappers.ListLogEntriesPagedResponse;
+
+import com.google.api.gax.core.Page;
+import com.google.common.base.Preconditions;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.ListLogEntriesResponse;
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.CodedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Writes the log entries of a listLogEntries scan to rotating files in a local directory, one page
+ * at a time, so memory use is bounded by the page size whatever the size of the scan.
+ *
+ * <p>Entries are written in one of two {@link Format}s, and a new file is started when the current
+ * one reaches a maximum size. After every page the file is flushed to disk, and the next page token
+ * is recorded in a state file together with the length of the current file. A scan that is
+ * interrupted, even by a crash, can be resumed with {@link #export}: the current file is truncated
+ * to the recorded length and listing continues from the recorded page token, so every entry is
+ * written exactly once.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (LoggingServiceV2Api loggingServiceV2Api = LoggingServiceV2Api.create();
+ *     LogEntryFileSink sink = LogEntryFileSink.newBuilder(new File("/tmp/export")).build()) {
+ *   ListLogEntriesRequest request = ListLogEntriesRequest.newBuilder()
+ *     .addProjectIds("[PROJECT]")
+ *     .build();
+ *   sink.export(loggingServiceV2Api, request);
+ * }
+ * </code></pre>
+ */
+public class LogEntryFileSink implements Closeable {
+  private static final long DEFAULT_MAX_FILE_BYTES = 256L * 1024 * 1024;
+  private static final String STATE_FILE_NAME = "export.state";
+
+  /** The layout of the entries in the output files. */
+  public enum Format {
+    /**
+     * Each entry is stored as its serialized size in a varint, followed by the serialized entry, as
+     * written by {@link LogEntry#writeDelimitedTo} and read by {@link LogEntry#parseDelimitedFrom}.
+     */
+    LENGTH_DELIMITED(".pb"),
+    /**
+     * Each page is stored as a block of columns, for analysis that only needs a few fields. A block
+     * starts with the number of entries n as a 4-byte big-endian integer, followed by n timestamps
+     * as 8-byte nanoseconds since the epoch, n severities as 4-byte integers, n log names, and n
+     * monitored resources. Log names are stored as a 4-byte length followed by UTF-8 bytes, and
+     * resources as a 4-byte length followed by the serialized MonitoredResource.
+     */
+    COLUMNAR(".col");
+
+    private final String extension;
+
+    Format(String extension) {
+      this.extension = extension;
+    }
+  }
+
+  private final Path directory;
+  private final Format format;
+  private final long maxFileBytes;
+  private final String filePrefix;
+
+  // The persisted state, as of the last page written.
+  private int fileIndex;
+  private long filePosition;
+  private String nextPageToken = "";
+  private boolean complete;
+  private long writtenCount;
+
+  private FileChannel channel;
+
+  private LogEntryFileSink(Builder builder) throws IOException {
+    this.directory = builder.directory.toPath();
+    this.format = builder.format;
+    this.maxFileBytes = builder.maxFileBytes;
+    this.filePrefix = builder.filePrefix;
+    Files.createDirectories(directory);
+    loadState();
+  }
+
+  /** Returns a new builder for a sink that writes into the given directory. */
+  public static Builder newBuilder(File directory) {
+    return new Builder(directory);
+  }
+
+  /** Returns the page token the scan continues from, or an empty string if it has not started. */
+  public synchronized String getNextPageToken() {
+    return nextPageToken;
+  }
+
+  /** Returns whether the last page of the scan has been written. */
+  public synchronized boolean isComplete() {
+    return complete;
+  }
+
+  /** Returns the number of entries written since the scan started, including earlier runs. */
+  public synchronized long getWrittenCount() {
+    return writtenCount;
+  }
+
+  /** Returns the file that entries are currently written to. */
+  public synchronized File getCurrentFile() {
+    return directory.resolve(fileName(fileIndex)).toFile();
+  }
+
+  /**
+   * Lists the entries of the given request into the files of this sink, continuing from the
+   * recorded page token if an earlier run was interrupted. The request must be the same in every
+   * run. Does nothing if the scan is already complete.
+   *
+   * @throws com.google.api.gax.grpc.ApiException if listing fails; the scan can be resumed
+   * @throws IOException if writing fails; the scan can be resumed
+   */
+  public synchronized void export(
+      LoggingServiceV2Api loggingServiceV2Api, ListLogEntriesRequest request) throws IOException {
+    if (complete) {
+      return;
+    }
+    write(
+        loggingServiceV2Api.listLogEntries(
+            request.toBuilder().setPageToken(nextPageToken).build()));
+  }
+
+  /**
+   * Writes the entries of the given response, from its current page to the last one, recording the
+   * page token after each page.
+   */
+  public synchronized void write(ListLogEntriesPagedResponse response) throws IOException {
+    for (Page<ListLogEntriesRequest, ListLogEntriesResponse, LogEntry> page :
+        response.iteratePages()) {
+      List<LogEntry> entries = page.getResponseObject().getEntriesList();
+      if (!entries.isEmpty()) {
+        writePage(entries);
+      }
+      nextPageToken = page.getResponseObject().getNextPageToken();
+      complete = nextPageToken.isEmpty();
+      writtenCount += entries.size();
+      saveState();
+    }
+  }
+
+  /** Closes the current file. The recorded state is kept, so the scan can be resumed later. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private void writePage(List<LogEntry> entries) throws IOException {
+    if (filePosition >= maxFileBytes) {
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+      fileIndex++;
+      filePosition = 0;
+    }
+    if (channel == null) {
+      channel = openFile();
+    }
+    ByteBuffer page = ByteBuffer.wrap(encode(entries));
+    while (page.hasRemaining()) {
+      filePosition += channel.write(page);
+    }
+    channel.force(false);
+  }
+
+  private byte[] encode(List<LogEntry> entries) throws IOException {
+    if (format == Format.LENGTH_DELIMITED) {
+      int size = 0;
+      for (LogEntry entry : entries) {
+        int entrySize = entry.getSerializedSize();
+        size += CodedOutputStream.computeUInt32SizeNoTag(entrySize) + entrySize;
+      }
+      byte[] bytes = new byte[size];
+      CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+      for (LogEntry entry : entries) {
+        output.writeUInt32NoTag(entry.getSerializedSize());
+        entry.writeTo(output);
+      }
+      output.checkNoSpaceLeft();
+      return bytes;
+    }
+    int size = 4 + entries.size() * 12;
+    for (LogEntry entry : entries) {
+      size += 8 + entry.getLogNameBytes().size() + entry.getResource().getSerializedSize();
+    }
+    ByteBuffer block = ByteBuffer.allocate(size);
+    block.putInt(entries.size());
+    for (LogEntry entry : entries) {
+      block.putLong(
+          entry.getTimestamp().getSeconds() * 1000000000L + entry.getTimestamp().getNanos());
+    }
+    for (LogEntry entry : entries) {
+      block.putInt(entry.getSeverityValue());
+    }
+    for (LogEntry entry : entries) {
+      block
+          .putInt(entry.getLogNameBytes().size())
+          .put(entry.getLogNameBytes().asReadOnlyByteBuffer());
+    }
+    for (LogEntry entry : entries) {
+      byte[] resource = entry.getResource().toByteArray();
+      block.putInt(resource.length).put(resource);
+    }
+    return block.array();
+  }
+
+  // Opens the current file at the recorded position, dropping anything written after it.
+  private FileChannel openFile() throws IOException {
+    FileChannel file =
+        FileChannel.open(
+            directory.resolve(fileName(fileIndex)),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+    try {
+      file.truncate(filePosition);
+      file.position(filePosition);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+    return file;
+  }
+
+  private String fileName(int index) {
+    return String.format("%s-%05d%s", filePrefix, index, format.extension);
+  }
+
+  private void loadState() throws IOException {
+    Path stateFile = directory.resolve(STATE_FILE_NAME);
+    if (!Files.exists(stateFile)) {
+      return;
+    }
+    Properties state = new Properties();
+    try (InputStream input = Files.newInputStream(stateFile)) {
+      state.load(input);
+    }
+    Preconditions.checkState(
+        format.name().equals(state.getProperty("format")),
+        "The scan in %s was written in a different format",
+        directory);
+    fileIndex = Integer.parseInt(state.getProperty("fileIndex"));
+    filePosition = Long.parseLong(state.getProperty("filePosition"));
+    nextPageToken = state.getProperty("nextPageToken");
+    complete = Boolean.parseBoolean(state.getProperty("complete"));
+    writtenCount = Long.parseLong(state.getProperty("writtenCount"));
+  }
+
+  // Replaces the state file atomically, so a crash leaves either the old or the new state. The new
+  // state is forced to disk before the rename, so that the rename cannot become durable before the
+  // contents, and the directory is forced after it.
+  private void saveState() throws IOException {
+    Properties state = new Properties();
+    state.setProperty("format", format.name());
+    state.setProperty("fileIndex", Integer.toString(fileIndex));
+    state.setProperty("filePosition", Long.toString(filePosition));
+    state.setProperty("nextPageToken", nextPageToken);
+    state.setProperty("complete", Boolean.toString(complete));
+    state.setProperty("writtenCount", Long.toString(writtenCount));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    state.store(bytes, null);
+    Path temporary = directory.resolve(STATE_FILE_NAME + ".tmp");
+    try (FileChannel file =
+        FileChannel.open(
+            temporary,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      while (buffer.hasRemaining()) {
+        file.write(buffer);
+      }
+      file.force(true);
+    }
+    Files.move(
+        temporary,
+        directory.resolve(STATE_FILE_NAME),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    forceDirectory();
+  }
+
+  // Forces the directory entries, which records the rename and any new entry file. Directories
+  // cannot be opened on every platform, in which case the rename is left to the file system.
+  private void forceDirectory() throws IOException {
+    FileChannel file;
+    try {
+      file = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      return;
+    }
+    try {
+      file.force(true);
+    } finally {
+      file.close();
+    }
+  }
+
+  /** Builder for LogEntryFileSink. */
+  public static class Builder {
+    private final File directory;
+    private Format format = Format.LENGTH_DELIMITED;
+    private long maxFileBytes = DEFAULT_MAX_FILE_BYTES;
+    private String filePrefix = "entries";
+
+    private Builder(File directory) {
+      this.directory = Preconditions.checkNotNull(directory);
+    }
+
+    /** Sets the layout of the output files. Defaults to LENGTH_DELIMITED. */
+    public Builder setFormat(Format format) {
+      this.format = Preconditions.checkNotNull(format);
+      return this;
+    }
+
+    /**
+     * Sets the size at which a new file is started. Pages are never split, so a file can exceed
+     * this size by up to one page.
+     */
+    public Builder setMaxFileBytes(long maxFileBytes) {
+      Preconditions.checkArgument(maxFileBytes > 0);
+      this.maxFileBytes = maxFileBytes;
+      return this;
+    }
+
+    /** Sets the prefix of the output file names, which are followed by a sequence number. */
+    public Builder setFilePrefix(String filePrefix) {
+      this.filePrefix = Preconditions.checkNotNull(filePrefix);
+      return this;
+    }
+
+    /**
+     * Builds the sink, loading the state of an earlier run from the directory if there is one.
+     *
+     * @throws IOException if the directory cannot be created or its state cannot be read
+     */
+    public LogEntryFileSink build() throws IOException {
+      return new LogEntryFileSink(this);
+    }
+  }
+}
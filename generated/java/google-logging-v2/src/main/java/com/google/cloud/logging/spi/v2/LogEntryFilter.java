@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.logging.v2.LogEntry;
+
+/**
+ * A stage that decides which log entries are written, applied to calls to {@link
+ * LoggingServiceV2Api#writeLogEntries} and {@link LoggingServiceV2Api#writeLogEntriesAsync} by
+ * {@link LogEntryFilterSettings}. Filters are called concurrently by the threads that write entries,
+ * so implementations must be thread-safe, and should avoid locks. Common filters are provided by
+ * {@link LogEntryFilters}.
+ */
+public interface LogEntryFilter {
+  /**
+   * Returns whether the given entry should be written.
+   *
+   * @param logName the log the entry is written to, either its own or the default of the request
+   * @param resource the monitored resource of the entry, either its own or the default of the
+   *     request
+   * @param entry the entry
+   */
+  boolean accept(String logName, MonitoredResource resource, LogEntry entry);
+
+  /** Returns the number of entries this filter has rejected. */
+  long getDroppedCount();
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.common.collect.ImmutableList;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Settings for filtering log entries before they are written. The filters are applied in order,
+ * and an entry is only passed to a filter if all the filters before it accepted it, so the drop
+ * count of each filter only counts the entries it rejected itself. The entries accepted by all
+ * filters are then passed to the coalescer, if one is set. By default no entry is filtered.
+ */
+public class LogEntryFilterSettings {
+  private static final LogEntryFilterSettings DEFAULT_INSTANCE = newBuilder().build();
+
+  private final ImmutableList<LogEntryFilter> filters;
+  @Nullable private final LogEntryCoalescer coalescer;
+
+  private LogEntryFilterSettings(Builder builder) {
+    this.filters = builder.filters.build();
+    this.coalescer = builder.coalescer;
+  }
+
+  /** Returns settings that do not filter anything. */
+  public static LogEntryFilterSettings getDefaultInstance() {
+    return DEFAULT_INSTANCE;
+  }
+
+  /** Returns a new builder for this class. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Returns a builder containing all the values of this settings class. */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /** Returns the filters, in the order they are applied. */
+  public List<LogEntryFilter> getFilters() {
+    return filters;
+  }
+
+  /** Returns the coalescer, or null if repeated entries are not coalesced. */
+  @Nullable
+  public LogEntryCoalescer getCoalescer() {
+    return coalescer;
+  }
+
+  /**
+   * Returns the given request without the entries that were rejected by a filter, and with its
+   * repeated entries coalesced. The request itself is returned if nothing changed.
+   */
+  public WriteLogEntriesRequest filter(WriteLogEntriesRequest request) {
+    if (!filters.isEmpty()) {
+      request = applyFilters(request);
+    }
+    return coalescer == null ? request : coalescer.coalesce(request);
+  }
+
+  private WriteLogEntriesRequest applyFilters(WriteLogEntriesRequest request) {
+    WriteLogEntriesRequest.Builder builder = null;
+    for (int i = 0; i < request.getEntriesCount(); i++) {
+      LogEntry entry = request.getEntries(i);
+      if (accept(request, entry)) {
+        if (builder != null) {
+          builder.addEntries(entry);
+        }
+        continue;
+      }
+      if (builder == null) {
+        // Copies the request with the entries accepted so far.
+        builder = request.toBuilder().clearEntries();
+        builder.addAllEntries(request.getEntriesList().subList(0, i));
+      }
+    }
+    return builder == null ? request : builder.build();
+  }
+
+  private boolean accept(WriteLogEntriesRequest request, LogEntry entry) {
+    String logName = entry.getLogName().isEmpty() ? request.getLogName() : entry.getLogName();
+    MonitoredResource resource = entry.hasResource() ? entry.getResource() : request.getResource();
+    for (LogEntryFilter filter : filters) {
+      if (!filter.accept(logName, resource, entry)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Builder for LogEntryFilterSettings. */
+  public static class Builder {
+    private final ImmutableList.Builder<LogEntryFilter> filters = ImmutableList.builder();
+    private LogEntryCoalescer coalescer;
+
+    private Builder() {}
+
+    private Builder(LogEntryFilterSettings settings) {
+      filters.addAll(settings.filters);
+      coalescer = settings.coalescer;
+    }
+
+    /** Adds a filter, which is applied after the filters added before it. */
+    public Builder addFilter(LogEntryFilter filter) {
+      filters.add(filter);
+      return this;
+    }
+
+    /** Sets the coalescer applied after the filters, or null to not coalesce entries. */
+    public Builder setCoalescer(@Nullable LogEntryCoalescer coalescer) {
+      this.coalescer = coalescer;
+      return this;
+    }
+
+    public LogEntryFilterSettings build() {
+      return new LogEntryFilterSettings(this);
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.DefaultNanoClock;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.LogEntry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.joda.time.Duration;
+
+/**
+ * Common {@link LogEntryFilter}s. All of them are lock-free: their state is kept in atomic
+ * variables and concurrent maps, so filtering does not make the threads that write entries wait
+ * for each other.
+ */
+public final class LogEntryFilters {
+  private LogEntryFilters() {}
+
+  /**
+   * Returns a filter that drops entries below a minimum severity. Logs in the given map have their
+   * own minimum, and all other logs have the default one. Entries with the DEFAULT severity are
+   * treated as the lowest severity.
+   */
+  public static LogEntryFilter severityFloor(
+      Map<String, LogSeverity> floorsByLogName, LogSeverity defaultFloor) {
+    return new SeverityFloorFilter(floorsByLogName, defaultFloor);
+  }
+
+  /** Returns a filter that keeps each entry with the given probability, independently. */
+  public static LogEntryFilter sample(double probability) {
+    return new ProbabilisticSampler(probability);
+  }
+
+  /**
+   * Returns a filter that samples the entries of each time window the way reservoir sampling
+   * would. The first size entries of a window are kept, and the n-th entry after them is kept with
+   * probability size/n, the probability with which it would enter a reservoir of that size.
+   * Entries that have been written cannot be evicted again, so the expected number of entries
+   * kept in a window of n entries is about size * (1 + ln(n / size)): a burst of entries grows
+   * the written volume only logarithmically.
+   */
+  public static LogEntryFilter reservoirSample(int size, Duration window) {
+    return reservoirSample(size, window, DefaultNanoClock.create());
+  }
+
+  @VisibleForTesting
+  static LogEntryFilter reservoirSample(int size, Duration window, NanoClock clock) {
+    return new ReservoirSampler(size, window, clock);
+  }
+
+  /**
+   * Returns a filter that limits the rate of entries of each monitored resource with a token
+   * bucket, which holds up to burst tokens and is refilled with entriesPerSecond tokens per second.
+   * An entry is kept if a token is available. State is kept for every distinct resource seen.
+   */
+  public static LogEntryFilter rateLimitPerResource(double entriesPerSecond, int burst) {
+    return rateLimitPerResource(entriesPerSecond, burst, DefaultNanoClock.create());
+  }
+
+  @VisibleForTesting
+  static LogEntryFilter rateLimitPerResource(double entriesPerSecond, int burst, NanoClock clock) {
+    return new TokenBucketRateLimiter(entriesPerSecond, burst, clock);
+  }
+
+  private abstract static class CountingFilter implements LogEntryFilter {
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    @Override
+    public final boolean accept(String logName, MonitoredResource resource, LogEntry entry) {
+      if (keep(logName, resource, entry)) {
+        return true;
+      }
+      droppedCount.incrementAndGet();
+      return false;
+    }
+
+    @Override
+    public final long getDroppedCount() {
+      return droppedCount.get();
+    }
+
+    abstract boolean keep(String logName, MonitoredResource resource, LogEntry entry);
+  }
+
+  private static class SeverityFloorFilter extends CountingFilter {
+    private final ImmutableMap<String, Integer> floorsByLogName;
+    private final int defaultFloor;
+
+    SeverityFloorFilter(Map<String, LogSeverity> floorsByLogName, LogSeverity defaultFloor) {
+      ImmutableMap.Builder<String, Integer> floors = ImmutableMap.builder();
+      for (Map.Entry<String, LogSeverity> floor : floorsByLogName.entrySet()) {
+        floors.put(floor.getKey(), floor.getValue().getNumber());
+      }
+      this.floorsByLogName = floors.build();
+      this.defaultFloor = defaultFloor.getNumber();
+    }
+
+    @Override
+    boolean keep(String logName, MonitoredResource resource, LogEntry entry) {
+      Integer floor = floorsByLogName.get(logName);
+      return entry.getSeverityValue() >= (floor != null ? floor : defaultFloor);
+    }
+  }
+
+  private static class ProbabilisticSampler extends CountingFilter {
+    private final double probability;
+
+    ProbabilisticSampler(double probability) {
+      Preconditions.checkArgument(probability >= 0 && probability <= 1);
+      this.probability = probability;
+    }
+
+    @Override
+    boolean keep(String logName, MonitoredResource resource, LogEntry entry) {
+      return ThreadLocalRandom.current().nextDouble() < probability;
+    }
+  }
+
+  private static class ReservoirSampler extends CountingFilter {
+    private final int size;
+    private final long windowNanos;
+    private final NanoClock clock;
+    private final AtomicReference<Window> window;
+
+    private static class Window {
+      final long startNanos;
+      final AtomicLong count = new AtomicLong();
+
+      Window(long startNanos) {
+        this.startNanos = startNanos;
+      }
+    }
+
+    ReservoirSampler(int size, Duration window, NanoClock clock) {
+      Preconditions.checkArgument(size > 0);
+      Preconditions.checkArgument(window.getMillis() > 0);
+      this.size = size;
+      this.windowNanos = window.getMillis() * 1000000L;
+      this.clock = clock;
+      this.window = new AtomicReference<>(new Window(clock.nanoTime()));
+    }
+
+    @Override
+    boolean keep(String logName, MonitoredResource resource, LogEntry entry) {
+      long now = clock.nanoTime();
+      Window current = window.get();
+      while (now - current.startNanos >= windowNanos) {
+        // Only one thread installs the next window; the others pick it up.
+        if (window.compareAndSet(current, new Window(now))) {
+          current = window.get();
+          break;
+        }
+        current = window.get();
+      }
+      long n = current.count.incrementAndGet();
+      return n <= size || ThreadLocalRandom.current().nextLong(n) < size;
+    }
+  }
+
+  private static class TokenBucketRateLimiter extends CountingFilter {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final NanoClock clock;
+    // The time at which the bucket of each resource is full again; a token is available as long
+    // as that time is at most toleranceNanos ahead of now.
+    private final ConcurrentMap<MonitoredResource, AtomicLong> fullTimes =
+        new ConcurrentHashMap<>();
+
+    TokenBucketRateLimiter(double entriesPerSecond, int burst, NanoClock clock) {
+      Preconditions.checkArgument(entriesPerSecond > 0);
+      Preconditions.checkArgument(burst > 0);
+      this.intervalNanos = Math.max(1L, (long) (1e9 / entriesPerSecond));
+      this.toleranceNanos = intervalNanos * (burst - 1);
+      this.clock = clock;
+    }
+
+    @Override
+    boolean keep(String logName, MonitoredResource resource, LogEntry entry) {
+      long now = clock.nanoTime();
+      AtomicLong fullTime = fullTimes.get(resource);
+      if (fullTime == null) {
+        AtomicLong newFullTime = new AtomicLong(now);
+        fullTime = fullTimes.putIfAbsent(resource, newFullTime);
+        if (fullTime == null) {
+          fullTime = newFullTime;
+        }
+      }
+      while (true) {
+        long current = fullTime.get();
+        if (current - now > toleranceNanos) {
+          return false;
+        }
+        if (fullTime.compareAndSet(current, Math.max(current, now) + intervalNanos)) {
+          return true;
+        }
+      }
+    }
+  }
+}
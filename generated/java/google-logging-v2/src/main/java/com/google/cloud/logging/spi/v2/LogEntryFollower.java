@@ -0,0 +1,322 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.gax.grpc.DefaultNanoClock;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.joda.time.Duration;
+
+/**
+ * Follows the log entries that match a request as they are written, like {@code tail -f}.
+ *
+ * <p>Entries can become visible some time after their timestamp, so each poll lists the entries
+ * from a little before the watermark, the timestamp and insert id of the newest entry returned so
+ * far. Entries seen in that overlap are recognized by their log name, timestamp and insert id,
+ * which is how the service recognizes duplicates, since insert ids are only unique within a log.
+ * These keys are remembered in a bounded LRU; once a key has been forgotten, entries that do not
+ * sort after it are skipped as well, so an entry that becomes visible much later than the entries
+ * around it may be missed.
+ *
+ * <p>The polling interval adapts to the rate of new entries: it is halved after a poll that found
+ * new entries, down to the minimum, and doubled after a poll that found none or failed, up to the
+ * maximum.
+ *
+ * <p>Instances are not thread-safe.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (LoggingServiceV2Api loggingServiceV2Api = LoggingServiceV2Api.create()) {
+ *   ListLogEntriesRequest request = ListLogEntriesRequest.newBuilder()
+ *     .addProjectIds("[PROJECT]")
+ *     .setFilter("severity >= ERROR")
+ *     .build();
+ *   LogEntryFollower follower = loggingServiceV2Api.followLogEntries(request);
+ *   while (true) {
+ *     LogEntry entry = follower.take();
+ *     // doThingsWith(entry);
+ *   }
+ * }
+ * </code></pre>
+ */
+public class LogEntryFollower {
+  private static final Logger logger = Logger.getLogger(LogEntryFollower.class.getName());
+
+  private static final Duration DEFAULT_OVERLAP = Duration.standardSeconds(10);
+  private static final Duration DEFAULT_MIN_POLL_INTERVAL = Duration.standardSeconds(1);
+  private static final Duration DEFAULT_MAX_POLL_INTERVAL = Duration.standardSeconds(30);
+  private static final int DEFAULT_MAX_REMEMBERED_INSERT_IDS = 100000;
+
+  // Orders keys like the service orders entries, and then by log name, so that entries of
+  // different logs with the same timestamp and insert id are told apart.
+  private static final Comparator<LogEntry> KEY_ORDER =
+      new Comparator<LogEntry>() {
+        @Override
+        public int compare(LogEntry a, LogEntry b) {
+          int order = ParallelLogEntryExporter.ASCENDING_ORDER.compare(a, b);
+          return order != 0 ? order : a.getLogName().compareTo(b.getLogName());
+        }
+      };
+
+  private final LoggingServiceV2Api loggingServiceV2Api;
+  private final ListLogEntriesRequest request;
+  private final long startNanos;
+  private final long overlapNanos;
+  private final long minPollIntervalNanos;
+  private final long maxPollIntervalNanos;
+  private final int maxRememberedInsertIds;
+  private final NanoClock clock;
+
+  private final ArrayDeque<LogEntry> buffer = new ArrayDeque<>();
+  // The keys of the entries returned recently, least recently seen first.
+  private final LinkedHashMap<LogEntry, Boolean> seenKeys = new LinkedHashMap<>(16, 0.75f, true);
+  // The newest entry returned, or null.
+  private LogEntry watermark;
+  // The newest key that was forgotten, or null.
+  private LogEntry forgottenWatermark;
+  private long pollIntervalNanos;
+  private long nextPollNanos;
+  private long pollCount;
+  private long duplicateCount;
+
+  private LogEntryFollower(Builder builder) {
+    this.loggingServiceV2Api = builder.loggingServiceV2Api;
+    this.request = builder.request;
+    this.startNanos = ParallelLogEntryExporter.toNanos(builder.startTime);
+    this.overlapNanos = builder.overlap.getMillis() * 1000000L;
+    this.minPollIntervalNanos = builder.minPollInterval.getMillis() * 1000000L;
+    this.maxPollIntervalNanos = builder.maxPollInterval.getMillis() * 1000000L;
+    this.maxRememberedInsertIds = builder.maxRememberedInsertIds;
+    this.clock = builder.clock;
+    this.pollIntervalNanos = minPollIntervalNanos;
+    this.nextPollNanos = clock.nanoTime();
+  }
+
+  /**
+   * Returns a new builder for a follower of the entries that match the given request. The page
+   * token of the request is ignored, and its order must be {@code "timestamp asc"}, which is the
+   * default.
+   */
+  public static Builder newBuilder(
+      LoggingServiceV2Api loggingServiceV2Api, ListLogEntriesRequest request) {
+    return new Builder(loggingServiceV2Api, request);
+  }
+
+  /** Returns the number of polls made so far. */
+  public long getPollCount() {
+    return pollCount;
+  }
+
+  /** Returns the number of entries skipped because they had already been returned. */
+  public long getDuplicateCount() {
+    return duplicateCount;
+  }
+
+  /** Returns the current polling interval. */
+  public Duration getPollInterval() {
+    return Duration.millis(pollIntervalNanos / 1000000L);
+  }
+
+  /**
+   * Returns the next new entry, polling as often as the polling interval allows until there is
+   * one. A poll that fails is logged and retried after the next interval.
+   */
+  public LogEntry take() throws InterruptedException {
+    while (buffer.isEmpty()) {
+      long delayNanos = nextPollNanos - clock.nanoTime();
+      if (delayNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(delayNanos);
+        continue;
+      }
+      try {
+        buffer.addAll(poll());
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Failed to poll log entries", e);
+      }
+    }
+    return buffer.poll();
+  }
+
+  /**
+   * Polls once, regardless of the polling interval, and returns the new entries in order. The
+   * entries are not returned by {@link #take} as well.
+   *
+   * @throws com.google.api.gax.grpc.ApiException if the remote call fails
+   */
+  public List<LogEntry> poll() {
+    pollCount++;
+    boolean found = false;
+    try {
+      long lowerBoundNanos = startNanos;
+      if (watermark != null) {
+        long watermarkNanos = ParallelLogEntryExporter.toNanos(watermark.getTimestamp());
+        lowerBoundNanos = Math.max(startNanos, watermarkNanos - overlapNanos);
+      }
+      ListLogEntriesRequest pollRequest =
+          request
+              .toBuilder()
+              .setFilter(lowerBoundFilter(request.getFilter(), lowerBoundNanos))
+              .setPageToken("")
+              .build();
+      // Every page is listed before any entry is remembered, so that the entries of a poll that
+      // fails part way are listed again by the next poll.
+      List<LogEntry> listed = new ArrayList<>();
+      for (LogEntry entry : loggingServiceV2Api.listLogEntries(pollRequest).iterateAllElements()) {
+        listed.add(entry);
+      }
+      List<LogEntry> entries = new ArrayList<>();
+      for (LogEntry entry : listed) {
+        if (remember(entry)) {
+          entries.add(entry);
+        }
+      }
+      found = !entries.isEmpty();
+      return entries;
+    } finally {
+      if (found) {
+        pollIntervalNanos = Math.max(minPollIntervalNanos, pollIntervalNanos / 2);
+      } else {
+        pollIntervalNanos = Math.min(maxPollIntervalNanos, pollIntervalNanos * 2);
+      }
+      nextPollNanos = clock.nanoTime() + pollIntervalNanos;
+    }
+  }
+
+  // Returns whether the entry is new, and remembers it if it is.
+  private boolean remember(LogEntry entry) {
+    LogEntry key =
+        LogEntry.newBuilder()
+            .setLogName(entry.getLogName())
+            .setTimestamp(entry.getTimestamp())
+            .setInsertId(entry.getInsertId())
+            .build();
+    if (seenKeys.get(key) != null
+        || (forgottenWatermark != null && KEY_ORDER.compare(key, forgottenWatermark) <= 0)) {
+      duplicateCount++;
+      return false;
+    }
+    seenKeys.put(key, Boolean.TRUE);
+    if (seenKeys.size() > maxRememberedInsertIds) {
+      Iterator<LogEntry> eldest = seenKeys.keySet().iterator();
+      LogEntry forgotten = eldest.next();
+      eldest.remove();
+      if (forgottenWatermark == null || KEY_ORDER.compare(forgotten, forgottenWatermark) > 0) {
+        forgottenWatermark = forgotten;
+      }
+    }
+    if (watermark == null
+        || ParallelLogEntryExporter.ASCENDING_ORDER.compare(entry, watermark) > 0) {
+      watermark = entry;
+    }
+    return true;
+  }
+
+  private static String lowerBoundFilter(String filter, long lowerBoundNanos) {
+    String bound = "timestamp >= \"" + ParallelLogEntryExporter.formatNanos(lowerBoundNanos) + "\"";
+    return filter.trim().isEmpty() ? bound : "(" + filter + ") AND " + bound;
+  }
+
+  /** Builder for LogEntryFollower. */
+  public static class Builder {
+    private final LoggingServiceV2Api loggingServiceV2Api;
+    private final ListLogEntriesRequest request;
+    private Timestamp startTime;
+    private Duration overlap = DEFAULT_OVERLAP;
+    private Duration minPollInterval = DEFAULT_MIN_POLL_INTERVAL;
+    private Duration maxPollInterval = DEFAULT_MAX_POLL_INTERVAL;
+    private int maxRememberedInsertIds = DEFAULT_MAX_REMEMBERED_INSERT_IDS;
+    private NanoClock clock = DefaultNanoClock.create();
+
+    private Builder(LoggingServiceV2Api loggingServiceV2Api, ListLogEntriesRequest request) {
+      this.loggingServiceV2Api = Preconditions.checkNotNull(loggingServiceV2Api);
+      String orderBy = request.getOrderBy().trim();
+      Preconditions.checkArgument(
+          orderBy.isEmpty() || orderBy.equals("timestamp asc"), "Unsupported order: %s", orderBy);
+      this.request = request;
+      long nowMillis = System.currentTimeMillis();
+      this.startTime =
+          Timestamp.newBuilder()
+              .setSeconds(nowMillis / 1000)
+              .setNanos((int) (nowMillis % 1000) * 1000000)
+              .build();
+    }
+
+    /** Sets the time from which entries are followed. Defaults to the time of the builder. */
+    public Builder setStartTime(Timestamp startTime) {
+      this.startTime = Preconditions.checkNotNull(startTime);
+      return this;
+    }
+
+    /**
+     * Sets how long before the watermark each poll starts, which should cover the delay after
+     * which entries become visible. Defaults to 10 seconds.
+     */
+    public Builder setOverlap(Duration overlap) {
+      Preconditions.checkArgument(overlap.getMillis() >= 0);
+      this.overlap = overlap;
+      return this;
+    }
+
+    /** Sets the minimum polling interval. Defaults to 1 second. */
+    public Builder setMinPollInterval(Duration minPollInterval) {
+      Preconditions.checkArgument(minPollInterval.getMillis() > 0);
+      this.minPollInterval = minPollInterval;
+      return this;
+    }
+
+    /** Sets the maximum polling interval. Defaults to 30 seconds. */
+    public Builder setMaxPollInterval(Duration maxPollInterval) {
+      Preconditions.checkArgument(maxPollInterval.getMillis() > 0);
+      this.maxPollInterval = maxPollInterval;
+      return this;
+    }
+
+    /**
+     * Sets the number of entry keys remembered to recognize entries that were already returned.
+     * This should exceed the number of entries in the overlap. Defaults to 100000.
+     */
+    public Builder setMaxRememberedInsertIds(int maxRememberedInsertIds) {
+      Preconditions.checkArgument(maxRememberedInsertIds > 0);
+      this.maxRememberedInsertIds = maxRememberedInsertIds;
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder setClock(NanoClock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public LogEntryFollower build() {
+      Preconditions.checkArgument(
+          minPollInterval.getMillis() <= maxPollInterval.getMillis(),
+          "The minimum polling interval exceeds the maximum.");
+      return new LogEntryFollower(this);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.gax.protobuf.PathTemplate;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+
+/**
+ * A validated log resource name, of the form "projects/{project}/logs/{log}". The name is validated
+ * once, when it is created, and its string and encoded forms are cached, so the {@link
+ * LoggingServiceV2Api} methods that take it do no validation or encoding of the name per call.
+ */
+public final class LogName {
+  private static final PathTemplate PATH_TEMPLATE =
+      PathTemplate.createWithoutUrlEncoding("projects/{project}/logs/{log}");
+
+  private final String project;
+  private final String log;
+  private final String name;
+  private final ByteString nameBytes;
+
+  private LogName(String project, String log, String name) {
+    this.project = project;
+    this.log = log;
+    this.name = name;
+    this.nameBytes = ByteString.copyFromUtf8(name);
+  }
+
+  /**
+   * Returns the name of the given log, for example {@code LogName.of("my-project", "syslog")}.
+   *
+   * @throws com.google.api.gax.protobuf.ValidationException if the result is not a valid name
+   */
+  public static LogName of(String project, String log) {
+    return parse(PATH_TEMPLATE.instantiate("project", project, "log", log));
+  }
+
+  /**
+   * Parses a formatted log name.
+   *
+   * @throws com.google.api.gax.protobuf.ValidationException if the name is not valid
+   */
+  public static LogName parse(String name) {
+    ImmutableMap<String, String> vars = PATH_TEMPLATE.validatedMatch(name, "LogName.parse");
+    return new LogName(vars.get("project"), vars.get("log"), name);
+  }
+
+  /** Returns the project of this name. */
+  public String getProject() {
+    return project;
+  }
+
+  /** Returns the log of this name. */
+  public String getLog() {
+    return log;
+  }
+
+  // Requests set the encoded name, so that it is not encoded again for every request.
+  ByteString toByteString() {
+    return nameBytes;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof LogName && name.equals(((LogName) o).name);
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  /** Returns the formatted name. */
+  @Override
+  public String toString() {
+    return name;
+  }
+}
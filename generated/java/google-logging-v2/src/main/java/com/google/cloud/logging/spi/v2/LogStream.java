@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import com.google.logging.v2.WriteLogEntriesResponse;
+import com.google.protobuf.ByteString;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes log entries that share a log name, monitored resource and labels. Instances are obtained
+ * from {@link LoggingServiceV2Api#newLogStream}, and are thread-safe.
+ *
+ * <p>The shared fields are held in a request template that is built once, when the stream is
+ * created. Every request is a copy of the template with the entries added, so the resource and
+ * labels are not rebuilt for each write, the log name is encoded once, and the serialized size of
+ * the resource is only computed once. The entries themselves should leave the log name and
+ * resource unset, and only carry their own payload, severity and other per-entry fields.
+ *
+ * <p>Writes go through {@link LoggingServiceV2Api#writeLogEntriesAsync(WriteLogEntriesRequest)},
+ * so the requests of a stream are bundled with each other.
+ */
+public class LogStream {
+  private final LoggingServiceV2Api loggingServiceV2Api;
+  private final WriteLogEntriesRequest requestTemplate;
+  private final ByteString logNameBytes;
+
+  LogStream(
+      LoggingServiceV2Api loggingServiceV2Api,
+      String logName,
+      MonitoredResource resource,
+      Map<String, String> labels) {
+    this.loggingServiceV2Api = loggingServiceV2Api;
+    this.requestTemplate =
+        WriteLogEntriesRequest.newBuilder()
+            .setLogName(logName)
+            .setResource(resource)
+            .putAllLabels(labels)
+            .build();
+    // Copying a request decodes its log name to a string, so the encoded form is kept separately
+    // and set on every request, which then serializes it without encoding it again.
+    this.logNameBytes = ByteString.copyFromUtf8(logName);
+    // Computes and caches the serialized size of the resource, which every request shares.
+    requestTemplate.getSerializedSize();
+  }
+
+  /** Returns the log name of the entries written to this stream. */
+  public String getLogName() {
+    return requestTemplate.getLogName();
+  }
+
+  /** Returns the monitored resource of the entries written to this stream. */
+  public MonitoredResource getResource() {
+    return requestTemplate.getResource();
+  }
+
+  /** Returns the labels added to the entries written to this stream. */
+  public Map<String, String> getLabels() {
+    return requestTemplate.getLabelsMap();
+  }
+
+  /** Writes an entry, returning a future that completes once it has been written. */
+  public ListenableFuture<WriteLogEntriesResponse> write(LogEntry entry) {
+    return write(Collections.singletonList(entry));
+  }
+
+  /** Writes entries, returning a future that completes once they have been written. */
+  public ListenableFuture<WriteLogEntriesResponse> write(List<LogEntry> entries) {
+    return loggingServiceV2Api.writeLogEntriesAsync(buildRequest(entries));
+  }
+
+  /** Writes an entry with a text payload, returning a future that completes once it is written. */
+  public ListenableFuture<WriteLogEntriesResponse> writeText(LogSeverity severity, String text) {
+    return write(LogEntry.newBuilder().setSeverity(severity).setTextPayload(text).build());
+  }
+
+  @VisibleForTesting
+  WriteLogEntriesRequest buildRequest(List<LogEntry> entries) {
+    return requestTemplate.toBuilder().setLogNameBytes(logNameBytes).addAllEntries(entries).build();
+  }
+}
@@ -19,6 +19,9 @@ import static com.google.cloud.logging.spi.v2.PagedResponseWrappers.ListMonitore
 import com.google.api.MonitoredResource;
 import com.google.api.gax.grpc.UnaryApiCallable;
 import com.google.api.gax.protobuf.PathTemplate;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.logging.v2.DeleteLogRequest;
 import com.google.logging.v2.ListLogEntriesRequest;
 import com.google.logging.v2.ListLogEntriesResponse;
@@ -35,6 +38,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 // AUTO-GENERATED DOCUMENTATION AND SERVICE
 /**
@@ -89,6 +94,8 @@ import java.util.concurrent.ScheduledExecutorService;
  */
 @javax.annotation.Generated("by GAPIC")
 public class LoggingServiceV2Api implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger(LoggingServiceV2Api.class.getName());
+
   private final LoggingServiceV2Settings settings;
   private final ManagedChannel channel;
   private final ScheduledExecutorService executor;
@@ -168,6 +175,9 @@ public class LoggingServiceV2Api implements AutoCloseable {
         UnaryApiCallable.create(settings.deleteLogSettings(), this.channel, this.executor);
     this.writeLogEntriesCallable =
         UnaryApiCallable.create(settings.writeLogEntriesSettings(), this.channel, this.executor);
+    if (settings.writeLogEntriesSettings().getBundlerFactory() != null) {
+      closeables.add(settings.writeLogEntriesSettings().getBundlerFactory());
+    }
     this.listLogEntriesCallable =
         UnaryApiCallable.create(settings.listLogEntriesSettings(), this.channel, this.executor);
     this.listLogEntriesPagedCallable =
@@ -326,9 +336,51 @@ public class LoggingServiceV2Api implements AutoCloseable {
     return writeLogEntries(request);
   }
 
+  /**
+   * Writes log entries to Stackdriver Logging, like {@link #writeLogEntries(String,
+   * MonitoredResource, Map, List)}, with a log name that was validated when it was created.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * LogName logName = LogName.of("[PROJECT]", "[LOG]");
+   * try (LoggingServiceV2Api loggingServiceV2Api = LoggingServiceV2Api.create()) {
+   *   MonitoredResource resource = MonitoredResource.newBuilder().build();
+   *   Map&lt;String, String&gt; labels = new HashMap&lt;&gt;();
+   *   List&lt;LogEntry&gt; entries = new ArrayList&lt;&gt;();
+   *   WriteLogEntriesResponse response = loggingServiceV2Api.writeLogEntries(logName, resource, labels, entries);
+   * }
+   * </code></pre>
+   *
+   * @param logName Required. A default log that is assigned to all log entries in `entries` that
+   *     do not specify a value for `log_name`.
+   * @param resource Optional. A default monitored resource object that is assigned to all log
+   *     entries in `entries` that do not specify a value for `resource`.
+   * @param labels Optional. Default labels that are added to the `labels` field of all log entries
+   *     in `entries`.
+   * @param entries Required. The log entries to write.
+   * @throws com.google.api.gax.grpc.ApiException if the remote call fails
+   */
+  public final WriteLogEntriesResponse writeLogEntries(
+      LogName logName,
+      MonitoredResource resource,
+      Map<String, String> labels,
+      List<LogEntry> entries) {
+    WriteLogEntriesRequest request =
+        WriteLogEntriesRequest.newBuilder()
+            .setLogNameBytes(logName.toByteString())
+            .setResource(resource)
+            .putAllLabels(labels)
+            .addAllEntries(entries)
+            .build();
+    return writeLogEntries(request);
+  }
+
   // AUTO-GENERATED DOCUMENTATION AND METHOD
   /**
-   * Writes log entries to Stackdriver Logging. All log entries are written by this method.
+   * Writes log entries to Stackdriver Logging. All log entries are written by this method. Entries
+   * are first filtered according to {@link LoggingServiceV2Settings#writeLogEntriesFilterSettings};
+   * if every entry is dropped, no call is made and an empty response is returned.
    *
    * <p>Sample code:
    *
@@ -346,7 +398,166 @@ public class LoggingServiceV2Api implements AutoCloseable {
    * @throws com.google.api.gax.grpc.ApiException if the remote call fails
    */
   public final WriteLogEntriesResponse writeLogEntries(WriteLogEntriesRequest request) {
-    return writeLogEntriesCallable().call(request);
+    WriteLogEntriesRequest filtered = settings.writeLogEntriesFilterSettings().filter(request);
+    writeCoalescedSummaries();
+    if (filtered.getEntriesCount() == 0 && request.getEntriesCount() > 0) {
+      return WriteLogEntriesResponse.getDefaultInstance();
+    }
+    return writeLogEntriesCallable().call(filtered);
+  }
+
+  /**
+   * Writes log entries to Stackdriver Logging without blocking. Requests that share a log name,
+   * monitored resource and labels are bundled according to {@link
+   * LoggingServiceV2Settings#writeLogEntriesSettings}, and the returned future completes once the
+   * bundle containing the entries has been written.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * try (LoggingServiceV2Api loggingServiceV2Api = LoggingServiceV2Api.create()) {
+   *   String formattedLogName = LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]");
+   *   MonitoredResource resource = MonitoredResource.newBuilder().build();
+   *   Map&lt;String, String&gt; labels = new HashMap&lt;&gt;();
+   *   List&lt;LogEntry&gt; entries = new ArrayList&lt;&gt;();
+   *   ListenableFuture&lt;WriteLogEntriesResponse&gt; future = loggingServiceV2Api.writeLogEntriesAsync(formattedLogName, resource, labels, entries);
+   * }
+   * </code></pre>
+   *
+   * @param logName Optional. A default log resource name that is assigned to all log entries in
+   *     `entries` that do not specify a value for `log_name`.
+   * @param resource Optional. A default monitored resource object that is assigned to all log
+   *     entries in `entries` that do not specify a value for `resource`.
+   * @param labels Optional. Default labels that are added to the `labels` field of all log entries
+   *     in `entries`.
+   * @param entries Required. The log entries to write.
+   */
+  public final ListenableFuture<WriteLogEntriesResponse> writeLogEntriesAsync(
+      String logName,
+      MonitoredResource resource,
+      Map<String, String> labels,
+      List<LogEntry> entries) {
+    if (!logName.isEmpty()) {
+      LOG_PATH_TEMPLATE.validate(logName, "writeLogEntriesAsync");
+    }
+    WriteLogEntriesRequest request =
+        WriteLogEntriesRequest.newBuilder()
+            .setLogName(logName)
+            .setResource(resource)
+            .putAllLabels(labels)
+            .addAllEntries(entries)
+            .build();
+    return writeLogEntriesAsync(request);
+  }
+
+  /**
+   * Writes log entries to Stackdriver Logging without blocking, like {@link
+   * #writeLogEntriesAsync(String, MonitoredResource, Map, List)}, with a log name that was
+   * validated when it was created.
+   *
+   * @param logName Required. A default log that is assigned to all log entries in `entries` that
+   *     do not specify a value for `log_name`.
+   * @param resource Optional. A default monitored resource object that is assigned to all log
+   *     entries in `entries` that do not specify a value for `resource`.
+   * @param labels Optional. Default labels that are added to the `labels` field of all log entries
+   *     in `entries`.
+   * @param entries Required. The log entries to write.
+   */
+  public final ListenableFuture<WriteLogEntriesResponse> writeLogEntriesAsync(
+      LogName logName,
+      MonitoredResource resource,
+      Map<String, String> labels,
+      List<LogEntry> entries) {
+    WriteLogEntriesRequest request =
+        WriteLogEntriesRequest.newBuilder()
+            .setLogNameBytes(logName.toByteString())
+            .setResource(resource)
+            .putAllLabels(labels)
+            .addAllEntries(entries)
+            .build();
+    return writeLogEntriesAsync(request);
+  }
+
+  /**
+   * Writes log entries to Stackdriver Logging without blocking. Requests that share a log name,
+   * monitored resource and labels are bundled according to {@link
+   * LoggingServiceV2Settings#writeLogEntriesSettings}. If the bundle fails, the futures of all its
+   * requests fail. Entries are first filtered according to {@link
+   * LoggingServiceV2Settings#writeLogEntriesFilterSettings}; if every entry is dropped, the returned
+   * future is already complete.
+   *
+   * @param request The request object containing all of the parameters for the API call.
+   */
+  public final ListenableFuture<WriteLogEntriesResponse> writeLogEntriesAsync(
+      WriteLogEntriesRequest request) {
+    WriteLogEntriesRequest filtered = settings.writeLogEntriesFilterSettings().filter(request);
+    writeCoalescedSummaries();
+    if (filtered.getEntriesCount() == 0 && request.getEntriesCount() > 0) {
+      return Futures.immediateFuture(WriteLogEntriesResponse.getDefaultInstance());
+    }
+    return writeLogEntriesCallable().futureCall(filtered);
+  }
+
+  // Writes the summaries of the runs the coalescer has closed, each as a request of its own. They
+  // are written without blocking, and failures are logged, since no caller waits for them.
+  private void writeCoalescedSummaries() {
+    LogEntryCoalescer coalescer = settings.writeLogEntriesFilterSettings().getCoalescer();
+    if (coalescer == null) {
+      return;
+    }
+    for (WriteLogEntriesRequest summary : coalescer.pollSummaries()) {
+      Futures.addCallback(
+          writeLogEntriesCallable().futureCall(summary),
+          new FutureCallback<WriteLogEntriesResponse>() {
+            @Override
+            public void onSuccess(WriteLogEntriesResponse response) {}
+
+            @Override
+            public void onFailure(Throwable t) {
+              logger.log(Level.WARNING, "Failed to write the summary of repeated entries", t);
+            }
+          });
+    }
+  }
+
+  /**
+   * Returns a stream that writes entries to the given log, for the given monitored resource and
+   * with the given labels. The stream builds every request from a template that holds these fields,
+   * so writing through it only adds the entries to each request.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * try (LoggingServiceV2Api loggingServiceV2Api = LoggingServiceV2Api.create()) {
+   *   String formattedLogName = LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]");
+   *   MonitoredResource resource = MonitoredResource.newBuilder().build();
+   *   Map&lt;String, String&gt; labels = new HashMap&lt;&gt;();
+   *   LogStream stream = loggingServiceV2Api.newLogStream(formattedLogName, resource, labels);
+   *   stream.writeText(LogSeverity.INFO, "Started");
+   * }
+   * </code></pre>
+   *
+   * @param logName Required. The log that entries are written to.
+   * @param resource Required. The monitored resource of the entries.
+   * @param labels Optional. Labels added to the `labels` field of every entry.
+   */
+  public final LogStream newLogStream(
+      String logName, MonitoredResource resource, Map<String, String> labels) {
+    LOG_PATH_TEMPLATE.validate(logName, "newLogStream");
+    return new LogStream(this, logName, resource, labels);
+  }
+
+  /**
+   * Returns a stream that writes entries to the given log, like {@link #newLogStream(String,
+   * MonitoredResource, Map)}, with a log name that was validated when it was created.
+   *
+   * @param logName Required. The log that entries are written to.
+   * @param resource Required. The monitored resource of the entries.
+   * @param labels Optional. Labels added to the `labels` field of every entry.
+   */
+  public final LogStream newLogStream(
+      LogName logName, MonitoredResource resource, Map<String, String> labels) {
+    return new LogStream(this, logName.toString(), resource, labels);
   }
 
   // AUTO-GENERATED DOCUMENTATION AND METHOD
@@ -441,6 +652,33 @@ public class LoggingServiceV2Api implements AutoCloseable {
     return listLogEntriesPagedCallable().call(request);
   }
 
+  /**
+   * Returns a follower of the log entries that match the given request, which polls for new
+   * entries as they are written, starting now. See {@link LogEntryFollower#newBuilder} for more
+   * options.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * try (LoggingServiceV2Api loggingServiceV2Api = LoggingServiceV2Api.create()) {
+   *   ListLogEntriesRequest request = ListLogEntriesRequest.newBuilder()
+   *     .addProjectIds("[PROJECT]")
+   *     .build();
+   *   LogEntryFollower follower = loggingServiceV2Api.followLogEntries(request);
+   *   while (true) {
+   *     LogEntry entry = follower.take();
+   *     // doThingsWith(entry);
+   *   }
+   * }
+   * </code></pre>
+   *
+   * @param request The request object containing all of the parameters for the API call. Its
+   *     order must be `timestamp asc`, which is the default.
+   */
+  public final LogEntryFollower followLogEntries(ListLogEntriesRequest request) {
+    return LogEntryFollower.newBuilder(this, request).build();
+  }
+
   // AUTO-GENERATED DOCUMENTATION AND METHOD
   /**
    * Lists log entries. Use this method to retrieve log entries from Cloud Logging. For ways to
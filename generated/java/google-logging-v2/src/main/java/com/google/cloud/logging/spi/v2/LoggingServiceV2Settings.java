@@ -19,15 +19,20 @@ import static com.google.cloud.logging.spi.v2.PagedResponseWrappers.ListMonitore
 import com.google.api.MonitoredResourceDescriptor;
 import com.google.api.gax.core.ConnectionSettings;
 import com.google.api.gax.core.RetrySettings;
+import com.google.api.gax.grpc.BundlingCallSettings;
+import com.google.api.gax.grpc.BundlingDescriptor;
+import com.google.api.gax.grpc.BundlingSettings;
 import com.google.api.gax.grpc.CallContext;
 import com.google.api.gax.grpc.PageStreamingCallSettings;
 import com.google.api.gax.grpc.PageStreamingDescriptor;
 import com.google.api.gax.grpc.PagedListResponseFactory;
+import com.google.api.gax.grpc.RequestIssuer;
 import com.google.api.gax.grpc.ServiceApiSettings;
 import com.google.api.gax.grpc.SimpleCallSettings;
 import com.google.api.gax.grpc.UnaryApiCallSettings;
 import com.google.api.gax.grpc.UnaryApiCallable;
 import com.google.auth.Credentials;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -46,7 +51,10 @@ import com.google.protobuf.Empty;
 import io.grpc.ManagedChannel;
 import io.grpc.Status;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ScheduledExecutorService;
 import org.joda.time.Duration;
 
@@ -103,8 +111,9 @@ public class LoggingServiceV2Settings extends ServiceApiSettings {
           .build();
 
   private final SimpleCallSettings<DeleteLogRequest, Empty> deleteLogSettings;
-  private final SimpleCallSettings<WriteLogEntriesRequest, WriteLogEntriesResponse>
+  private final BundlingCallSettings<WriteLogEntriesRequest, WriteLogEntriesResponse>
       writeLogEntriesSettings;
+  private final LogEntryFilterSettings writeLogEntriesFilterSettings;
   private final PageStreamingCallSettings<
           ListLogEntriesRequest, ListLogEntriesResponse, ListLogEntriesPagedResponse>
       listLogEntriesSettings;
@@ -119,11 +128,16 @@ public class LoggingServiceV2Settings extends ServiceApiSettings {
   }
 
   /** Returns the object with the settings used for calls to writeLogEntries. */
-  public SimpleCallSettings<WriteLogEntriesRequest, WriteLogEntriesResponse>
+  public BundlingCallSettings<WriteLogEntriesRequest, WriteLogEntriesResponse>
       writeLogEntriesSettings() {
     return writeLogEntriesSettings;
   }
 
+  /** Returns the settings for filtering log entries in calls to writeLogEntries. */
+  public LogEntryFilterSettings writeLogEntriesFilterSettings() {
+    return writeLogEntriesFilterSettings;
+  }
+
   /** Returns the object with the settings used for calls to listLogEntries. */
   public PageStreamingCallSettings<
           ListLogEntriesRequest, ListLogEntriesResponse, ListLogEntriesPagedResponse>
@@ -180,6 +194,7 @@ public class LoggingServiceV2Settings extends ServiceApiSettings {
 
     deleteLogSettings = settingsBuilder.deleteLogSettings().build();
     writeLogEntriesSettings = settingsBuilder.writeLogEntriesSettings().build();
+    writeLogEntriesFilterSettings = settingsBuilder.writeLogEntriesFilterSettings();
     listLogEntriesSettings = settingsBuilder.listLogEntriesSettings().build();
     listMonitoredResourceDescriptorsSettings =
         settingsBuilder.listMonitoredResourceDescriptorsSettings().build();
@@ -301,13 +316,92 @@ public class LoggingServiceV2Settings extends ServiceApiSettings {
             }
           };
 
+  private static final BundlingDescriptor<WriteLogEntriesRequest, WriteLogEntriesResponse>
+      WRITE_LOG_ENTRIES_BUNDLING_DESC =
+          new BundlingDescriptor<WriteLogEntriesRequest, WriteLogEntriesResponse>() {
+            @Override
+            public String getBundlePartitionKey(WriteLogEntriesRequest request) {
+              // Only requests that share the fields applied to every entry can be merged. Map
+              // fields have no defined order, so they are sorted first.
+              StringBuilder key = new StringBuilder();
+              appendKeyPart(key, request.getLogName());
+              appendKeyPart(key, request.getResource().getType());
+              appendKeyPart(key, request.getResource().getLabelsMap());
+              appendKeyPart(key, request.getLabelsMap());
+              return key.append(request.getPartialSuccess()).toString();
+            }
+
+            @Override
+            public WriteLogEntriesRequest mergeRequests(
+                Collection<WriteLogEntriesRequest> requests) {
+              WriteLogEntriesRequest firstRequest = requests.iterator().next();
+              if (requests.size() == 1) {
+                return firstRequest;
+              }
+
+              WriteLogEntriesRequest.Builder bundleRequest =
+                  firstRequest.toBuilder().clearEntries();
+              for (WriteLogEntriesRequest request : requests) {
+                bundleRequest.addAllEntries(request.getEntriesList());
+              }
+              return bundleRequest.build();
+            }
+
+            @Override
+            public void splitResponse(
+                WriteLogEntriesResponse bundleResponse,
+                Collection<? extends RequestIssuer<WriteLogEntriesRequest, WriteLogEntriesResponse>>
+                    bundle) {
+              for (RequestIssuer<WriteLogEntriesRequest, WriteLogEntriesResponse> responder :
+                  bundle) {
+                responder.setResponse(bundleResponse);
+              }
+            }
+
+            @Override
+            public void splitException(
+                Throwable throwable,
+                Collection<? extends RequestIssuer<WriteLogEntriesRequest, WriteLogEntriesResponse>>
+                    bundle) {
+              for (RequestIssuer<WriteLogEntriesRequest, WriteLogEntriesResponse> responder :
+                  bundle) {
+                responder.setException(throwable);
+              }
+            }
+
+            @Override
+            public long countElements(WriteLogEntriesRequest request) {
+              return request.getEntriesCount();
+            }
+
+            @Override
+            public long countBytes(WriteLogEntriesRequest request) {
+              return request.getSerializedSize();
+            }
+          };
+
+  // Every part of a bundle partition key is prefixed with its length, so that values containing
+  // separators cannot make two different requests share a key.
+  private static void appendKeyPart(StringBuilder key, String part) {
+    key.append(part.length()).append(':').append(part);
+  }
+
+  private static void appendKeyPart(StringBuilder key, Map<String, String> labels) {
+    key.append(labels.size()).append(':');
+    for (Map.Entry<String, String> label : new TreeMap<>(labels).entrySet()) {
+      appendKeyPart(key, label.getKey());
+      appendKeyPart(key, label.getValue());
+    }
+  }
+
   /** Builder for LoggingServiceV2Settings. */
   public static class Builder extends ServiceApiSettings.Builder {
     private final ImmutableList<UnaryApiCallSettings.Builder> unaryMethodSettingsBuilders;
 
     private final SimpleCallSettings.Builder<DeleteLogRequest, Empty> deleteLogSettings;
-    private final SimpleCallSettings.Builder<WriteLogEntriesRequest, WriteLogEntriesResponse>
+    private final BundlingCallSettings.Builder<WriteLogEntriesRequest, WriteLogEntriesResponse>
         writeLogEntriesSettings;
+    private LogEntryFilterSettings writeLogEntriesFilterSettings;
     private final PageStreamingCallSettings.Builder<
             ListLogEntriesRequest, ListLogEntriesResponse, ListLogEntriesPagedResponse>
         listLogEntriesSettings;
@@ -363,7 +457,10 @@ public class LoggingServiceV2Settings extends ServiceApiSettings {
       deleteLogSettings = SimpleCallSettings.newBuilder(LoggingServiceV2Grpc.METHOD_DELETE_LOG);
 
       writeLogEntriesSettings =
-          SimpleCallSettings.newBuilder(LoggingServiceV2Grpc.METHOD_WRITE_LOG_ENTRIES);
+          BundlingCallSettings.newBuilder(
+                  LoggingServiceV2Grpc.METHOD_WRITE_LOG_ENTRIES, WRITE_LOG_ENTRIES_BUNDLING_DESC)
+              .setBundlingSettingsBuilder(BundlingSettings.newBuilder());
+      writeLogEntriesFilterSettings = LogEntryFilterSettings.getDefaultInstance();
 
       listLogEntriesSettings =
           PageStreamingCallSettings.newBuilder(
@@ -390,6 +487,15 @@ public class LoggingServiceV2Settings extends ServiceApiSettings {
           .setRetryableCodes(RETRYABLE_CODE_DEFINITIONS.get("idempotent"))
           .setRetrySettingsBuilder(RETRY_PARAM_DEFINITIONS.get("default"));
 
+      builder
+          .writeLogEntriesSettings()
+          .getBundlingSettingsBuilder()
+          .setElementCountThreshold(1000)
+          .setElementCountLimit(100000)
+          .setRequestByteThreshold(1048576)
+          .setRequestByteLimit(10485760)
+          .setDelayThreshold(Duration.millis(50))
+          .setBlockingCallCountThreshold(1);
       builder
           .writeLogEntriesSettings()
           .setRetryableCodes(RETRYABLE_CODE_DEFINITIONS.get("non_idempotent"))
@@ -413,6 +519,7 @@ public class LoggingServiceV2Settings extends ServiceApiSettings {
 
       deleteLogSettings = settings.deleteLogSettings.toBuilder();
       writeLogEntriesSettings = settings.writeLogEntriesSettings.toBuilder();
+      writeLogEntriesFilterSettings = settings.writeLogEntriesFilterSettings;
       listLogEntriesSettings = settings.listLogEntriesSettings.toBuilder();
       listMonitoredResourceDescriptorsSettings =
           settings.listMonitoredResourceDescriptorsSettings.toBuilder();
@@ -490,11 +597,28 @@ public class LoggingServiceV2Settings extends ServiceApiSettings {
     }
 
     /** Returns the builder for the settings used for calls to writeLogEntries. */
-    public SimpleCallSettings.Builder<WriteLogEntriesRequest, WriteLogEntriesResponse>
+    public BundlingCallSettings.Builder<WriteLogEntriesRequest, WriteLogEntriesResponse>
         writeLogEntriesSettings() {
       return writeLogEntriesSettings;
     }
 
+    /** Returns the settings for filtering log entries in calls to writeLogEntries. */
+    public LogEntryFilterSettings writeLogEntriesFilterSettings() {
+      return writeLogEntriesFilterSettings;
+    }
+
+    /**
+     * Sets the settings for filtering log entries in calls to writeLogEntries. They apply to {@link
+     * LoggingServiceV2Api#writeLogEntries} and {@link LoggingServiceV2Api#writeLogEntriesAsync}, but
+     * not to calls made directly through {@link LoggingServiceV2Api#writeLogEntriesCallable}.
+     */
+    public Builder setWriteLogEntriesFilterSettings(
+        LogEntryFilterSettings writeLogEntriesFilterSettings) {
+      this.writeLogEntriesFilterSettings =
+          Preconditions.checkNotNull(writeLogEntriesFilterSettings);
+      return this;
+    }
+
     /** Returns the builder for the settings used for calls to listLogEntries. */
     public PageStreamingCallSettings.Builder<
             ListLogEntriesRequest, ListLogEntriesResponse, ListLogEntriesPagedResponse>
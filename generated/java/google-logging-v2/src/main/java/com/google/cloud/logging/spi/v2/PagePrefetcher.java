@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.gax.core.Page;
+import com.google.api.gax.grpc.CallContext;
+import com.google.api.gax.grpc.PageStreamingDescriptor;
+import com.google.api.gax.grpc.UnaryApiCallable;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.protobuf.Message;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Iterates over the pages of a paged response while fetching the following pages in the
+ * background, so that the round trip for the next page overlaps with the processing of the current
+ * one. Instances are obtained from the {@code prefetch} method of the paged responses in {@link
+ * PagedResponseWrappers}.
+ *
+ * <p>Since every request needs the page token of the previous response, pages are still fetched
+ * one at a time, but up to a look-ahead number of pages are fetched before the caller asks for
+ * them. Fetching pauses while the pages that have been fetched but not yet consumed hold more than
+ * a maximum number of bytes, so a slow caller does not grow the heap.
+ *
+ * <p>Every call to {@link #iteratePages} or {@link #iterateAllElements} starts from the first page
+ * again. An iterator that is abandoned stops fetching once its look-ahead is full. If fetching a
+ * page fails, the iterator throws the failure after returning the pages fetched before it.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (LoggingServiceV2Api loggingServiceV2Api = LoggingServiceV2Api.create()) {
+ *   List&lt;String&gt; projectIds = Arrays.asList("[PROJECT]");
+ *   ListLogEntriesPagedResponse response = loggingServiceV2Api.listLogEntries(projectIds, "", "");
+ *   for (LogEntry entry : response.prefetch(4, 16 * 1024 * 1024).iterateAllElements()) {
+ *     // doThingsWith(entry);
+ *   }
+ * }
+ * </code></pre>
+ */
+public class PagePrefetcher<RequestT, ResponseT extends Message, ResourceT> {
+  private final UnaryApiCallable<RequestT, ResponseT> callable;
+  private final PageStreamingDescriptor<RequestT, ResponseT, ResourceT> pageDescriptor;
+  private final RequestT request;
+  private final ResponseT firstResponse;
+  private final CallContext context;
+  private final int lookAheadPages;
+  private final long maxBufferedBytes;
+
+  /**
+   * Creates a prefetcher that continues from the given first page. It fetches at most
+   * lookAheadPages pages ahead of the caller, and stops fetching while the fetched pages that the
+   * caller has not reached hold maxBufferedBytes bytes or more.
+   */
+  public PagePrefetcher(
+      UnaryApiCallable<RequestT, ResponseT> callable,
+      PageStreamingDescriptor<RequestT, ResponseT, ResourceT> pageDescriptor,
+      Page<RequestT, ResponseT, ResourceT> firstPage,
+      CallContext context,
+      int lookAheadPages,
+      long maxBufferedBytes) {
+    Preconditions.checkArgument(lookAheadPages > 0);
+    Preconditions.checkArgument(maxBufferedBytes > 0);
+    this.callable = Preconditions.checkNotNull(callable);
+    this.pageDescriptor = Preconditions.checkNotNull(pageDescriptor);
+    this.request = firstPage.getRequestObject();
+    this.firstResponse = firstPage.getResponseObject();
+    this.context = context;
+    this.lookAheadPages = lookAheadPages;
+    this.maxBufferedBytes = maxBufferedBytes;
+  }
+
+  /** Returns an iterable over the responses for all pages, starting with the first one. */
+  public Iterable<ResponseT> iteratePages() {
+    return new Iterable<ResponseT>() {
+      @Override
+      public Iterator<ResponseT> iterator() {
+        return new PageIterator();
+      }
+    };
+  }
+
+  /** Returns an iterable over the elements of all pages. */
+  public Iterable<ResourceT> iterateAllElements() {
+    return new Iterable<ResourceT>() {
+      @Override
+      public Iterator<ResourceT> iterator() {
+        final Iterator<ResponseT> pages = new PageIterator();
+        return new AbstractIterator<ResourceT>() {
+          private Iterator<ResourceT> elements = Collections.emptyIterator();
+
+          @Override
+          protected ResourceT computeNext() {
+            while (!elements.hasNext()) {
+              if (!pages.hasNext()) {
+                return endOfData();
+              }
+              elements = pageDescriptor.extractResources(pages.next()).iterator();
+            }
+            return elements.next();
+          }
+        };
+      }
+    };
+  }
+
+  private class PageIterator extends AbstractIterator<ResponseT> {
+    // Guarded by this.
+    private final Deque<ResponseT> fetched = new ArrayDeque<>();
+    private long fetchedBytes;
+    private Object nextToken;
+    private boolean fetching;
+    private Throwable failure;
+
+    private PageIterator() {
+      synchronized (this) {
+        addFetched(firstResponse);
+        fetchMore();
+      }
+    }
+
+    @Override
+    protected ResponseT computeNext() {
+      ResponseT response;
+      synchronized (this) {
+        while (fetched.isEmpty() && fetching) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the next page", e);
+          }
+        }
+        if (fetched.isEmpty()) {
+          if (failure != null) {
+            throw Throwables.propagate(failure);
+          }
+          return endOfData();
+        }
+        response = fetched.poll();
+        fetchedBytes -= response.getSerializedSize();
+        fetchMore();
+      }
+      return response;
+    }
+
+    // Must be called with the lock held.
+    private void addFetched(ResponseT response) {
+      fetched.add(response);
+      fetchedBytes += response.getSerializedSize();
+      nextToken = pageDescriptor.extractNextToken(response);
+    }
+
+    // Must be called with the lock held. The page after the last fetched one is requested unless
+    // there is none, a request is already outstanding, or the look-ahead is full.
+    private void fetchMore() {
+      if (fetching
+          || failure != null
+          || nextToken.equals(pageDescriptor.emptyToken())
+          || fetched.size() >= lookAheadPages
+          || fetchedBytes >= maxBufferedBytes) {
+        return;
+      }
+      fetching = true;
+      Futures.addCallback(
+          callable.futureCall(pageDescriptor.injectToken(request, nextToken), context),
+          new FutureCallback<ResponseT>() {
+            @Override
+            public void onSuccess(ResponseT response) {
+              synchronized (PageIterator.this) {
+                fetching = false;
+                addFetched(response);
+                fetchMore();
+                PageIterator.this.notifyAll();
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              synchronized (PageIterator.this) {
+                fetching = false;
+                failure = t;
+                PageIterator.this.notifyAll();
+              }
+            }
+          });
+    }
+  }
+}
@@ -29,6 +29,7 @@ import com.google.logging.v2.ListSinksResponse;
 import com.google.logging.v2.LogEntry;
 import com.google.logging.v2.LogMetric;
 import com.google.logging.v2.LogSink;
+import java.io.File;
 
 // AUTO-GENERATED DOCUMENTATION AND CLASS
 /**
@@ -42,6 +43,11 @@ public class PagedResponseWrappers {
   public static class ListLogEntriesPagedResponse
       extends PagedListResponseImpl<ListLogEntriesRequest, ListLogEntriesResponse, LogEntry> {
 
+    private final UnaryApiCallable<ListLogEntriesRequest, ListLogEntriesResponse> callable;
+    private final PageStreamingDescriptor<ListLogEntriesRequest, ListLogEntriesResponse, LogEntry>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListLogEntriesPagedResponse(
         UnaryApiCallable<ListLogEntriesRequest, ListLogEntriesResponse> callable,
         PageStreamingDescriptor<ListLogEntriesRequest, ListLogEntriesResponse, LogEntry>
@@ -49,6 +55,29 @@ public class PagedResponseWrappers {
         ListLogEntriesRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListLogEntriesRequest, ListLogEntriesResponse, LogEntry> prefetch(
+        int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
+    }
+
+    /**
+     * Returns a view of this response that records the position of the iteration in
+     * checkpointFile every checkpointInterval elements, so that it can be resumed with {@link
+     * PageCheckpointer#resume}.
+     */
+    public PageCheckpointer<ListLogEntriesRequest, ListLogEntriesResponse, LogEntry> checkpoint(
+        File checkpointFile, int checkpointInterval) {
+      return new PageCheckpointer<>(getPage(), checkpointFile, checkpointInterval);
     }
   }
 
@@ -57,6 +86,15 @@ public class PagedResponseWrappers {
           ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse,
           MonitoredResourceDescriptor> {
 
+    private final UnaryApiCallable<
+            ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse>
+        callable;
+    private final PageStreamingDescriptor<
+            ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse,
+            MonitoredResourceDescriptor>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListMonitoredResourceDescriptorsPagedResponse(
         UnaryApiCallable<
                 ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse>
@@ -68,24 +106,84 @@ public class PagedResponseWrappers {
         ListMonitoredResourceDescriptorsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<
+            ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse,
+            MonitoredResourceDescriptor>
+        prefetch(int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
+    }
+
+    /**
+     * Returns a view of this response that records the position of the iteration in
+     * checkpointFile every checkpointInterval elements, so that it can be resumed with {@link
+     * PageCheckpointer#resume}.
+     */
+    public PageCheckpointer<
+            ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse,
+            MonitoredResourceDescriptor>
+        checkpoint(File checkpointFile, int checkpointInterval) {
+      return new PageCheckpointer<>(getPage(), checkpointFile, checkpointInterval);
     }
   }
 
   public static class ListSinksPagedResponse
       extends PagedListResponseImpl<ListSinksRequest, ListSinksResponse, LogSink> {
 
+    private final UnaryApiCallable<ListSinksRequest, ListSinksResponse> callable;
+    private final PageStreamingDescriptor<ListSinksRequest, ListSinksResponse, LogSink>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListSinksPagedResponse(
         UnaryApiCallable<ListSinksRequest, ListSinksResponse> callable,
         PageStreamingDescriptor<ListSinksRequest, ListSinksResponse, LogSink> pageDescriptor,
         ListSinksRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListSinksRequest, ListSinksResponse, LogSink> prefetch(
+        int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
+    }
+
+    /**
+     * Returns a view of this response that records the position of the iteration in
+     * checkpointFile every checkpointInterval elements, so that it can be resumed with {@link
+     * PageCheckpointer#resume}.
+     */
+    public PageCheckpointer<ListSinksRequest, ListSinksResponse, LogSink> checkpoint(
+        File checkpointFile, int checkpointInterval) {
+      return new PageCheckpointer<>(getPage(), checkpointFile, checkpointInterval);
     }
   }
 
   public static class ListLogMetricsPagedResponse
       extends PagedListResponseImpl<ListLogMetricsRequest, ListLogMetricsResponse, LogMetric> {
 
+    private final UnaryApiCallable<ListLogMetricsRequest, ListLogMetricsResponse> callable;
+    private final PageStreamingDescriptor<ListLogMetricsRequest, ListLogMetricsResponse, LogMetric>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListLogMetricsPagedResponse(
         UnaryApiCallable<ListLogMetricsRequest, ListLogMetricsResponse> callable,
         PageStreamingDescriptor<ListLogMetricsRequest, ListLogMetricsResponse, LogMetric>
@@ -93,6 +191,29 @@ public class PagedResponseWrappers {
         ListLogMetricsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListLogMetricsRequest, ListLogMetricsResponse, LogMetric> prefetch(
+        int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
+    }
+
+    /**
+     * Returns a view of this response that records the position of the iteration in
+     * checkpointFile every checkpointInterval elements, so that it can be resumed with {@link
+     * PageCheckpointer#resume}.
+     */
+    public PageCheckpointer<ListLogMetricsRequest, ListLogMetricsResponse, LogMetric> checkpoint(
+        File checkpointFile, int checkpointInterval) {
+      return new PageCheckpointer<>(getPage(), checkpointFile, checkpointInterval);
     }
   }
 }
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.ListLogEntriesResponse;
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Lists the log entries of a time window with several page chains running concurrently. A single
+ * listLogEntries call walks one chain of page tokens, so it is limited to one request at a time.
+ * This exporter splits the time window into slices, adds the bounds of each slice to the filter,
+ * and also splits each slice by project or resource name. Every part is then listed with its own
+ * chain of page tokens, with at most a maximum number of requests outstanding overall.
+ *
+ * <p>The entries are returned in the order of the request, by timestamp and then insert id, like
+ * a single listLogEntries call. The slices do not overlap, so they are returned one after the
+ * other, and the parts of a slice are combined with a streaming k-way merge. Each part buffers at
+ * most a few pages, and only the parts of the slices closest to the caller are fetched, so memory
+ * use does not grow with the size of the window.
+ *
+ * <p>An export stops fetching as soon as a part fails, and the failure is thrown by its iterator.
+ * An iteration that is abandoned before its end should be closed, which stops fetching and cancels
+ * the requests in flight.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (LoggingServiceV2Api loggingServiceV2Api = LoggingServiceV2Api.create()) {
+ *   ListLogEntriesRequest request = ListLogEntriesRequest.newBuilder()
+ *     .addProjectIds("[PROJECT]")
+ *     .setFilter("severity >= ERROR")
+ *     .build();
+ *   ParallelLogEntryExporter exporter =
+ *       ParallelLogEntryExporter.newBuilder(loggingServiceV2Api)
+ *           .setMaxConcurrentRequests(8)
+ *           .setSliceCount(48)
+ *           .build();
+ *   try (ParallelLogEntryExporter.ExportIterator entries =
+ *       exporter.export(request, startTime, endTime).iterator()) {
+ *     while (entries.hasNext()) {
+ *       // doThingsWith(entries.next());
+ *     }
+ *   }
+ * }
+ * </code></pre>
+ */
+public class ParallelLogEntryExporter {
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+  private static final int DEFAULT_SLICE_COUNT = 16;
+  private static final int DEFAULT_BUFFERED_PAGES_PER_PART = 2;
+  private static final long NANOS_PER_SECOND = 1000000000L;
+  private static final DateTimeFormatter SECONDS_FORMAT =
+      ISODateTimeFormat.dateHourMinuteSecond().withZoneUTC();
+
+  static final Comparator<LogEntry> ASCENDING_ORDER =
+      new Comparator<LogEntry>() {
+        @Override
+        public int compare(LogEntry a, LogEntry b) {
+          long aNanos = toNanos(a.getTimestamp());
+          long bNanos = toNanos(b.getTimestamp());
+          if (aNanos != bNanos) {
+            return aNanos < bNanos ? -1 : 1;
+          }
+          return a.getInsertId().compareTo(b.getInsertId());
+        }
+      };
+
+  private final LoggingServiceV2Api loggingServiceV2Api;
+  private final int maxConcurrentRequests;
+  private final int sliceCount;
+  private final int bufferedPagesPerPart;
+
+  private ParallelLogEntryExporter(Builder builder) {
+    this.loggingServiceV2Api = builder.loggingServiceV2Api;
+    this.maxConcurrentRequests = builder.maxConcurrentRequests;
+    this.sliceCount = builder.sliceCount;
+    this.bufferedPagesPerPart = builder.bufferedPagesPerPart;
+  }
+
+  /** The entries of an export. Every call to {@link #iterator} starts a new export. */
+  public interface Export extends Iterable<LogEntry> {
+    @Override
+    ExportIterator iterator();
+  }
+
+  /**
+   * An iterator over the entries of an export. Closing it stops fetching and cancels the requests
+   * in flight, after which it has no more entries. It need not be closed once it is exhausted or
+   * has thrown.
+   */
+  public interface ExportIterator extends Iterator<LogEntry>, AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /** Returns a new builder for an exporter that lists entries with the given API. */
+  public static Builder newBuilder(LoggingServiceV2Api loggingServiceV2Api) {
+    return new Builder(loggingServiceV2Api);
+  }
+
+  /**
+   * Returns the entries that match the given request and have a timestamp in [startTime, endTime).
+   * The page token of the request is ignored, and its order must be {@code "timestamp asc"}, which
+   * is the default, or {@code "timestamp desc"}. Every call to {@code iterator()} on the result
+   * starts a new export.
+   *
+   * @throws com.google.api.gax.grpc.ApiException from the iterator, if listing a part fails
+   */
+  public Export export(
+      final ListLogEntriesRequest request, Timestamp startTime, Timestamp endTime) {
+    String orderBy = request.getOrderBy().trim();
+    Preconditions.checkArgument(
+        orderBy.isEmpty() || orderBy.equals("timestamp asc") || orderBy.equals("timestamp desc"),
+        "Unsupported order: %s",
+        orderBy);
+    final boolean descending = orderBy.equals("timestamp desc");
+    final long startNanos = toNanos(startTime);
+    final long endNanos = toNanos(endTime);
+    Preconditions.checkArgument(startNanos < endNanos, "The time window is empty.");
+    return new Export() {
+      @Override
+      public ExportIterator iterator() {
+        return new Run(request, startNanos, endNanos, descending);
+      }
+    };
+  }
+
+  static long toNanos(Timestamp timestamp) {
+    return timestamp.getSeconds() * NANOS_PER_SECOND + timestamp.getNanos();
+  }
+
+  // Formats a time as an RFC 3339 string with nanosecond precision, as used in log filters.
+  static String formatNanos(long nanos) {
+    long seconds = nanos / NANOS_PER_SECOND;
+    long fraction = nanos % NANOS_PER_SECOND;
+    if (fraction < 0) {
+      seconds--;
+      fraction += NANOS_PER_SECOND;
+    }
+    return SECONDS_FORMAT.print(seconds * 1000) + String.format(".%09dZ", fraction);
+  }
+
+  /** The entries of one project or resource name in one slice of the time window. */
+  private static class Part {
+    final ListLogEntriesRequest request;
+    final Deque<List<LogEntry>> pages = new ArrayDeque<>();
+    int positionInPage;
+    String nextPageToken = "";
+    boolean fetching;
+    boolean done;
+    // The entry at the head of the part while it is in the merge. Only used by the consumer.
+    LogEntry current;
+
+    Part(ListLogEntriesRequest request) {
+      this.request = request;
+    }
+
+    boolean isExhausted() {
+      return done && pages.isEmpty();
+    }
+
+    LogEntry head() {
+      return pages.peekFirst().get(positionInPage);
+    }
+  }
+
+  /** One run of an export, which fetches the parts and merges them. */
+  private class Run extends AbstractIterator<LogEntry> implements ExportIterator {
+    // The parts of every slice, in the order they are returned.
+    private final List<List<Part>> slices = new ArrayList<>();
+    // All parts, in the order they are returned.
+    private final List<Part> parts = new ArrayList<>();
+    private final int window;
+    private final Comparator<Part> headOrder;
+    // Guarded by this.
+    private final Set<ListenableFuture<ListLogEntriesResponse>> inFlight = new HashSet<>();
+    private int inFlightCount;
+    private int firstUnexhaustedPart;
+    // The first failure of any part, after which nothing more is fetched.
+    private Throwable failure;
+    private boolean closed;
+
+    private int currentSlice;
+    private PriorityQueue<Part> heads;
+
+    Run(ListLogEntriesRequest request, long startNanos, long endNanos, boolean descending) {
+      List<ListLogEntriesRequest> scopes = splitByScope(request);
+      long span = endNanos - startNanos;
+      for (int i = 0; i < sliceCount; i++) {
+        // Slices are listed from the newest one when the order is descending.
+        int index = descending ? sliceCount - 1 - i : i;
+        long sliceStart = startNanos + boundaryOffset(span, index);
+        long sliceEnd = startNanos + boundaryOffset(span, index + 1);
+        if (sliceStart == sliceEnd) {
+          continue;
+        }
+        List<Part> slice = new ArrayList<>();
+        for (ListLogEntriesRequest scope : scopes) {
+          Part part =
+              new Part(
+                  scope
+                      .toBuilder()
+                      .setFilter(sliceFilter(request.getFilter(), sliceStart, sliceEnd))
+                      .setPageToken("")
+                      .build());
+          slice.add(part);
+          parts.add(part);
+        }
+        slices.add(slice);
+      }
+      this.window = Math.max(maxConcurrentRequests, scopes.size());
+      final Comparator<LogEntry> entryOrder =
+          descending ? Collections.reverseOrder(ASCENDING_ORDER) : ASCENDING_ORDER;
+      this.headOrder =
+          new Comparator<Part>() {
+            @Override
+            public int compare(Part a, Part b) {
+              return entryOrder.compare(a.current, b.current);
+            }
+          };
+    }
+
+    @Override
+    public void close() {
+      List<ListenableFuture<ListLogEntriesResponse>> toCancel;
+      synchronized (this) {
+        closed = true;
+        toCancel = new ArrayList<>(inFlight);
+        notifyAll();
+      }
+      for (ListenableFuture<ListLogEntriesResponse> future : toCancel) {
+        future.cancel(true);
+      }
+    }
+
+    @Override
+    protected LogEntry computeNext() {
+      while (true) {
+        synchronized (this) {
+          if (closed) {
+            return endOfData();
+          }
+        }
+        if (heads == null) {
+          if (currentSlice == slices.size()) {
+            return endOfData();
+          }
+          List<Part> slice = slices.get(currentSlice);
+          heads = new PriorityQueue<>(slice.size(), headOrder);
+          for (Part part : slice) {
+            if (awaitHead(part)) {
+              heads.add(part);
+            }
+          }
+        }
+        Part part = heads.poll();
+        if (part == null) {
+          heads = null;
+          currentSlice++;
+          continue;
+        }
+        LogEntry entry = take(part);
+        if (awaitHead(part)) {
+          heads.add(part);
+        }
+        return entry;
+      }
+    }
+
+    // Waits until the part has an entry or is exhausted, and returns whether it has an entry. The
+    // first failure of any part is thrown once the export is closed.
+    private boolean awaitHead(Part part) {
+      while (true) {
+        startFetches();
+        Throwable failure;
+        synchronized (this) {
+          if (closed) {
+            return false;
+          }
+          failure = this.failure;
+          if (failure == null) {
+            if (!part.pages.isEmpty()) {
+              part.current = part.head();
+              return true;
+            }
+            if (part.done) {
+              return false;
+            }
+            try {
+              wait();
+              continue;
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              failure = new IllegalStateException("Interrupted while listing log entries", e);
+            }
+          }
+        }
+        // Cancels the requests still in flight for other parts.
+        close();
+        throw Throwables.propagate(failure);
+      }
+    }
+
+    private LogEntry take(Part part) {
+      synchronized (this) {
+        LogEntry entry = part.head();
+        if (++part.positionInPage == part.pages.peekFirst().size()) {
+          part.pages.removeFirst();
+          part.positionInPage = 0;
+        }
+        return entry;
+      }
+    }
+
+    // Starts fetching the next page of the parts in the window that have room for one, as long as
+    // the limit on outstanding requests allows. The window is made of the first parts that have not
+    // been fully returned, and always includes every part of the slice being merged.
+    private void startFetches() {
+      List<Part> toFetch = new ArrayList<>();
+      synchronized (this) {
+        if (closed || failure != null) {
+          return;
+        }
+        while (firstUnexhaustedPart < parts.size()
+            && parts.get(firstUnexhaustedPart).isExhausted()) {
+          firstUnexhaustedPart++;
+        }
+        int end = Math.min(parts.size(), firstUnexhaustedPart + window);
+        for (int i = firstUnexhaustedPart; i < end && inFlightCount < maxConcurrentRequests; i++) {
+          Part part = parts.get(i);
+          if (!part.fetching && !part.done && part.pages.size() < bufferedPagesPerPart) {
+            part.fetching = true;
+            inFlightCount++;
+            toFetch.add(part);
+          }
+        }
+      }
+      for (Part part : toFetch) {
+        fetch(part);
+      }
+    }
+
+    private void fetch(final Part part) {
+      ListLogEntriesRequest request;
+      synchronized (this) {
+        request = part.request.toBuilder().setPageToken(part.nextPageToken).build();
+      }
+      final ListenableFuture<ListLogEntriesResponse> future =
+          loggingServiceV2Api.listLogEntriesCallable().futureCall(request);
+      synchronized (this) {
+        inFlight.add(future);
+        if (closed) {
+          future.cancel(true);
+        }
+      }
+      Futures.addCallback(
+          future,
+          new FutureCallback<ListLogEntriesResponse>() {
+            @Override
+            public void onSuccess(ListLogEntriesResponse response) {
+              synchronized (Run.this) {
+                inFlight.remove(future);
+                inFlightCount--;
+                part.fetching = false;
+                if (response.getEntriesCount() > 0) {
+                  part.pages.addLast(response.getEntriesList());
+                }
+                part.nextPageToken = response.getNextPageToken();
+                part.done = part.nextPageToken.isEmpty();
+                Run.this.notifyAll();
+              }
+              startFetches();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              synchronized (Run.this) {
+                inFlight.remove(future);
+                inFlightCount--;
+                part.fetching = false;
+                part.done = true;
+                // A request cancelled by close() is not a failure of the export.
+                if (failure == null && !closed) {
+                  failure = t;
+                }
+                Run.this.notifyAll();
+              }
+            }
+          });
+    }
+  }
+
+  // Splits a request into one request per project id or resource name.
+  private static List<ListLogEntriesRequest> splitByScope(ListLogEntriesRequest request) {
+    if (request.getProjectIdsCount() + request.getResourceNamesCount() <= 1) {
+      return Collections.singletonList(request);
+    }
+    ListLogEntriesRequest unscoped =
+        request.toBuilder().clearProjectIds().clearResourceNames().build();
+    List<ListLogEntriesRequest> scopes = new ArrayList<>();
+    for (String projectId : request.getProjectIdsList()) {
+      scopes.add(unscoped.toBuilder().addProjectIds(projectId).build());
+    }
+    for (String resourceName : request.getResourceNamesList()) {
+      scopes.add(unscoped.toBuilder().addResourceNames(resourceName).build());
+    }
+    return scopes;
+  }
+
+  // Returns span * index / sliceCount without overflowing.
+  private long boundaryOffset(long span, int index) {
+    return span / sliceCount * index + span % sliceCount * index / sliceCount;
+  }
+
+  private static String sliceFilter(String filter, long startNanos, long endNanos) {
+    String bounds =
+        "timestamp >= \""
+            + formatNanos(startNanos)
+            + "\" AND timestamp < \""
+            + formatNanos(endNanos)
+            + "\"";
+    return filter.trim().isEmpty() ? bounds : "(" + filter + ") AND " + bounds;
+  }
+
+  /** Builder for ParallelLogEntryExporter. */
+  public static class Builder {
+    private final LoggingServiceV2Api loggingServiceV2Api;
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private int sliceCount = DEFAULT_SLICE_COUNT;
+    private int bufferedPagesPerPart = DEFAULT_BUFFERED_PAGES_PER_PART;
+
+    private Builder(LoggingServiceV2Api loggingServiceV2Api) {
+      this.loggingServiceV2Api = Preconditions.checkNotNull(loggingServiceV2Api);
+    }
+
+    /** Sets the maximum number of list requests outstanding at the same time. */
+    public Builder setMaxConcurrentRequests(int maxConcurrentRequests) {
+      Preconditions.checkArgument(maxConcurrentRequests > 0);
+      this.maxConcurrentRequests = maxConcurrentRequests;
+      return this;
+    }
+
+    /**
+     * Sets the number of slices the time window is split into. More slices than concurrent
+     * requests keep every request busy when the entries are unevenly spread over time.
+     */
+    public Builder setSliceCount(int sliceCount) {
+      Preconditions.checkArgument(sliceCount > 0);
+      this.sliceCount = sliceCount;
+      return this;
+    }
+
+    /** Sets the maximum number of pages fetched ahead of the caller for each part of a slice. */
+    public Builder setBufferedPagesPerPart(int bufferedPagesPerPart) {
+      Preconditions.checkArgument(bufferedPagesPerPart > 0);
+      this.bufferedPagesPerPart = bufferedPagesPerPart;
+      return this;
+    }
+
+    public ParallelLogEntryExporter build() {
+      return new ParallelLogEntryExporter(this);
+    }
+  }
+}
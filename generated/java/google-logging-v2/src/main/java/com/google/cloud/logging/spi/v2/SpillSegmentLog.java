@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * An append-only log of byte records, stored in memory-mapped segment files and read back in the
+ * order they were appended. A segment is deleted as soon as all of its records have been read.
+ *
+ * <p>Each record is stored as its sequence number and length, followed by its bytes. The log only
+ * lives as long as the process: the positions of the reader and writer are not persisted. This
+ * class is not thread-safe.
+ */
+class SpillSegmentLog implements Closeable {
+  private static final Logger logger = Logger.getLogger(SpillSegmentLog.class.getName());
+
+  private static final int RECORD_HEADER_BYTES = 12;
+
+  @Nullable private final File configuredDirectory;
+  private final int segmentBytes;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+
+  private File directory;
+  private long pendingCount;
+  private long pendingBytes;
+
+  /** A record read back from the log. */
+  static class Record {
+    final long sequence;
+    final byte[] data;
+
+    Record(long sequence, byte[] data) {
+      this.sequence = sequence;
+      this.data = data;
+    }
+  }
+
+  private static class Segment {
+    final File file;
+    final RandomAccessFile randomAccessFile;
+    final MappedByteBuffer buffer;
+    int writePosition;
+    int readPosition;
+
+    Segment(File file, int size) throws IOException {
+      this.file = file;
+      this.randomAccessFile = new RandomAccessFile(file, "rw");
+      try {
+        this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      } catch (IOException e) {
+        randomAccessFile.close();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Creates a log whose segments are at least segmentBytes long. If directory is null, a temporary
+   * directory is created for the first segment, and deleted when the log is closed.
+   */
+  SpillSegmentLog(@Nullable File directory, int segmentBytes) {
+    this.configuredDirectory = directory;
+    this.segmentBytes = segmentBytes;
+  }
+
+  /** Returns the number of records that have been appended but not yet read. */
+  long getPendingCount() {
+    return pendingCount;
+  }
+
+  /** Returns the number of record bytes that have been appended but not yet read. */
+  long getPendingBytes() {
+    return pendingBytes;
+  }
+
+  /** Returns the number of segment files currently on disk. */
+  int getSegmentCount() {
+    return segments.size();
+  }
+
+  /** Appends a record, starting a new segment if it does not fit in the current one. */
+  void append(long sequence, byte[] data) throws IOException {
+    int recordBytes = RECORD_HEADER_BYTES + data.length;
+    Segment tail = segments.peekLast();
+    if (tail == null || tail.buffer.capacity() - tail.writePosition < recordBytes) {
+      tail = newSegment(Math.max(segmentBytes, recordBytes));
+    }
+    tail.buffer.position(tail.writePosition);
+    tail.buffer.putLong(sequence).putInt(data.length).put(data);
+    tail.writePosition += recordBytes;
+    pendingCount++;
+    pendingBytes += data.length;
+  }
+
+  /** Reads the oldest unread record, or returns null if all records have been read. */
+  @Nullable
+  Record read() throws IOException {
+    Segment head = segments.peekFirst();
+    while (head != null && head.readPosition == head.writePosition && head != segments.peekLast()) {
+      deleteSegment(segments.removeFirst());
+      head = segments.peekFirst();
+    }
+    if (head == null || head.readPosition == head.writePosition) {
+      return null;
+    }
+    head.buffer.position(head.readPosition);
+    long sequence = head.buffer.getLong();
+    byte[] data = new byte[head.buffer.getInt()];
+    head.buffer.get(data);
+    head.readPosition += RECORD_HEADER_BYTES + data.length;
+    pendingCount--;
+    pendingBytes -= data.length;
+    if (pendingCount == 0) {
+      // Every segment is fully read, so the log can start over with a fresh one.
+      deleteAll();
+    }
+    return new Record(sequence, data);
+  }
+
+  /**
+   * Deletes all segments, and the directory if it was created by this log. Unread records are
+   * lost.
+   */
+  @Override
+  public void close() {
+    deleteAll();
+    if (directory != null && configuredDirectory == null) {
+      if (!directory.delete()) {
+        logger.log(Level.WARNING, "Failed to delete spill directory " + directory);
+      }
+      directory = null;
+    }
+  }
+
+  private Segment newSegment(int size) throws IOException {
+    if (directory == null) {
+      directory =
+          configuredDirectory != null
+              ? configuredDirectory
+              : Files.createTempDirectory("logging-spill-").toFile();
+    }
+    File file = File.createTempFile("segment-", ".log", directory);
+    Segment segment;
+    try {
+      segment = new Segment(file, size);
+    } catch (IOException e) {
+      deleteFile(file);
+      throw e;
+    }
+    segments.addLast(segment);
+    return segment;
+  }
+
+  private void deleteAll() {
+    while (!segments.isEmpty()) {
+      deleteSegment(segments.removeFirst());
+    }
+    pendingCount = 0;
+    pendingBytes = 0;
+  }
+
+  private static void deleteSegment(Segment segment) {
+    try {
+      segment.randomAccessFile.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to close spill segment " + segment.file, e);
+    }
+    // The mapping itself is released when the buffer is garbage collected.
+    deleteFile(segment.file);
+  }
+
+  private static void deleteFile(File file) {
+    if (!file.delete()) {
+      logger.log(Level.WARNING, "Failed to delete spill segment " + file);
+    }
+  }
+}
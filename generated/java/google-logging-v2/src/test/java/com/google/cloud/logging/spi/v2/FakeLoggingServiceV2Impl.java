@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.ListLogEntriesResponse;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.LoggingServiceV2Grpc.LoggingServiceV2ImplBase;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import com.google.logging.v2.WriteLogEntriesResponse;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Timestamp;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * A stateful fake of the LoggingServiceV2 service for tests of long-running clients. Write requests
+ * succeed and their entries are recorded, unless a failure was queued with {@link #addFailure}.
+ *
+ * <p>List requests return the entries stored with {@link #addStoredEntries}, ordered by timestamp
+ * and insert id. Of the filter, only comparisons of the timestamp with a quoted RFC 3339 time are
+ * applied; entries match a project id if their log name belongs to that project. Page tokens are
+ * offsets into the matching entries.
+ */
+public class FakeLoggingServiceV2Impl extends LoggingServiceV2ImplBase implements MockGrpcService {
+  private static final int DEFAULT_PAGE_SIZE = 2;
+  private static final Pattern TIMESTAMP_COMPARISON =
+      Pattern.compile("timestamp\\s*(>=|>|<=|<)\\s*\"([^\"]+)\"");
+  private static final Comparator<LogEntry> ENTRY_ORDER =
+      new Comparator<LogEntry>() {
+        @Override
+        public int compare(LogEntry a, LogEntry b) {
+          int result = Long.compare(toNanos(a.getTimestamp()), toNanos(b.getTimestamp()));
+          return result != 0 ? result : a.getInsertId().compareTo(b.getInsertId());
+        }
+      };
+
+  private final List<GeneratedMessageV3> requests = new ArrayList<>();
+  private final List<LogEntry> writtenEntries = new ArrayList<>();
+  private final Queue<Status> failures = new LinkedList<>();
+  private final List<LogEntry> storedEntries = new ArrayList<>();
+
+  /**
+   * Makes the next request, of any method, fail with the given status. Queuing {@link Status#OK}
+   * lets the next request succeed, so that a failure can be queued for a later one.
+   */
+  public synchronized void addFailure(Status status) {
+    failures.add(status);
+  }
+
+  /** Returns the entries of all successful write requests, in the order they were written. */
+  public synchronized List<LogEntry> getWrittenEntries() {
+    return new ArrayList<>(writtenEntries);
+  }
+
+  /** Stores entries to be returned by list requests. */
+  public synchronized void addStoredEntries(List<LogEntry> entries) {
+    storedEntries.addAll(entries);
+  }
+
+  @Override
+  public synchronized List<GeneratedMessageV3> getRequests() {
+    return new ArrayList<>(requests);
+  }
+
+  @Override
+  public void setResponses(List<GeneratedMessageV3> responses) {
+    throw new UnsupportedOperationException("FakeLoggingServiceV2Impl generates its own responses");
+  }
+
+  @Override
+  public ServerServiceDefinition getServiceDefinition() {
+    return bindService();
+  }
+
+  @Override
+  public synchronized void reset() {
+    requests.clear();
+    writtenEntries.clear();
+    failures.clear();
+    storedEntries.clear();
+  }
+
+  @Override
+  public void writeLogEntries(
+      WriteLogEntriesRequest request, StreamObserver<WriteLogEntriesResponse> responseObserver) {
+    Status failure;
+    synchronized (this) {
+      requests.add(request);
+      failure = nextFailure();
+      if (failure == null) {
+        writtenEntries.addAll(request.getEntriesList());
+      }
+    }
+    if (failure != null) {
+      responseObserver.onError(failure.asRuntimeException());
+      return;
+    }
+    responseObserver.onNext(WriteLogEntriesResponse.getDefaultInstance());
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void listLogEntries(
+      ListLogEntriesRequest request, StreamObserver<ListLogEntriesResponse> responseObserver) {
+    Status failure;
+    List<LogEntry> matching = new ArrayList<>();
+    synchronized (this) {
+      requests.add(request);
+      failure = nextFailure();
+      for (LogEntry entry : storedEntries) {
+        if (matches(request, entry)) {
+          matching.add(entry);
+        }
+      }
+    }
+    if (failure != null) {
+      responseObserver.onError(failure.asRuntimeException());
+      return;
+    }
+    Collections.sort(matching, ENTRY_ORDER);
+    if (request.getOrderBy().equals("timestamp desc")) {
+      Collections.reverse(matching);
+    }
+    int start = request.getPageToken().isEmpty() ? 0 : Integer.parseInt(request.getPageToken());
+    int pageSize = request.getPageSize() > 0 ? request.getPageSize() : DEFAULT_PAGE_SIZE;
+    int end = Math.min(matching.size(), start + pageSize);
+    ListLogEntriesResponse.Builder response =
+        ListLogEntriesResponse.newBuilder().addAllEntries(matching.subList(start, end));
+    if (end < matching.size()) {
+      response.setNextPageToken(Integer.toString(end));
+    }
+    responseObserver.onNext(response.build());
+    responseObserver.onCompleted();
+  }
+
+  // Must be called with the lock held.
+  private Status nextFailure() {
+    Status failure = failures.poll();
+    return failure == null || failure.isOk() ? null : failure;
+  }
+
+  private static boolean matches(ListLogEntriesRequest request, LogEntry entry) {
+    if (request.getProjectIdsCount() > 0) {
+      boolean inProject = false;
+      for (String projectId : request.getProjectIdsList()) {
+        inProject |= entry.getLogName().startsWith("projects/" + projectId + "/");
+      }
+      if (!inProject) {
+        return false;
+      }
+    }
+    long entryNanos = toNanos(entry.getTimestamp());
+    Matcher matcher = TIMESTAMP_COMPARISON.matcher(request.getFilter());
+    while (matcher.find()) {
+      long nanos = parseNanos(matcher.group(2));
+      switch (matcher.group(1)) {
+        case ">=":
+          if (entryNanos < nanos) {
+            return false;
+          }
+          break;
+        case ">":
+          if (entryNanos <= nanos) {
+            return false;
+          }
+          break;
+        case "<=":
+          if (entryNanos > nanos) {
+            return false;
+          }
+          break;
+        default:
+          if (entryNanos >= nanos) {
+            return false;
+          }
+      }
+    }
+    return true;
+  }
+
+  private static long toNanos(Timestamp timestamp) {
+    return timestamp.getSeconds() * 1000000000L + timestamp.getNanos();
+  }
+
+  private static long parseNanos(String time) {
+    int dot = time.indexOf('.');
+    String seconds = dot < 0 ? time : time.substring(0, dot) + "Z";
+    long nanos = ISODateTimeFormat.dateTimeParser().parseMillis(seconds) * 1000000L;
+    if (dot >= 0) {
+      String fraction = time.substring(dot + 1, time.length() - 1);
+      nanos += Long.parseLong((fraction + "000000000").substring(0, 9));
+    }
+    return nanos;
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import io.grpc.Status;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LogBufferTest {
+  private static final String LOG_NAME = LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]");
+  private static final MonitoredResource RESOURCE =
+      MonitoredResource.newBuilder().setType("global").putLabels("project_id", "[PROJECT]").build();
+
+  private static FakeLoggingServiceV2Impl fakeLoggingServiceV2;
+  private static MockServiceHelper serviceHelper;
+  private LoggingServiceV2Api api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeLoggingServiceV2 = new FakeLoggingServiceV2Impl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-log-buffer", Arrays.<MockGrpcService>asList(fakeLoggingServiceV2));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = LoggingServiceV2Api.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void writesEntriesInOrderWithDefaults() throws Exception {
+    LogBuffer buffer =
+        LogBuffer.newBuilder(api)
+            .setLogName(LOG_NAME)
+            .setResource(RESOURCE)
+            .setMaxEntriesPerWrite(2)
+            .build();
+    buffer.start();
+    for (int i = 0; i < 5; i++) {
+      buffer.add(entry(i, LogSeverity.INFO));
+    }
+    buffer.close();
+
+    Assert.assertEquals(5, buffer.getWrittenCount());
+    Assert.assertEquals(0, buffer.getDroppedCount());
+    assertWritten(0, 1, 2, 3, 4);
+    WriteLogEntriesRequest request =
+        (WriteLogEntriesRequest) fakeLoggingServiceV2.getRequests().get(0);
+    Assert.assertEquals(LOG_NAME, request.getLogName());
+    Assert.assertEquals(RESOURCE, request.getResource());
+  }
+
+  @Test
+  public void retriesUntilBackendRecovers() throws Exception {
+    fakeLoggingServiceV2.addFailure(Status.UNAVAILABLE);
+    fakeLoggingServiceV2.addFailure(Status.UNAVAILABLE);
+    LogBuffer buffer = LogBuffer.newBuilder(api).setLogName(LOG_NAME).build();
+    for (int i = 0; i < 3; i++) {
+      buffer.add(entry(i, LogSeverity.INFO));
+    }
+    buffer.start();
+    buffer.close();
+
+    Assert.assertEquals(3, fakeLoggingServiceV2.getRequests().size());
+    Assert.assertEquals(3, buffer.getWrittenCount());
+    Assert.assertEquals(0, buffer.getDroppedCount());
+    assertWritten(0, 1, 2);
+  }
+
+  @Test
+  public void dropsBatchOnNonRetryableFailure() throws Exception {
+    fakeLoggingServiceV2.addFailure(Status.INVALID_ARGUMENT);
+    LogBuffer buffer =
+        LogBuffer.newBuilder(api).setLogName(LOG_NAME).setMaxEntriesPerWrite(2).build();
+    for (int i = 0; i < 4; i++) {
+      buffer.add(entry(i, LogSeverity.INFO));
+    }
+    buffer.start();
+    buffer.close();
+
+    // The first batch is dropped without a retry, and the next one is written.
+    Assert.assertEquals(2, fakeLoggingServiceV2.getRequests().size());
+    Assert.assertEquals(2, buffer.getWrittenCount());
+    Assert.assertEquals(2, buffer.getDroppedCount());
+    Assert.assertEquals(0, buffer.getBufferedCount());
+    assertWritten(2, 3);
+  }
+
+  @Test
+  public void dropOldestKeepsNewestEntries() throws Exception {
+    LogBuffer buffer =
+        LogBuffer.newBuilder(api)
+            .setLogName(LOG_NAME)
+            .setMaxBufferedEntries(3)
+            .setOverflowPolicy(LogBuffer.OverflowPolicy.DROP_OLDEST)
+            .build();
+    for (int i = 0; i < 5; i++) {
+      buffer.add(entry(i, LogSeverity.INFO));
+    }
+    Assert.assertEquals(2, buffer.getDroppedCount());
+    Assert.assertEquals(3, buffer.getBufferedCount());
+    buffer.start();
+    buffer.close();
+
+    assertWritten(2, 3, 4);
+  }
+
+  @Test
+  public void dropBySeverityKeepsSevereEntries() throws Exception {
+    LogBuffer buffer =
+        LogBuffer.newBuilder(api)
+            .setLogName(LOG_NAME)
+            .setMaxBufferedEntries(3)
+            .setOverflowPolicy(LogBuffer.OverflowPolicy.DROP_BY_SEVERITY)
+            .build();
+    buffer.add(entry(0, LogSeverity.INFO));
+    buffer.add(entry(1, LogSeverity.ERROR));
+    buffer.add(entry(2, LogSeverity.DEBUG));
+    // Drops the DEBUG entry.
+    buffer.add(entry(3, LogSeverity.WARNING));
+    // Less severe than everything buffered, so it is dropped itself.
+    buffer.add(entry(4, LogSeverity.DEBUG));
+    Assert.assertEquals(2, buffer.getDroppedCount());
+    buffer.start();
+    buffer.close();
+
+    assertWritten(0, 1, 3);
+  }
+
+  @Test
+  public void spilledEntriesAreReplayedInOrder() throws Exception {
+    File spillDirectory = Files.createTempDirectory("log-buffer-test-").toFile();
+    LogBuffer buffer =
+        LogBuffer.newBuilder(api)
+            .setLogName(LOG_NAME)
+            .setMaxBufferedEntries(2)
+            .setMaxEntriesPerWrite(3)
+            .setOverflowPolicy(LogBuffer.OverflowPolicy.SPILL_TO_DISK)
+            .setSpillDirectory(spillDirectory)
+            .setSpillSegmentBytes(64)
+            .build();
+    for (int i = 0; i < 10; i++) {
+      buffer.add(entry(i, LogSeverity.INFO));
+    }
+    Assert.assertEquals(8, buffer.getSpilledCount());
+    Assert.assertEquals(8, buffer.getSpillBacklogCount());
+    Assert.assertTrue(spillDirectory.list().length > 1);
+
+    fakeLoggingServiceV2.addFailure(Status.UNAVAILABLE);
+    buffer.start();
+    buffer.close();
+
+    Assert.assertEquals(0, buffer.getDroppedCount());
+    Assert.assertEquals(0, buffer.getSpillBacklogCount());
+    assertWritten(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    Assert.assertEquals(0, spillDirectory.list().length);
+    Assert.assertTrue(spillDirectory.delete());
+  }
+
+  @Test
+  public void blockWaitsForRoom() throws Exception {
+    final LogBuffer buffer =
+        LogBuffer.newBuilder(api).setLogName(LOG_NAME).setMaxBufferedEntries(1).build();
+    buffer.add(entry(0, LogSeverity.INFO));
+    final CountDownLatch added = new CountDownLatch(1);
+    Thread thread =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              buffer.add(entry(1, LogSeverity.INFO));
+              added.countDown();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        };
+    thread.start();
+    Assert.assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+
+    buffer.start();
+    Assert.assertTrue(added.await(10, TimeUnit.SECONDS));
+    buffer.close();
+    assertWritten(0, 1);
+  }
+
+  private static LogEntry entry(int id, LogSeverity severity) {
+    return LogEntry.newBuilder()
+        .setInsertId(Integer.toString(id))
+        .setSeverity(severity)
+        .setTextPayload("entry " + id)
+        .build();
+  }
+
+  private static void assertWritten(int... ids) {
+    List<String> insertIds = new ArrayList<>();
+    for (LogEntry entry : fakeLoggingServiceV2.getWrittenEntries()) {
+      insertIds.add(entry.getInsertId());
+    }
+    List<String> expected = new ArrayList<>();
+    for (int id : ids) {
+      expected.add(Integer.toString(id));
+    }
+    Assert.assertEquals(expected, insertIds);
+  }
+}
@@ -0,0 +1,208 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.collect.ImmutableMap;
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import com.google.protobuf.GeneratedMessageV3;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogEntryCoalescerTest {
+  private static final String LOG_NAME = LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]");
+  private static final MonitoredResource RESOURCE =
+      MonitoredResource.newBuilder().setType("global").putLabels("project_id", "[PROJECT]").build();
+
+  private FakeClock clock;
+  private LogEntryCoalescer coalescer;
+
+  private static class FakeClock implements NanoClock {
+    private long nanos;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    coalescer =
+        LogEntryCoalescer.newBuilder()
+            .setWindow(Duration.standardSeconds(1))
+            .setMaxRuns(4)
+            .setClock(clock)
+            .build();
+  }
+
+  private static LogEntry entry(String payload) {
+    return LogEntry.newBuilder().setSeverity(LogSeverity.ERROR).setTextPayload(payload).build();
+  }
+
+  private static WriteLogEntriesRequest request(LogEntry... entries) {
+    WriteLogEntriesRequest.Builder builder =
+        WriteLogEntriesRequest.newBuilder().setLogName(LOG_NAME).setResource(RESOURCE);
+    for (LogEntry entry : entries) {
+      builder.addEntries(entry);
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void repeatedEntriesAreCoalesced() {
+    WriteLogEntriesRequest request = request(entry("crash"), entry("crash"), entry("other"));
+    WriteLogEntriesRequest coalesced = coalescer.coalesce(request);
+    Assert.assertEquals(2, coalesced.getEntriesCount());
+    Assert.assertEquals(entry("crash"), coalesced.getEntries(0));
+    Assert.assertEquals(entry("other"), coalesced.getEntries(1));
+
+    Assert.assertEquals(0, coalescer.coalesce(request(entry("crash"))).getEntriesCount());
+    Assert.assertEquals(2, coalescer.getCoalescedCount());
+
+    // The first entry after the window stands for itself and the two dropped ones.
+    clock.advanceMillis(500);
+    WriteLogEntriesRequest unchanged = request(entry("new"));
+    Assert.assertSame(unchanged, coalescer.coalesce(unchanged));
+    clock.advanceMillis(500);
+    coalesced = coalescer.coalesce(request(entry("crash")));
+    Assert.assertEquals(1, coalesced.getEntriesCount());
+    Assert.assertEquals("3", coalesced.getEntries(0).getLabelsMap().get("repeat_count"));
+  }
+
+  @Test
+  public void differentSeveritiesAreNotCoalesced() {
+    LogEntry warning = entry("crash").toBuilder().setSeverity(LogSeverity.WARNING).build();
+    WriteLogEntriesRequest request = request(entry("crash"), warning);
+    Assert.assertSame(request, coalescer.coalesce(request));
+  }
+
+  @Test
+  public void endedRunsAreSummarized() {
+    coalescer.coalesce(request(entry("crash"), entry("crash"), entry("crash")));
+    Assert.assertTrue(coalescer.pollSummaries().isEmpty());
+    clock.advanceMillis(1000);
+
+    WriteLogEntriesRequest other = request(entry("other"));
+    Assert.assertSame(other, coalescer.coalesce(other));
+    List<WriteLogEntriesRequest> summaries = coalescer.pollSummaries();
+    Assert.assertEquals(1, summaries.size());
+    WriteLogEntriesRequest summary = summaries.get(0);
+    Assert.assertEquals(LOG_NAME, summary.getLogName());
+    Assert.assertEquals(RESOURCE, summary.getResource());
+    Assert.assertEquals(1, summary.getEntriesCount());
+    Assert.assertEquals("crash", summary.getEntries(0).getTextPayload());
+    Assert.assertEquals("2", summary.getEntries(0).getLabelsMap().get("repeat_count"));
+
+    // The run has been forgotten, so the next entry starts a new one.
+    Assert.assertEquals(entry("crash"), coalescer.coalesce(request(entry("crash"))).getEntries(0));
+  }
+
+  @Test
+  public void summariesAreWrittenWithTheLabelsOfTheirRequest() {
+    coalescer.coalesce(
+        request(entry("crash"), entry("crash")).toBuilder().putLabels("source", "a").build());
+    clock.advanceMillis(1000);
+
+    WriteLogEntriesRequest other =
+        request(entry("other")).toBuilder().putLabels("source", "b").build();
+    Assert.assertSame(other, coalescer.coalesce(other));
+    List<WriteLogEntriesRequest> summaries = coalescer.pollSummaries();
+    Assert.assertEquals(1, summaries.size());
+    WriteLogEntriesRequest summary = summaries.get(0);
+    Assert.assertEquals(ImmutableMap.of("source", "a"), summary.getLabelsMap());
+    Assert.assertEquals(ImmutableMap.of("repeat_count", "1"), summary.getEntries(0).getLabelsMap());
+  }
+
+  @Test
+  public void writeLogEntriesWritesSummariesSeparately() throws Exception {
+    FakeLoggingServiceV2Impl fakeLoggingServiceV2 = new FakeLoggingServiceV2Impl();
+    MockServiceHelper serviceHelper =
+        new MockServiceHelper(
+            "in-process-log-entry-coalescer", Arrays.<MockGrpcService>asList(fakeLoggingServiceV2));
+    serviceHelper.start();
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .setWriteLogEntriesFilterSettings(
+                LogEntryFilterSettings.newBuilder().setCoalescer(coalescer).build())
+            .build();
+    try (LoggingServiceV2Api api = LoggingServiceV2Api.create(settings)) {
+      api.writeLogEntries(
+          request(entry("crash"), entry("crash")).toBuilder().putLabels("source", "a").build());
+      clock.advanceMillis(1000);
+      WriteLogEntriesRequest other =
+          request(entry("other")).toBuilder().putLabels("source", "b").build();
+      api.writeLogEntries(other);
+
+      List<GeneratedMessageV3> requests = fakeLoggingServiceV2.getRequests();
+      for (int i = 0; i < 100 && requests.size() < 3; i++) {
+        Thread.sleep(10);
+        requests = fakeLoggingServiceV2.getRequests();
+      }
+      Assert.assertEquals(3, requests.size());
+      Assert.assertTrue(requests.contains(other));
+      for (GeneratedMessageV3 request : requests) {
+        WriteLogEntriesRequest written = (WriteLogEntriesRequest) request;
+        if (written.getEntries(0).getLabelsMap().containsKey("repeat_count")) {
+          Assert.assertEquals(ImmutableMap.of("source", "a"), written.getLabelsMap());
+          Assert.assertEquals(1, written.getEntriesCount());
+        }
+      }
+    } finally {
+      serviceHelper.stop();
+    }
+  }
+
+  @Test
+  public void drainReturnsPendingSummaries() {
+    coalescer.coalesce(request(entry("crash"), entry("crash"), entry("other")));
+    List<WriteLogEntriesRequest> summaries = coalescer.drain();
+    Assert.assertEquals(1, summaries.size());
+    Assert.assertEquals("1", summaries.get(0).getEntries(0).getLabelsMap().get("repeat_count"));
+    Assert.assertTrue(coalescer.drain().isEmpty());
+  }
+
+  @Test
+  public void evictedRunsAreSummarized() {
+    coalescer.coalesce(request(entry("crash"), entry("crash")));
+    clock.advanceMillis(1);
+    WriteLogEntriesRequest coalesced =
+        coalescer.coalesce(request(entry("a"), entry("b"), entry("c"), entry("d")));
+    // The table holds four runs, so the oldest one is evicted by the fourth new entry, and its
+    // summary is returned before its window has ended.
+    Assert.assertEquals(4, coalesced.getEntriesCount());
+    List<WriteLogEntriesRequest> summaries = coalescer.pollSummaries();
+    Assert.assertEquals(1, summaries.size());
+    LogEntry summary = summaries.get(0).getEntries(0);
+    Assert.assertEquals("crash", summary.getTextPayload());
+    Assert.assertEquals("1", summary.getLabelsMap().get("repeat_count"));
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.ApiException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogEntryFileSinkTest {
+  private static final String LOG_NAME = LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]");
+  private static final MonitoredResource RESOURCE =
+      MonitoredResource.newBuilder().setType("global").putLabels("project_id", "[PROJECT]").build();
+  private static final ListLogEntriesRequest REQUEST =
+      ListLogEntriesRequest.newBuilder().addProjectIds("[PROJECT]").build();
+
+  private static FakeLoggingServiceV2Impl fakeLoggingServiceV2;
+  private static MockServiceHelper serviceHelper;
+  private LoggingServiceV2Api api;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeLoggingServiceV2 = new FakeLoggingServiceV2Impl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-log-entry-file-sink", Arrays.<MockGrpcService>asList(fakeLoggingServiceV2));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = LoggingServiceV2Api.create(settings);
+    List<LogEntry> entries = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      entries.add(
+          LogEntry.newBuilder()
+              .setLogName(LOG_NAME)
+              .setResource(RESOURCE)
+              .setTimestamp(Timestamp.newBuilder().setSeconds(i).setNanos(i))
+              .setSeverity(i % 2 == 0 ? LogSeverity.INFO : LogSeverity.ERROR)
+              .setInsertId(Integer.toString(i))
+              .build());
+    }
+    fakeLoggingServiceV2.addStoredEntries(entries);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void writesRotatingLengthDelimitedFiles() throws IOException {
+    File directory = temporaryFolder.newFolder();
+    try (LogEntryFileSink sink =
+        LogEntryFileSink.newBuilder(directory).setMaxFileBytes(200).build()) {
+      sink.export(api, REQUEST);
+      Assert.assertTrue(sink.isComplete());
+      Assert.assertEquals(10, sink.getWrittenCount());
+    }
+
+    List<File> files = dataFiles(directory, ".pb");
+    Assert.assertTrue(files.size() > 1);
+    Assert.assertEquals(expectedInsertIds(), readInsertIds(files));
+  }
+
+  @Test
+  public void resumesAfterFailureWithoutDuplicates() throws IOException {
+    File directory = temporaryFolder.newFolder();
+    fakeLoggingServiceV2.addFailure(Status.OK);
+    fakeLoggingServiceV2.addFailure(Status.OK);
+    fakeLoggingServiceV2.addFailure(Status.PERMISSION_DENIED);
+    File interruptedFile;
+    try (LogEntryFileSink sink = LogEntryFileSink.newBuilder(directory).build()) {
+      try {
+        sink.export(api, REQUEST);
+        Assert.fail("Expected the export to fail");
+      } catch (ApiException e) {
+        Assert.assertEquals(Status.Code.PERMISSION_DENIED, e.getStatusCode());
+      }
+      Assert.assertFalse(sink.isComplete());
+      Assert.assertEquals("4", sink.getNextPageToken());
+      interruptedFile = sink.getCurrentFile();
+    }
+    // Bytes written after the last recorded page, as if the process had crashed mid-page.
+    try (OutputStream output = new FileOutputStream(interruptedFile, true)) {
+      output.write("partial page".getBytes(StandardCharsets.UTF_8));
+    }
+
+    try (LogEntryFileSink sink = LogEntryFileSink.newBuilder(directory).build()) {
+      Assert.assertEquals(4, sink.getWrittenCount());
+      sink.export(api, REQUEST);
+      Assert.assertTrue(sink.isComplete());
+      Assert.assertEquals(10, sink.getWrittenCount());
+    }
+    Assert.assertEquals(expectedInsertIds(), readInsertIds(dataFiles(directory, ".pb")));
+  }
+
+  @Test
+  public void writesColumnarBlocks() throws IOException {
+    File directory = temporaryFolder.newFolder();
+    try (LogEntryFileSink sink =
+        LogEntryFileSink.newBuilder(directory)
+            .setFormat(LogEntryFileSink.Format.COLUMNAR)
+            .build()) {
+      sink.export(api, REQUEST);
+    }
+
+    List<File> files = dataFiles(directory, ".col");
+    Assert.assertEquals(1, files.size());
+    int entryIndex = 0;
+    try (DataInputStream input = new DataInputStream(new FileInputStream(files.get(0)))) {
+      while (input.available() > 0) {
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+          Assert.assertEquals((entryIndex + i) * 1000000001L, input.readLong());
+        }
+        for (int i = 0; i < count; i++) {
+          int severity =
+              (entryIndex + i) % 2 == 0 ? LogSeverity.INFO_VALUE : LogSeverity.ERROR_VALUE;
+          Assert.assertEquals(severity, input.readInt());
+        }
+        for (int i = 0; i < count; i++) {
+          byte[] logName = new byte[input.readInt()];
+          input.readFully(logName);
+          Assert.assertEquals(LOG_NAME, new String(logName, StandardCharsets.UTF_8));
+        }
+        for (int i = 0; i < count; i++) {
+          byte[] resource = new byte[input.readInt()];
+          input.readFully(resource);
+          Assert.assertEquals(RESOURCE, MonitoredResource.parseFrom(resource));
+        }
+        entryIndex += count;
+      }
+    }
+    Assert.assertEquals(10, entryIndex);
+  }
+
+  private static List<File> dataFiles(File directory, String extension) {
+    List<File> files = new ArrayList<>();
+    for (File file : directory.listFiles()) {
+      if (file.getName().endsWith(extension)) {
+        files.add(file);
+      }
+    }
+    // The sequence numbers are zero-padded, so the names sort in the order of the files.
+    Collections.sort(files);
+    return files;
+  }
+
+  private static List<String> readInsertIds(List<File> files) throws IOException {
+    List<String> insertIds = new ArrayList<>();
+    for (File file : files) {
+      try (InputStream input = new FileInputStream(file)) {
+        LogEntry entry;
+        while ((entry = LogEntry.parseDelimitedFrom(input)) != null) {
+          insertIds.add(entry.getInsertId());
+        }
+      }
+    }
+    return insertIds;
+  }
+
+  private static List<String> expectedInsertIds() {
+    List<String> insertIds = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      insertIds.add(Integer.toString(i));
+    }
+    return insertIds;
+  }
+}
@@ -0,0 +1,180 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.collect.ImmutableMap;
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import com.google.logging.v2.WriteLogEntriesResponse;
+import com.google.protobuf.GeneratedMessageV3;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogEntryFiltersTest {
+  private static final String LOG_NAME = LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]");
+  private static final String AUDIT_LOG_NAME =
+      LoggingServiceV2Api.formatLogName("[PROJECT]", "[AUDIT]");
+  private static final MonitoredResource RESOURCE =
+      MonitoredResource.newBuilder().setType("global").putLabels("project_id", "[PROJECT]").build();
+  private static final MonitoredResource OTHER_RESOURCE =
+      MonitoredResource.newBuilder().setType("gce_instance").putLabels("instance_id", "1").build();
+
+  private FakeClock clock;
+
+  private static class FakeClock implements NanoClock {
+    private long nanos;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+  }
+
+  private static LogEntry entry(LogSeverity severity) {
+    return LogEntry.newBuilder().setSeverity(severity).setTextPayload("payload").build();
+  }
+
+  @Test
+  public void severityFloorPerLogName() {
+    LogEntryFilter filter =
+        LogEntryFilters.severityFloor(
+            ImmutableMap.of(AUDIT_LOG_NAME, LogSeverity.DEFAULT), LogSeverity.WARNING);
+
+    Assert.assertFalse(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+    Assert.assertTrue(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.WARNING)));
+    Assert.assertTrue(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.ERROR)));
+    Assert.assertTrue(filter.accept(AUDIT_LOG_NAME, RESOURCE, entry(LogSeverity.DEBUG)));
+    Assert.assertEquals(1, filter.getDroppedCount());
+  }
+
+  @Test
+  public void sampleKeepsAllOrNothing() {
+    LogEntryFilter none = LogEntryFilters.sample(0);
+    LogEntryFilter all = LogEntryFilters.sample(1);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertFalse(none.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+      Assert.assertTrue(all.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+    }
+    Assert.assertEquals(100, none.getDroppedCount());
+    Assert.assertEquals(0, all.getDroppedCount());
+  }
+
+  @Test
+  public void reservoirSampleKeepsFirstEntriesOfEachWindow() {
+    LogEntryFilter filter = LogEntryFilters.reservoirSample(10, Duration.standardSeconds(1), clock);
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+    }
+    int kept = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO))) {
+        kept++;
+      }
+    }
+    // About 10 * ln(1001) = 69 entries are expected to be kept.
+    Assert.assertTrue(kept < 500);
+    Assert.assertEquals(10000 - kept, filter.getDroppedCount());
+
+    clock.advanceMillis(1000);
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+    }
+  }
+
+  @Test
+  public void rateLimitPerResourceAllowsBurstThenRefills() {
+    LogEntryFilter filter = LogEntryFilters.rateLimitPerResource(10, 3, clock);
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+    }
+    Assert.assertFalse(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+    // Other resources have their own bucket.
+    Assert.assertTrue(filter.accept(LOG_NAME, OTHER_RESOURCE, entry(LogSeverity.INFO)));
+
+    clock.advanceMillis(100);
+    Assert.assertTrue(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+    Assert.assertFalse(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+
+    clock.advanceMillis(1000);
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+    }
+    Assert.assertFalse(filter.accept(LOG_NAME, RESOURCE, entry(LogSeverity.INFO)));
+    Assert.assertEquals(3, filter.getDroppedCount());
+  }
+
+  @Test
+  public void writeLogEntriesAppliesFilterSettings() throws Exception {
+    MockLoggingServiceV2 mockLoggingServiceV2 = new MockLoggingServiceV2();
+    MockServiceHelper serviceHelper =
+        new MockServiceHelper(
+            "in-process-log-entry-filters", Arrays.<MockGrpcService>asList(mockLoggingServiceV2));
+    serviceHelper.start();
+    LogEntryFilter filter =
+        LogEntryFilters.severityFloor(ImmutableMap.<String, LogSeverity>of(), LogSeverity.WARNING);
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .setWriteLogEntriesFilterSettings(
+                LogEntryFilterSettings.newBuilder().addFilter(filter).build())
+            .build();
+    try (LoggingServiceV2Api api = LoggingServiceV2Api.create(settings)) {
+      WriteLogEntriesResponse expectedResponse = WriteLogEntriesResponse.newBuilder().build();
+      mockLoggingServiceV2.setResponses(Arrays.<GeneratedMessageV3>asList(expectedResponse));
+
+      api.writeLogEntries(
+          WriteLogEntriesRequest.newBuilder()
+              .setLogName(LOG_NAME)
+              .setResource(RESOURCE)
+              .addEntries(entry(LogSeverity.INFO))
+              .addEntries(entry(LogSeverity.ERROR))
+              .build());
+      // Nothing is sent when every entry is dropped.
+      api.writeLogEntries(
+          WriteLogEntriesRequest.newBuilder()
+              .setLogName(LOG_NAME)
+              .addEntries(entry(LogSeverity.DEBUG))
+              .build());
+
+      List<GeneratedMessageV3> actualRequests = mockLoggingServiceV2.getRequests();
+      Assert.assertEquals(1, actualRequests.size());
+      WriteLogEntriesRequest actualRequest = (WriteLogEntriesRequest) actualRequests.get(0);
+      Assert.assertEquals(LOG_NAME, actualRequest.getLogName());
+      Assert.assertEquals(Arrays.asList(entry(LogSeverity.ERROR)), actualRequest.getEntriesList());
+      Assert.assertEquals(2, filter.getDroppedCount());
+    } finally {
+      serviceHelper.stop();
+    }
+  }
+}
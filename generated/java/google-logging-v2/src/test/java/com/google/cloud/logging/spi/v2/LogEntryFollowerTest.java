@@ -0,0 +1,236 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.gax.grpc.ApiException;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LogEntryFollowerTest {
+  private static final ListLogEntriesRequest REQUEST =
+      ListLogEntriesRequest.newBuilder().addProjectIds("a").build();
+
+  private static FakeLoggingServiceV2Impl fakeLoggingServiceV2;
+  private static MockServiceHelper serviceHelper;
+  private LoggingServiceV2Api api;
+  private FakeClock clock;
+
+  private static class FakeClock implements NanoClock {
+    private long nanos;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeLoggingServiceV2 = new FakeLoggingServiceV2Impl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-log-follower", Arrays.<MockGrpcService>asList(fakeLoggingServiceV2));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = LoggingServiceV2Api.create(settings);
+    clock = new FakeClock();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void pollReturnsEachEntryOnce() {
+    fakeLoggingServiceV2.addStoredEntries(
+        Arrays.asList(entry(5, "old"), entry(10, "x"), entry(11, "y"), entry(12, "z")));
+    LogEntryFollower follower =
+        LogEntryFollower.newBuilder(api, REQUEST)
+            .setStartTime(time(10))
+            .setOverlap(Duration.standardSeconds(5))
+            .setClock(clock)
+            .build();
+
+    Assert.assertEquals(Arrays.asList("x", "y", "z"), insertIds(follower.poll()));
+    Assert.assertEquals(Collections.<String>emptyList(), insertIds(follower.poll()));
+    Assert.assertEquals(3, follower.getDuplicateCount());
+
+    // An entry that became visible late, but within the overlap, is still returned.
+    fakeLoggingServiceV2.addStoredEntries(Arrays.asList(entry(9, "early"), entry(11, "late")));
+    fakeLoggingServiceV2.addStoredEntries(Arrays.asList(entry(20, "new")));
+    Assert.assertEquals(Arrays.asList("late", "new"), insertIds(follower.poll()));
+
+    // The next poll starts at the watermark minus the overlap, from the first page.
+    int requestCount = fakeLoggingServiceV2.getRequests().size();
+    follower.poll();
+    ListLogEntriesRequest pollRequest =
+        (ListLogEntriesRequest) fakeLoggingServiceV2.getRequests().get(requestCount);
+    Assert.assertEquals("", pollRequest.getPageToken());
+    Assert.assertEquals("timestamp >= \"1970-01-01T00:00:15.000000000Z\"", pollRequest.getFilter());
+  }
+
+  @Test
+  public void forgottenEntriesAreNotReturnedAgain() {
+    fakeLoggingServiceV2.addStoredEntries(
+        Arrays.asList(entry(1, "a"), entry(2, "b"), entry(3, "c")));
+    LogEntryFollower follower =
+        LogEntryFollower.newBuilder(api, REQUEST)
+            .setStartTime(time(0))
+            .setOverlap(Duration.standardSeconds(60))
+            .setMaxRememberedInsertIds(1)
+            .setClock(clock)
+            .build();
+
+    Assert.assertEquals(Arrays.asList("a", "b", "c"), insertIds(follower.poll()));
+    fakeLoggingServiceV2.addStoredEntries(Arrays.asList(entry(4, "d")));
+    Assert.assertEquals(Arrays.asList("d"), insertIds(follower.poll()));
+  }
+
+  @Test
+  public void entriesOfDifferentLogsWithTheSameInsertIdAreReturned() {
+    LogEntry other =
+        entry(1, "a")
+            .toBuilder()
+            .setLogName(LoggingServiceV2Api.formatLogName("a", "other"))
+            .build();
+    fakeLoggingServiceV2.addStoredEntries(Arrays.asList(entry(1, "a"), other));
+    LogEntryFollower follower =
+        LogEntryFollower.newBuilder(api, REQUEST)
+            .setStartTime(time(0))
+            .setOverlap(Duration.standardSeconds(60))
+            .setClock(clock)
+            .build();
+
+    Assert.assertEquals(Arrays.asList("a", "a"), insertIds(follower.poll()));
+    Assert.assertEquals(Collections.<String>emptyList(), insertIds(follower.poll()));
+    Assert.assertEquals(2, follower.getDuplicateCount());
+  }
+
+  @Test
+  public void failedPollDoesNotLoseEntries() {
+    fakeLoggingServiceV2.addStoredEntries(Arrays.asList(entry(1, "a"), entry(2, "b")));
+    LogEntryFollower follower =
+        LogEntryFollower.newBuilder(api, REQUEST.toBuilder().setPageSize(1).build())
+            .setStartTime(time(0))
+            .setClock(clock)
+            .build();
+
+    // The first page is listed, and the second one fails.
+    fakeLoggingServiceV2.addFailure(Status.OK);
+    fakeLoggingServiceV2.addFailure(Status.INTERNAL);
+    try {
+      follower.poll();
+      Assert.fail();
+    } catch (ApiException e) {
+      Assert.assertEquals(Status.Code.INTERNAL, e.getStatusCode());
+    }
+    Assert.assertEquals(Arrays.asList("a", "b"), insertIds(follower.poll()));
+    Assert.assertEquals(0, follower.getDuplicateCount());
+  }
+
+  @Test
+  public void pollIntervalAdapts() {
+    LogEntryFollower follower =
+        LogEntryFollower.newBuilder(api, REQUEST)
+            .setStartTime(time(0))
+            .setMinPollInterval(Duration.standardSeconds(1))
+            .setMaxPollInterval(Duration.standardSeconds(4))
+            .setClock(clock)
+            .build();
+
+    follower.poll();
+    Assert.assertEquals(Duration.standardSeconds(2), follower.getPollInterval());
+    follower.poll();
+    follower.poll();
+    Assert.assertEquals(Duration.standardSeconds(4), follower.getPollInterval());
+
+    fakeLoggingServiceV2.addStoredEntries(Arrays.asList(entry(1, "a")));
+    follower.poll();
+    Assert.assertEquals(Duration.standardSeconds(2), follower.getPollInterval());
+  }
+
+  @Test
+  public void takeWaitsForNewEntries() throws Exception {
+    fakeLoggingServiceV2.addStoredEntries(Arrays.asList(entry(1, "a")));
+    LogEntryFollower follower =
+        LogEntryFollower.newBuilder(api, REQUEST)
+            .setStartTime(time(0))
+            .setMinPollInterval(Duration.millis(1))
+            .setMaxPollInterval(Duration.millis(10))
+            .build();
+
+    Assert.assertEquals("a", follower.take().getInsertId());
+    fakeLoggingServiceV2.addStoredEntries(Arrays.asList(entry(2, "b"), entry(3, "c")));
+    Assert.assertEquals("b", follower.take().getInsertId());
+    Assert.assertEquals("c", follower.take().getInsertId());
+    Assert.assertTrue(follower.getPollCount() >= 2);
+  }
+
+  private static LogEntry entry(int second, String insertId) {
+    return LogEntry.newBuilder()
+        .setLogName(LoggingServiceV2Api.formatLogName("a", "log"))
+        .setTimestamp(time(second))
+        .setInsertId(insertId)
+        .build();
+  }
+
+  private static Timestamp time(int second) {
+    return Timestamp.newBuilder().setSeconds(second).build();
+  }
+
+  private static List<String> insertIds(List<LogEntry> entries) {
+    List<String> insertIds = new ArrayList<>();
+    for (LogEntry entry : entries) {
+      insertIds.add(entry.getInsertId());
+    }
+    return insertIds;
+  }
+}
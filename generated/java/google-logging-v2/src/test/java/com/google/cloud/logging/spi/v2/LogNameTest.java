@@ -0,0 +1,94 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.protobuf.ValidationException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import com.google.logging.v2.WriteLogEntriesResponse;
+import com.google.protobuf.GeneratedMessageV3;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogNameTest {
+  @Test
+  public void ofFormatsName() {
+    LogName logName = LogName.of("my-project", "syslog");
+    Assert.assertEquals("projects/my-project/logs/syslog", logName.toString());
+    Assert.assertEquals("my-project", logName.getProject());
+    Assert.assertEquals("syslog", logName.getLog());
+    Assert.assertEquals(
+        LoggingServiceV2Api.formatLogName("my-project", "syslog"), logName.toString());
+  }
+
+  @Test
+  public void parseRoundTrips() {
+    LogName logName = LogName.parse("projects/my-project/logs/syslog");
+    Assert.assertEquals(LogName.of("my-project", "syslog"), logName);
+    Assert.assertEquals(LogName.of("my-project", "syslog").hashCode(), logName.hashCode());
+    Assert.assertEquals(logName.toString(), logName.toByteString().toStringUtf8());
+  }
+
+  @Test(expected = ValidationException.class)
+  public void parseRejectsInvalidName() {
+    LogName.parse("projects/my-project");
+  }
+
+  @Test(expected = ValidationException.class)
+  public void ofRejectsInvalidName() {
+    LogName.of("my-project", "sys/log");
+  }
+
+  @Test
+  public void writeLogEntriesUsesName() throws Exception {
+    MockLoggingServiceV2 mockLoggingServiceV2 = new MockLoggingServiceV2();
+    MockServiceHelper serviceHelper =
+        new MockServiceHelper(
+            "in-process-log-name", Arrays.<MockGrpcService>asList(mockLoggingServiceV2));
+    serviceHelper.start();
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    try (LoggingServiceV2Api api = LoggingServiceV2Api.create(settings)) {
+      WriteLogEntriesResponse expectedResponse = WriteLogEntriesResponse.newBuilder().build();
+      mockLoggingServiceV2.setResponses(Arrays.<GeneratedMessageV3>asList(expectedResponse));
+      LogName logName = LogName.of("my-project", "syslog");
+      LogEntry entry = LogEntry.newBuilder().setTextPayload("payload").build();
+
+      Assert.assertEquals(
+          expectedResponse,
+          api.writeLogEntries(
+              logName,
+              MonitoredResource.getDefaultInstance(),
+              Collections.<String, String>emptyMap(),
+              Arrays.asList(entry)));
+
+      List<GeneratedMessageV3> actualRequests = mockLoggingServiceV2.getRequests();
+      Assert.assertEquals(1, actualRequests.size());
+      WriteLogEntriesRequest actualRequest = (WriteLogEntriesRequest) actualRequests.get(0);
+      Assert.assertEquals(logName.toString(), actualRequest.getLogName());
+      Assert.assertEquals(Arrays.asList(entry), actualRequest.getEntriesList());
+    } finally {
+      serviceHelper.stop();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.protobuf.ValidationException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.collect.ImmutableMap;
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import com.google.logging.v2.WriteLogEntriesResponse;
+import com.google.protobuf.GeneratedMessageV3;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LogStreamTest {
+  private static final String LOG_NAME = LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]");
+  private static final MonitoredResource RESOURCE =
+      MonitoredResource.newBuilder().setType("global").putLabels("project_id", "[PROJECT]").build();
+  private static final Map<String, String> LABELS = ImmutableMap.of("version", "1");
+
+  private static MockLoggingServiceV2 mockLoggingServiceV2;
+  private static MockServiceHelper serviceHelper;
+  private LoggingServiceV2Api api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    mockLoggingServiceV2 = new MockLoggingServiceV2();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-log-stream", Arrays.<MockGrpcService>asList(mockLoggingServiceV2));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = LoggingServiceV2Api.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void requestsShareTemplateFields() {
+    LogStream stream = api.newLogStream(LOG_NAME, RESOURCE, LABELS);
+    LogEntry entry = LogEntry.newBuilder().setTextPayload("payload").build();
+    WriteLogEntriesRequest first = stream.buildRequest(Collections.singletonList(entry));
+    WriteLogEntriesRequest second = stream.buildRequest(Arrays.asList(entry, entry));
+
+    // Reading the log name as a string replaces the shared encoding, so that is checked first.
+    Assert.assertSame(first.getLogNameBytes(), second.getLogNameBytes());
+    Assert.assertSame(first.getResource(), second.getResource());
+    Assert.assertEquals(LOG_NAME, first.getLogName());
+    Assert.assertEquals(RESOURCE, first.getResource());
+    Assert.assertEquals(LABELS, first.getLabelsMap());
+    Assert.assertEquals(1, first.getEntriesCount());
+    Assert.assertEquals(2, second.getEntriesCount());
+  }
+
+  @Test
+  public void writeTextSendsEntry() throws Exception {
+    WriteLogEntriesResponse expectedResponse = WriteLogEntriesResponse.newBuilder().build();
+    mockLoggingServiceV2.setResponses(Arrays.<GeneratedMessageV3>asList(expectedResponse));
+    LogStream stream = api.newLogStream(LOG_NAME, RESOURCE, LABELS);
+
+    Assert.assertEquals(expectedResponse, stream.writeText(LogSeverity.WARNING, "disk full").get());
+
+    List<GeneratedMessageV3> actualRequests = mockLoggingServiceV2.getRequests();
+    Assert.assertEquals(1, actualRequests.size());
+    WriteLogEntriesRequest actualRequest = (WriteLogEntriesRequest) actualRequests.get(0);
+    Assert.assertEquals(LOG_NAME, actualRequest.getLogName());
+    Assert.assertEquals(RESOURCE, actualRequest.getResource());
+    Assert.assertEquals(LABELS, actualRequest.getLabelsMap());
+    Assert.assertEquals(
+        LogEntry.newBuilder().setSeverity(LogSeverity.WARNING).setTextPayload("disk full").build(),
+        actualRequest.getEntries(0));
+  }
+
+  @Test(expected = ValidationException.class)
+  public void rejectsInvalidLogName() {
+    api.newLogStream("not-a-log-name", RESOURCE, LABELS);
+  }
+}
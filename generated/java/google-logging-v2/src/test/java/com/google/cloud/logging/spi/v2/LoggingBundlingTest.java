@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.ApiException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import com.google.logging.v2.WriteLogEntriesResponse;
+import com.google.protobuf.GeneratedMessageV3;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LoggingBundlingTest {
+  private static final String LOG_NAME = LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]");
+  private static final String OTHER_LOG_NAME =
+      LoggingServiceV2Api.formatLogName("[PROJECT]", "[OTHER_LOG]");
+  private static final MonitoredResource RESOURCE =
+      MonitoredResource.newBuilder().setType("global").putLabels("project_id", "[PROJECT]").build();
+
+  private static FakeLoggingServiceV2Impl fakeLoggingServiceV2;
+  private static MockServiceHelper serviceHelper;
+  private LoggingServiceV2Api api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeLoggingServiceV2 = new FakeLoggingServiceV2Impl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-logging-bundling", Arrays.<MockGrpcService>asList(fakeLoggingServiceV2));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = LoggingServiceV2Api.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void mergesWritesWithSharedFields() throws Exception {
+    Map<String, String> labels = ImmutableMap.of("a", "1", "b", "2");
+    Map<String, String> reorderedLabels = ImmutableMap.of("b", "2", "a", "1");
+    List<ListenableFuture<WriteLogEntriesResponse>> futures = new ArrayList<>();
+    futures.add(api.writeLogEntriesAsync(LOG_NAME, RESOURCE, labels, entries("first")));
+    futures.add(api.writeLogEntriesAsync(OTHER_LOG_NAME, RESOURCE, labels, entries("other")));
+    futures.add(
+        api.writeLogEntriesAsync(LOG_NAME, RESOURCE, reorderedLabels, entries("second", "third")));
+    Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+
+    List<GeneratedMessageV3> requests = fakeLoggingServiceV2.getRequests();
+    Assert.assertEquals(2, requests.size());
+    WriteLogEntriesRequest merged = null;
+    for (GeneratedMessageV3 request : requests) {
+      if (((WriteLogEntriesRequest) request).getLogName().equals(LOG_NAME)) {
+        merged = (WriteLogEntriesRequest) request;
+      }
+    }
+    Assert.assertEquals(RESOURCE, merged.getResource());
+    Assert.assertEquals(labels, merged.getLabelsMap());
+    List<String> payloads = new ArrayList<>();
+    for (LogEntry entry : merged.getEntriesList()) {
+      payloads.add(entry.getTextPayload());
+    }
+    Assert.assertEquals(Arrays.asList("first", "second", "third"), payloads);
+  }
+
+  @Test
+  public void labelsThatPrintAlikeAreNotMerged() throws Exception {
+    // Both label maps print as {a=1, b=2}.
+    Map<String, String> labels = ImmutableMap.of("a", "1", "b", "2");
+    Map<String, String> lookalikeLabels = ImmutableMap.of("a", "1, b=2");
+    Futures.allAsList(
+            api.writeLogEntriesAsync(LOG_NAME, RESOURCE, labels, entries("first")),
+            api.writeLogEntriesAsync(LOG_NAME, RESOURCE, lookalikeLabels, entries("second")))
+        .get(10, TimeUnit.SECONDS);
+
+    List<GeneratedMessageV3> requests = fakeLoggingServiceV2.getRequests();
+    Assert.assertEquals(2, requests.size());
+    for (GeneratedMessageV3 request : requests) {
+      Assert.assertEquals(1, ((WriteLogEntriesRequest) request).getEntriesCount());
+    }
+  }
+
+  @Test
+  public void failureFailsEveryWriteInTheBundle() throws Exception {
+    fakeLoggingServiceV2.addFailure(Status.PERMISSION_DENIED);
+    List<ListenableFuture<WriteLogEntriesResponse>> futures = new ArrayList<>();
+    for (String payload : Arrays.asList("first", "second")) {
+      futures.add(
+          api.writeLogEntriesAsync(
+              LOG_NAME, RESOURCE, Collections.<String, String>emptyMap(), entries(payload)));
+    }
+    Futures.successfulAsList(futures).get(10, TimeUnit.SECONDS);
+    for (ListenableFuture<WriteLogEntriesResponse> future : futures) {
+      try {
+        future.get();
+        Assert.fail("the write should have failed");
+      } catch (ExecutionException e) {
+        Assert.assertEquals(
+            Status.Code.PERMISSION_DENIED, ((ApiException) e.getCause()).getStatusCode());
+      }
+    }
+  }
+
+  private static List<LogEntry> entries(String... payloads) {
+    List<LogEntry> entries = new ArrayList<>();
+    for (String payload : payloads) {
+      entries.add(LogEntry.newBuilder().setTextPayload(payload).build());
+    }
+    return entries;
+  }
+}
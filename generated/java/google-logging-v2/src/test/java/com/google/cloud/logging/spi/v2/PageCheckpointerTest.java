@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.ListLogEntriesResponse;
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.Timestamp;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PageCheckpointerTest {
+  private static final ListLogEntriesRequest REQUEST =
+      ListLogEntriesRequest.newBuilder().addProjectIds("[PROJECT]").setPageSize(2).build();
+
+  private static FakeLoggingServiceV2Impl fakeLoggingServiceV2;
+  private static MockServiceHelper serviceHelper;
+  private LoggingServiceV2Api api;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeLoggingServiceV2 = new FakeLoggingServiceV2Impl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-page-checkpointer", Arrays.<MockGrpcService>asList(fakeLoggingServiceV2));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = LoggingServiceV2Api.create(settings);
+    List<LogEntry> entries = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      entries.add(
+          LogEntry.newBuilder()
+              .setLogName(LoggingServiceV2Api.formatLogName("[PROJECT]", "[LOG]"))
+              .setTimestamp(Timestamp.newBuilder().setSeconds(i))
+              .setInsertId(Integer.toString(i))
+              .build());
+    }
+    fakeLoggingServiceV2.addStoredEntries(entries);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void resumesFromLastCheckpoint() throws IOException {
+    File checkpointFile = new File(temporaryFolder.getRoot(), "scan.checkpoint");
+    Iterator<LogEntry> entries =
+        api.listLogEntries(REQUEST).checkpoint(checkpointFile, 3).iterateAllElements().iterator();
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(Integer.toString(i), entries.next().getInsertId());
+    }
+    // The iteration is abandoned here. The last checkpoint was taken before entry 3, in the middle
+    // of the second page.
+
+    PageCheckpointer<ListLogEntriesRequest, ListLogEntriesResponse, LogEntry> resumed =
+        PageCheckpointer.resume(
+            checkpointFile, ListLogEntriesRequest.parser(), api.listLogEntriesPagedCallable(), 3);
+    Assert.assertEquals(
+        Arrays.asList("3", "4", "5", "6", "7", "8", "9"), insertIds(resumed.iterateAllElements()));
+    ListLogEntriesRequest resumedRequest =
+        (ListLogEntriesRequest) fakeLoggingServiceV2.getRequests().get(3);
+    Assert.assertEquals("2", resumedRequest.getPageToken());
+  }
+
+  @Test
+  public void completedScanResumesEmpty() throws IOException {
+    File checkpointFile = new File(temporaryFolder.getRoot(), "scan.checkpoint");
+    Assert.assertEquals(
+        10,
+        insertIds(api.listLogEntries(REQUEST).checkpoint(checkpointFile, 4).iterateAllElements())
+            .size());
+    int requestCount = fakeLoggingServiceV2.getRequests().size();
+
+    PageCheckpointer<ListLogEntriesRequest, ListLogEntriesResponse, LogEntry> resumed =
+        PageCheckpointer.resume(
+            checkpointFile, ListLogEntriesRequest.parser(), api.listLogEntriesPagedCallable(), 4);
+    Assert.assertTrue(insertIds(resumed.iterateAllElements()).isEmpty());
+    Assert.assertEquals(requestCount, fakeLoggingServiceV2.getRequests().size());
+  }
+
+  private static List<String> insertIds(Iterable<LogEntry> entries) {
+    List<String> insertIds = new ArrayList<>();
+    for (LogEntry entry : entries) {
+      insertIds.add(entry.getInsertId());
+    }
+    return insertIds;
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.gax.grpc.ApiException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.collect.Lists;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelLogEntryExporterTest {
+  private static FakeLoggingServiceV2Impl fakeLoggingServiceV2;
+  private static MockServiceHelper serviceHelper;
+  private LoggingServiceV2Api api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeLoggingServiceV2 = new FakeLoggingServiceV2Impl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-parallel-export", Arrays.<MockGrpcService>asList(fakeLoggingServiceV2));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    LoggingServiceV2Settings settings =
+        LoggingServiceV2Settings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = LoggingServiceV2Api.create(settings);
+    // Two projects with interleaved timestamps, including some on slice boundaries and some
+    // outside of the exported window of [0s, 100s).
+    List<LogEntry> entries = new ArrayList<>();
+    for (int second = -10; second < 110; second += 5) {
+      entries.add(entry("a", second, "a" + second));
+      if (second % 10 == 0) {
+        entries.add(entry("b", second, "b" + second));
+      }
+    }
+    fakeLoggingServiceV2.addStoredEntries(entries);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void mergesSlicesAndProjectsInOrder() {
+    ParallelLogEntryExporter exporter =
+        ParallelLogEntryExporter.newBuilder(api)
+            .setMaxConcurrentRequests(3)
+            .setSliceCount(4)
+            .build();
+    ListLogEntriesRequest request =
+        ListLogEntriesRequest.newBuilder().addProjectIds("a").addProjectIds("b").build();
+
+    List<String> expected = new ArrayList<>();
+    for (int second = 0; second < 100; second += 5) {
+      expected.add("a" + second);
+      if (second % 10 == 0) {
+        expected.add("b" + second);
+      }
+    }
+    Assert.assertEquals(expected, insertIds(exporter.export(request, time(0), time(100))));
+
+    for (GeneratedMessageV3 sent : fakeLoggingServiceV2.getRequests()) {
+      ListLogEntriesRequest sentRequest = (ListLogEntriesRequest) sent;
+      Assert.assertEquals(1, sentRequest.getProjectIdsCount());
+      Assert.assertTrue(sentRequest.getFilter().contains("timestamp >= \""));
+    }
+  }
+
+  @Test
+  public void descendingOrderStartsFromNewestSlice() {
+    ParallelLogEntryExporter exporter =
+        ParallelLogEntryExporter.newBuilder(api).setSliceCount(3).build();
+    ListLogEntriesRequest request =
+        ListLogEntriesRequest.newBuilder()
+            .addProjectIds("a")
+            .addProjectIds("b")
+            .setFilter("severity >= ERROR")
+            .setOrderBy("timestamp desc")
+            .build();
+
+    List<String> expected = new ArrayList<>();
+    for (int second = 0; second < 30; second += 5) {
+      expected.add("a" + second);
+      if (second % 10 == 0) {
+        expected.add("b" + second);
+      }
+    }
+    Assert.assertEquals(
+        Lists.reverse(expected), insertIds(exporter.export(request, time(0), time(30))));
+    ListLogEntriesRequest sentRequest =
+        (ListLogEntriesRequest) fakeLoggingServiceV2.getRequests().get(0);
+    Assert.assertTrue(sentRequest.getFilter().startsWith("(severity >= ERROR) AND timestamp"));
+  }
+
+  @Test
+  public void failedPartFailsExport() {
+    fakeLoggingServiceV2.addFailure(Status.PERMISSION_DENIED);
+    ParallelLogEntryExporter exporter =
+        ParallelLogEntryExporter.newBuilder(api).setMaxConcurrentRequests(1).build();
+    ListLogEntriesRequest request = ListLogEntriesRequest.newBuilder().addProjectIds("a").build();
+    try {
+      insertIds(exporter.export(request, time(0), time(100)));
+      Assert.fail("Expected the export to fail");
+    } catch (ApiException e) {
+      Assert.assertEquals(Status.Code.PERMISSION_DENIED, e.getStatusCode());
+    }
+  }
+
+  @Test
+  public void failureStopsFetching() throws Exception {
+    fakeLoggingServiceV2.addFailure(Status.PERMISSION_DENIED);
+    ParallelLogEntryExporter exporter =
+        ParallelLogEntryExporter.newBuilder(api).setMaxConcurrentRequests(1).build();
+    ListLogEntriesRequest request = ListLogEntriesRequest.newBuilder().addProjectIds("a").build();
+    try {
+      insertIds(exporter.export(request, time(0), time(100)));
+      Assert.fail("Expected the export to fail");
+    } catch (ApiException e) {
+      // Expected.
+    }
+    Thread.sleep(100);
+    Assert.assertEquals(1, fakeLoggingServiceV2.getRequests().size());
+  }
+
+  @Test
+  public void closedExportStopsFetching() throws Exception {
+    ParallelLogEntryExporter exporter =
+        ParallelLogEntryExporter.newBuilder(api).setMaxConcurrentRequests(1).build();
+    ListLogEntriesRequest request = ListLogEntriesRequest.newBuilder().addProjectIds("a").build();
+    ParallelLogEntryExporter.ExportIterator entries =
+        exporter.export(request, time(0), time(100)).iterator();
+    Assert.assertEquals("a0", entries.next().getInsertId());
+    entries.close();
+    Assert.assertFalse(entries.hasNext());
+
+    // Requests in flight when the export was closed may still arrive, but no new ones are sent.
+    Thread.sleep(100);
+    int requestCount = fakeLoggingServiceV2.getRequests().size();
+    Thread.sleep(100);
+    Assert.assertEquals(requestCount, fakeLoggingServiceV2.getRequests().size());
+    Assert.assertTrue(requestCount < 16);
+  }
+
+  private static LogEntry entry(String project, int second, String insertId) {
+    return LogEntry.newBuilder()
+        .setLogName(LoggingServiceV2Api.formatLogName(project, "log"))
+        .setTimestamp(time(second))
+        .setInsertId(insertId)
+        .build();
+  }
+
+  private static Timestamp time(int second) {
+    return Timestamp.newBuilder().setSeconds(second).build();
+  }
+
+  private static List<String> insertIds(Iterable<LogEntry> entries) {
+    List<String> insertIds = new ArrayList<>();
+    for (LogEntry entry : entries) {
+      insertIds.add(entry.getInsertId());
+    }
+    return insertIds;
+  }
+}
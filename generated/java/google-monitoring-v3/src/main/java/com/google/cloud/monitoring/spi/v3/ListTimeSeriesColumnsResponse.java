@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import java.util.List;
+
+/**
+ * A page of a listTimeSeries response with the points of every time series decoded into {@link
+ * TimeSeriesColumns}.
+ */
+public final class ListTimeSeriesColumnsResponse {
+  private final List<TimeSeriesColumns> timeSeries;
+  private final String nextPageToken;
+
+  ListTimeSeriesColumnsResponse(List<TimeSeriesColumns> timeSeries, String nextPageToken) {
+    this.timeSeries = timeSeries;
+    this.nextPageToken = nextPageToken;
+  }
+
+  /** Returns the time series of the page. */
+  public List<TimeSeriesColumns> getTimeSeriesList() {
+    return timeSeries;
+  }
+
+  /** Returns the token of the next page, or an empty string if this is the last page. */
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.Distribution;
+import com.google.api.Metric;
+import com.google.api.MetricDescriptor.MetricKind;
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.api.MonitoredResource;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.joda.time.Duration;
+
+/**
+ * Aggregates metrics in process and writes them as time series at a fixed interval, instead of
+ * writing every recorded value.
+ *
+ * <p>Each metric is identified by its type and labels, and is recorded through a handle: a {@link
+ * Counter}, a {@link Gauge} or a {@link Histogram}. Looking up a handle allocates, so handles
+ * should be kept; recording through one does not allocate and takes no locks. Counters and
+ * histograms are spread over striped cells on separate cache lines, chosen by the recording
+ * thread, so that threads on different cores rarely update the same cell. The cells are summed
+ * when the metrics are flushed.
+ *
+ * <p>Counters and histograms are written as cumulative metrics that start when the aggregator
+ * was created, and gauges as gauge metrics holding the last value set. A gauge that was never set
+ * is not written. All time series are written for one monitored resource, through a {@link
+ * TimeSeriesWriter}, which is not closed with the aggregator.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (MetricServiceApi metricServiceApi = MetricServiceApi.create()) {
+ *   TimeSeriesWriter writer = TimeSeriesWriter.newBuilder(metricServiceApi).build();
+ *   MetricAggregator aggregator =
+ *       MetricAggregator.newBuilder(writer, ProjectName.of("[PROJECT]"), resource).build();
+ *   MetricAggregator.Counter requests =
+ *       aggregator.counter("custom.googleapis.com/requests", labels);
+ *   requests.add(1);
+ *   // Do something
+ *   aggregator.close();
+ *   writer.close();
+ * }
+ * </code></pre>
+ */
+public class MetricAggregator implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger(MetricAggregator.class.getName());
+
+  private static final Duration DEFAULT_FLUSH_INTERVAL = Duration.standardSeconds(60);
+  // The number of longs in a cache line.
+  private static final int CACHE_LINE_LONGS = 8;
+
+  private final TimeSeriesWriter writer;
+  private final ProjectName project;
+  private final MonitoredResource resource;
+  private final int stripeMask;
+  private final Timestamp startTime;
+  private final ScheduledExecutorService scheduler;
+  private final boolean shouldCloseScheduler;
+  private final ScheduledFuture<?> flushTask;
+  private final ConcurrentMap<Metric, Instrument> instruments = new ConcurrentHashMap<>();
+
+  private MetricAggregator(Builder builder) {
+    this.writer = builder.writer;
+    this.project = builder.project;
+    this.resource = builder.resource;
+    int stripes = builder.concurrencyLevel;
+    this.stripeMask = stripes == 1 ? 0 : Integer.highestOneBit(stripes - 1) * 2 - 1;
+    this.startTime = toTimestamp(System.currentTimeMillis());
+    if (builder.scheduler != null) {
+      this.scheduler = builder.scheduler;
+      this.shouldCloseScheduler = false;
+    } else {
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("monitoring-aggregate-%d")
+                  .build());
+      this.shouldCloseScheduler = true;
+    }
+    long intervalMillis = builder.flushInterval.getMillis();
+    this.flushTask =
+        scheduler.scheduleAtFixedRate(
+            new Runnable() {
+              @Override
+              public void run() {
+                flush();
+              }
+            },
+            intervalMillis,
+            intervalMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns a new builder for an aggregator that writes the time series of the given monitored
+   * resource to the given project with the given writer.
+   */
+  public static Builder newBuilder(
+      TimeSeriesWriter writer, ProjectName project, MonitoredResource resource) {
+    return new Builder(writer, project, resource);
+  }
+
+  /**
+   * Returns the counter with the given metric type and labels, creating it if needed.
+   *
+   * @throws IllegalArgumentException if the metric is already recorded by another kind of handle
+   */
+  public Counter counter(String metricType, Map<String, String> labels) {
+    Metric metric = Metric.newBuilder().setType(metricType).putAllLabels(labels).build();
+    return getOrCreate(metric, new Counter(metric, stripeMask), Counter.class);
+  }
+
+  /**
+   * Returns the gauge with the given metric type and labels, creating it if needed.
+   *
+   * @throws IllegalArgumentException if the metric is already recorded by another kind of handle
+   */
+  public Gauge gauge(String metricType, Map<String, String> labels) {
+    Metric metric = Metric.newBuilder().setType(metricType).putAllLabels(labels).build();
+    return getOrCreate(metric, new Gauge(metric), Gauge.class);
+  }
+
+  /**
+   * Returns the histogram with the given metric type and labels, creating it if needed. Values
+   * are counted in buckets with the given bounds, which must be increasing: values below the first
+   * bound are counted in the first bucket, values from the i-th bound up to the next one in bucket
+   * i + 1, and values from the last bound up in the last bucket.
+   *
+   * @throws IllegalArgumentException if the metric is already recorded by another kind of handle,
+   *     or by a histogram with different bounds
+   */
+  public Histogram histogram(
+      String metricType, Map<String, String> labels, double... bucketBounds) {
+    Metric metric = Metric.newBuilder().setType(metricType).putAllLabels(labels).build();
+    Histogram histogram =
+        getOrCreate(metric, new Histogram(metric, stripeMask, bucketBounds), Histogram.class);
+    Preconditions.checkArgument(
+        Arrays.equals(histogram.bucketBounds, bucketBounds),
+        "Metric %s is recorded with other bucket bounds.",
+        metric);
+    return histogram;
+  }
+
+  private <T extends Instrument> T getOrCreate(Metric metric, T created, Class<T> kind) {
+    Instrument existing = instruments.putIfAbsent(metric, created);
+    Instrument instrument = existing != null ? existing : created;
+    Preconditions.checkArgument(
+        kind.isInstance(instrument), "Metric %s is recorded by a %s.", metric, instrument);
+    return kind.cast(instrument);
+  }
+
+  /** Writes the current values of all metrics. */
+  public void flush() {
+    try {
+      for (TimeSeries timeSeries : collect(System.currentTimeMillis())) {
+        writer.write(project, timeSeries);
+      }
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Failed to write aggregated metrics", e);
+    }
+  }
+
+  /** Stops the periodic flushes and writes the current values of all metrics a last time. */
+  @Override
+  public void close() {
+    flushTask.cancel(false);
+    if (shouldCloseScheduler) {
+      scheduler.shutdown();
+    }
+    flush();
+  }
+
+  @VisibleForTesting
+  List<TimeSeries> collect(long nowMillis) {
+    TimeInterval cumulativeInterval =
+        TimeInterval.newBuilder()
+            .setStartTime(startTime)
+            .setEndTime(toTimestamp(nowMillis))
+            .build();
+    TimeInterval gaugeInterval =
+        TimeInterval.newBuilder().setEndTime(toTimestamp(nowMillis)).build();
+    List<TimeSeries> timeSeries = new ArrayList<>(instruments.size());
+    for (Instrument instrument : instruments.values()) {
+      TimeSeries.Builder builder =
+          TimeSeries.newBuilder().setMetric(instrument.metric).setResource(resource);
+      if (instrument.collect(builder, cumulativeInterval, gaugeInterval)) {
+        timeSeries.add(builder.build());
+      }
+    }
+    return timeSeries;
+  }
+
+  private static Timestamp toTimestamp(long millis) {
+    return Timestamp.newBuilder()
+        .setSeconds(millis / 1000)
+        .setNanos((int) (millis % 1000) * 1000000)
+        .build();
+  }
+
+  // Returns the stripe of the calling thread. Thread ids are assigned in sequence, so consecutive
+  // threads use different stripes.
+  private static int stripe(int stripeMask) {
+    return (int) Thread.currentThread().getId() & stripeMask;
+  }
+
+  private static void addDouble(AtomicLongArray cells, int index, double delta) {
+    while (true) {
+      long current = cells.get(index);
+      long next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+      if (cells.compareAndSet(index, current, next)) {
+        return;
+      }
+    }
+  }
+
+  private abstract static class Instrument {
+    final Metric metric;
+
+    Instrument(Metric metric) {
+      this.metric = metric;
+    }
+
+    // Sets the kind, type and point of the time series, and returns whether it has a value.
+    abstract boolean collect(
+        TimeSeries.Builder builder, TimeInterval cumulativeInterval, TimeInterval gaugeInterval);
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName();
+    }
+  }
+
+  /** A cumulative count, written as an INT64 metric. */
+  public static final class Counter extends Instrument {
+    private final int stripeMask;
+    private final AtomicLongArray cells;
+
+    private Counter(Metric metric, int stripeMask) {
+      super(metric);
+      this.stripeMask = stripeMask;
+      this.cells = new AtomicLongArray((stripeMask + 1) * CACHE_LINE_LONGS);
+    }
+
+    /** Adds the given amount, which must not be negative, to the count. */
+    public void add(long amount) {
+      Preconditions.checkArgument(amount >= 0);
+      cells.getAndAdd(stripe(stripeMask) * CACHE_LINE_LONGS, amount);
+    }
+
+    /** Returns the current count. */
+    public long getCount() {
+      long count = 0;
+      for (int stripe = 0; stripe <= stripeMask; stripe++) {
+        count += cells.get(stripe * CACHE_LINE_LONGS);
+      }
+      return count;
+    }
+
+    @Override
+    boolean collect(
+        TimeSeries.Builder builder, TimeInterval cumulativeInterval, TimeInterval gaugeInterval) {
+      builder
+          .setMetricKind(MetricKind.CUMULATIVE)
+          .setValueType(ValueType.INT64)
+          .addPoints(
+              Point.newBuilder()
+                  .setInterval(cumulativeInterval)
+                  .setValue(TypedValue.newBuilder().setInt64Value(getCount())));
+      return true;
+    }
+  }
+
+  /** The last value set, written as a DOUBLE gauge metric. */
+  public static final class Gauge extends Instrument {
+    private static final long UNSET = Double.doubleToRawLongBits(Double.NaN);
+
+    private final AtomicLong bits = new AtomicLong(UNSET);
+
+    private Gauge(Metric metric) {
+      super(metric);
+    }
+
+    /** Sets the value of the gauge. */
+    public void set(double value) {
+      bits.set(Double.doubleToRawLongBits(value));
+    }
+
+    /** Returns the last value set, or NaN if none was. */
+    public double get() {
+      return Double.longBitsToDouble(bits.get());
+    }
+
+    @Override
+    boolean collect(
+        TimeSeries.Builder builder, TimeInterval cumulativeInterval, TimeInterval gaugeInterval) {
+      double value = get();
+      if (Double.isNaN(value)) {
+        return false;
+      }
+      builder
+          .setMetricKind(MetricKind.GAUGE)
+          .setValueType(ValueType.DOUBLE)
+          .addPoints(
+              Point.newBuilder()
+                  .setInterval(gaugeInterval)
+                  .setValue(TypedValue.newBuilder().setDoubleValue(value)));
+      return true;
+    }
+  }
+
+  /** A cumulative histogram of values, written as a DISTRIBUTION metric. */
+  public static final class Histogram extends Instrument {
+    // Each stripe holds the sum, the sum of squares and the bucket counts, padded to a cache line.
+    private static final int SUM = 0;
+    private static final int SUM_OF_SQUARES = 1;
+    private static final int BUCKETS = 2;
+
+    private final int stripeMask;
+    private final double[] bucketBounds;
+    private final int stride;
+    private final AtomicLongArray cells;
+
+    private Histogram(Metric metric, int stripeMask, double[] bucketBounds) {
+      super(metric);
+      for (int i = 1; i < bucketBounds.length; i++) {
+        Preconditions.checkArgument(
+            bucketBounds[i - 1] < bucketBounds[i], "Bucket bounds must be increasing.");
+      }
+      this.stripeMask = stripeMask;
+      this.bucketBounds = bucketBounds.clone();
+      int longs = BUCKETS + bucketBounds.length + 1;
+      this.stride = (longs + CACHE_LINE_LONGS - 1) / CACHE_LINE_LONGS * CACHE_LINE_LONGS;
+      this.cells = new AtomicLongArray((stripeMask + 1) * stride);
+    }
+
+    /** Records a value. */
+    public void record(double value) {
+      int base = stripe(stripeMask) * stride;
+      int bucket = Arrays.binarySearch(bucketBounds, value);
+      bucket = bucket >= 0 ? bucket + 1 : -bucket - 1;
+      cells.getAndIncrement(base + BUCKETS + bucket);
+      addDouble(cells, base + SUM, value);
+      addDouble(cells, base + SUM_OF_SQUARES, value * value);
+    }
+
+    @Override
+    boolean collect(
+        TimeSeries.Builder builder, TimeInterval cumulativeInterval, TimeInterval gaugeInterval) {
+      long[] bucketCounts = new long[bucketBounds.length + 1];
+      double sum = 0;
+      double sumOfSquares = 0;
+      for (int stripe = 0; stripe <= stripeMask; stripe++) {
+        int base = stripe * stride;
+        sum += Double.longBitsToDouble(cells.get(base + SUM));
+        sumOfSquares += Double.longBitsToDouble(cells.get(base + SUM_OF_SQUARES));
+        for (int i = 0; i < bucketCounts.length; i++) {
+          bucketCounts[i] += cells.get(base + BUCKETS + i);
+        }
+      }
+      // The count is taken from the buckets, so that it always matches them, even if values are
+      // recorded while the cells are read.
+      long count = 0;
+      Distribution.BucketOptions.Explicit.Builder bounds =
+          Distribution.BucketOptions.Explicit.newBuilder();
+      for (double bound : bucketBounds) {
+        bounds.addBounds(bound);
+      }
+      Distribution.Builder value = Distribution.newBuilder();
+      for (long bucketCount : bucketCounts) {
+        value.addBucketCounts(bucketCount);
+        count += bucketCount;
+      }
+      value
+          .setBucketOptions(Distribution.BucketOptions.newBuilder().setExplicitBuckets(bounds))
+          .setCount(count);
+      if (count > 0) {
+        double mean = sum / count;
+        value.setMean(mean).setSumOfSquaredDeviation(Math.max(0, sumOfSquares - sum * mean));
+      }
+      builder
+          .setMetricKind(MetricKind.CUMULATIVE)
+          .setValueType(ValueType.DISTRIBUTION)
+          .addPoints(
+              Point.newBuilder()
+                  .setInterval(cumulativeInterval)
+                  .setValue(TypedValue.newBuilder().setDistributionValue(value)));
+      return true;
+    }
+  }
+
+  /** Builder for MetricAggregator. */
+  public static class Builder {
+    private final TimeSeriesWriter writer;
+    private final ProjectName project;
+    private final MonitoredResource resource;
+    private Duration flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private int concurrencyLevel = Runtime.getRuntime().availableProcessors();
+    private ScheduledExecutorService scheduler;
+
+    private Builder(TimeSeriesWriter writer, ProjectName project, MonitoredResource resource) {
+      this.writer = Preconditions.checkNotNull(writer);
+      this.project = Preconditions.checkNotNull(project);
+      this.resource = Preconditions.checkNotNull(resource);
+    }
+
+    /** Sets the interval at which metrics are written. Defaults to 60 seconds. */
+    public Builder setFlushInterval(Duration flushInterval) {
+      Preconditions.checkArgument(flushInterval.getMillis() > 0);
+      this.flushInterval = flushInterval;
+      return this;
+    }
+
+    /**
+     * Sets the number of cells each counter and histogram is striped over, which is rounded up
+     * to a power of two. Defaults to the number of processors.
+     */
+    public Builder setConcurrencyLevel(int concurrencyLevel) {
+      Preconditions.checkArgument(concurrencyLevel > 0);
+      this.concurrencyLevel = concurrencyLevel;
+      return this;
+    }
+
+    /**
+     * Sets the scheduler on which metrics are flushed. The scheduler is not shut down when the
+     * aggregator is closed.
+     */
+    public Builder setScheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    public MetricAggregator build() {
+      return new MetricAggregator(this);
+    }
+  }
+}
@@ -19,6 +19,7 @@ import static com.google.cloud.monitoring.spi.v3.PagedResponseWrappers.ListTimeS
 
 import com.google.api.MetricDescriptor;
 import com.google.api.MonitoredResourceDescriptor;
+import com.google.api.gax.grpc.SimpleCallSettings;
 import com.google.api.gax.grpc.UnaryApiCallable;
 import com.google.api.gax.protobuf.PathTemplate;
 import com.google.monitoring.v3.CreateMetricDescriptorRequest;
@@ -124,6 +125,8 @@ public class MetricServiceApi implements AutoCloseable {
       listTimeSeriesCallable;
   private final UnaryApiCallable<ListTimeSeriesRequest, ListTimeSeriesPagedResponse>
       listTimeSeriesPagedCallable;
+  private final UnaryApiCallable<ListTimeSeriesRequest, ListTimeSeriesColumnsResponse>
+      listTimeSeriesColumnsCallable;
   private final UnaryApiCallable<CreateTimeSeriesRequest, Empty> createTimeSeriesCallable;
 
   private static final PathTemplate PROJECT_PATH_TEMPLATE =
@@ -257,6 +260,16 @@ public class MetricServiceApi implements AutoCloseable {
     this.listTimeSeriesPagedCallable =
         UnaryApiCallable.createPagedVariant(
             settings.listTimeSeriesSettings(), this.channel, this.executor);
+    // The columnar variant uses the same method, and the same retries, as listTimeSeries.
+    this.listTimeSeriesColumnsCallable =
+        UnaryApiCallable.create(
+            SimpleCallSettings.newBuilder(TimeSeriesColumnsMarshaller.LIST_TIME_SERIES_COLUMNS)
+                .setRetryableCodes(settings.listTimeSeriesSettings().getRetryableCodes())
+                .setRetrySettingsBuilder(
+                    settings.listTimeSeriesSettings().getRetrySettings().toBuilder())
+                .build(),
+            this.channel,
+            this.executor);
     this.createTimeSeriesCallable =
         UnaryApiCallable.create(settings.createTimeSeriesSettings(), this.channel, this.executor);
 
@@ -862,6 +875,47 @@ public class MetricServiceApi implements AutoCloseable {
     return listTimeSeries(request);
   }
 
+  /**
+   * Lists time series that match a filter, like {@link #listTimeSeries(String, String,
+   * TimeInterval, ListTimeSeriesRequest.TimeSeriesView)}, in a project whose name was validated
+   * when it was created.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * ProjectName name = ProjectName.of("[PROJECT]");
+   * try (MetricServiceApi metricServiceApi = MetricServiceApi.create()) {
+   *   String filter = "";
+   *   TimeInterval interval = TimeInterval.newBuilder().build();
+   *   ListTimeSeriesRequest.TimeSeriesView view = ListTimeSeriesRequest.TimeSeriesView.FULL;
+   *   for (TimeSeries element : metricServiceApi.listTimeSeries(name, filter, interval, view).iterateAllElements()) {
+   *     // doThingsWith(element);
+   *   }
+   * }
+   * </code></pre>
+   *
+   * @param name The project on which to execute the request.
+   * @param filter A [monitoring filter](/monitoring/api/v3/filters) that specifies which time
+   *     series should be returned.
+   * @param interval The time interval for which results should be returned.
+   * @param view Specifies which information is returned about the time series.
+   * @throws com.google.api.gax.grpc.ApiException if the remote call fails
+   */
+  public final ListTimeSeriesPagedResponse listTimeSeries(
+      ProjectName name,
+      String filter,
+      TimeInterval interval,
+      ListTimeSeriesRequest.TimeSeriesView view) {
+    ListTimeSeriesRequest request =
+        ListTimeSeriesRequest.newBuilder()
+            .setNameBytes(name.toByteString())
+            .setFilter(filter)
+            .setInterval(interval)
+            .setView(view)
+            .build();
+    return listTimeSeries(request);
+  }
+
   // AUTO-GENERATED DOCUMENTATION AND METHOD
   /**
    * Lists time series that match a filter. This method does not require a Stackdriver account.
@@ -962,6 +1016,81 @@ public class MetricServiceApi implements AutoCloseable {
     return listTimeSeriesCallable;
   }
 
+  /**
+   * Lists time series that match a filter, like {@link #listTimeSeries(ListTimeSeriesRequest)},
+   * with the points of each time series decoded straight from the response into primitive arrays.
+   * All pages are listed. Only BOOL, INT64 and DOUBLE time series can be listed this way.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * try (MetricServiceApi metricServiceApi = MetricServiceApi.create()) {
+   *   ListTimeSeriesRequest request = ListTimeSeriesRequest.newBuilder()
+   *     .setName(MetricServiceApi.formatProjectName("[PROJECT]"))
+   *     .setFilter(filter)
+   *     .setInterval(interval)
+   *     .setView(ListTimeSeriesRequest.TimeSeriesView.FULL)
+   *     .build();
+   *   for (TimeSeriesColumns columns : metricServiceApi.listTimeSeriesColumns(request)) {
+   *     for (int i = 0; i < columns.size(); i++) {
+   *       // doThingsWith(columns.getEndNanos(i), columns.getDoubleValue(i));
+   *     }
+   *   }
+   * }
+   * </code></pre>
+   *
+   * <p>The value types are only known once a response is decoded. gRPC reports a response that
+   * cannot be decoded, including one with a time series of another value type, as a cancelled
+   * call, so it fails with an {@code ApiException} whose status code is {@code CANCELLED} and whose
+   * description is "Failed to read message". The cause of the status holds the decoding error.
+   *
+   * @param request The request object containing all of the parameters for the API call.
+   * @throws com.google.api.gax.grpc.ApiException if the remote call fails, or with status code
+   *     {@code CANCELLED} if a time series has values of another type
+   */
+  public final List<TimeSeriesColumns> listTimeSeriesColumns(ListTimeSeriesRequest request) {
+    List<TimeSeriesColumns> timeSeries = new ArrayList<>();
+    while (true) {
+      ListTimeSeriesColumnsResponse response = listTimeSeriesColumnsCallable().call(request);
+      timeSeries.addAll(response.getTimeSeriesList());
+      if (response.getNextPageToken().isEmpty()) {
+        return timeSeries;
+      }
+      request = request.toBuilder().setPageToken(response.getNextPageToken()).build();
+    }
+  }
+
+  /**
+   * Lists one page of time series that match a filter, with the points of each time series decoded
+   * straight from the response into primitive arrays.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * try (MetricServiceApi metricServiceApi = MetricServiceApi.create()) {
+   *   ListTimeSeriesRequest request = ListTimeSeriesRequest.newBuilder()
+   *     .setName(MetricServiceApi.formatProjectName("[PROJECT]"))
+   *     .setFilter(filter)
+   *     .setInterval(interval)
+   *     .setView(ListTimeSeriesRequest.TimeSeriesView.FULL)
+   *     .build();
+   *   ListenableFuture&lt;ListTimeSeriesColumnsResponse&gt; future =
+   *       metricServiceApi.listTimeSeriesColumnsCallable().futureCall(request);
+   *   // Do something
+   *   for (TimeSeriesColumns columns : future.get().getTimeSeriesList()) {
+   *     // doThingsWith(columns);
+   *   }
+   * }
+   * </code></pre>
+   *
+   * <p>A response that cannot be decoded fails the call with status code {@code CANCELLED}, as
+   * described on {@link #listTimeSeriesColumns(ListTimeSeriesRequest)}.
+   */
+  public final UnaryApiCallable<ListTimeSeriesRequest, ListTimeSeriesColumnsResponse>
+      listTimeSeriesColumnsCallable() {
+    return listTimeSeriesColumnsCallable;
+  }
+
   // AUTO-GENERATED DOCUMENTATION AND METHOD
   /**
    * Creates or adds data to one or more time series. The response is empty if all time series in
@@ -993,6 +1122,34 @@ public class MetricServiceApi implements AutoCloseable {
     createTimeSeries(request);
   }
 
+  /**
+   * Creates or adds data to one or more time series, like {@link #createTimeSeries(String, List)},
+   * in a project whose name was validated when it was created.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * ProjectName name = ProjectName.of("[PROJECT]");
+   * try (MetricServiceApi metricServiceApi = MetricServiceApi.create()) {
+   *   List&lt;TimeSeries&gt; timeSeries = new ArrayList&lt;&gt;();
+   *   metricServiceApi.createTimeSeries(name, timeSeries);
+   * }
+   * </code></pre>
+   *
+   * @param name The project on which to execute the request.
+   * @param timeSeries The new data to be added to a list of time series. Adds at most one data
+   *     point to each of several time series.
+   * @throws com.google.api.gax.grpc.ApiException if the remote call fails
+   */
+  public final void createTimeSeries(ProjectName name, List<TimeSeries> timeSeries) {
+    CreateTimeSeriesRequest request =
+        CreateTimeSeriesRequest.newBuilder()
+            .setNameBytes(name.toByteString())
+            .addAllTimeSeries(timeSeries)
+            .build();
+    createTimeSeries(request);
+  }
+
   // AUTO-GENERATED DOCUMENTATION AND METHOD
   /**
    * Creates or adds data to one or more time series. The response is empty if all time series in
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.gax.core.Page;
+import com.google.api.gax.core.PagedListResponse;
+import com.google.api.gax.grpc.UnaryApiCallable;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Iterates over the elements of a paged response while periodically recording the position of the
+ * iteration in a checkpoint file, so that a long scan can be resumed after a restart instead of
+ * starting over. Instances are obtained from the {@code checkpoint} method of the paged responses
+ * in {@link PagedResponseWrappers}, or from {@link #resume}.
+ *
+ * <p>A checkpoint holds the request of the current page, including its page token, and the offset
+ * of the next element within that page. It is written every given number of elements, just before
+ * the next element is returned, so an element is seen again after a resume only if the caller had
+ * not moved past it. When the last element has been returned, the checkpoint is marked complete
+ * and a resumed iteration returns nothing. The checkpoint file is synced and then replaced
+ * atomically, so a crash leaves either the previous or the new checkpoint. A checkpoint that cannot
+ * be written is logged and the iteration continues.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (MetricServiceApi metricServiceApi = MetricServiceApi.create()) {
+ *   File checkpointFile = new File("scan.checkpoint");
+ *   PageCheckpointer&lt;ListTimeSeriesRequest, ListTimeSeriesResponse, TimeSeries&gt; scan;
+ *   if (checkpointFile.exists()) {
+ *     scan = PageCheckpointer.resume(checkpointFile, ListTimeSeriesRequest.parser(),
+ *         metricServiceApi.listTimeSeriesPagedCallable(), 1000);
+ *   } else {
+ *     scan = metricServiceApi.listTimeSeries(request).checkpoint(checkpointFile, 1000);
+ *   }
+ *   for (TimeSeries series : scan.iterateAllElements()) {
+ *     // doThingsWith(series);
+ *   }
+ * }
+ * </code></pre>
+ */
+public class PageCheckpointer<RequestT extends Message, ResponseT, ResourceT> {
+  private static final Logger logger = Logger.getLogger(PageCheckpointer.class.getName());
+
+  private static final int FORMAT_VERSION = 1;
+
+  // Null if the iteration was already complete when it was resumed.
+  @Nullable private final Page<RequestT, ResponseT, ResourceT> firstPage;
+  private final int firstPageOffset;
+  private final File checkpointFile;
+  private final int checkpointInterval;
+
+  /**
+   * Creates a checkpointer that iterates from the start of the given page, and records its position
+   * in checkpointFile every checkpointInterval elements.
+   */
+  public PageCheckpointer(
+      Page<RequestT, ResponseT, ResourceT> firstPage, File checkpointFile, int checkpointInterval) {
+    this(Preconditions.checkNotNull(firstPage), 0, checkpointFile, checkpointInterval);
+  }
+
+  private PageCheckpointer(
+      @Nullable Page<RequestT, ResponseT, ResourceT> firstPage,
+      int firstPageOffset,
+      File checkpointFile,
+      int checkpointInterval) {
+    Preconditions.checkArgument(checkpointInterval > 0);
+    this.firstPage = firstPage;
+    this.firstPageOffset = firstPageOffset;
+    this.checkpointFile = Preconditions.checkNotNull(checkpointFile);
+    this.checkpointInterval = checkpointInterval;
+  }
+
+  /**
+   * Resumes an iteration from the given checkpoint file. The page the checkpoint was taken in is
+   * fetched again with the given callable, and the elements before the recorded offset are
+   * skipped.
+   *
+   * @param checkpointFile a checkpoint file written by an earlier iteration
+   * @param requestParser the parser for the request type, for example {@code
+   *     ListTimeSeriesRequest.parser()}
+   * @param pagedCallable the paged callable of the method the checkpoint was taken for
+   * @param checkpointInterval the number of elements between checkpoints of the resumed iteration
+   * @throws IOException if the checkpoint file cannot be read
+   * @throws com.google.api.gax.grpc.ApiException if fetching the page fails
+   */
+  public static <RequestT extends Message, ResponseT, ResourceT>
+      PageCheckpointer<RequestT, ResponseT, ResourceT> resume(
+          File checkpointFile,
+          Parser<RequestT> requestParser,
+          UnaryApiCallable<RequestT, ? extends PagedListResponse<RequestT, ResponseT, ResourceT>>
+              pagedCallable,
+          int checkpointInterval)
+          throws IOException {
+    boolean complete;
+    int offset;
+    byte[] request;
+    try (DataInputStream input =
+        new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(checkpointFile.toPath())))) {
+      int version = input.readInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("Unsupported checkpoint format " + version + " in " + checkpointFile);
+      }
+      complete = input.readBoolean();
+      offset = input.readInt();
+      request = new byte[input.readInt()];
+      input.readFully(request);
+    }
+    if (complete) {
+      return new PageCheckpointer<>(null, 0, checkpointFile, checkpointInterval);
+    }
+    Page<RequestT, ResponseT, ResourceT> page =
+        pagedCallable.call(requestParser.parseFrom(request)).getPage();
+    return new PageCheckpointer<>(page, offset, checkpointFile, checkpointInterval);
+  }
+
+  /** Returns the file the position of the iteration is recorded in. */
+  public File getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  /**
+   * Returns an iterable over the remaining elements. Every call to {@code iterator()} starts from
+   * the position this checkpointer was created at, and records its own checkpoints.
+   */
+  public Iterable<ResourceT> iterateAllElements() {
+    return new Iterable<ResourceT>() {
+      @Override
+      public Iterator<ResourceT> iterator() {
+        return new ElementIterator();
+      }
+    };
+  }
+
+  private class ElementIterator extends AbstractIterator<ResourceT> {
+    private Page<RequestT, ResponseT, ResourceT> page = firstPage;
+    private Iterator<ResourceT> elements = Collections.emptyIterator();
+    private int offset;
+    private int returnedSinceCheckpoint;
+
+    private ElementIterator() {
+      if (page != null) {
+        elements = page.iterator();
+        for (; offset < firstPageOffset && elements.hasNext(); offset++) {
+          elements.next();
+        }
+      }
+    }
+
+    @Override
+    protected ResourceT computeNext() {
+      if (page == null) {
+        return endOfData();
+      }
+      while (!elements.hasNext()) {
+        if (!page.hasNextPage()) {
+          saveCheckpoint(page.getRequestObject(), offset, true);
+          page = null;
+          return endOfData();
+        }
+        page = page.getNextPage();
+        elements = page.iterator();
+        offset = 0;
+      }
+      if (returnedSinceCheckpoint == checkpointInterval) {
+        saveCheckpoint(page.getRequestObject(), offset, false);
+        returnedSinceCheckpoint = 0;
+      }
+      returnedSinceCheckpoint++;
+      offset++;
+      return elements.next();
+    }
+  }
+
+  private void saveCheckpoint(RequestT request, int offset, boolean complete) {
+    Path target = checkpointFile.toPath();
+    Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream output = new DataOutputStream(bytes)) {
+        output.writeInt(FORMAT_VERSION);
+        output.writeBoolean(complete);
+        output.writeInt(offset);
+        byte[] requestBytes = request.toByteArray();
+        output.writeInt(requestBytes.length);
+        output.write(requestBytes);
+      }
+      // The checkpoint is forced to disk before the rename, which could otherwise become durable
+      // before the contents it points to.
+      try (FileChannel file =
+          FileChannel.open(
+              temporary,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+          file.write(buffer);
+        }
+        file.force(true);
+      }
+      Files.move(
+          temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      forceDirectory(target.toAbsolutePath().getParent());
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to save checkpoint to " + checkpointFile, e);
+    }
+  }
+
+  // Forces the directory that holds the checkpoint, so that the rename itself is durable. Some
+  // platforms cannot open a directory, and there the rename is left to the file system.
+  private static void forceDirectory(Path directory) throws IOException {
+    FileChannel file;
+    try {
+      file = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      return;
+    }
+    try {
+      file.force(true);
+    } finally {
+      file.close();
+    }
+  }
+}
@@ -32,6 +32,7 @@ import com.google.monitoring.v3.ListMonitoredResourceDescriptorsResponse;
 import com.google.monitoring.v3.ListTimeSeriesRequest;
 import com.google.monitoring.v3.ListTimeSeriesResponse;
 import com.google.monitoring.v3.TimeSeries;
+import java.io.File;
 
 // AUTO-GENERATED DOCUMENTATION AND CLASS
 /**
@@ -45,12 +46,40 @@ public class PagedResponseWrappers {
   public static class ListGroupsPagedResponse
       extends PagedListResponseImpl<ListGroupsRequest, ListGroupsResponse, Group> {
 
+    private final UnaryApiCallable<ListGroupsRequest, ListGroupsResponse> callable;
+    private final PageStreamingDescriptor<ListGroupsRequest, ListGroupsResponse, Group>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListGroupsPagedResponse(
         UnaryApiCallable<ListGroupsRequest, ListGroupsResponse> callable,
         PageStreamingDescriptor<ListGroupsRequest, ListGroupsResponse, Group> pageDescriptor,
         ListGroupsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListGroupsRequest, ListGroupsResponse, Group> prefetch(
+        int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
+    }
+
+    /**
+     * Returns a view of this response that records the position of the iteration in
+     * checkpointFile every checkpointInterval elements, so that it can be resumed with {@link
+     * PageCheckpointer#resume}.
+     */
+    public PageCheckpointer<ListGroupsRequest, ListGroupsResponse, Group> checkpoint(
+        File checkpointFile, int checkpointInterval) {
+      return new PageCheckpointer<>(getPage(), checkpointFile, checkpointInterval);
     }
   }
 
@@ -58,6 +87,12 @@ public class PagedResponseWrappers {
       extends PagedListResponseImpl<
           ListGroupMembersRequest, ListGroupMembersResponse, MonitoredResource> {
 
+    private final UnaryApiCallable<ListGroupMembersRequest, ListGroupMembersResponse> callable;
+    private final PageStreamingDescriptor<
+            ListGroupMembersRequest, ListGroupMembersResponse, MonitoredResource>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListGroupMembersPagedResponse(
         UnaryApiCallable<ListGroupMembersRequest, ListGroupMembersResponse> callable,
         PageStreamingDescriptor<
@@ -66,6 +101,29 @@ public class PagedResponseWrappers {
         ListGroupMembersRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListGroupMembersRequest, ListGroupMembersResponse, MonitoredResource>
+        prefetch(int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
+    }
+
+    /**
+     * Returns a view of this response that records the position of the iteration in
+     * checkpointFile every checkpointInterval elements, so that it can be resumed with {@link
+     * PageCheckpointer#resume}.
+     */
+    public PageCheckpointer<ListGroupMembersRequest, ListGroupMembersResponse, MonitoredResource>
+        checkpoint(File checkpointFile, int checkpointInterval) {
+      return new PageCheckpointer<>(getPage(), checkpointFile, checkpointInterval);
     }
   }
 
@@ -74,6 +132,15 @@ public class PagedResponseWrappers {
           ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse,
           MonitoredResourceDescriptor> {
 
+    private final UnaryApiCallable<
+            ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse>
+        callable;
+    private final PageStreamingDescriptor<
+            ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse,
+            MonitoredResourceDescriptor>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListMonitoredResourceDescriptorsPagedResponse(
         UnaryApiCallable<
                 ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse>
@@ -85,6 +152,33 @@ public class PagedResponseWrappers {
         ListMonitoredResourceDescriptorsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<
+            ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse,
+            MonitoredResourceDescriptor>
+        prefetch(int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
+    }
+
+    /**
+     * Returns a view of this response that records the position of the iteration in
+     * checkpointFile every checkpointInterval elements, so that it can be resumed with {@link
+     * PageCheckpointer#resume}.
+     */
+    public PageCheckpointer<
+            ListMonitoredResourceDescriptorsRequest, ListMonitoredResourceDescriptorsResponse,
+            MonitoredResourceDescriptor>
+        checkpoint(File checkpointFile, int checkpointInterval) {
+      return new PageCheckpointer<>(getPage(), checkpointFile, checkpointInterval);
     }
   }
 
@@ -92,6 +186,13 @@ public class PagedResponseWrappers {
       extends PagedListResponseImpl<
           ListMetricDescriptorsRequest, ListMetricDescriptorsResponse, MetricDescriptor> {
 
+    private final UnaryApiCallable<ListMetricDescriptorsRequest, ListMetricDescriptorsResponse>
+        callable;
+    private final PageStreamingDescriptor<
+            ListMetricDescriptorsRequest, ListMetricDescriptorsResponse, MetricDescriptor>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListMetricDescriptorsPagedResponse(
         UnaryApiCallable<ListMetricDescriptorsRequest, ListMetricDescriptorsResponse> callable,
         PageStreamingDescriptor<
@@ -100,12 +201,42 @@ public class PagedResponseWrappers {
         ListMetricDescriptorsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<
+            ListMetricDescriptorsRequest, ListMetricDescriptorsResponse, MetricDescriptor>
+        prefetch(int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
+    }
+
+    /**
+     * Returns a view of this response that records the position of the iteration in
+     * checkpointFile every checkpointInterval elements, so that it can be resumed with {@link
+     * PageCheckpointer#resume}.
+     */
+    public PageCheckpointer<
+            ListMetricDescriptorsRequest, ListMetricDescriptorsResponse, MetricDescriptor>
+        checkpoint(File checkpointFile, int checkpointInterval) {
+      return new PageCheckpointer<>(getPage(), checkpointFile, checkpointInterval);
     }
   }
 
   public static class ListTimeSeriesPagedResponse
       extends PagedListResponseImpl<ListTimeSeriesRequest, ListTimeSeriesResponse, TimeSeries> {
 
+    private final UnaryApiCallable<ListTimeSeriesRequest, ListTimeSeriesResponse> callable;
+    private final PageStreamingDescriptor<ListTimeSeriesRequest, ListTimeSeriesResponse, TimeSeries>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListTimeSeriesPagedResponse(
         UnaryApiCallable<ListTimeSeriesRequest, ListTimeSeriesResponse> callable,
         PageStreamingDescriptor<ListTimeSeriesRequest, ListTimeSeriesResponse, TimeSeries>
@@ -113,6 +244,29 @@ public class PagedResponseWrappers {
         ListTimeSeriesRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListTimeSeriesRequest, ListTimeSeriesResponse, TimeSeries> prefetch(
+        int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
+    }
+
+    /**
+     * Returns a view of this response that records the position of the iteration in
+     * checkpointFile every checkpointInterval elements, so that it can be resumed with {@link
+     * PageCheckpointer#resume}.
+     */
+    public PageCheckpointer<ListTimeSeriesRequest, ListTimeSeriesResponse, TimeSeries> checkpoint(
+        File checkpointFile, int checkpointInterval) {
+      return new PageCheckpointer<>(getPage(), checkpointFile, checkpointInterval);
     }
   }
 }
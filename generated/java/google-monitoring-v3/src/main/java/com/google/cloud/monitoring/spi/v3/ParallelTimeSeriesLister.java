@@ -0,0 +1,379 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.monitoring.v3.Aggregation;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.ListTimeSeriesResponse;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Duration;
+import com.google.protobuf.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists time series with several page chains running concurrently. A single listTimeSeries call
+ * walks one chain of page tokens, so it is limited to one request at a time. This lister splits
+ * the interval of the request into slices, and optionally splits each slice by a list of partition
+ * filters, for example one per value of a resource label. Every part is then listed with its own
+ * chain of page tokens, with at most a maximum number of requests outstanding overall.
+ *
+ * <p>The parts are merged into one time series per metric and monitored resource, with the points
+ * newest first like a single listTimeSeries call. Points with the same end time are only returned
+ * once, so slices may share their bounds, and a time series matched by several partition filters
+ * is not duplicated.
+ *
+ * <p>When the request aligns points with a per-series aligner, the slices are multiples of the
+ * alignment period counted back from the end of the interval, so that every alignment period
+ * falls in a single slice.
+ *
+ * <p>Partition filters cannot be combined with a cross-series reducer: every partition would
+ * return its own partial aggregate of the same group, and only one of them would be kept.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (MetricServiceApi metricServiceApi = MetricServiceApi.create()) {
+ *   ListTimeSeriesRequest request = ListTimeSeriesRequest.newBuilder()
+ *     .setName(MetricServiceApi.formatProjectName("[PROJECT]"))
+ *     .setFilter("metric.type = \"compute.googleapis.com/instance/cpu/utilization\"")
+ *     .setInterval(interval)
+ *     .setView(ListTimeSeriesRequest.TimeSeriesView.FULL)
+ *     .build();
+ *   ParallelTimeSeriesLister lister =
+ *       ParallelTimeSeriesLister.newBuilder(metricServiceApi)
+ *           .setMaxConcurrentRequests(8)
+ *           .setSliceCount(8)
+ *           .build();
+ *   List&lt;String&gt; zones = Arrays.asList(
+ *       "resource.label.zone = \"us-central1-a\"", "resource.label.zone = \"us-central1-b\"");
+ *   for (TimeSeries element : lister.list(request, zones)) {
+ *     // doThingsWith(element);
+ *   }
+ * }
+ * </code></pre>
+ */
+public class ParallelTimeSeriesLister {
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+  private static final int DEFAULT_SLICE_COUNT = 8;
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  private static final Comparator<Point> NEWEST_FIRST =
+      new Comparator<Point>() {
+        @Override
+        public int compare(Point a, Point b) {
+          return Long.compare(
+              toNanos(b.getInterval().getEndTime()), toNanos(a.getInterval().getEndTime()));
+        }
+      };
+
+  private final MetricServiceApi metricServiceApi;
+  private final int maxConcurrentRequests;
+  private final int sliceCount;
+
+  private ParallelTimeSeriesLister(Builder builder) {
+    this.metricServiceApi = builder.metricServiceApi;
+    this.maxConcurrentRequests = builder.maxConcurrentRequests;
+    this.sliceCount = builder.sliceCount;
+  }
+
+  /** Returns a new builder for a lister that lists time series with the given API. */
+  public static Builder newBuilder(MetricServiceApi metricServiceApi) {
+    return new Builder(metricServiceApi);
+  }
+
+  /**
+   * Returns the time series that match the given request, with the interval of the request split
+   * into slices. The page token of the request is ignored.
+   *
+   * @throws com.google.api.gax.grpc.ApiException if listing a part fails
+   */
+  public List<TimeSeries> list(ListTimeSeriesRequest request) {
+    return list(request, Collections.<String>emptyList());
+  }
+
+  /**
+   * Returns the time series that match the given request, with the interval of the request split
+   * into slices and every slice listed once per partition filter. Each partition filter is added
+   * to the filter of the request; together, they should match every time series the request
+   * matches. The page token of the request is ignored.
+   *
+   * @throws IllegalArgumentException if partition filters are given and the request reduces time
+   *     series with a cross-series reducer
+   * @throws com.google.api.gax.grpc.ApiException if listing a part fails
+   */
+  public List<TimeSeries> list(ListTimeSeriesRequest request, List<String> partitionFilters) {
+    Preconditions.checkArgument(
+        partitionFilters.isEmpty()
+            || request.getAggregation().getCrossSeriesReducer() == Aggregation.Reducer.REDUCE_NONE,
+        "Partition filters cannot be used with a cross-series reducer");
+    List<String> filters = new ArrayList<>();
+    if (partitionFilters.isEmpty()) {
+      filters.add(request.getFilter());
+    } else {
+      for (String partitionFilter : partitionFilters) {
+        filters.add(partitionFilter(request.getFilter(), partitionFilter));
+      }
+    }
+    List<Part> parts = new ArrayList<>();
+    for (TimeInterval slice : slices(request)) {
+      for (String filter : filters) {
+        parts.add(
+            new Part(
+                request.toBuilder().setFilter(filter).setInterval(slice).setPageToken("").build()));
+      }
+    }
+    new Query(parts).await();
+    return merge(parts);
+  }
+
+  /** The time series of one partition in one slice of the interval. */
+  private static class Part {
+    final ListTimeSeriesRequest request;
+    final List<TimeSeries> timeSeries = new ArrayList<>();
+    String nextPageToken = "";
+
+    Part(ListTimeSeriesRequest request) {
+      this.request = request;
+    }
+  }
+
+  /** One run of a list, which fetches the pages of all parts. */
+  private class Query {
+    // Guarded by this.
+    private final Deque<Part> ready = new ArrayDeque<>();
+    private int remainingCount;
+    private int inFlightCount;
+    private Throwable failure;
+
+    Query(List<Part> parts) {
+      ready.addAll(parts);
+      remainingCount = parts.size();
+    }
+
+    void await() {
+      startFetches();
+      synchronized (this) {
+        while (remainingCount > 0 && failure == null) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while listing time series", e);
+          }
+        }
+        if (failure != null) {
+          throw Throwables.propagate(failure);
+        }
+      }
+    }
+
+    // Starts fetching the next page of ready parts, as long as the limit on outstanding requests
+    // allows. No new requests are started once a part has failed.
+    private void startFetches() {
+      List<Part> toFetch = new ArrayList<>();
+      synchronized (this) {
+        while (failure == null && inFlightCount < maxConcurrentRequests && !ready.isEmpty()) {
+          toFetch.add(ready.removeFirst());
+          inFlightCount++;
+        }
+      }
+      for (Part part : toFetch) {
+        fetch(part);
+      }
+    }
+
+    private void fetch(final Part part) {
+      ListTimeSeriesRequest request;
+      synchronized (this) {
+        request = part.request.toBuilder().setPageToken(part.nextPageToken).build();
+      }
+      Futures.addCallback(
+          metricServiceApi.listTimeSeriesCallable().futureCall(request),
+          new FutureCallback<ListTimeSeriesResponse>() {
+            @Override
+            public void onSuccess(ListTimeSeriesResponse response) {
+              synchronized (Query.this) {
+                inFlightCount--;
+                part.timeSeries.addAll(response.getTimeSeriesList());
+                part.nextPageToken = response.getNextPageToken();
+                if (part.nextPageToken.isEmpty()) {
+                  remainingCount--;
+                } else {
+                  // Parts that have started are finished first.
+                  ready.addFirst(part);
+                }
+                Query.this.notifyAll();
+              }
+              startFetches();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              synchronized (Query.this) {
+                inFlightCount--;
+                if (failure == null) {
+                  failure = t;
+                }
+                Query.this.notifyAll();
+              }
+            }
+          });
+    }
+  }
+
+  // Returns the slices of the interval of the request, newest first.
+  private List<TimeInterval> slices(ListTimeSeriesRequest request) {
+    TimeInterval interval = request.getInterval();
+    long endNanos = toNanos(interval.getEndTime());
+    long startNanos = toNanos(interval.getStartTime());
+    if (!interval.hasStartTime() || startNanos >= endNanos || sliceCount == 1) {
+      return Collections.singletonList(interval);
+    }
+    long alignmentNanos = 1;
+    Aggregation aggregation = request.getAggregation();
+    if (aggregation.getPerSeriesAligner() != Aggregation.Aligner.ALIGN_NONE) {
+      alignmentNanos = Math.max(1, toNanos(aggregation.getAlignmentPeriod()));
+    }
+    long span = endNanos - startNanos;
+    List<TimeInterval> slices = new ArrayList<>();
+    long sliceEnd = endNanos;
+    for (int i = 1; i <= sliceCount; i++) {
+      long sliceStart =
+          i == sliceCount
+              ? startNanos
+              : endNanos - boundaryOffset(span, i) / alignmentNanos * alignmentNanos;
+      if (sliceStart < sliceEnd) {
+        slices.add(
+            TimeInterval.newBuilder()
+                .setStartTime(toTimestamp(sliceStart))
+                .setEndTime(toTimestamp(sliceEnd))
+                .build());
+        sliceEnd = sliceStart;
+      }
+    }
+    return slices;
+  }
+
+  // Returns span * index / sliceCount without overflowing.
+  private long boundaryOffset(long span, int index) {
+    return span / sliceCount * index + span % sliceCount * index / sliceCount;
+  }
+
+  // Merges the time series of all parts by metric and monitored resource, in the order they are
+  // first listed. The parts are ordered newest slice first, so the points of a time series are
+  // mostly sorted already.
+  private static List<TimeSeries> merge(List<Part> parts) {
+    Map<TimeSeries, TimeSeries.Builder> merged = new LinkedHashMap<>();
+    for (Part part : parts) {
+      for (TimeSeries timeSeries : part.timeSeries) {
+        TimeSeries identity =
+            TimeSeries.newBuilder()
+                .setMetric(timeSeries.getMetric())
+                .setResource(timeSeries.getResource())
+                .build();
+        TimeSeries.Builder builder = merged.get(identity);
+        if (builder == null) {
+          merged.put(identity, timeSeries.toBuilder());
+        } else {
+          builder.addAllPoints(timeSeries.getPointsList());
+        }
+      }
+    }
+    List<TimeSeries> result = new ArrayList<>(merged.size());
+    for (TimeSeries.Builder builder : merged.values()) {
+      List<Point> points = new ArrayList<>(builder.getPointsList());
+      Collections.sort(points, NEWEST_FIRST);
+      builder.clearPoints();
+      long lastEndNanos = 0;
+      for (Point point : points) {
+        long endNanos = toNanos(point.getInterval().getEndTime());
+        if (builder.getPointsCount() == 0 || endNanos != lastEndNanos) {
+          builder.addPoints(point);
+          lastEndNanos = endNanos;
+        }
+      }
+      result.add(builder.build());
+    }
+    return result;
+  }
+
+  private static String partitionFilter(String filter, String partitionFilter) {
+    return filter.trim().isEmpty()
+        ? partitionFilter
+        : "(" + filter + ") AND (" + partitionFilter + ")";
+  }
+
+  private static long toNanos(Timestamp timestamp) {
+    return timestamp.getSeconds() * NANOS_PER_SECOND + timestamp.getNanos();
+  }
+
+  private static long toNanos(Duration duration) {
+    return duration.getSeconds() * NANOS_PER_SECOND + duration.getNanos();
+  }
+
+  private static Timestamp toTimestamp(long nanos) {
+    long seconds = nanos / NANOS_PER_SECOND;
+    long fraction = nanos % NANOS_PER_SECOND;
+    if (fraction < 0) {
+      seconds--;
+      fraction += NANOS_PER_SECOND;
+    }
+    return Timestamp.newBuilder().setSeconds(seconds).setNanos((int) fraction).build();
+  }
+
+  /** Builder for ParallelTimeSeriesLister. */
+  public static class Builder {
+    private final MetricServiceApi metricServiceApi;
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private int sliceCount = DEFAULT_SLICE_COUNT;
+
+    private Builder(MetricServiceApi metricServiceApi) {
+      this.metricServiceApi = Preconditions.checkNotNull(metricServiceApi);
+    }
+
+    /** Sets the maximum number of list requests outstanding at the same time. */
+    public Builder setMaxConcurrentRequests(int maxConcurrentRequests) {
+      Preconditions.checkArgument(maxConcurrentRequests > 0);
+      this.maxConcurrentRequests = maxConcurrentRequests;
+      return this;
+    }
+
+    /**
+     * Sets the number of slices the interval is split into. Requests without a start time are not
+     * split.
+     */
+    public Builder setSliceCount(int sliceCount) {
+      Preconditions.checkArgument(sliceCount > 0);
+      this.sliceCount = sliceCount;
+      return this;
+    }
+
+    public ParallelTimeSeriesLister build() {
+      return new ParallelTimeSeriesLister(this);
+    }
+  }
+}
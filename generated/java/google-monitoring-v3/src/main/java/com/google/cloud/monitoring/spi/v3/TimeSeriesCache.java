@@ -0,0 +1,423 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.monitoring.v3.Aggregation;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.ListTimeSeriesRequest.TimeSeriesView;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.Duration;
+
+/**
+ * Caches the results of listTimeSeries for queries that are repeated over a sliding interval, such
+ * as the charts of a dashboard. The points of each query, identified by its name, filter and
+ * view, are kept per time series in primitive arrays. When a query comes again with an interval
+ * that starts within the interval already fetched, only the newer part of the interval is fetched,
+ * and points older than the start of the interval are dropped.
+ *
+ * <p>Points that end less than the settle delay before the time they are fetched may still
+ * change, for example when data is written late. They are returned, but fetched again by the next
+ * query.
+ *
+ * <p>The cache holds up to a maximum number of points, and evicts the least recently used queries
+ * beyond that. Only FULL queries of INT64, DOUBLE and BOOL time series are cached; other queries
+ * are passed through. Queries that align or reduce their points are passed through as well: the
+ * alignment periods are laid out from the interval of each request, so the points of one interval
+ * cannot be combined with those of another, and a fetch of only the newer part of an interval
+ * would align its first period over a partial window.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (MetricServiceApi metricServiceApi = MetricServiceApi.create()) {
+ *   TimeSeriesCache cache = TimeSeriesCache.newBuilder(metricServiceApi).build();
+ *   ListTimeSeriesRequest request = ListTimeSeriesRequest.newBuilder()
+ *     .setName(MetricServiceApi.formatProjectName("[PROJECT]"))
+ *     .setFilter(filter)
+ *     .setInterval(lastHour)
+ *     .setView(ListTimeSeriesRequest.TimeSeriesView.FULL)
+ *     .build();
+ *   for (TimeSeries element : cache.list(request)) {
+ *     // doThingsWith(element);
+ *   }
+ * }
+ * </code></pre>
+ */
+public class TimeSeriesCache {
+  private static final long DEFAULT_MAX_CACHED_POINTS = 1000000;
+  private static final Duration DEFAULT_SETTLE_DELAY = Duration.standardMinutes(2);
+  private static final long NANOS_PER_SECOND = 1000000000L;
+  // The start time of points that have none, such as gauge points.
+  private static final long NO_START_TIME = Long.MIN_VALUE;
+
+  private final MetricServiceApi metricServiceApi;
+  private final long maxCachedPoints;
+  private final long settleDelayNanos;
+
+  // Guarded by this. The queries, least recently used first.
+  private final LinkedHashMap<ListTimeSeriesRequest, Query> queries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long cachedPointCount;
+
+  private TimeSeriesCache(Builder builder) {
+    this.metricServiceApi = builder.metricServiceApi;
+    this.maxCachedPoints = builder.maxCachedPoints;
+    this.settleDelayNanos = builder.settleDelay.getMillis() * 1000000L;
+  }
+
+  /** Returns a new builder for a cache that lists time series with the given API. */
+  public static Builder newBuilder(MetricServiceApi metricServiceApi) {
+    return new Builder(metricServiceApi);
+  }
+
+  /**
+   * Returns the time series that match the given request, with their points newest first, like
+   * listTimeSeries. The page token and page size of the request are ignored.
+   *
+   * @throws com.google.api.gax.grpc.ApiException if listing fails
+   */
+  public List<TimeSeries> list(ListTimeSeriesRequest request) {
+    return list(request, System.currentTimeMillis() * 1000000L);
+  }
+
+  @VisibleForTesting
+  List<TimeSeries> list(ListTimeSeriesRequest request, long nowNanos) {
+    TimeInterval interval = request.getInterval();
+    if (request.getView() != TimeSeriesView.FULL
+        || !interval.hasStartTime()
+        || isAggregated(request)) {
+      return fetch(request);
+    }
+    ListTimeSeriesRequest key =
+        request.toBuilder().clearInterval().clearPageToken().clearPageSize().build();
+    Query query;
+    synchronized (this) {
+      query = queries.get(key);
+      if (query == null) {
+        query = new Query();
+        queries.put(key, query);
+      }
+    }
+    long startNanos = toNanos(interval.getStartTime());
+    long endNanos = toNanos(interval.getEndTime());
+    // Queries for the same key wait for each other, so that the later ones use the points fetched
+    // by the earlier ones.
+    synchronized (query) {
+      List<TimeSeries> result = query.list(request, startNanos, endNanos, nowNanos);
+      synchronized (this) {
+        if (queries.get(key) == query) {
+          cachedPointCount += query.pointCount - query.countedPointCount;
+          query.countedPointCount = query.pointCount;
+          evict(query);
+        }
+      }
+      return result;
+    }
+  }
+
+  /** Returns the number of points currently cached. */
+  public synchronized long getCachedPointCount() {
+    return cachedPointCount;
+  }
+
+  // Must be called with the lock held. Evicts the least recently used queries until the points
+  // fit, and the given query if it does not fit on its own.
+  private void evict(Query current) {
+    Iterator<Query> iterator = queries.values().iterator();
+    while (cachedPointCount > maxCachedPoints && iterator.hasNext()) {
+      Query query = iterator.next();
+      if (query != current || current.countedPointCount > maxCachedPoints) {
+        iterator.remove();
+        cachedPointCount -= query.countedPointCount;
+      }
+    }
+  }
+
+  private List<TimeSeries> fetch(ListTimeSeriesRequest request) {
+    List<TimeSeries> result = new ArrayList<>();
+    for (TimeSeries timeSeries :
+        metricServiceApi
+            .listTimeSeries(request.toBuilder().setPageToken("").build())
+            .iterateAllElements()) {
+      result.add(timeSeries);
+    }
+    return result;
+  }
+
+  /** The points fetched for one query. */
+  private class Query {
+    // The time series by metric and resource. Only used with the lock of the query held.
+    private final Map<TimeSeries, Series> series = new LinkedHashMap<>();
+    // The points ending in [coveredStartNanos, coveredEndNanos] are all cached and final.
+    private long coveredStartNanos;
+    private long coveredEndNanos = NO_START_TIME;
+    private long pointCount;
+    // The number of points of the query in cachedPointCount. Guarded by the cache.
+    private long countedPointCount;
+
+    List<TimeSeries> list(
+        ListTimeSeriesRequest request, long startNanos, long endNanos, long nowNanos) {
+      boolean reuse =
+          coveredEndNanos != NO_START_TIME
+              && coveredStartNanos <= startNanos
+              && startNanos <= coveredEndNanos;
+      if (!reuse) {
+        clear();
+      }
+      long fetchStartNanos = reuse ? coveredEndNanos : startNanos;
+      if (!reuse || fetchStartNanos < endNanos) {
+        List<TimeSeries> fetched =
+            fetch(
+                request
+                    .toBuilder()
+                    .setInterval(
+                        TimeInterval.newBuilder()
+                            .setStartTime(toTimestamp(fetchStartNanos))
+                            .setEndTime(request.getInterval().getEndTime()))
+                    .build());
+        if (!isCacheable(fetched)) {
+          clear();
+          return reuse ? fetch(request) : fetched;
+        }
+        // Points after the covered interval were not final, so they are replaced. Points at its
+        // end are listed again, and skipped.
+        for (Series cached : series.values()) {
+          pointCount -= cached.truncateAfter(fetchStartNanos);
+        }
+        for (TimeSeries timeSeries : fetched) {
+          TimeSeries identity = identity(timeSeries);
+          Series cached = series.get(identity);
+          if (cached == null) {
+            cached = new Series(timeSeries);
+            series.put(identity, cached);
+          }
+          pointCount += cached.append(timeSeries, reuse ? fetchStartNanos : NO_START_TIME);
+        }
+        coveredEndNanos =
+            Math.max(fetchStartNanos, Math.min(endNanos, nowNanos - settleDelayNanos));
+      }
+      Iterator<Series> iterator = series.values().iterator();
+      while (iterator.hasNext()) {
+        Series cached = iterator.next();
+        pointCount -= cached.truncateBefore(startNanos);
+        if (cached.size == 0) {
+          iterator.remove();
+        }
+      }
+      coveredStartNanos = startNanos;
+
+      List<TimeSeries> result = new ArrayList<>();
+      for (Series cached : series.values()) {
+        TimeSeries timeSeries = cached.toTimeSeries(endNanos);
+        if (timeSeries.getPointsCount() > 0) {
+          result.add(timeSeries);
+        }
+      }
+      return result;
+    }
+
+    private void clear() {
+      series.clear();
+      pointCount = 0;
+      coveredEndNanos = NO_START_TIME;
+    }
+  }
+
+  /** The points of one time series, oldest first, in parallel arrays. */
+  private static class Series {
+    // The time series without its points.
+    private final TimeSeries header;
+    private final boolean isDouble;
+    private long[] startNanos = new long[8];
+    private long[] endNanos = new long[8];
+    // The raw bits of double values.
+    private long[] values = new long[8];
+    private int size;
+
+    Series(TimeSeries timeSeries) {
+      this.header = timeSeries.toBuilder().clearPoints().build();
+      this.isDouble = timeSeries.getValueType() == ValueType.DOUBLE;
+    }
+
+    // Appends the points of the time series that end after the given time, or all of them if it is
+    // NO_START_TIME, and returns the number appended. The API returns points newest first.
+    int append(TimeSeries timeSeries, long afterNanos) {
+      int oldSize = size;
+      for (int i = timeSeries.getPointsCount() - 1; i >= 0; i--) {
+        Point point = timeSeries.getPoints(i);
+        long end = toNanos(point.getInterval().getEndTime());
+        if (end <= afterNanos) {
+          continue;
+        }
+        if (size == endNanos.length) {
+          startNanos = Arrays.copyOf(startNanos, size * 2);
+          endNanos = Arrays.copyOf(endNanos, size * 2);
+          values = Arrays.copyOf(values, size * 2);
+        }
+        startNanos[size] =
+            point.getInterval().hasStartTime()
+                ? toNanos(point.getInterval().getStartTime())
+                : NO_START_TIME;
+        endNanos[size] = end;
+        TypedValue value = point.getValue();
+        values[size] =
+            isDouble
+                ? Double.doubleToRawLongBits(value.getDoubleValue())
+                : value.getValueCase() == TypedValue.ValueCase.BOOL_VALUE
+                    ? (value.getBoolValue() ? 1 : 0)
+                    : value.getInt64Value();
+        size++;
+      }
+      return size - oldSize;
+    }
+
+    // Removes the points that end after the given time, and returns the number removed.
+    int truncateAfter(long afterNanos) {
+      int oldSize = size;
+      while (size > 0 && endNanos[size - 1] > afterNanos) {
+        size--;
+      }
+      return oldSize - size;
+    }
+
+    // Removes the points that end before the given time, and returns the number removed.
+    int truncateBefore(long beforeNanos) {
+      int removed = 0;
+      while (removed < size && endNanos[removed] < beforeNanos) {
+        removed++;
+      }
+      if (removed > 0) {
+        System.arraycopy(startNanos, removed, startNanos, 0, size - removed);
+        System.arraycopy(endNanos, removed, endNanos, 0, size - removed);
+        System.arraycopy(values, removed, values, 0, size - removed);
+        size -= removed;
+      }
+      return removed;
+    }
+
+    // Returns the time series with its points that end by the given time, newest first.
+    TimeSeries toTimeSeries(long untilNanos) {
+      TimeSeries.Builder builder = header.toBuilder();
+      for (int i = size - 1; i >= 0; i--) {
+        if (endNanos[i] > untilNanos) {
+          continue;
+        }
+        TimeInterval.Builder interval =
+            TimeInterval.newBuilder().setEndTime(toTimestamp(endNanos[i]));
+        if (startNanos[i] != NO_START_TIME) {
+          interval.setStartTime(toTimestamp(startNanos[i]));
+        }
+        TypedValue.Builder value = TypedValue.newBuilder();
+        if (isDouble) {
+          value.setDoubleValue(Double.longBitsToDouble(values[i]));
+        } else if (header.getValueType() == ValueType.BOOL) {
+          value.setBoolValue(values[i] != 0);
+        } else {
+          value.setInt64Value(values[i]);
+        }
+        builder.addPoints(Point.newBuilder().setInterval(interval).setValue(value));
+      }
+      return builder.build();
+    }
+  }
+
+  private static boolean isAggregated(ListTimeSeriesRequest request) {
+    Aggregation aggregation = request.getAggregation();
+    return aggregation.getPerSeriesAligner() != Aggregation.Aligner.ALIGN_NONE
+        || aggregation.getCrossSeriesReducer() != Aggregation.Reducer.REDUCE_NONE;
+  }
+
+  private static boolean isCacheable(List<TimeSeries> fetched) {
+    for (TimeSeries timeSeries : fetched) {
+      switch (timeSeries.getValueType()) {
+        case INT64:
+        case DOUBLE:
+        case BOOL:
+          break;
+        default:
+          return false;
+      }
+    }
+    return true;
+  }
+
+  private static TimeSeries identity(TimeSeries timeSeries) {
+    return TimeSeries.newBuilder()
+        .setMetric(timeSeries.getMetric())
+        .setResource(timeSeries.getResource())
+        .build();
+  }
+
+  private static long toNanos(Timestamp timestamp) {
+    return timestamp.getSeconds() * NANOS_PER_SECOND + timestamp.getNanos();
+  }
+
+  private static Timestamp toTimestamp(long nanos) {
+    long seconds = nanos / NANOS_PER_SECOND;
+    long fraction = nanos % NANOS_PER_SECOND;
+    if (fraction < 0) {
+      seconds--;
+      fraction += NANOS_PER_SECOND;
+    }
+    return Timestamp.newBuilder().setSeconds(seconds).setNanos((int) fraction).build();
+  }
+
+  /** Builder for TimeSeriesCache. */
+  public static class Builder {
+    private final MetricServiceApi metricServiceApi;
+    private long maxCachedPoints = DEFAULT_MAX_CACHED_POINTS;
+    private Duration settleDelay = DEFAULT_SETTLE_DELAY;
+
+    private Builder(MetricServiceApi metricServiceApi) {
+      this.metricServiceApi = Preconditions.checkNotNull(metricServiceApi);
+    }
+
+    /**
+     * Sets the maximum number of points cached over all queries. Each point takes 24 bytes, so the
+     * default of a million points takes about 24 megabytes.
+     */
+    public Builder setMaxCachedPoints(long maxCachedPoints) {
+      Preconditions.checkArgument(maxCachedPoints >= 0);
+      this.maxCachedPoints = maxCachedPoints;
+      return this;
+    }
+
+    /**
+     * Sets how long after their end time points are considered final. Points that end later are
+     * fetched again by the next query. Defaults to 2 minutes.
+     */
+    public Builder setSettleDelay(Duration settleDelay) {
+      Preconditions.checkArgument(settleDelay.getMillis() >= 0);
+      this.settleDelay = settleDelay;
+      return this;
+    }
+
+    public TimeSeriesCache build() {
+      return new TimeSeriesCache(this);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.common.base.Preconditions;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.Timestamp;
+
+/**
+ * The points of a time series in parallel primitive arrays, as decoded by {@link
+ * MetricServiceApi#listTimeSeriesColumns}. A point takes 24 bytes, instead of the several objects
+ * of a {@link Point}. The points are in the order of the response, newest first.
+ *
+ * <p>Only BOOL, INT64 and DOUBLE time series are represented. Times are in nanoseconds since the
+ * epoch.
+ */
+public final class TimeSeriesColumns {
+  private static final long NANOS_PER_SECOND = 1000000000L;
+  // The start time of points that have none, such as gauge points.
+  static final long NO_START_TIME = Long.MIN_VALUE;
+
+  private final TimeSeries header;
+  private final boolean isDouble;
+  private final int size;
+  private final long[] startNanos;
+  private final long[] endNanos;
+  // The raw bits of double values.
+  private final long[] values;
+
+  TimeSeriesColumns(
+      TimeSeries header, int size, long[] startNanos, long[] endNanos, long[] values) {
+    this.header = header;
+    this.isDouble = header.getValueType() == ValueType.DOUBLE;
+    this.size = size;
+    this.startNanos = startNanos;
+    this.endNanos = endNanos;
+    this.values = values;
+  }
+
+  /** Returns the time series without its points: its metric, resource, kind and value type. */
+  public TimeSeries getHeader() {
+    return header;
+  }
+
+  /** Returns the number of points. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns whether the point at the given index has a start time. */
+  public boolean hasStartTime(int index) {
+    return startNanos[checkIndex(index)] != NO_START_TIME;
+  }
+
+  /** Returns the start time of the point at the given index, or 0 if it has none. */
+  public long getStartNanos(int index) {
+    long start = startNanos[checkIndex(index)];
+    return start == NO_START_TIME ? 0 : start;
+  }
+
+  /** Returns the end time of the point at the given index. */
+  public long getEndNanos(int index) {
+    return endNanos[checkIndex(index)];
+  }
+
+  /** Returns the value of the point at the given index, converted to a double if needed. */
+  public double getDoubleValue(int index) {
+    long value = values[checkIndex(index)];
+    return isDouble ? Double.longBitsToDouble(value) : value;
+  }
+
+  /**
+   * Returns the value of the point at the given index of an INT64 time series, or 1 for true and
+   * 0 for false in a BOOL time series.
+   *
+   * @throws IllegalStateException if the time series is a DOUBLE time series
+   */
+  public long getLongValue(int index) {
+    Preconditions.checkState(!isDouble, "The values are doubles.");
+    return values[checkIndex(index)];
+  }
+
+  /** Returns the time series with its points as protos. */
+  public TimeSeries toTimeSeries() {
+    TimeSeries.Builder builder = header.toBuilder();
+    for (int i = 0; i < size; i++) {
+      TimeInterval.Builder interval =
+          TimeInterval.newBuilder().setEndTime(toTimestamp(endNanos[i]));
+      if (startNanos[i] != NO_START_TIME) {
+        interval.setStartTime(toTimestamp(startNanos[i]));
+      }
+      TypedValue.Builder value = TypedValue.newBuilder();
+      if (isDouble) {
+        value.setDoubleValue(Double.longBitsToDouble(values[i]));
+      } else if (header.getValueType() == ValueType.BOOL) {
+        value.setBoolValue(values[i] != 0);
+      } else {
+        value.setInt64Value(values[i]);
+      }
+      builder.addPoints(Point.newBuilder().setInterval(interval).setValue(value));
+    }
+    return builder.build();
+  }
+
+  @Override
+  public String toString() {
+    return "TimeSeriesColumns{metric="
+        + header.getMetric().getType()
+        + ", resource="
+        + header.getResource().getType()
+        + ", size="
+        + size
+        + "}";
+  }
+
+  private int checkIndex(int index) {
+    return Preconditions.checkElementIndex(index, size);
+  }
+
+  private static Timestamp toTimestamp(long nanos) {
+    long seconds = nanos / NANOS_PER_SECOND;
+    long fraction = nanos % NANOS_PER_SECOND;
+    if (fraction < 0) {
+      seconds--;
+      fraction += NANOS_PER_SECOND;
+    }
+    return Timestamp.newBuilder().setSeconds(seconds).setNanos((int) fraction).build();
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.MetricServiceGrpc;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes ListTimeSeriesResponse messages from the wire format into {@link TimeSeriesColumns},
+ * without building a proto for every point. The metric and resource of each time series are
+ * decoded as protos, since there is one of each per time series.
+ */
+class TimeSeriesColumnsMarshaller
+    implements MethodDescriptor.Marshaller<ListTimeSeriesColumnsResponse> {
+  /** The ListTimeSeries method, with responses decoded into columns. */
+  static final MethodDescriptor<ListTimeSeriesRequest, ListTimeSeriesColumnsResponse>
+      LIST_TIME_SERIES_COLUMNS =
+          MethodDescriptor.create(
+              MethodType.UNARY,
+              MetricServiceGrpc.METHOD_LIST_TIME_SERIES.getFullMethodName(),
+              ProtoUtils.marshaller(ListTimeSeriesRequest.getDefaultInstance()),
+              new TimeSeriesColumnsMarshaller());
+
+  // Field numbers of ListTimeSeriesResponse.
+  private static final int RESPONSE_TIME_SERIES = 1;
+  private static final int RESPONSE_NEXT_PAGE_TOKEN = 2;
+  // Field numbers of TimeSeries.
+  private static final int SERIES_METRIC = 1;
+  private static final int SERIES_RESOURCE = 2;
+  private static final int SERIES_METRIC_KIND = 3;
+  private static final int SERIES_VALUE_TYPE = 4;
+  private static final int SERIES_POINTS = 5;
+  // Field numbers of Point.
+  private static final int POINT_INTERVAL = 1;
+  private static final int POINT_VALUE = 2;
+  // Field numbers of TimeInterval.
+  private static final int INTERVAL_START_TIME = 1;
+  private static final int INTERVAL_END_TIME = 2;
+  // Field numbers of Timestamp.
+  private static final int TIMESTAMP_SECONDS = 1;
+  private static final int TIMESTAMP_NANOS = 2;
+  // Field numbers of TypedValue.
+  private static final int VALUE_BOOL = 1;
+  private static final int VALUE_INT64 = 2;
+  private static final int VALUE_DOUBLE = 3;
+
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  // The descriptor is only used for client calls, which stream requests through the proto
+  // marshaller and only ever parse responses, so responses never have to be encoded.
+  @Override
+  public InputStream stream(ListTimeSeriesColumnsResponse value) {
+    throw new UnsupportedOperationException("Columns are only decoded");
+  }
+
+  @Override
+  public ListTimeSeriesColumnsResponse parse(InputStream stream) {
+    try {
+      return parseResponse(CodedInputStream.newInstance(stream));
+    } catch (IOException e) {
+      throw Status.INTERNAL
+          .withDescription("Invalid protobuf byte sequence")
+          .withCause(e)
+          .asRuntimeException();
+    }
+  }
+
+  static ListTimeSeriesColumnsResponse parseResponse(CodedInputStream input) throws IOException {
+    List<TimeSeriesColumns> timeSeries = new ArrayList<>();
+    String nextPageToken = "";
+    while (true) {
+      int tag = input.readTag();
+      if (tag == 0) {
+        break;
+      }
+      switch (tag) {
+        case (RESPONSE_TIME_SERIES << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+          int limit = input.pushLimit(input.readRawVarint32());
+          timeSeries.add(new SeriesDecoder().decode(input));
+          input.popLimit(limit);
+          break;
+        case (RESPONSE_NEXT_PAGE_TOKEN << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+          nextPageToken = input.readStringRequireUtf8();
+          break;
+        default:
+          input.skipField(tag);
+      }
+    }
+    return new ListTimeSeriesColumnsResponse(timeSeries, nextPageToken);
+  }
+
+  /** Decodes one time series, growing its arrays as points are read. */
+  private static class SeriesDecoder {
+    private final TimeSeries.Builder header = TimeSeries.newBuilder();
+    private ValueType pointValueType = ValueType.VALUE_TYPE_UNSPECIFIED;
+    private long[] startNanos = new long[16];
+    private long[] endNanos = new long[16];
+    private long[] values = new long[16];
+    private int size;
+
+    TimeSeriesColumns decode(CodedInputStream input) throws IOException {
+      while (true) {
+        int tag = input.readTag();
+        if (tag == 0) {
+          break;
+        }
+        switch (tag) {
+          case (SERIES_METRIC << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            input.readMessage(header.getMetricBuilder(), ExtensionRegistryLite.getEmptyRegistry());
+            break;
+          case (SERIES_RESOURCE << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            input.readMessage(
+                header.getResourceBuilder(), ExtensionRegistryLite.getEmptyRegistry());
+            break;
+          case (SERIES_METRIC_KIND << 3) | WireFormat.WIRETYPE_VARINT:
+            header.setMetricKindValue(input.readEnum());
+            break;
+          case (SERIES_VALUE_TYPE << 3) | WireFormat.WIRETYPE_VARINT:
+            header.setValueTypeValue(input.readEnum());
+            break;
+          case (SERIES_POINTS << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            int limit = input.pushLimit(input.readRawVarint32());
+            decodePoint(input);
+            input.popLimit(limit);
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+      // The value type is taken from the points if the response does not set it.
+      if (header.getValueType() == ValueType.VALUE_TYPE_UNSPECIFIED) {
+        header.setValueType(pointValueType);
+      } else if (pointValueType != ValueType.VALUE_TYPE_UNSPECIFIED
+          && pointValueType != header.getValueType()) {
+        throw new InvalidProtocolBufferException("Values do not match the value type");
+      }
+      return new TimeSeriesColumns(
+          header.build(),
+          size,
+          Arrays.copyOf(startNanos, size),
+          Arrays.copyOf(endNanos, size),
+          Arrays.copyOf(values, size));
+    }
+
+    private void decodePoint(CodedInputStream input) throws IOException {
+      if (size == endNanos.length) {
+        startNanos = Arrays.copyOf(startNanos, size * 2);
+        endNanos = Arrays.copyOf(endNanos, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      startNanos[size] = TimeSeriesColumns.NO_START_TIME;
+      endNanos[size] = 0;
+      values[size] = 0;
+      while (true) {
+        int tag = input.readTag();
+        if (tag == 0) {
+          break;
+        }
+        switch (tag) {
+          case (POINT_INTERVAL << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            int limit = input.pushLimit(input.readRawVarint32());
+            decodeInterval(input);
+            input.popLimit(limit);
+            break;
+          case (POINT_VALUE << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            limit = input.pushLimit(input.readRawVarint32());
+            decodeValue(input);
+            input.popLimit(limit);
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+      size++;
+    }
+
+    private void decodeInterval(CodedInputStream input) throws IOException {
+      while (true) {
+        int tag = input.readTag();
+        if (tag == 0) {
+          break;
+        }
+        switch (tag) {
+          case (INTERVAL_START_TIME << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            startNanos[size] = decodeTimestamp(input);
+            break;
+          case (INTERVAL_END_TIME << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            endNanos[size] = decodeTimestamp(input);
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+    }
+
+    private void decodeValue(CodedInputStream input) throws IOException {
+      while (true) {
+        int tag = input.readTag();
+        if (tag == 0) {
+          break;
+        }
+        switch (tag) {
+          case (VALUE_BOOL << 3) | WireFormat.WIRETYPE_VARINT:
+            values[size] = input.readBool() ? 1 : 0;
+            setPointValueType(ValueType.BOOL);
+            break;
+          case (VALUE_INT64 << 3) | WireFormat.WIRETYPE_VARINT:
+            values[size] = input.readInt64();
+            setPointValueType(ValueType.INT64);
+            break;
+          case (VALUE_DOUBLE << 3) | WireFormat.WIRETYPE_FIXED64:
+            values[size] = input.readRawLittleEndian64();
+            setPointValueType(ValueType.DOUBLE);
+            break;
+          default:
+            throw new InvalidProtocolBufferException(
+                "Only BOOL, INT64 and DOUBLE values can be decoded into columns");
+        }
+      }
+    }
+
+    private void setPointValueType(ValueType valueType) throws IOException {
+      if (pointValueType == ValueType.VALUE_TYPE_UNSPECIFIED) {
+        pointValueType = valueType;
+      } else if (pointValueType != valueType) {
+        throw new InvalidProtocolBufferException("Values of different types in one time series");
+      }
+    }
+  }
+
+  private static long decodeTimestamp(CodedInputStream input) throws IOException {
+    int limit = input.pushLimit(input.readRawVarint32());
+    long seconds = 0;
+    int nanos = 0;
+    while (true) {
+      int tag = input.readTag();
+      if (tag == 0) {
+        break;
+      }
+      switch (tag) {
+        case (TIMESTAMP_SECONDS << 3) | WireFormat.WIRETYPE_VARINT:
+          seconds = input.readInt64();
+          break;
+        case (TIMESTAMP_NANOS << 3) | WireFormat.WIRETYPE_VARINT:
+          nanos = input.readInt32();
+          break;
+        default:
+          input.skipField(tag);
+      }
+    }
+    input.popLimit(limit);
+    return seconds * NANOS_PER_SECOND + nanos;
+  }
+}
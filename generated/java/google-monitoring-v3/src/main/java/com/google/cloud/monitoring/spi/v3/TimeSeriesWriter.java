@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.gax.grpc.ApiException;
+import com.google.api.gax.grpc.DefaultNanoClock;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Empty;
+import io.grpc.Status;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.joda.time.Duration;
+
+/**
+ * Writes time series points in bundles, so that callers across a process share createTimeSeries
+ * calls. Points are bundled per project, up to the number of time series a request may hold, and
+ * a bundle is sent once it is full or its first point has waited for the delay threshold.
+ *
+ * <p>A request may hold only one point per time series, so a point for a time series that is
+ * already in a bundle goes to a later bundle. The bundles of a project are sent one at a time, in
+ * order, which keeps the points of every time series in time order.
+ *
+ * <p>Each written point has its own future. When a request fails for some of its time series
+ * only, the service writes the others, fails the request with status code INVALID_ARGUMENT and
+ * names the failed ones in the error description, as in "timeSeries[3]", so only the futures of
+ * those time series fail. This relies on the format of the description, which the service does not
+ * guarantee; failures with any other status code, or that name no time series, fail the futures
+ * of the whole bundle, so that no point is ever reported as written when it may not have been.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (MetricServiceApi metricServiceApi = MetricServiceApi.create()) {
+ *   ProjectName project = ProjectName.of("[PROJECT]");
+ *   TimeSeriesWriter writer = TimeSeriesWriter.newBuilder(metricServiceApi).build();
+ *   ListenableFuture&lt;Void&gt; written = writer.write(project, timeSeries);
+ *   // Do something
+ *   writer.close();
+ * }
+ * </code></pre>
+ */
+public class TimeSeriesWriter implements AutoCloseable {
+  private static final int DEFAULT_MAX_SERIES_PER_REQUEST = 200;
+  private static final Duration DEFAULT_DELAY_THRESHOLD = Duration.standardSeconds(1);
+  private static final Pattern SERIES_INDEX = Pattern.compile("timeSeries\\[(\\d+)\\]");
+
+  private final MetricServiceApi metricServiceApi;
+  private final int maxSeriesPerRequest;
+  private final long delayThresholdNanos;
+  private final NanoClock clock;
+  private final ScheduledExecutorService scheduler;
+  private final boolean shouldCloseScheduler;
+
+  // Guarded by this.
+  private final Map<ProjectName, ProjectQueue> queues = new HashMap<>();
+  private int pendingSeriesCount;
+  private boolean closed;
+
+  private static class OutstandingSeries {
+    private final TimeSeries timeSeries;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    private OutstandingSeries(TimeSeries timeSeries) {
+      this.timeSeries = timeSeries;
+    }
+  }
+
+  private static class Bundle {
+    // The series of the bundle, in request order, by their identity.
+    private final Map<TimeSeries, OutstandingSeries> series = new LinkedHashMap<>();
+    private final long createdNanos;
+
+    private Bundle(long createdNanos) {
+      this.createdNanos = createdNanos;
+    }
+  }
+
+  // All fields are guarded by the writer.
+  private static class ProjectQueue {
+    private final ProjectName project;
+    private final Deque<Bundle> bundles = new ArrayDeque<>();
+    private boolean inFlight;
+    private boolean flushRequested;
+    private ScheduledFuture<?> flushTask;
+
+    private ProjectQueue(ProjectName project) {
+      this.project = project;
+    }
+  }
+
+  private TimeSeriesWriter(Builder builder) {
+    this.metricServiceApi = builder.metricServiceApi;
+    this.maxSeriesPerRequest = builder.maxSeriesPerRequest;
+    this.delayThresholdNanos = builder.delayThreshold.getMillis() * 1000000L;
+    this.clock = builder.clock;
+    if (builder.scheduler != null) {
+      this.scheduler = builder.scheduler;
+      this.shouldCloseScheduler = false;
+    } else {
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("monitoring-write-%d")
+                  .build());
+      this.shouldCloseScheduler = true;
+    }
+  }
+
+  /** Returns a new builder for a writer that writes with the given API. */
+  public static Builder newBuilder(MetricServiceApi metricServiceApi) {
+    return new Builder(metricServiceApi);
+  }
+
+  /** Returns the number of time series points waiting to be sent. */
+  public synchronized int getPendingSeriesCount() {
+    return pendingSeriesCount;
+  }
+
+  /**
+   * Schedules a point to be written to the given project. The time series must hold exactly one
+   * point. Returns a future that completes once the point is written.
+   */
+  public ListenableFuture<Void> write(ProjectName project, TimeSeries timeSeries) {
+    Preconditions.checkArgument(
+        timeSeries.getPointsCount() == 1, "A time series must be written one point at a time.");
+    OutstandingSeries outstanding = new OutstandingSeries(timeSeries);
+    TimeSeries identity =
+        TimeSeries.newBuilder()
+            .setMetric(timeSeries.getMetric())
+            .setResource(timeSeries.getResource())
+            .build();
+    Bundle bundle;
+    ProjectQueue queue;
+    synchronized (this) {
+      Preconditions.checkState(!closed, "Writer is closed.");
+      queue = queues.get(project);
+      if (queue == null) {
+        queue = new ProjectQueue(project);
+        queues.put(project, queue);
+      }
+      Bundle target = null;
+      for (Bundle candidate : queue.bundles) {
+        if (candidate.series.size() < maxSeriesPerRequest
+            && !candidate.series.containsKey(identity)) {
+          target = candidate;
+          break;
+        }
+      }
+      if (target == null) {
+        target = new Bundle(clock.nanoTime());
+        queue.bundles.add(target);
+      }
+      target.series.put(identity, outstanding);
+      pendingSeriesCount++;
+      bundle = takeDueBundle(queue);
+    }
+    if (bundle != null) {
+      send(queue, bundle);
+    }
+    return outstanding.future;
+  }
+
+  /** Sends all pending points now, without waiting for the delay threshold. */
+  public void flush() {
+    List<ProjectQueue> sendQueues = new ArrayList<>();
+    List<Bundle> sendBundles = new ArrayList<>();
+    synchronized (this) {
+      for (ProjectQueue queue : queues.values()) {
+        queue.flushRequested = true;
+        Bundle bundle = takeDueBundle(queue);
+        if (bundle != null) {
+          sendQueues.add(queue);
+          sendBundles.add(bundle);
+        }
+      }
+    }
+    for (int i = 0; i < sendBundles.size(); i++) {
+      send(sendQueues.get(i), sendBundles.get(i));
+    }
+  }
+
+  /**
+   * Sends all pending points and stops accepting new ones. Points already scheduled complete their
+   * futures as usual.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    flush();
+    if (shouldCloseScheduler) {
+      scheduler.shutdown();
+    }
+  }
+
+  // Must be called with the lock held. Returns the first bundle of the project if it is due and no
+  // other bundle of the project is in flight, or schedules a flush for when it is due.
+  private Bundle takeDueBundle(ProjectQueue queue) {
+    Bundle first = queue.bundles.peek();
+    if (queue.inFlight || first == null) {
+      return null;
+    }
+    long waitNanos = first.createdNanos + delayThresholdNanos - clock.nanoTime();
+    if (queue.flushRequested
+        || closed
+        || first.series.size() >= maxSeriesPerRequest
+        || waitNanos <= 0) {
+      queue.bundles.poll();
+      if (queue.bundles.isEmpty()) {
+        queue.flushRequested = false;
+      }
+      if (queue.flushTask != null) {
+        queue.flushTask.cancel(false);
+        queue.flushTask = null;
+      }
+      queue.inFlight = true;
+      pendingSeriesCount -= first.series.size();
+      return first;
+    }
+    if (queue.flushTask == null && !closed) {
+      scheduleFlush(queue, waitNanos);
+    }
+    return null;
+  }
+
+  // Must be called with the lock held.
+  private void scheduleFlush(final ProjectQueue queue, long delayNanos) {
+    queue.flushTask =
+        scheduler.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                Bundle bundle;
+                synchronized (TimeSeriesWriter.this) {
+                  queue.flushTask = null;
+                  bundle = takeDueBundle(queue);
+                }
+                if (bundle != null) {
+                  send(queue, bundle);
+                }
+              }
+            },
+            delayNanos,
+            TimeUnit.NANOSECONDS);
+  }
+
+  private void send(final ProjectQueue queue, final Bundle bundle) {
+    CreateTimeSeriesRequest.Builder request =
+        CreateTimeSeriesRequest.newBuilder().setNameBytes(queue.project.toByteString());
+    for (OutstandingSeries outstanding : bundle.series.values()) {
+      request.addTimeSeries(outstanding.timeSeries);
+    }
+    Futures.addCallback(
+        metricServiceApi.createTimeSeriesCallable().futureCall(request.build()),
+        new FutureCallback<Empty>() {
+          @Override
+          public void onSuccess(Empty result) {
+            for (OutstandingSeries outstanding : bundle.series.values()) {
+              outstanding.future.set(null);
+            }
+            sendNext(queue);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            Set<Integer> failedIndexes = failedSeriesIndexes(t);
+            int index = 0;
+            for (OutstandingSeries outstanding : bundle.series.values()) {
+              if (failedIndexes.isEmpty() || failedIndexes.contains(index)) {
+                outstanding.future.setException(t);
+              } else {
+                outstanding.future.set(null);
+              }
+              index++;
+            }
+            sendNext(queue);
+          }
+        });
+  }
+
+  private void sendNext(ProjectQueue queue) {
+    Bundle next;
+    synchronized (this) {
+      queue.inFlight = false;
+      next = takeDueBundle(queue);
+      if (next == null && queue.bundles.isEmpty() && queue.flushTask == null) {
+        queues.remove(queue.project);
+      }
+    }
+    if (next != null) {
+      send(queue, next);
+    }
+  }
+
+  // Returns the indexes of the time series that a partial write failure names, such as
+  // "timeSeries[3]", or an empty set if the failure is not one the service uses for partial
+  // writes.
+  private static Set<Integer> failedSeriesIndexes(Throwable t) {
+    Set<Integer> indexes = new HashSet<>();
+    if (!(t instanceof ApiException)
+        || ((ApiException) t).getStatusCode() != Status.Code.INVALID_ARGUMENT) {
+      return indexes;
+    }
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (cause.getMessage() == null) {
+        continue;
+      }
+      Matcher matcher = SERIES_INDEX.matcher(cause.getMessage());
+      while (matcher.find()) {
+        indexes.add(Integer.parseInt(matcher.group(1)));
+      }
+    }
+    return indexes;
+  }
+
+  /** Builder for TimeSeriesWriter. */
+  public static class Builder {
+    private final MetricServiceApi metricServiceApi;
+    private int maxSeriesPerRequest = DEFAULT_MAX_SERIES_PER_REQUEST;
+    private Duration delayThreshold = DEFAULT_DELAY_THRESHOLD;
+    private ScheduledExecutorService scheduler;
+    private NanoClock clock = DefaultNanoClock.create();
+
+    private Builder(MetricServiceApi metricServiceApi) {
+      this.metricServiceApi = Preconditions.checkNotNull(metricServiceApi);
+    }
+
+    /**
+     * Sets the maximum number of time series in one request. Defaults to 200, the limit of the
+     * service.
+     */
+    public Builder setMaxSeriesPerRequest(int maxSeriesPerRequest) {
+      Preconditions.checkArgument(maxSeriesPerRequest > 0);
+      this.maxSeriesPerRequest = maxSeriesPerRequest;
+      return this;
+    }
+
+    /**
+     * Sets how long the first point of a bundle waits for more points before the bundle is sent.
+     * Defaults to 1 second.
+     */
+    public Builder setDelayThreshold(Duration delayThreshold) {
+      Preconditions.checkArgument(delayThreshold.getMillis() >= 0);
+      this.delayThreshold = delayThreshold;
+      return this;
+    }
+
+    /**
+     * Sets the scheduler on which delayed bundles are sent. The scheduler is not shut down when the
+     * writer is closed.
+     */
+    public Builder setScheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder setClock(NanoClock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public TimeSeriesWriter build() {
+      return new TimeSeriesWriter(this);
+    }
+  }
+}
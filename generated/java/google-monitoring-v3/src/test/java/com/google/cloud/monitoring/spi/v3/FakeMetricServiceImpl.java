@@ -0,0 +1,237 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.ListTimeSeriesResponse;
+import com.google.monitoring.v3.MetricServiceGrpc.MetricServiceImplBase;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Empty;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Timestamp;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A stateful fake of the MetricService service for tests of long-running clients. Create requests
+ * write their points, unless a failure was queued with {@link #addFailure}. Like the service, it
+ * rejects a time series whose point is not newer than the last point written to it, or that
+ * appears twice in a request; the other time series of the request are written, and the error
+ * names the rejected ones by index.
+ *
+ * <p>List requests return the stored points in the interval of the request, newest first, with
+ * the page size counting time series. Filters are only understood as conjunctions of {@code key =
+ * "value"} terms on metric.type, metric.label.*, resource.type and resource.label.*; other terms
+ * match everything.
+ */
+public class FakeMetricServiceImpl extends MetricServiceImplBase implements MockGrpcService {
+  private static final Pattern FILTER_TERM = Pattern.compile("([a-z_.]+)\\s*=\\s*\"([^\"]*)\"");
+
+  private final List<GeneratedMessageV3> requests = new ArrayList<>();
+  private final Queue<Status> failures = new LinkedList<>();
+  // The points of every time series, oldest first, by the identity of the series.
+  private final Map<TimeSeries, List<Point>> storedPoints = new LinkedHashMap<>();
+  // The kind and value type of every time series, as first written, by its identity.
+  private final Map<TimeSeries, TimeSeries> headers = new HashMap<>();
+
+  /**
+   * Makes the next request, of any method, fail with the given status. Queuing {@link Status#OK}
+   * lets the next request succeed, so that a failure can be queued for a later one.
+   */
+  public synchronized void addFailure(Status status) {
+    failures.add(status);
+  }
+
+  /** Returns the points written to the given time series, oldest first. */
+  public synchronized List<Point> getStoredPoints(TimeSeries timeSeries) {
+    List<Point> points = storedPoints.get(identity(timeSeries));
+    return points == null ? new ArrayList<Point>() : new ArrayList<>(points);
+  }
+
+  @Override
+  public synchronized List<GeneratedMessageV3> getRequests() {
+    return new ArrayList<>(requests);
+  }
+
+  @Override
+  public void setResponses(List<GeneratedMessageV3> responses) {
+    throw new UnsupportedOperationException("FakeMetricServiceImpl generates its own responses");
+  }
+
+  @Override
+  public ServerServiceDefinition getServiceDefinition() {
+    return bindService();
+  }
+
+  @Override
+  public synchronized void reset() {
+    requests.clear();
+    failures.clear();
+    storedPoints.clear();
+    headers.clear();
+  }
+
+  @Override
+  public void createTimeSeries(
+      CreateTimeSeriesRequest request, StreamObserver<Empty> responseObserver) {
+    Status failure;
+    List<String> errors = new ArrayList<>();
+    synchronized (this) {
+      requests.add(request);
+      failure = nextFailure();
+      if (failure == null) {
+        Set<TimeSeries> written = new HashSet<>();
+        for (int i = 0; i < request.getTimeSeriesCount(); i++) {
+          TimeSeries timeSeries = request.getTimeSeries(i);
+          TimeSeries identity = identity(timeSeries);
+          if (!written.add(identity)) {
+            errors.add("timeSeries[" + i + "]: Duplicate time series in the request");
+            continue;
+          }
+          List<Point> points = storedPoints.get(identity);
+          if (points == null) {
+            points = new ArrayList<>();
+            storedPoints.put(identity, points);
+            headers.put(identity, timeSeries.toBuilder().clearPoints().build());
+          }
+          Point point = timeSeries.getPoints(0);
+          if (!points.isEmpty()
+              && toNanos(point.getInterval().getEndTime())
+                  <= toNanos(points.get(points.size() - 1).getInterval().getEndTime())) {
+            errors.add("timeSeries[" + i + "]: Points must be written in order");
+            continue;
+          }
+          points.add(point);
+        }
+      }
+    }
+    if (failure != null) {
+      responseObserver.onError(failure.asRuntimeException());
+    } else if (!errors.isEmpty()) {
+      responseObserver.onError(
+          Status.INVALID_ARGUMENT.withDescription(errors.toString()).asRuntimeException());
+    } else {
+      responseObserver.onNext(Empty.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+  }
+
+  @Override
+  public void listTimeSeries(
+      ListTimeSeriesRequest request, StreamObserver<ListTimeSeriesResponse> responseObserver) {
+    Status failure;
+    ListTimeSeriesResponse.Builder response = ListTimeSeriesResponse.newBuilder();
+    synchronized (this) {
+      requests.add(request);
+      failure = nextFailure();
+      if (failure == null) {
+        List<TimeSeries> matching = new ArrayList<>();
+        for (Map.Entry<TimeSeries, List<Point>> entry : storedPoints.entrySet()) {
+          if (!matches(entry.getKey(), request.getFilter())) {
+            continue;
+          }
+          TimeSeries.Builder timeSeries = headers.get(entry.getKey()).toBuilder();
+          List<Point> points = entry.getValue();
+          for (int i = points.size() - 1; i >= 0; i--) {
+            if (contains(request.getInterval(), points.get(i))) {
+              timeSeries.addPoints(points.get(i));
+            }
+          }
+          if (timeSeries.getPointsCount() > 0) {
+            matching.add(timeSeries.build());
+          }
+        }
+        int start = request.getPageToken().isEmpty() ? 0 : Integer.parseInt(request.getPageToken());
+        int end =
+            request.getPageSize() > 0
+                ? Math.min(matching.size(), start + request.getPageSize())
+                : matching.size();
+        response.addAllTimeSeries(matching.subList(start, end));
+        if (end < matching.size()) {
+          response.setNextPageToken(Integer.toString(end));
+        }
+      }
+    }
+    if (failure != null) {
+      responseObserver.onError(failure.asRuntimeException());
+    } else {
+      responseObserver.onNext(response.build());
+      responseObserver.onCompleted();
+    }
+  }
+
+  // Must be called with the lock held.
+  private Status nextFailure() {
+    Status failure = failures.poll();
+    return failure == null || failure.isOk() ? null : failure;
+  }
+
+  private static TimeSeries identity(TimeSeries timeSeries) {
+    return TimeSeries.newBuilder()
+        .setMetric(timeSeries.getMetric())
+        .setResource(timeSeries.getResource())
+        .build();
+  }
+
+  private static boolean contains(TimeInterval interval, Point point) {
+    long endNanos = toNanos(point.getInterval().getEndTime());
+    return endNanos >= toNanos(interval.getStartTime())
+        && endNanos <= toNanos(interval.getEndTime());
+  }
+
+  private static boolean matches(TimeSeries timeSeries, String filter) {
+    Matcher term = FILTER_TERM.matcher(filter);
+    while (term.find()) {
+      String key = term.group(1);
+      String actual;
+      if (key.equals("metric.type")) {
+        actual = timeSeries.getMetric().getType();
+      } else if (key.startsWith("metric.label.")) {
+        actual = timeSeries.getMetric().getLabelsMap().get(key.substring("metric.label.".length()));
+      } else if (key.equals("resource.type")) {
+        actual = timeSeries.getResource().getType();
+      } else if (key.startsWith("resource.label.")) {
+        actual =
+            timeSeries.getResource().getLabelsMap().get(key.substring("resource.label.".length()));
+      } else {
+        continue;
+      }
+      if (!term.group(2).equals(actual)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long toNanos(Timestamp timestamp) {
+    return timestamp.getSeconds() * 1000000000L + timestamp.getNanos();
+  }
+}
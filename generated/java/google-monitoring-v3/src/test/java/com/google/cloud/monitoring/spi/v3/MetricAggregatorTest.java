@@ -0,0 +1,207 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.Distribution;
+import com.google.api.MetricDescriptor.MetricKind;
+import com.google.api.MonitoredResource;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.collect.ImmutableMap;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.TimeSeries;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MetricAggregatorTest {
+  private static final ProjectName PROJECT = ProjectName.of("[PROJECT]");
+  private static final MonitoredResource RESOURCE =
+      MonitoredResource.newBuilder().setType("global").build();
+  private static final Map<String, String> LABELS = ImmutableMap.of("method", "get");
+
+  private static FakeMetricServiceImpl fakeMetricService;
+  private static MockServiceHelper serviceHelper;
+  private MetricServiceApi api;
+  private TimeSeriesWriter writer;
+  private ScheduledExecutorService scheduler;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeMetricService = new FakeMetricServiceImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-metric-aggregator", Arrays.<MockGrpcService>asList(fakeMetricService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    MetricServiceSettings settings =
+        MetricServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = MetricServiceApi.create(settings);
+    writer = TimeSeriesWriter.newBuilder(api).build();
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    scheduler.shutdownNow();
+    writer.close();
+    api.close();
+  }
+
+  // Only closeWritesCurrentValues closes its aggregator, so that the other tests write nothing.
+  private MetricAggregator newAggregator() {
+    return MetricAggregator.newBuilder(writer, PROJECT, RESOURCE)
+        .setFlushInterval(Duration.standardHours(1))
+        .setConcurrencyLevel(4)
+        .setScheduler(scheduler)
+        .build();
+  }
+
+  @Test
+  public void countsAcrossThreads() throws Exception {
+    MetricAggregator aggregator = newAggregator();
+    final MetricAggregator.Counter counter = aggregator.counter("custom/requests", LABELS);
+    Assert.assertSame(counter, aggregator.counter("custom/requests", LABELS));
+
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+              } catch (InterruptedException e) {
+                return;
+              }
+              for (int j = 0; j < 10000; j++) {
+                counter.add(1);
+              }
+            }
+          };
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    List<TimeSeries> collected = aggregator.collect(System.currentTimeMillis());
+    Assert.assertEquals(1, collected.size());
+    TimeSeries series = collected.get(0);
+    Assert.assertEquals(MetricKind.CUMULATIVE, series.getMetricKind());
+    Assert.assertEquals(LABELS, series.getMetric().getLabelsMap());
+    Assert.assertEquals(80000, series.getPoints(0).getValue().getInt64Value());
+    Assert.assertTrue(series.getPoints(0).getInterval().hasStartTime());
+  }
+
+  @Test
+  public void unsetGaugeIsNotWritten() {
+    MetricAggregator aggregator = newAggregator();
+    MetricAggregator.Gauge gauge = aggregator.gauge("custom/queue_size", LABELS);
+    Assert.assertTrue(aggregator.collect(System.currentTimeMillis()).isEmpty());
+
+    gauge.set(3);
+    gauge.set(5);
+    List<TimeSeries> collected = aggregator.collect(System.currentTimeMillis());
+    Assert.assertEquals(1, collected.size());
+    Assert.assertEquals(MetricKind.GAUGE, collected.get(0).getMetricKind());
+    Assert.assertEquals(5, collected.get(0).getPoints(0).getValue().getDoubleValue(), 0);
+  }
+
+  @Test
+  public void histogramBucketsValues() {
+    MetricAggregator aggregator = newAggregator();
+    MetricAggregator.Histogram latency = aggregator.histogram("custom/latency", LABELS, 10, 100);
+    for (double value : new double[] {1, 10, 50, 99, 100, 1000}) {
+      latency.record(value);
+    }
+
+    Distribution distribution =
+        aggregator
+            .collect(System.currentTimeMillis())
+            .get(0)
+            .getPoints(0)
+            .getValue()
+            .getDistributionValue();
+    Assert.assertEquals(6, distribution.getCount());
+    Assert.assertEquals(Arrays.asList(1L, 3L, 2L), distribution.getBucketCountsList());
+    Assert.assertEquals(
+        Arrays.asList(10.0, 100.0),
+        distribution.getBucketOptions().getExplicitBuckets().getBoundsList());
+    double mean = (1 + 10 + 50 + 99 + 100 + 1000) / 6.0;
+    Assert.assertEquals(mean, distribution.getMean(), 1e-9);
+    double deviation = 0;
+    for (double value : new double[] {1, 10, 50, 99, 100, 1000}) {
+      deviation += (value - mean) * (value - mean);
+    }
+    Assert.assertEquals(deviation, distribution.getSumOfSquaredDeviation(), 1e-6);
+  }
+
+  @Test
+  public void rejectsMetricOfAnotherKind() {
+    MetricAggregator aggregator = newAggregator();
+    aggregator.counter("custom/requests", LABELS);
+    try {
+      aggregator.gauge("custom/requests", LABELS);
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    // The same type with other labels is another metric.
+    aggregator.gauge("custom/requests", ImmutableMap.of("method", "put"));
+  }
+
+  @Test
+  public void closeWritesCurrentValues() throws Exception {
+    MetricAggregator aggregator = newAggregator();
+    aggregator.counter("custom/requests", LABELS).add(7);
+    aggregator.close();
+    writer.close();
+    // The writer sends the last bundle in the background.
+    for (int i = 0; i < 100 && fakeMetricService.getRequests().isEmpty(); i++) {
+      Thread.sleep(50);
+    }
+
+    Assert.assertEquals(1, fakeMetricService.getRequests().size());
+    CreateTimeSeriesRequest request =
+        (CreateTimeSeriesRequest) fakeMetricService.getRequests().get(0);
+    TimeSeries written = request.getTimeSeries(0);
+    Assert.assertEquals("custom/requests", written.getMetric().getType());
+    Assert.assertEquals(7, written.getPoints(0).getValue().getInt64Value());
+  }
+}
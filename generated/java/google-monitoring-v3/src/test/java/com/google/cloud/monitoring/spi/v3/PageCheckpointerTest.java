@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.Metric;
+import com.google.api.MetricDescriptor.MetricKind;
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.api.MonitoredResource;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.ListTimeSeriesResponse;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Timestamp;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PageCheckpointerTest {
+  private static final ProjectName PROJECT = ProjectName.of("[PROJECT]");
+  private static final ListTimeSeriesRequest REQUEST =
+      ListTimeSeriesRequest.newBuilder()
+          .setName(PROJECT.toString())
+          .setFilter("metric.type = \"custom/load\"")
+          .setInterval(
+              TimeInterval.newBuilder()
+                  .setStartTime(Timestamp.newBuilder().setSeconds(0))
+                  .setEndTime(Timestamp.newBuilder().setSeconds(10)))
+          .setView(ListTimeSeriesRequest.TimeSeriesView.FULL)
+          .setPageSize(2)
+          .build();
+
+  private static FakeMetricServiceImpl fakeMetricService;
+  private static MockServiceHelper serviceHelper;
+  private MetricServiceApi api;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeMetricService = new FakeMetricServiceImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-page-checkpointer", Arrays.<MockGrpcService>asList(fakeMetricService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    MetricServiceSettings settings =
+        MetricServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = MetricServiceApi.create(settings);
+    List<TimeSeries> timeSeries = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      timeSeries.add(
+          TimeSeries.newBuilder()
+              .setMetric(
+                  Metric.newBuilder()
+                      .setType("custom/load")
+                      .putLabels("index", Integer.toString(i)))
+              .setResource(MonitoredResource.newBuilder().setType("global"))
+              .setMetricKind(MetricKind.GAUGE)
+              .setValueType(ValueType.INT64)
+              .addPoints(
+                  Point.newBuilder()
+                      .setInterval(
+                          TimeInterval.newBuilder()
+                              .setEndTime(Timestamp.newBuilder().setSeconds(1)))
+                      .setValue(TypedValue.newBuilder().setInt64Value(i)))
+              .build());
+    }
+    api.createTimeSeries(PROJECT, timeSeries);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void resumesFromLastCheckpoint() throws IOException {
+    File checkpointFile = new File(temporaryFolder.getRoot(), "scan.checkpoint");
+    Iterator<TimeSeries> timeSeries =
+        api.listTimeSeries(REQUEST).checkpoint(checkpointFile, 3).iterateAllElements().iterator();
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(Integer.toString(i), index(timeSeries.next()));
+    }
+    // The iteration is abandoned here. The last checkpoint was taken before series 3, in the
+    // middle of the second page.
+
+    PageCheckpointer<ListTimeSeriesRequest, ListTimeSeriesResponse, TimeSeries> resumed =
+        PageCheckpointer.resume(
+            checkpointFile, ListTimeSeriesRequest.parser(), api.listTimeSeriesPagedCallable(), 3);
+    Assert.assertEquals(
+        Arrays.asList("3", "4", "5", "6", "7", "8", "9"), indexes(resumed.iterateAllElements()));
+    ListTimeSeriesRequest resumedRequest = listRequests().get(3);
+    Assert.assertEquals("2", resumedRequest.getPageToken());
+    Assert.assertEquals(REQUEST.getFilter(), resumedRequest.getFilter());
+    Assert.assertEquals(REQUEST.getInterval(), resumedRequest.getInterval());
+  }
+
+  @Test
+  public void completedScanResumesEmpty() throws IOException {
+    File checkpointFile = new File(temporaryFolder.getRoot(), "scan.checkpoint");
+    Assert.assertEquals(
+        10,
+        indexes(api.listTimeSeries(REQUEST).checkpoint(checkpointFile, 4).iterateAllElements())
+            .size());
+    int requestCount = listRequests().size();
+
+    PageCheckpointer<ListTimeSeriesRequest, ListTimeSeriesResponse, TimeSeries> resumed =
+        PageCheckpointer.resume(
+            checkpointFile, ListTimeSeriesRequest.parser(), api.listTimeSeriesPagedCallable(), 4);
+    Assert.assertTrue(indexes(resumed.iterateAllElements()).isEmpty());
+    Assert.assertEquals(requestCount, listRequests().size());
+  }
+
+  private static String index(TimeSeries timeSeries) {
+    return timeSeries.getMetric().getLabelsMap().get("index");
+  }
+
+  private static List<String> indexes(Iterable<TimeSeries> timeSeries) {
+    List<String> indexes = new ArrayList<>();
+    for (TimeSeries element : timeSeries) {
+      indexes.add(index(element));
+    }
+    return indexes;
+  }
+
+  private static List<ListTimeSeriesRequest> listRequests() {
+    List<ListTimeSeriesRequest> requests = new ArrayList<>();
+    for (GeneratedMessageV3 request : fakeMetricService.getRequests()) {
+      if (request instanceof ListTimeSeriesRequest) {
+        requests.add((ListTimeSeriesRequest) request);
+      }
+    }
+    return requests;
+  }
+}
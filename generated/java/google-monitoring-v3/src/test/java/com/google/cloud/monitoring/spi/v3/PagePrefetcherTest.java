@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import static com.google.cloud.monitoring.spi.v3.PagedResponseWrappers.ListGroupsPagedResponse;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.monitoring.v3.Group;
+import com.google.monitoring.v3.ListGroupsRequest;
+import com.google.monitoring.v3.ListGroupsResponse;
+import com.google.protobuf.GeneratedMessageV3;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PagePrefetcherTest {
+  private static final ListGroupsRequest REQUEST =
+      ListGroupsRequest.newBuilder()
+          .setName(GroupServiceApi.formatProjectName("[PROJECT]"))
+          .build();
+
+  private static MockGroupService mockGroupService;
+  private static MockServiceHelper serviceHelper;
+  private GroupServiceApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    mockGroupService = new MockGroupService();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-page-prefetcher", Arrays.<MockGrpcService>asList(mockGroupService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    GroupServiceSettings settings =
+        GroupServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = GroupServiceApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void fetchesUpToLookAheadPages() throws Exception {
+    mockGroupService.setResponses(pages(4));
+    ListGroupsPagedResponse response = api.listGroups(REQUEST);
+
+    Iterator<Group> elements = response.prefetch(2, Long.MAX_VALUE).iterateAllElements().iterator();
+    Assert.assertEquals("group-0", elements.next().getName());
+    awaitRequestCount(3);
+    // Pages 2 and 3 fill the look-ahead, so page 4 is not requested yet.
+    Thread.sleep(100);
+    Assert.assertEquals(3, mockGroupService.getRequests().size());
+
+    List<String> names = new ArrayList<>();
+    while (elements.hasNext()) {
+      names.add(elements.next().getName());
+    }
+    Assert.assertEquals(Arrays.asList("group-1", "group-2", "group-3"), names);
+    List<String> tokens = new ArrayList<>();
+    for (GeneratedMessageV3 request : mockGroupService.getRequests()) {
+      tokens.add(((ListGroupsRequest) request).getPageToken());
+    }
+    Assert.assertEquals(Arrays.asList("", "1", "2", "3"), tokens);
+  }
+
+  @Test
+  public void memoryCapPausesFetching() throws Exception {
+    mockGroupService.setResponses(pages(3));
+    ListGroupsPagedResponse response = api.listGroups(REQUEST);
+
+    Iterator<ListGroupsResponse> pages = response.prefetch(10, 1).iteratePages().iterator();
+    // The first page is over the cap until the caller takes it.
+    Thread.sleep(100);
+    Assert.assertEquals(1, mockGroupService.getRequests().size());
+    Assert.assertEquals("1", pages.next().getNextPageToken());
+    awaitRequestCount(2);
+    Assert.assertEquals("2", pages.next().getNextPageToken());
+    Assert.assertEquals("", pages.next().getNextPageToken());
+    Assert.assertFalse(pages.hasNext());
+    Assert.assertEquals(3, mockGroupService.getRequests().size());
+  }
+
+  // Returns pages with one group each.
+  private static List<GeneratedMessageV3> pages(int count) {
+    List<GeneratedMessageV3> pages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      pages.add(
+          ListGroupsResponse.newBuilder()
+              .setNextPageToken(i == count - 1 ? "" : Integer.toString(i + 1))
+              .addGroup(Group.newBuilder().setName("group-" + i))
+              .build());
+    }
+    return pages;
+  }
+
+  private static void awaitRequestCount(int count) throws InterruptedException {
+    for (int i = 0; i < 500 && mockGroupService.getRequests().size() < count; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(count, mockGroupService.getRequests().size());
+  }
+}
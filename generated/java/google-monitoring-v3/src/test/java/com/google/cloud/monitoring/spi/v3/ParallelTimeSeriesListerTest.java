@@ -0,0 +1,234 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.Metric;
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.ApiException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.monitoring.v3.Aggregation;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.Duration;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelTimeSeriesListerTest {
+  private static final ProjectName PROJECT = ProjectName.of("[PROJECT]");
+
+  private static FakeMetricServiceImpl fakeMetricService;
+  private static MockServiceHelper serviceHelper;
+  private MetricServiceApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeMetricService = new FakeMetricServiceImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-parallel-time-series-lister",
+            Arrays.<MockGrpcService>asList(fakeMetricService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    MetricServiceSettings settings =
+        MetricServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = MetricServiceApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void slicesIntervalAndMergesPoints() {
+    writePoints(20, "a", "b");
+    ParallelTimeSeriesLister lister =
+        ParallelTimeSeriesLister.newBuilder(api)
+            .setSliceCount(4)
+            .setMaxConcurrentRequests(2)
+            .build();
+
+    List<TimeSeries> listed = lister.list(request(0, 20).setPageSize(1).build());
+
+    Assert.assertEquals(2, listed.size());
+    for (TimeSeries timeSeries : listed) {
+      // Every point once, newest first, although the slices share their bounds.
+      Assert.assertEquals(20, timeSeries.getPointsCount());
+      for (int i = 0; i < 20; i++) {
+        Assert.assertEquals(
+            20 - i, timeSeries.getPoints(i).getInterval().getEndTime().getSeconds());
+      }
+    }
+    Set<TimeInterval> intervals = new HashSet<>();
+    for (ListTimeSeriesRequest request : listRequests()) {
+      intervals.add(request.getInterval());
+    }
+    Assert.assertEquals(4, intervals.size());
+  }
+
+  @Test
+  public void partitionsByFilter() {
+    writePoints(3, "a", "b", "c");
+    ParallelTimeSeriesLister lister =
+        ParallelTimeSeriesLister.newBuilder(api).setSliceCount(1).build();
+
+    List<TimeSeries> listed =
+        lister.list(
+            request(0, 10).build(),
+            Arrays.asList(
+                "resource.label.zone = \"a\"",
+                "resource.label.zone = \"b\"",
+                "resource.type = \"gce_instance\""));
+
+    // The last partition overlaps the others, which does not duplicate series or points.
+    Assert.assertEquals(3, listed.size());
+    Assert.assertEquals("a", listed.get(0).getResource().getLabelsMap().get("zone"));
+    Assert.assertEquals(3, listed.get(0).getPointsCount());
+    List<ListTimeSeriesRequest> requests = listRequests();
+    Assert.assertEquals(3, requests.size());
+    Set<String> filters = new HashSet<>();
+    for (ListTimeSeriesRequest request : requests) {
+      filters.add(request.getFilter());
+    }
+    Assert.assertTrue(
+        filters.contains("(metric.type = \"custom/load\") AND (resource.label.zone = \"a\")"));
+  }
+
+  @Test
+  public void partitionsAreRejectedWithCrossSeriesReducer() {
+    ParallelTimeSeriesLister lister = ParallelTimeSeriesLister.newBuilder(api).build();
+    Aggregation aggregation =
+        Aggregation.newBuilder()
+            .setPerSeriesAligner(Aggregation.Aligner.ALIGN_MEAN)
+            .setAlignmentPeriod(Duration.newBuilder().setSeconds(10))
+            .setCrossSeriesReducer(Aggregation.Reducer.REDUCE_SUM)
+            .build();
+    try {
+      lister.list(
+          request(0, 100).setAggregation(aggregation).build(),
+          Arrays.asList("resource.label.zone = \"a\"", "resource.label.zone = \"b\""));
+      Assert.fail("partitions should have been rejected");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    Assert.assertTrue(listRequests().isEmpty());
+  }
+
+  @Test
+  public void alignsSlicesToAlignmentPeriod() {
+    ParallelTimeSeriesLister lister =
+        ParallelTimeSeriesLister.newBuilder(api).setSliceCount(3).build();
+    Aggregation aggregation =
+        Aggregation.newBuilder()
+            .setPerSeriesAligner(Aggregation.Aligner.ALIGN_MEAN)
+            .setAlignmentPeriod(Duration.newBuilder().setSeconds(10))
+            .build();
+
+    lister.list(request(5, 105).setAggregation(aggregation).build());
+
+    List<ListTimeSeriesRequest> requests = listRequests();
+    Assert.assertEquals(3, requests.size());
+    for (ListTimeSeriesRequest request : requests) {
+      long start = request.getInterval().getStartTime().getSeconds();
+      Assert.assertTrue(start == 5 || (105 - start) % 10 == 0);
+    }
+  }
+
+  @Test
+  public void failureIsPropagated() {
+    writePoints(5, "a");
+    fakeMetricService.addFailure(Status.PERMISSION_DENIED);
+    ParallelTimeSeriesLister lister =
+        ParallelTimeSeriesLister.newBuilder(api).setSliceCount(2).build();
+    try {
+      lister.list(request(0, 5).build());
+      Assert.fail();
+    } catch (ApiException e) {
+      Assert.assertEquals(Status.Code.PERMISSION_DENIED, e.getStatusCode());
+    }
+  }
+
+  private void writePoints(int count, String... zones) {
+    for (int second = 1; second <= count; second++) {
+      List<TimeSeries> timeSeries = new ArrayList<>();
+      for (String zone : zones) {
+        timeSeries.add(
+            TimeSeries.newBuilder()
+                .setMetric(Metric.newBuilder().setType("custom/load"))
+                .setResource(
+                    MonitoredResource.newBuilder().setType("gce_instance").putLabels("zone", zone))
+                .addPoints(
+                    Point.newBuilder()
+                        .setInterval(TimeInterval.newBuilder().setEndTime(seconds(second)))
+                        .setValue(TypedValue.newBuilder().setInt64Value(second)))
+                .build());
+      }
+      api.createTimeSeries(PROJECT, timeSeries);
+    }
+  }
+
+  private static ListTimeSeriesRequest.Builder request(long startSeconds, long endSeconds) {
+    return ListTimeSeriesRequest.newBuilder()
+        .setName(PROJECT.toString())
+        .setFilter("metric.type = \"custom/load\"")
+        .setInterval(
+            TimeInterval.newBuilder()
+                .setStartTime(seconds(startSeconds))
+                .setEndTime(seconds(endSeconds)))
+        .setView(ListTimeSeriesRequest.TimeSeriesView.FULL);
+  }
+
+  private static Timestamp seconds(long seconds) {
+    return Timestamp.newBuilder().setSeconds(seconds).build();
+  }
+
+  private static List<ListTimeSeriesRequest> listRequests() {
+    List<ListTimeSeriesRequest> requests = new ArrayList<>();
+    for (GeneratedMessageV3 request : fakeMetricService.getRequests()) {
+      if (request instanceof ListTimeSeriesRequest) {
+        requests.add((ListTimeSeriesRequest) request);
+      }
+    }
+    return requests;
+  }
+}
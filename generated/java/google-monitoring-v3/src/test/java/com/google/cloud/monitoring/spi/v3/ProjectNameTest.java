@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import static com.google.cloud.monitoring.spi.v3.PagedResponseWrappers.ListTimeSeriesPagedResponse;
+
+import com.google.api.gax.protobuf.ValidationException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.collect.Lists;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.ListTimeSeriesResponse;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Empty;
+import com.google.protobuf.GeneratedMessageV3;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProjectNameTest {
+  @Test
+  public void ofFormatsName() {
+    ProjectName projectName = ProjectName.of("my-project");
+    Assert.assertEquals("projects/my-project", projectName.toString());
+    Assert.assertEquals("my-project", projectName.getProject());
+    Assert.assertEquals(MetricServiceApi.formatProjectName("my-project"), projectName.toString());
+  }
+
+  @Test
+  public void parseRoundTrips() {
+    ProjectName projectName = ProjectName.parse("projects/my-project");
+    Assert.assertEquals(ProjectName.of("my-project"), projectName);
+    Assert.assertEquals(ProjectName.of("my-project").hashCode(), projectName.hashCode());
+    Assert.assertNotEquals(ProjectName.of("other-project"), projectName);
+    Assert.assertEquals(projectName.toString(), projectName.toByteString().toStringUtf8());
+    Assert.assertSame(projectName.toByteString(), projectName.toByteString());
+  }
+
+  @Test(expected = ValidationException.class)
+  public void parseRejectsInvalidName() {
+    ProjectName.parse("projects/my-project/groups/my-group");
+  }
+
+  @Test(expected = ValidationException.class)
+  public void ofRejectsInvalidName() {
+    ProjectName.of("my/project");
+  }
+
+  @Test
+  public void timeSeriesMethodsUseName() throws Exception {
+    MockMetricService mockMetricService = new MockMetricService();
+    MockServiceHelper serviceHelper =
+        new MockServiceHelper(
+            "in-process-project-name", Arrays.<MockGrpcService>asList(mockMetricService));
+    serviceHelper.start();
+    MetricServiceSettings settings =
+        MetricServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    try (MetricServiceApi api = MetricServiceApi.create(settings)) {
+      TimeSeries timeSeries = TimeSeries.newBuilder().build();
+      ListTimeSeriesResponse expectedResponse =
+          ListTimeSeriesResponse.newBuilder().addTimeSeries(timeSeries).build();
+      mockMetricService.setResponses(
+          Arrays.<GeneratedMessageV3>asList(expectedResponse, Empty.getDefaultInstance()));
+      ProjectName projectName = ProjectName.of("my-project");
+      TimeInterval interval = TimeInterval.newBuilder().build();
+
+      ListTimeSeriesPagedResponse pagedListResponse =
+          api.listTimeSeries(
+              projectName, "filter", interval, ListTimeSeriesRequest.TimeSeriesView.FULL);
+      Assert.assertEquals(
+          Arrays.asList(timeSeries), Lists.newArrayList(pagedListResponse.iterateAllElements()));
+      api.createTimeSeries(projectName, Arrays.asList(timeSeries));
+
+      List<GeneratedMessageV3> actualRequests = mockMetricService.getRequests();
+      Assert.assertEquals(2, actualRequests.size());
+      ListTimeSeriesRequest listRequest = (ListTimeSeriesRequest) actualRequests.get(0);
+      Assert.assertEquals(projectName.toString(), listRequest.getName());
+      Assert.assertEquals("filter", listRequest.getFilter());
+      Assert.assertEquals(ListTimeSeriesRequest.TimeSeriesView.FULL, listRequest.getView());
+      CreateTimeSeriesRequest createRequest = (CreateTimeSeriesRequest) actualRequests.get(1);
+      Assert.assertEquals(projectName.toString(), createRequest.getName());
+      Assert.assertEquals(Arrays.asList(timeSeries), createRequest.getTimeSeriesList());
+    } finally {
+      serviceHelper.stop();
+    }
+  }
+}
@@ -0,0 +1,214 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.Metric;
+import com.google.api.MetricDescriptor.MetricKind;
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.api.MonitoredResource;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.monitoring.v3.Aggregation;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Timestamp;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TimeSeriesCacheTest {
+  private static final ProjectName PROJECT = ProjectName.of("[PROJECT]");
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  private static FakeMetricServiceImpl fakeMetricService;
+  private static MockServiceHelper serviceHelper;
+  private MetricServiceApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeMetricService = new FakeMetricServiceImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-time-series-cache", Arrays.<MockGrpcService>asList(fakeMetricService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    MetricServiceSettings settings =
+        MetricServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = MetricServiceApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void fetchesOnlyUncoveredTail() {
+    TimeSeriesCache cache = TimeSeriesCache.newBuilder(api).setSettleDelay(Duration.ZERO).build();
+    writePoints("custom/load", 1, 10);
+    Assert.assertEquals(
+        10, cache.list(request("custom/load", 0, 10), nanos(60)).get(0).getPointsCount());
+
+    writePoints("custom/load", 11, 15);
+    List<TimeSeries> listed = cache.list(request("custom/load", 5, 15), nanos(60));
+
+    Assert.assertEquals(1, listed.size());
+    TimeSeries timeSeries = listed.get(0);
+    Assert.assertEquals(ValueType.DOUBLE, timeSeries.getValueType());
+    Assert.assertEquals(11, timeSeries.getPointsCount());
+    for (int i = 0; i < 11; i++) {
+      Point point = timeSeries.getPoints(i);
+      Assert.assertEquals(15 - i, point.getInterval().getEndTime().getSeconds());
+      Assert.assertEquals(15 - i, point.getValue().getDoubleValue(), 0);
+    }
+    Assert.assertEquals(10, lastRequest().getInterval().getStartTime().getSeconds());
+    // The points before the start of the last interval are dropped.
+    Assert.assertEquals(11, cache.getCachedPointCount());
+
+    cache.list(request("custom/load", 5, 15), nanos(60));
+    Assert.assertEquals(2, listRequestCount());
+  }
+
+  @Test
+  public void refetchesUnsettledPoints() {
+    TimeSeriesCache cache =
+        TimeSeriesCache.newBuilder(api).setSettleDelay(Duration.standardSeconds(5)).build();
+    writePoints("custom/load", 1, 10);
+    Assert.assertEquals(
+        10, cache.list(request("custom/load", 0, 10), nanos(10)).get(0).getPointsCount());
+
+    cache.list(request("custom/load", 0, 10), nanos(20));
+    // Only the points of the last 5 seconds of the first list may have changed.
+    Assert.assertEquals(5, lastRequest().getInterval().getStartTime().getSeconds());
+    Assert.assertEquals(10, cache.getCachedPointCount());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedQueries() {
+    TimeSeriesCache cache =
+        TimeSeriesCache.newBuilder(api)
+            .setSettleDelay(Duration.ZERO)
+            .setMaxCachedPoints(15)
+            .build();
+    writePoints("custom/a", 1, 10);
+    writePoints("custom/b", 1, 10);
+    cache.list(request("custom/a", 0, 10), nanos(60));
+    cache.list(request("custom/b", 0, 10), nanos(60));
+    Assert.assertEquals(10, cache.getCachedPointCount());
+
+    // The first query was evicted, so it is listed in full again.
+    cache.list(request("custom/a", 0, 10), nanos(60));
+    Assert.assertEquals(0, lastRequest().getInterval().getStartTime().getSeconds());
+    Assert.assertEquals(3, listRequestCount());
+  }
+
+  @Test
+  public void passesAlignedQueriesThrough() {
+    TimeSeriesCache cache = TimeSeriesCache.newBuilder(api).setSettleDelay(Duration.ZERO).build();
+    writePoints("custom/load", 1, 15);
+    Aggregation aggregation =
+        Aggregation.newBuilder()
+            .setAlignmentPeriod(com.google.protobuf.Duration.newBuilder().setSeconds(4))
+            .setPerSeriesAligner(Aggregation.Aligner.ALIGN_MEAN)
+            .build();
+    cache.list(
+        request("custom/load", 0, 10).toBuilder().setAggregation(aggregation).build(), nanos(60));
+    cache.list(
+        request("custom/load", 5, 15).toBuilder().setAggregation(aggregation).build(), nanos(60));
+
+    // The second interval is listed in full, with its own alignment, rather than from the end of
+    // the first one.
+    Assert.assertEquals(2, listRequestCount());
+    Assert.assertEquals(5, lastRequest().getInterval().getStartTime().getSeconds());
+    Assert.assertEquals(aggregation, lastRequest().getAggregation());
+    Assert.assertEquals(0, cache.getCachedPointCount());
+  }
+
+  private void writePoints(String metricType, int fromSecond, int toSecond) {
+    for (int second = fromSecond; second <= toSecond; second++) {
+      api.createTimeSeries(
+          PROJECT,
+          Arrays.asList(
+              TimeSeries.newBuilder()
+                  .setMetric(Metric.newBuilder().setType(metricType))
+                  .setResource(MonitoredResource.newBuilder().setType("global"))
+                  .setMetricKind(MetricKind.GAUGE)
+                  .setValueType(ValueType.DOUBLE)
+                  .addPoints(
+                      Point.newBuilder()
+                          .setInterval(TimeInterval.newBuilder().setEndTime(seconds(second)))
+                          .setValue(TypedValue.newBuilder().setDoubleValue(second)))
+                  .build()));
+    }
+  }
+
+  private static ListTimeSeriesRequest request(
+      String metricType, long startSeconds, long endSeconds) {
+    return ListTimeSeriesRequest.newBuilder()
+        .setName(PROJECT.toString())
+        .setFilter("metric.type = \"" + metricType + "\"")
+        .setInterval(
+            TimeInterval.newBuilder()
+                .setStartTime(seconds(startSeconds))
+                .setEndTime(seconds(endSeconds)))
+        .setView(ListTimeSeriesRequest.TimeSeriesView.FULL)
+        .build();
+  }
+
+  private static Timestamp seconds(long seconds) {
+    return Timestamp.newBuilder().setSeconds(seconds).build();
+  }
+
+  private static long nanos(long seconds) {
+    return seconds * NANOS_PER_SECOND;
+  }
+
+  private static ListTimeSeriesRequest lastRequest() {
+    List<GeneratedMessageV3> requests = fakeMetricService.getRequests();
+    return (ListTimeSeriesRequest) requests.get(requests.size() - 1);
+  }
+
+  private static int listRequestCount() {
+    int count = 0;
+    for (GeneratedMessageV3 request : fakeMetricService.getRequests()) {
+      if (request instanceof ListTimeSeriesRequest) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,247 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.Distribution;
+import com.google.api.Metric;
+import com.google.api.MetricDescriptor.MetricKind;
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.ApiException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.ListTimeSeriesResponse;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TimeSeriesColumnsTest {
+  private static final ProjectName PROJECT = ProjectName.of("[PROJECT]");
+
+  private static FakeMetricServiceImpl fakeMetricService;
+  private static MockServiceHelper serviceHelper;
+  private MetricServiceApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeMetricService = new FakeMetricServiceImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-time-series-columns", Arrays.<MockGrpcService>asList(fakeMetricService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    MetricServiceSettings settings =
+        MetricServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = MetricServiceApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void decodesLikeProtos() throws IOException {
+    TimeSeries cumulative =
+        TimeSeries.newBuilder()
+            .setMetric(Metric.newBuilder().setType("custom/requests").putLabels("method", "get"))
+            .setResource(MonitoredResource.newBuilder().setType("global"))
+            .setMetricKind(MetricKind.CUMULATIVE)
+            .setValueType(ValueType.INT64)
+            .addPoints(point(timestamp(100, 0), timestamp(200, 5), int64(-7)))
+            .addPoints(point(timestamp(100, 0), timestamp(150, 0), int64(Long.MAX_VALUE)))
+            .build();
+    TimeSeries gauge =
+        TimeSeries.newBuilder()
+            .setMetric(Metric.newBuilder().setType("custom/load"))
+            .setMetricKind(MetricKind.GAUGE)
+            .setValueType(ValueType.DOUBLE)
+            .addPoints(
+                point(
+                    null, timestamp(200, 999999999), TypedValue.newBuilder().setDoubleValue(0.25)))
+            .build();
+    TimeSeries bool =
+        TimeSeries.newBuilder()
+            .setMetric(Metric.newBuilder().setType("custom/up"))
+            .setMetricKind(MetricKind.GAUGE)
+            .addPoints(point(null, timestamp(200, 0), TypedValue.newBuilder().setBoolValue(true)))
+            .addPoints(point(null, timestamp(100, 0), TypedValue.newBuilder().setBoolValue(false)))
+            .build();
+    ListTimeSeriesResponse response =
+        ListTimeSeriesResponse.newBuilder()
+            .addTimeSeries(cumulative)
+            .addTimeSeries(gauge)
+            .addTimeSeries(bool)
+            .setNextPageToken("next")
+            .build();
+
+    ListTimeSeriesColumnsResponse columns = decode(response);
+
+    Assert.assertEquals("next", columns.getNextPageToken());
+    Assert.assertEquals(3, columns.getTimeSeriesList().size());
+    TimeSeriesColumns cumulativeColumns = columns.getTimeSeriesList().get(0);
+    Assert.assertEquals(cumulative, cumulativeColumns.toTimeSeries());
+    Assert.assertEquals(2, cumulativeColumns.size());
+    Assert.assertEquals(200000000005L, cumulativeColumns.getEndNanos(0));
+    Assert.assertEquals(100000000000L, cumulativeColumns.getStartNanos(0));
+    Assert.assertEquals(-7, cumulativeColumns.getLongValue(0));
+    TimeSeriesColumns gaugeColumns = columns.getTimeSeriesList().get(1);
+    Assert.assertEquals(gauge, gaugeColumns.toTimeSeries());
+    Assert.assertFalse(gaugeColumns.hasStartTime(0));
+    Assert.assertEquals(0.25, gaugeColumns.getDoubleValue(0), 0);
+    // The value type is taken from the points when it is not set.
+    TimeSeriesColumns boolColumns = columns.getTimeSeriesList().get(2);
+    Assert.assertEquals(ValueType.BOOL, boolColumns.getHeader().getValueType());
+    Assert.assertEquals(1, boolColumns.getLongValue(0));
+    Assert.assertEquals(0, boolColumns.getLongValue(1));
+  }
+
+  @Test(expected = InvalidProtocolBufferException.class)
+  public void rejectsDistributions() throws IOException {
+    decode(
+        ListTimeSeriesResponse.newBuilder()
+            .addTimeSeries(
+                TimeSeries.newBuilder()
+                    .setValueType(ValueType.DISTRIBUTION)
+                    .addPoints(
+                        point(
+                            null,
+                            timestamp(1, 0),
+                            TypedValue.newBuilder()
+                                .setDistributionValue(Distribution.newBuilder().setCount(1)))))
+            .build());
+  }
+
+  @Test
+  public void listsAllPagesAsColumns() {
+    for (int second = 1; second <= 3; second++) {
+      api.createTimeSeries(
+          PROJECT, Arrays.asList(series("custom/a", second), series("custom/b", second)));
+    }
+    ListTimeSeriesRequest request =
+        ListTimeSeriesRequest.newBuilder()
+            .setName(PROJECT.toString())
+            .setFilter("resource.type = \"global\"")
+            .setInterval(
+                TimeInterval.newBuilder()
+                    .setStartTime(timestamp(0, 0))
+                    .setEndTime(timestamp(10, 0)))
+            .setView(ListTimeSeriesRequest.TimeSeriesView.FULL)
+            .setPageSize(1)
+            .build();
+
+    List<TimeSeriesColumns> listed = api.listTimeSeriesColumns(request);
+
+    Assert.assertEquals(2, listed.size());
+    // One list request per page, after the three create requests.
+    Assert.assertEquals(5, fakeMetricService.getRequests().size());
+    for (TimeSeriesColumns columns : listed) {
+      Assert.assertEquals(3, columns.size());
+      Assert.assertEquals(3000000000L, columns.getEndNanos(0));
+      Assert.assertEquals(3, columns.getDoubleValue(0), 0);
+    }
+  }
+
+  @Test
+  public void listingDistributionsIsCancelled() {
+    api.createTimeSeries(
+        PROJECT,
+        Arrays.asList(
+            series("custom/a", 1)
+                .toBuilder()
+                .setValueType(ValueType.DISTRIBUTION)
+                .setPoints(
+                    0,
+                    point(
+                        null,
+                        timestamp(1, 0),
+                        TypedValue.newBuilder()
+                            .setDistributionValue(Distribution.newBuilder().setCount(1))))
+                .build()));
+    ListTimeSeriesRequest request =
+        ListTimeSeriesRequest.newBuilder()
+            .setName(PROJECT.toString())
+            .setFilter("resource.type = \"global\"")
+            .setInterval(TimeInterval.newBuilder().setEndTime(timestamp(10, 0)))
+            .setView(ListTimeSeriesRequest.TimeSeriesView.FULL)
+            .build();
+
+    try {
+      api.listTimeSeriesColumns(request);
+      Assert.fail("Expected the decoding failure");
+    } catch (ApiException e) {
+      Assert.assertEquals(Status.Code.CANCELLED, e.getStatusCode());
+    }
+  }
+
+  private static ListTimeSeriesColumnsResponse decode(ListTimeSeriesResponse response)
+      throws IOException {
+    return TimeSeriesColumnsMarshaller.parseResponse(
+        CodedInputStream.newInstance(response.toByteArray()));
+  }
+
+  private static TimeSeries series(String metricType, int second) {
+    return TimeSeries.newBuilder()
+        .setMetric(Metric.newBuilder().setType(metricType))
+        .setResource(MonitoredResource.newBuilder().setType("global"))
+        .setMetricKind(MetricKind.GAUGE)
+        .setValueType(ValueType.DOUBLE)
+        .addPoints(
+            point(null, timestamp(second, 0), TypedValue.newBuilder().setDoubleValue(second)))
+        .build();
+  }
+
+  private static Point point(Timestamp start, Timestamp end, TypedValue.Builder value) {
+    TimeInterval.Builder interval = TimeInterval.newBuilder().setEndTime(end);
+    if (start != null) {
+      interval.setStartTime(start);
+    }
+    return Point.newBuilder().setInterval(interval).setValue(value).build();
+  }
+
+  private static TypedValue.Builder int64(long value) {
+    return TypedValue.newBuilder().setInt64Value(value);
+  }
+
+  private static Timestamp timestamp(long seconds, int nanos) {
+    return Timestamp.newBuilder().setSeconds(seconds).setNanos(nanos).build();
+  }
+}
@@ -0,0 +1,201 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.monitoring.spi.v3;
+
+import com.google.api.Metric;
+import com.google.api.gax.grpc.ApiException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TimeSeriesWriterTest {
+  private static final ProjectName PROJECT = ProjectName.of("[PROJECT]");
+  private static final ProjectName OTHER_PROJECT = ProjectName.of("[OTHER_PROJECT]");
+
+  private static FakeMetricServiceImpl fakeMetricService;
+  private static MockServiceHelper serviceHelper;
+  private MetricServiceApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeMetricService = new FakeMetricServiceImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-time-series-writer", Arrays.<MockGrpcService>asList(fakeMetricService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    MetricServiceSettings settings =
+        MetricServiceSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = MetricServiceApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void bundlesPerProjectUpToLimit() throws Exception {
+    TimeSeriesWriter writer =
+        TimeSeriesWriter.newBuilder(api)
+            .setMaxSeriesPerRequest(2)
+            .setDelayThreshold(Duration.standardHours(1))
+            .build();
+    ListenableFuture<Void> first = writer.write(PROJECT, series("a", 1));
+    writer.write(OTHER_PROJECT, series("a", 1));
+    ListenableFuture<Void> second = writer.write(PROJECT, series("b", 1));
+    // The bundle of the first project is full, so it is sent without waiting.
+    first.get(10, TimeUnit.SECONDS);
+    second.get(10, TimeUnit.SECONDS);
+    ListenableFuture<Void> third = writer.write(PROJECT, series("c", 1));
+    Assert.assertEquals(2, writer.getPendingSeriesCount());
+
+    writer.close();
+    third.get(10, TimeUnit.SECONDS);
+    List<GeneratedMessageV3> requests = fakeMetricService.getRequests();
+    Assert.assertEquals(3, requests.size());
+    CreateTimeSeriesRequest request = (CreateTimeSeriesRequest) requests.get(0);
+    Assert.assertEquals(PROJECT.toString(), request.getName());
+    Assert.assertEquals(2, request.getTimeSeriesCount());
+  }
+
+  @Test
+  public void pointsOfOneSeriesGoToSeparateBundles() throws Exception {
+    TimeSeriesWriter writer =
+        TimeSeriesWriter.newBuilder(api).setDelayThreshold(Duration.standardHours(1)).build();
+    writer.write(PROJECT, series("a", 1));
+    writer.write(PROJECT, series("b", 1));
+    ListenableFuture<Void> last = writer.write(PROJECT, series("a", 2));
+    writer.close();
+    last.get(10, TimeUnit.SECONDS);
+
+    List<GeneratedMessageV3> requests = fakeMetricService.getRequests();
+    Assert.assertEquals(2, requests.size());
+    Assert.assertEquals(2, ((CreateTimeSeriesRequest) requests.get(0)).getTimeSeriesCount());
+    Assert.assertEquals(1, ((CreateTimeSeriesRequest) requests.get(1)).getTimeSeriesCount());
+    List<Point> points = fakeMetricService.getStoredPoints(series("a", 0));
+    Assert.assertEquals(2, points.size());
+    Assert.assertEquals(2, points.get(1).getValue().getInt64Value());
+  }
+
+  @Test
+  public void failuresAreAttributedToTheirSeries() throws Exception {
+    TimeSeriesWriter writer =
+        TimeSeriesWriter.newBuilder(api).setDelayThreshold(Duration.standardHours(1)).build();
+    writer.write(PROJECT, series("a", 10));
+    writer.flush();
+    ListenableFuture<Void> outOfOrder = writer.write(PROJECT, series("a", 5));
+    ListenableFuture<Void> valid = writer.write(PROJECT, series("b", 5));
+    writer.close();
+
+    valid.get(10, TimeUnit.SECONDS);
+    try {
+      outOfOrder.get(10, TimeUnit.SECONDS);
+      Assert.fail("Expected the write to fail");
+    } catch (ExecutionException e) {
+      Assert.assertEquals(
+          Status.Code.INVALID_ARGUMENT, ((ApiException) e.getCause()).getStatusCode());
+    }
+  }
+
+  @Test
+  public void unattributedFailuresFailTheBundle() throws Exception {
+    fakeMetricService.addFailure(Status.PERMISSION_DENIED);
+    TimeSeriesWriter writer = TimeSeriesWriter.newBuilder(api).build();
+    ListenableFuture<Void> first = writer.write(PROJECT, series("a", 1));
+    ListenableFuture<Void> second = writer.write(PROJECT, series("b", 1));
+    writer.close();
+    for (ListenableFuture<Void> future : Arrays.asList(first, second)) {
+      try {
+        future.get(10, TimeUnit.SECONDS);
+        Assert.fail("Expected the write to fail");
+      } catch (ExecutionException e) {
+        Assert.assertEquals(
+            Status.Code.PERMISSION_DENIED, ((ApiException) e.getCause()).getStatusCode());
+      }
+    }
+  }
+
+  @Test
+  public void onlyPartialWriteFailuresAreAttributed() throws Exception {
+    fakeMetricService.addFailure(
+        Status.PERMISSION_DENIED.withDescription("timeSeries[0]: Permission denied"));
+    TimeSeriesWriter writer = TimeSeriesWriter.newBuilder(api).build();
+    ListenableFuture<Void> first = writer.write(PROJECT, series("a", 1));
+    ListenableFuture<Void> second = writer.write(PROJECT, series("b", 1));
+    writer.close();
+    // The second time series is not named, but nothing may have been written.
+    for (ListenableFuture<Void> future : Arrays.asList(first, second)) {
+      try {
+        future.get(10, TimeUnit.SECONDS);
+        Assert.fail("Expected the write to fail");
+      } catch (ExecutionException e) {
+        Assert.assertEquals(
+            Status.Code.PERMISSION_DENIED, ((ApiException) e.getCause()).getStatusCode());
+      }
+    }
+  }
+
+  @Test
+  public void sendsAfterDelayThreshold() throws Exception {
+    TimeSeriesWriter writer =
+        TimeSeriesWriter.newBuilder(api).setDelayThreshold(Duration.millis(10)).build();
+    writer.write(PROJECT, series("a", 1)).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(1, fakeMetricService.getRequests().size());
+    writer.close();
+  }
+
+  private static TimeSeries series(String name, int second) {
+    return TimeSeries.newBuilder()
+        .setMetric(Metric.newBuilder().setType("custom.googleapis.com/" + name))
+        .addPoints(
+            Point.newBuilder()
+                .setInterval(
+                    TimeInterval.newBuilder().setEndTime(Timestamp.newBuilder().setSeconds(second)))
+                .setValue(TypedValue.newBuilder().setInt64Value(second)))
+        .build();
+  }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.grpc.DefaultNanoClock;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.Empty;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.joda.time.Duration;
+
+/**
+ * Keeps the ack deadlines of in-flight messages from expiring while they are being processed.
+ *
+ * <p>Every tracked ackId is leased until it is released. A single scheduler thread periodically
+ * looks for leases that are about to expire and extends them through batched modifyAckDeadline
+ * calls, one call per distinct deadline. The extension is sized from a running percentile of the
+ * observed processing times, so that most messages are renewed at most once or twice instead of
+ * once per tick. Leases are not extended past the configured maximum extension period; after that
+ * the message is left to expire and be redelivered.
+ *
+ * <p>Messages that are nacked should be nacked through {@link #nack}, which is serialized with the
+ * extension of leases, so that an extension can never be sent after the nack of the same message
+ * and delay its redelivery.
+ */
+public class AckLeaseManager implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger(AckLeaseManager.class.getName());
+
+  /** The minimum and maximum ack deadline accepted by the Pub/Sub service. */
+  static final int MIN_ACK_DEADLINE_SECONDS = 10;
+
+  static final int MAX_ACK_DEADLINE_SECONDS = 600;
+
+  /** The maximum number of ackIds sent in a single modifyAckDeadline call. */
+  static final int MAX_ACK_IDS_PER_REQUEST = 1000;
+
+  private static final double PROCESSING_TIME_PERCENTILE = 99.0;
+  private static final Duration DEFAULT_INITIAL_ACK_DEADLINE =
+      Duration.standardSeconds(MIN_ACK_DEADLINE_SECONDS);
+  private static final Duration DEFAULT_MAX_ACK_EXTENSION_PERIOD = Duration.standardMinutes(60);
+  private static final Duration DEFAULT_RENEWAL_PERIOD = Duration.millis(1000L);
+  private static final Duration DEFAULT_RENEWAL_MARGIN = Duration.millis(3000L);
+
+  private final SubscriberApi subscriberApi;
+  private final String subscription;
+  private final long initialAckDeadlineNanos;
+  private final long maxAckExtensionPeriodNanos;
+  private final Duration renewalPeriod;
+  private final long renewalMarginNanos;
+  private final NanoClock clock;
+  private final ScheduledExecutorService scheduler;
+  private final boolean shouldCloseScheduler;
+  private final Distribution processingTimeSeconds = new Distribution(MAX_ACK_DEADLINE_SECONDS + 1);
+  private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+  // Held while leases are collected and their extensions are sent, and while nacks are sent.
+  private final Object modifyLock = new Object();
+
+  private ScheduledFuture<?> renewalTask;
+
+  private static class Lease {
+    private final long receivedNanos;
+    private volatile long expirationNanos;
+
+    private Lease(long receivedNanos, long expirationNanos) {
+      this.receivedNanos = receivedNanos;
+      this.expirationNanos = expirationNanos;
+    }
+  }
+
+  private AckLeaseManager(Builder builder) {
+    this.subscriberApi = builder.subscriberApi;
+    this.subscription = builder.subscription;
+    this.initialAckDeadlineNanos = builder.initialAckDeadline.getMillis() * 1000000L;
+    this.maxAckExtensionPeriodNanos = builder.maxAckExtensionPeriod.getMillis() * 1000000L;
+    this.renewalPeriod = builder.renewalPeriod;
+    this.renewalMarginNanos = builder.renewalMargin.getMillis() * 1000000L;
+    this.clock = builder.clock;
+    if (builder.scheduler != null) {
+      this.scheduler = builder.scheduler;
+      this.shouldCloseScheduler = false;
+    } else {
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("pubsub-ack-lease-%d")
+                  .build());
+      this.shouldCloseScheduler = true;
+    }
+  }
+
+  /**
+   * Returns a new builder for a lease manager of the given subscription, which must be a
+   * fully-qualified subscription name.
+   */
+  public static Builder newBuilder(SubscriberApi subscriberApi, String subscription) {
+    return new Builder(subscriberApi, subscription);
+  }
+
+  /** Starts extending the leases of tracked messages. */
+  public synchronized void start() {
+    Preconditions.checkState(renewalTask == null, "Lease manager already started.");
+    renewalTask =
+        scheduler.scheduleWithFixedDelay(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  extendExpiringLeases();
+                } catch (RuntimeException e) {
+                  logger.log(Level.WARNING, "Failed to extend ack deadlines", e);
+                }
+              }
+            },
+            renewalPeriod.getMillis(),
+            renewalPeriod.getMillis(),
+            TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts tracking the given ackId, which was received just now with the subscription's ack
+   * deadline.
+   */
+  public void track(String ackId) {
+    long now = clock.nanoTime();
+    leases.put(ackId, new Lease(now, now + initialAckDeadlineNanos));
+  }
+
+  /**
+   * Stops tracking the given ackId, because the message was acknowledged, and records how long it
+   * was held. Returns false if the ackId was not tracked, for example because its maximum extension
+   * period had already elapsed.
+   */
+  public boolean release(String ackId) {
+    Lease lease = leases.remove(ackId);
+    if (lease == null) {
+      return false;
+    }
+    long heldNanos = clock.nanoTime() - lease.receivedNanos;
+    processingTimeSeconds.record((int) Math.min(divideRoundingUp(heldNanos), Integer.MAX_VALUE));
+    return true;
+  }
+
+  /**
+   * Stops tracking the given ackIds and sets their ack deadlines to 0, so that the messages are
+   * redelivered. How long they were held is not recorded, since a nacked message was not
+   * processed. Returns a future that completes once the deadlines have been modified; failures
+   * are logged.
+   */
+  public ListenableFuture<List<Empty>> nack(List<String> ackIds) {
+    synchronized (modifyLock) {
+      for (String ackId : ackIds) {
+        leases.remove(ackId);
+      }
+      return modifyAckDeadlines(ackIds, 0);
+    }
+  }
+
+  /** Returns the number of ackIds currently being tracked. */
+  public int getTrackedCount() {
+    return leases.size();
+  }
+
+  /**
+   * Returns the number of seconds leases are currently extended by, derived from the observed
+   * processing times.
+   */
+  public int getAckDeadlineExtensionSeconds() {
+    int percentile = processingTimeSeconds.getNthPercentile(PROCESSING_TIME_PERCENTILE);
+    return Math.max(MIN_ACK_DEADLINE_SECONDS, Math.min(MAX_ACK_DEADLINE_SECONDS, percentile));
+  }
+
+  /** Stops extending leases. Messages that are still tracked will expire and be redelivered. */
+  @Override
+  public synchronized void close() {
+    if (renewalTask != null) {
+      renewalTask.cancel(false);
+    }
+    if (shouldCloseScheduler) {
+      scheduler.shutdown();
+    }
+    leases.clear();
+  }
+
+  @VisibleForTesting
+  void extendExpiringLeases() {
+    synchronized (modifyLock) {
+      extendExpiringLeasesLocked();
+    }
+  }
+
+  private void extendExpiringLeasesLocked() {
+    long now = clock.nanoTime();
+    int extensionSeconds = getAckDeadlineExtensionSeconds();
+    Map<Integer, List<String>> ackIdsByDeadline = new TreeMap<>();
+    Iterator<Map.Entry<String, Lease>> iterator = leases.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Lease> entry = iterator.next();
+      Lease lease = entry.getValue();
+      if (lease.expirationNanos - now > renewalMarginNanos) {
+        continue;
+      }
+      long remainingNanos = lease.receivedNanos + maxAckExtensionPeriodNanos - now;
+      if (remainingNanos <= 0) {
+        iterator.remove();
+        continue;
+      }
+      int deadlineSeconds = (int) Math.min(extensionSeconds, divideRoundingUp(remainingNanos));
+      List<String> ackIds = ackIdsByDeadline.get(deadlineSeconds);
+      if (ackIds == null) {
+        ackIds = new ArrayList<>();
+        ackIdsByDeadline.put(deadlineSeconds, ackIds);
+      }
+      ackIds.add(entry.getKey());
+      lease.expirationNanos = now + deadlineSeconds * 1000000000L;
+    }
+
+    for (Map.Entry<Integer, List<String>> entry : ackIdsByDeadline.entrySet()) {
+      modifyAckDeadlines(entry.getValue(), entry.getKey());
+    }
+  }
+
+  private ListenableFuture<List<Empty>> modifyAckDeadlines(
+      List<String> ackIds, int ackDeadlineSeconds) {
+    List<ListenableFuture<Empty>> responses = new ArrayList<>();
+    for (int from = 0; from < ackIds.size(); from += MAX_ACK_IDS_PER_REQUEST) {
+      List<String> chunk =
+          ackIds.subList(from, Math.min(ackIds.size(), from + MAX_ACK_IDS_PER_REQUEST));
+      responses.add(modifyAckDeadline(chunk, ackDeadlineSeconds));
+    }
+    return Futures.successfulAsList(responses);
+  }
+
+  private ListenableFuture<Empty> modifyAckDeadline(List<String> ackIds, int ackDeadlineSeconds) {
+    ModifyAckDeadlineRequest request =
+        ModifyAckDeadlineRequest.newBuilder()
+            .setSubscription(subscription)
+            .addAllAckIds(ackIds)
+            .setAckDeadlineSeconds(ackDeadlineSeconds)
+            .build();
+    ListenableFuture<Empty> response =
+        subscriberApi.modifyAckDeadlineCallable().futureCall(request);
+    Futures.addCallback(
+        response,
+        new FutureCallback<Empty>() {
+          @Override
+          public void onSuccess(Empty result) {}
+
+          @Override
+          public void onFailure(Throwable t) {
+            logger.log(Level.WARNING, "Failed to modify ack deadlines on " + subscription, t);
+          }
+        });
+    return response;
+  }
+
+  private static long divideRoundingUp(long nanos) {
+    return (nanos + 999999999L) / 1000000000L;
+  }
+
+  /** Builder for AckLeaseManager. */
+  public static class Builder {
+    private final SubscriberApi subscriberApi;
+    private final String subscription;
+    private Duration initialAckDeadline = DEFAULT_INITIAL_ACK_DEADLINE;
+    private Duration maxAckExtensionPeriod = DEFAULT_MAX_ACK_EXTENSION_PERIOD;
+    private Duration renewalPeriod = DEFAULT_RENEWAL_PERIOD;
+    private Duration renewalMargin = DEFAULT_RENEWAL_MARGIN;
+    private ScheduledExecutorService scheduler;
+    private NanoClock clock = DefaultNanoClock.create();
+
+    private Builder(SubscriberApi subscriberApi, String subscription) {
+      this.subscriberApi = Preconditions.checkNotNull(subscriberApi);
+      this.subscription = Preconditions.checkNotNull(subscription);
+    }
+
+    /**
+     * Sets the ack deadline that messages have when they are received, which is the ack deadline
+     * of the subscription. Defaults to the minimum deadline of 10 seconds, which is always safe.
+     */
+    public Builder setInitialAckDeadline(Duration initialAckDeadline) {
+      Preconditions.checkArgument(initialAckDeadline.getMillis() > 0);
+      this.initialAckDeadline = initialAckDeadline;
+      return this;
+    }
+
+    /**
+     * Sets the maximum period, counted from the time a message is received, for which its lease is
+     * extended.
+     */
+    public Builder setMaxAckExtensionPeriod(Duration maxAckExtensionPeriod) {
+      Preconditions.checkArgument(maxAckExtensionPeriod.getMillis() >= 0);
+      this.maxAckExtensionPeriod = maxAckExtensionPeriod;
+      return this;
+    }
+
+    /** Sets how often the scheduler thread looks for leases that are about to expire. */
+    public Builder setRenewalPeriod(Duration renewalPeriod) {
+      Preconditions.checkArgument(renewalPeriod.getMillis() > 0);
+      this.renewalPeriod = renewalPeriod;
+      return this;
+    }
+
+    /** Sets how long before their expiration leases are extended. */
+    public Builder setRenewalMargin(Duration renewalMargin) {
+      Preconditions.checkArgument(renewalMargin.getMillis() >= 0);
+      this.renewalMargin = renewalMargin;
+      return this;
+    }
+
+    /**
+     * Sets the scheduler on which leases are extended. The scheduler is not shut down when the
+     * lease manager is closed.
+     */
+    public Builder setScheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder setClock(NanoClock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public AckLeaseManager build() {
+      return new AckLeaseManager(this);
+    }
+  }
+}
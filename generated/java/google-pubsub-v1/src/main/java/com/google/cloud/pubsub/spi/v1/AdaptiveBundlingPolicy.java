@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.grpc.DefaultNanoClock;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+
+/**
+ * Bundling thresholds for one topic that adapt to the observed publish traffic, within user-set
+ * bounds.
+ *
+ * <p>After every publish RPC the policy is told how many messages were sent, how long the
+ * RPC took and how many messages were still waiting, or that the RPC failed. It then:
+ *
+ * <ul>
+ *   <li>shrinks the count and byte thresholds when the RPC latency exceeds the target latency or
+ *       the RPC failed, since large bundles or an overloaded backend are slowing every message
+ *       down;
+ *   <li>grows them when the RPC was within the target and more messages were waiting than fit in a
+ *       bundle, so that a backlog is drained with fewer, larger RPCs;
+ *   <li>sets the delay threshold to the time the observed throughput needs to fill a bundle, so a
+ *       busy topic does not wait for messages that are not coming and a quiet topic does not hold
+ *       messages for longer than necessary.
+ * </ul>
+ *
+ * <p>The current thresholds can be read at any time, for example to be exported as metrics.
+ */
+public class AdaptiveBundlingPolicy {
+  private static final int DEFAULT_MIN_ELEMENT_COUNT = 1;
+  private static final int DEFAULT_MAX_ELEMENT_COUNT = 1000;
+  private static final int DEFAULT_MIN_REQUEST_BYTES = 1024;
+  private static final int DEFAULT_MAX_REQUEST_BYTES = 10485760;
+  private static final Duration DEFAULT_MIN_DELAY = Duration.millis(1L);
+  private static final Duration DEFAULT_MAX_DELAY = Duration.millis(100L);
+  private static final Duration DEFAULT_TARGET_LATENCY = Duration.millis(100L);
+
+  private static final double GROWTH_FACTOR = 1.25;
+  private static final double SHRINK_FACTOR = 0.75;
+  // Weight of the newest sample in the moving average of the throughput.
+  private static final double THROUGHPUT_SMOOTHING = 0.2;
+
+  private final int minElementCount;
+  private final int maxElementCount;
+  private final int minRequestBytes;
+  private final int maxRequestBytes;
+  private final long minDelayNanos;
+  private final long maxDelayNanos;
+  private final long targetLatencyNanos;
+  private final NanoClock clock;
+
+  // Guarded by this.
+  private int elementCountThreshold;
+  private int requestByteThreshold;
+  private long delayThresholdNanos;
+  private double messagesPerNano;
+  private long lastBundleNanos;
+
+  private AdaptiveBundlingPolicy(Builder builder) {
+    this.minElementCount = builder.minElementCount;
+    this.maxElementCount = builder.maxElementCount;
+    this.minRequestBytes = builder.minRequestBytes;
+    this.maxRequestBytes = builder.maxRequestBytes;
+    this.minDelayNanos = builder.minDelay.getMillis() * 1000000L;
+    this.maxDelayNanos = builder.maxDelay.getMillis() * 1000000L;
+    this.targetLatencyNanos = builder.targetLatency.getMillis() * 1000000L;
+    this.clock = builder.clock;
+    this.elementCountThreshold =
+        clamp(builder.initialElementCount, minElementCount, maxElementCount);
+    this.requestByteThreshold =
+        clamp(builder.initialRequestBytes, minRequestBytes, maxRequestBytes);
+    this.delayThresholdNanos =
+        clamp(builder.initialDelay.getMillis() * 1000000L, minDelayNanos, maxDelayNanos);
+    this.lastBundleNanos = clock.nanoTime();
+  }
+
+  /** Returns a new builder whose initial thresholds are those of PublisherSettings' defaults. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Returns the number of queued messages at which a bundle is sent. */
+  public synchronized int getElementCountThreshold() {
+    return elementCountThreshold;
+  }
+
+  /** Returns the number of queued bytes at which a bundle is sent. */
+  public synchronized int getRequestByteThreshold() {
+    return requestByteThreshold;
+  }
+
+  /** Returns how long the first queued message waits before a bundle is sent regardless of size. */
+  public synchronized Duration getDelayThreshold() {
+    return Duration.millis(TimeUnit.NANOSECONDS.toMillis(delayThresholdNanos));
+  }
+
+  /** Returns the observed publish throughput, in messages per second. */
+  public synchronized double getMessagesPerSecond() {
+    return messagesPerNano * 1e9;
+  }
+
+  /**
+   * Updates the thresholds after a bundle of the given number of messages was published with the
+   * given RPC latency, while the given number of messages were still waiting to be sent.
+   */
+  public synchronized void recordBundle(
+      int messageCount, Duration rpcLatency, int queuedMessageCount) {
+    long now = clock.nanoTime();
+    long elapsedNanos = Math.max(1L, now - lastBundleNanos);
+    lastBundleNanos = now;
+    double sample = (double) messageCount / elapsedNanos;
+    messagesPerNano =
+        messagesPerNano == 0.0
+            ? sample
+            : THROUGHPUT_SMOOTHING * sample + (1 - THROUGHPUT_SMOOTHING) * messagesPerNano;
+
+    long latencyNanos = rpcLatency.getMillis() * 1000000L;
+    if (latencyNanos > targetLatencyNanos) {
+      scaleThresholds(SHRINK_FACTOR);
+    } else if (queuedMessageCount >= elementCountThreshold) {
+      scaleThresholds(GROWTH_FACTOR);
+    }
+    updateDelayThreshold();
+  }
+
+  /**
+   * Updates the thresholds after a publish RPC failed. A failure counts as an RPC over the target
+   * latency whatever its actual latency, since failures such as deadline exceeded or resource
+   * exhausted are the clearest sign of an overloaded backend. Nothing was published, so the
+   * throughput is left as it is.
+   */
+  public synchronized void recordFailure() {
+    scaleThresholds(SHRINK_FACTOR);
+    updateDelayThreshold();
+  }
+
+  // Must be called with the lock held.
+  private void scaleThresholds(double factor) {
+    elementCountThreshold = scale(elementCountThreshold, factor, minElementCount, maxElementCount);
+    requestByteThreshold = scale(requestByteThreshold, factor, minRequestBytes, maxRequestBytes);
+  }
+
+  // Must be called with the lock held.
+  private void updateDelayThreshold() {
+    long fillNanos = (long) Math.min(Long.MAX_VALUE, elementCountThreshold / messagesPerNano);
+    delayThresholdNanos = clamp(fillNanos, minDelayNanos, maxDelayNanos);
+  }
+
+  private static int scale(int value, double factor, int min, int max) {
+    long scaled = (long) Math.ceil(value * factor);
+    if (scaled == value && factor > 1) {
+      scaled++;
+    }
+    return (int) clamp(scaled, min, max);
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  private static long clamp(long value, long min, long max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  /** Builder for AdaptiveBundlingPolicy. */
+  public static class Builder {
+    private int minElementCount = DEFAULT_MIN_ELEMENT_COUNT;
+    private int maxElementCount = DEFAULT_MAX_ELEMENT_COUNT;
+    private int minRequestBytes = DEFAULT_MIN_REQUEST_BYTES;
+    private int maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+    private Duration minDelay = DEFAULT_MIN_DELAY;
+    private Duration maxDelay = DEFAULT_MAX_DELAY;
+    private Duration targetLatency = DEFAULT_TARGET_LATENCY;
+    private int initialElementCount = 10;
+    private int initialRequestBytes = 1024;
+    private Duration initialDelay = Duration.millis(10);
+    private NanoClock clock = DefaultNanoClock.create();
+
+    private Builder() {}
+
+    /** Sets the bounds of the element count threshold. */
+    public Builder setElementCountBounds(int min, int max) {
+      Preconditions.checkArgument(0 < min && min <= max, "invalid element count bounds");
+      this.minElementCount = min;
+      this.maxElementCount = max;
+      return this;
+    }
+
+    /** Sets the bounds of the request byte threshold. */
+    public Builder setRequestByteBounds(int min, int max) {
+      Preconditions.checkArgument(0 < min && min <= max, "invalid request byte bounds");
+      this.minRequestBytes = min;
+      this.maxRequestBytes = max;
+      return this;
+    }
+
+    /** Sets the bounds of the delay threshold. */
+    public Builder setDelayBounds(Duration min, Duration max) {
+      Preconditions.checkArgument(
+          0 < min.getMillis() && min.getMillis() <= max.getMillis(), "invalid delay bounds");
+      this.minDelay = min;
+      this.maxDelay = max;
+      return this;
+    }
+
+    /** Sets the publish RPC latency above which bundles are made smaller. */
+    public Builder setTargetLatency(Duration targetLatency) {
+      Preconditions.checkArgument(targetLatency.getMillis() > 0);
+      this.targetLatency = targetLatency;
+      return this;
+    }
+
+    /** Sets the thresholds to start from. They are clamped to the bounds. */
+    public Builder setInitialThresholds(int elementCount, int requestBytes, Duration delay) {
+      this.initialElementCount = elementCount;
+      this.initialRequestBytes = requestBytes;
+      this.initialDelay = delay;
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder setClock(NanoClock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public AdaptiveBundlingPolicy build() {
+      return new AdaptiveBundlingPolicy(this);
+    }
+  }
+}
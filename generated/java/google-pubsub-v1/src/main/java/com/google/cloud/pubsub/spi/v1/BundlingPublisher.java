@@ -0,0 +1,294 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.grpc.DefaultNanoClock;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+
+/**
+ * Publishes messages to one topic in bundles whose size and delay follow an {@link
+ * AdaptiveBundlingPolicy}, instead of the fixed thresholds of {@link
+ * PublisherSettings#publishSettings()}.
+ *
+ * <p>Messages are queued until the policy's element count or byte threshold is reached, or until
+ * the first queued message has waited for the policy's delay threshold, and are then sent as one
+ * PublishRequest through {@link PublisherApi#publishAsync}, within the publish flow control limits
+ * of the PublisherApi. The outcome of every request is fed back to the policy. Since the bundles
+ * are already sized here, the PublisherApi is best created with a publish element count threshold
+ * of 1, so that it does not hold them back further.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * PublisherSettings.Builder settingsBuilder = PublisherSettings.defaultBuilder();
+ * settingsBuilder.publishSettings().getBundlingSettingsBuilder().setElementCountThreshold(1);
+ * try (PublisherApi publisherApi = PublisherApi.create(settingsBuilder.build())) {
+ *   String formattedTopic = PublisherApi.formatTopicName("[PROJECT]", "[TOPIC]");
+ *   BundlingPublisher publisher = BundlingPublisher.newBuilder(publisherApi, formattedTopic).build();
+ *   ListenableFuture&lt;String&gt; messageId = publisher.publish(message);
+ *   // Do something
+ *   publisher.close();
+ * }
+ * </code></pre>
+ */
+public class BundlingPublisher implements AutoCloseable {
+  private final PublisherApi publisherApi;
+  private final String topic;
+  private final AdaptiveBundlingPolicy policy;
+  private final NanoClock clock;
+  private final ScheduledExecutorService scheduler;
+  private final boolean shouldCloseScheduler;
+
+  // Guarded by this.
+  private final Deque<OutstandingMessage> pending = new ArrayDeque<>();
+  private long pendingBytes;
+  private ScheduledFuture<?> flushTask;
+  private boolean closed;
+
+  private static class OutstandingMessage {
+    private final PubsubMessage message;
+    private final int bytes;
+    private final SettableFuture<String> messageIdFuture = SettableFuture.create();
+
+    private OutstandingMessage(PubsubMessage message) {
+      this.message = message;
+      this.bytes = message.getSerializedSize();
+    }
+  }
+
+  private BundlingPublisher(Builder builder) {
+    this.publisherApi = builder.publisherApi;
+    this.topic = builder.topic;
+    this.policy =
+        builder.policy != null
+            ? builder.policy
+            : AdaptiveBundlingPolicy.newBuilder().setClock(builder.clock).build();
+    this.clock = builder.clock;
+    if (builder.scheduler != null) {
+      this.scheduler = builder.scheduler;
+      this.shouldCloseScheduler = false;
+    } else {
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("pubsub-publish-%d")
+                  .build());
+      this.shouldCloseScheduler = true;
+    }
+  }
+
+  /**
+   * Returns a new builder for a publisher to the given topic, which must be a fully-qualified topic
+   * name.
+   */
+  public static Builder newBuilder(PublisherApi publisherApi, String topic) {
+    return new Builder(publisherApi, topic);
+  }
+
+  /** Returns the topic messages are published to. */
+  public String getTopic() {
+    return topic;
+  }
+
+  /** Returns the policy that sizes the bundles of this publisher. */
+  public AdaptiveBundlingPolicy getPolicy() {
+    return policy;
+  }
+
+  /** Returns the number of messages waiting to be bundled. */
+  public synchronized int getPendingMessageCount() {
+    return pending.size();
+  }
+
+  /** Schedules the given message to be published. Returns a future of its message id. */
+  public ListenableFuture<String> publish(PubsubMessage message) {
+    OutstandingMessage outstanding = new OutstandingMessage(message);
+    List<OutstandingMessage> bundle = null;
+    synchronized (this) {
+      Preconditions.checkState(!closed, "Publisher is closed.");
+      pending.add(outstanding);
+      pendingBytes += outstanding.bytes;
+      if (pending.size() >= policy.getElementCountThreshold()
+          || pendingBytes >= policy.getRequestByteThreshold()) {
+        bundle = takeBundle();
+      } else if (flushTask == null) {
+        scheduleFlush();
+      }
+    }
+    if (bundle != null) {
+      send(bundle);
+    }
+    return outstanding.messageIdFuture;
+  }
+
+  /** Sends all pending messages now, without waiting for the thresholds. */
+  public void flush() {
+    List<List<OutstandingMessage>> bundles = new ArrayList<>();
+    synchronized (this) {
+      while (!pending.isEmpty()) {
+        bundles.add(takeBundle());
+      }
+    }
+    for (List<OutstandingMessage> bundle : bundles) {
+      send(bundle);
+    }
+  }
+
+  /**
+   * Sends all pending messages and stops accepting new ones. Messages already sent complete their
+   * futures as usual.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    flush();
+    if (shouldCloseScheduler) {
+      scheduler.shutdown();
+    }
+  }
+
+  // Must be called with the lock held. The bundle holds at least one message and otherwise stays
+  // within the current thresholds.
+  private List<OutstandingMessage> takeBundle() {
+    int maxCount = policy.getElementCountThreshold();
+    int maxBytes = policy.getRequestByteThreshold();
+    List<OutstandingMessage> bundle = new ArrayList<>(Math.min(maxCount, pending.size()));
+    long bytes = 0;
+    while (!pending.isEmpty() && bundle.size() < maxCount) {
+      OutstandingMessage next = pending.peek();
+      if (!bundle.isEmpty() && bytes + next.bytes > maxBytes) {
+        break;
+      }
+      bundle.add(pending.poll());
+      bytes += next.bytes;
+    }
+    pendingBytes -= bytes;
+    if (flushTask != null) {
+      flushTask.cancel(false);
+      flushTask = null;
+    }
+    if (!pending.isEmpty()) {
+      scheduleFlush();
+    }
+    return bundle;
+  }
+
+  // Must be called with the lock held.
+  private void scheduleFlush() {
+    flushTask =
+        scheduler.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                flush();
+              }
+            },
+            policy.getDelayThreshold().getMillis(),
+            TimeUnit.MILLISECONDS);
+  }
+
+  private void send(final List<OutstandingMessage> bundle) {
+    PublishRequest.Builder request = PublishRequest.newBuilder().setTopic(topic);
+    for (OutstandingMessage outstanding : bundle) {
+      request.addMessages(outstanding.message);
+    }
+    final long startNanos = clock.nanoTime();
+    Futures.addCallback(
+        publisherApi.publishAsync(request.build()),
+        new FutureCallback<PublishResponse>() {
+          @Override
+          public void onSuccess(PublishResponse response) {
+            policy.recordBundle(
+                bundle.size(),
+                Duration.millis(TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - startNanos)),
+                getPendingMessageCount());
+            for (int i = 0; i < bundle.size(); i++) {
+              bundle.get(i).messageIdFuture.set(response.getMessageIds(i));
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            policy.recordFailure();
+            for (OutstandingMessage outstanding : bundle) {
+              outstanding.messageIdFuture.setException(t);
+            }
+          }
+        });
+  }
+
+  /** Builder for BundlingPublisher. */
+  public static class Builder {
+    private final PublisherApi publisherApi;
+    private final String topic;
+    private AdaptiveBundlingPolicy policy;
+    private ScheduledExecutorService scheduler;
+    private NanoClock clock = DefaultNanoClock.create();
+
+    private Builder(PublisherApi publisherApi, String topic) {
+      this.publisherApi = Preconditions.checkNotNull(publisherApi);
+      this.topic = Preconditions.checkNotNull(topic);
+    }
+
+    /**
+     * Sets the policy that sizes the bundles. Each topic should have its own policy. Defaults to a
+     * policy with the default bounds.
+     */
+    public Builder setPolicy(AdaptiveBundlingPolicy policy) {
+      this.policy = policy;
+      return this;
+    }
+
+    /**
+     * Sets the scheduler on which delayed bundles are sent. The scheduler is not shut down when the
+     * publisher is closed.
+     */
+    public Builder setScheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder setClock(NanoClock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public BundlingPublisher build() {
+      return new BundlingPublisher(this);
+    }
+  }
+}
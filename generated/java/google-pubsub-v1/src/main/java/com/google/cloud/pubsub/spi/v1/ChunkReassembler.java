@@ -0,0 +1,436 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.grpc.DefaultNanoClock;
+import com.google.api.gax.grpc.NanoClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.ReceivedMessage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import org.joda.time.Duration;
+
+/**
+ * Reassembles messages that were split by {@link MessageChunks#split} from their chunks, which may
+ * arrive in any order and across several pull responses.
+ *
+ * <p>Chunk data is buffered in memory up to a limit on the total buffered bytes; beyond that it is
+ * spilled to files in a spill directory until the rest of its group arrives. A group that is not
+ * complete within the assembly timeout is dropped, and the ack ids of its chunks are returned by
+ * {@link #removeExpired} so that they can be acknowledged: the rest of such a group is unlikely to
+ * ever arrive, so redelivering its chunks would only let them time out again. A complete group that
+ * could not be reassembled from its buffered chunks is returned by {@link #removeAbandoned} instead,
+ * so that it can be nacked and redelivered.
+ *
+ * <p>The chunk count of a group is taken from its chunks' attributes, which are not trusted: a
+ * chunk whose group would exceed the maximum message size is rejected, and the chunks of a group
+ * are only allocated as they arrive.
+ *
+ * <p>Every chunk's data is checked against its hash when it is added. A chunk that is delivered
+ * more than once is only buffered once, but the ack ids of all its deliveries are returned with
+ * the reassembled message.
+ */
+public class ChunkReassembler implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger(ChunkReassembler.class.getName());
+
+  private static final long DEFAULT_MAX_BUFFERED_BYTES = 64L * 1024 * 1024;
+  private static final int DEFAULT_MAX_MESSAGE_BYTES = 1024 * 1024 * 1024;
+  private static final Duration DEFAULT_ASSEMBLY_TIMEOUT = Duration.standardMinutes(10);
+
+  private final long maxBufferedBytes;
+  private final int maxMessageBytes;
+  private final Duration assemblyTimeout;
+  @Nullable private final File configuredSpillDirectory;
+  private final NanoClock clock;
+
+  // Guarded by this. Groups are kept in the order in which their first chunk arrived.
+  private final Map<String, Assembly> assemblies = new LinkedHashMap<>();
+  private final List<String> abandonedAckIds = new ArrayList<>();
+  private File spillDirectory;
+  private long bufferedBytes;
+  private long spilledBytes;
+  private long spilledChunkCount;
+  private boolean closed;
+
+  /** A message that has been reassembled from all of its chunks. */
+  public static class ReassembledMessage {
+    private final PubsubMessage message;
+    private final List<String> ackIds;
+
+    private ReassembledMessage(PubsubMessage message, List<String> ackIds) {
+      this.message = message;
+      this.ackIds = ImmutableList.copyOf(ackIds);
+    }
+
+    /** Returns the reassembled message, with the attributes of the original message. */
+    public PubsubMessage getMessage() {
+      return message;
+    }
+
+    /** Returns the ack ids of all the chunks the message was reassembled from. */
+    public List<String> getAckIds() {
+      return ackIds;
+    }
+  }
+
+  private static class Assembly {
+    private final long startNanos;
+    private final int count;
+    // Keyed by chunk index.
+    private final Map<Integer, Chunk> chunks = new HashMap<>();
+    private final List<String> ackIds = new ArrayList<>();
+
+    private Assembly(int count, long startNanos) {
+      this.count = count;
+      this.startNanos = startNanos;
+    }
+  }
+
+  private static class Chunk {
+    // Either the data or the file it has been spilled to is set.
+    @Nullable private final ByteString data;
+    @Nullable private final File spillFile;
+    private final int size;
+    @Nullable private final PubsubMessage firstChunk;
+
+    private Chunk(
+        @Nullable ByteString data,
+        @Nullable File spillFile,
+        int size,
+        @Nullable PubsubMessage firstChunk) {
+      this.data = data;
+      this.spillFile = spillFile;
+      this.size = size;
+      this.firstChunk = firstChunk;
+    }
+  }
+
+  private ChunkReassembler(Builder builder) {
+    this.maxBufferedBytes = builder.maxBufferedBytes;
+    this.maxMessageBytes = builder.maxMessageBytes;
+    this.assemblyTimeout = builder.assemblyTimeout;
+    this.configuredSpillDirectory = builder.spillDirectory;
+    this.clock = builder.clock;
+  }
+
+  /** Returns a new builder for this class. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Returns the number of groups for which some but not all chunks have arrived. */
+  public synchronized int getPendingGroupCount() {
+    return assemblies.size();
+  }
+
+  /** Returns the number of chunk bytes currently buffered in memory. */
+  public synchronized long getBufferedBytes() {
+    return bufferedBytes;
+  }
+
+  /** Returns the number of chunk bytes currently spilled to disk. */
+  public synchronized long getSpilledBytes() {
+    return spilledBytes;
+  }
+
+  /** Returns the total number of chunks that have been spilled to disk. */
+  public synchronized long getSpilledChunkCount() {
+    return spilledChunkCount;
+  }
+
+  /**
+   * Adds a chunk, which must be a message for which {@link MessageChunks#isChunk} returns true.
+   * Returns the reassembled message if this was the last missing chunk of its group, or null
+   * otherwise.
+   *
+   * @throws IOException if the chunk is malformed or corrupt, belongs to a message larger than the
+   *     maximum message size, or could not be spilled to disk. The chunk is not buffered in that
+   *     case.
+   */
+  @Nullable
+  public synchronized ReassembledMessage add(ReceivedMessage receivedMessage) throws IOException {
+    Preconditions.checkState(!closed, "ChunkReassembler is closed.");
+    PubsubMessage message = receivedMessage.getMessage();
+    Map<String, String> attributes = message.getAttributesMap();
+    String group = attributes.get(MessageChunks.GROUP_ATTRIBUTE);
+    Preconditions.checkArgument(group != null, "Message is not a chunk");
+    int index = parseAttribute(attributes, MessageChunks.INDEX_ATTRIBUTE);
+    int count = parseAttribute(attributes, MessageChunks.COUNT_ATTRIBUTE);
+    if (count <= 0 || index < 0 || index >= count) {
+      throw new IOException("Malformed chunk " + index + " of " + count + " in group " + group);
+    }
+    if (!MessageChunks.hash(message.getData())
+        .equals(attributes.get(MessageChunks.HASH_ATTRIBUTE))) {
+      throw new IOException("Corrupt chunk " + index + " in group " + group);
+    }
+    // Every chunk but the last carries the full chunk size, and no chunk is empty.
+    int size = message.getData().size();
+    long minMessageBytes =
+        index < count - 1 ? (long) (count - 1) * size + 1 : (long) (count - 1) + size;
+    if (minMessageBytes > maxMessageBytes) {
+      throw new IOException(
+          "Chunk "
+              + index
+              + " of "
+              + count
+              + " in group "
+              + group
+              + " belongs to a message larger than "
+              + maxMessageBytes
+              + " bytes");
+    }
+
+    Assembly assembly = assemblies.get(group);
+    if (assembly == null) {
+      assembly = new Assembly(count, clock.nanoTime());
+    } else if (assembly.count != count) {
+      throw new IOException("Chunk " + index + " in group " + group + " has a different count");
+    }
+    if (!assembly.chunks.containsKey(index)) {
+      assembly.chunks.put(index, buffer(message, index == 0));
+    }
+    assembly.ackIds.add(receivedMessage.getAckId());
+    if (assembly.chunks.size() < count) {
+      assemblies.put(group, assembly);
+      return null;
+    }
+
+    assemblies.remove(group);
+    try {
+      return new ReassembledMessage(assemble(assembly), assembly.ackIds);
+    } catch (IOException e) {
+      // The other chunks of the group are returned by removeAbandoned; the caller handles this
+      // chunk.
+      List<String> otherAckIds = new ArrayList<>(assembly.ackIds);
+      otherAckIds.remove(receivedMessage.getAckId());
+      abandonedAckIds.addAll(otherAckIds);
+      throw e;
+    } finally {
+      discard(assembly);
+    }
+  }
+
+  /**
+   * Drops the groups that have not been completed within the assembly timeout and returns the ack
+   * ids of their chunks.
+   */
+  public synchronized List<String> removeExpired() {
+    List<String> ackIds = new ArrayList<>();
+    long deadlineNanos = clock.nanoTime() - assemblyTimeout.getMillis() * 1000000L;
+    Iterator<Assembly> iterator = assemblies.values().iterator();
+    while (iterator.hasNext()) {
+      Assembly assembly = iterator.next();
+      if (assembly.startNanos - deadlineNanos > 0) {
+        break;
+      }
+      iterator.remove();
+      discard(assembly);
+      ackIds.addAll(assembly.ackIds);
+    }
+    return ackIds;
+  }
+
+  /**
+   * Returns the ack ids of the chunks of complete groups that could not be reassembled, other than
+   * the chunk whose {@link #add} call failed.
+   */
+  public synchronized List<String> removeAbandoned() {
+    List<String> ackIds = new ArrayList<>(abandonedAckIds);
+    abandonedAckIds.clear();
+    return ackIds;
+  }
+
+  /**
+   * Drops all incomplete groups and returns the ack ids of their chunks, along with those that
+   * {@link #removeAbandoned} would return.
+   */
+  public synchronized List<String> removeAll() {
+    List<String> ackIds = new ArrayList<>(abandonedAckIds);
+    abandonedAckIds.clear();
+    for (Assembly assembly : assemblies.values()) {
+      discard(assembly);
+      ackIds.addAll(assembly.ackIds);
+    }
+    assemblies.clear();
+    return ackIds;
+  }
+
+  /**
+   * Drops all incomplete groups and deletes the spill directory if it was created by this
+   * reassembler.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    removeAll();
+    if (spillDirectory != null && configuredSpillDirectory == null) {
+      if (!spillDirectory.delete()) {
+        logger.log(Level.WARNING, "Failed to delete spill directory " + spillDirectory);
+      }
+    }
+  }
+
+  private Chunk buffer(PubsubMessage message, boolean isFirst) throws IOException {
+    PubsubMessage firstChunk = isFirst ? message.toBuilder().clearData().build() : null;
+    ByteString data = message.getData();
+    if (bufferedBytes + data.size() <= maxBufferedBytes) {
+      bufferedBytes += data.size();
+      return new Chunk(data, null, data.size(), firstChunk);
+    }
+    File file = File.createTempFile("chunk-", ".bin", getSpillDirectory());
+    try (OutputStream output = new FileOutputStream(file)) {
+      data.writeTo(output);
+    } catch (IOException e) {
+      deleteSpillFile(file);
+      throw e;
+    }
+    spilledBytes += data.size();
+    spilledChunkCount++;
+    return new Chunk(null, file, data.size(), firstChunk);
+  }
+
+  private PubsubMessage assemble(Assembly assembly) throws IOException {
+    List<ByteString> pieces = new ArrayList<>(assembly.count);
+    for (int i = 0; i < assembly.count; i++) {
+      Chunk chunk = assembly.chunks.get(i);
+      pieces.add(
+          chunk.data != null
+              ? chunk.data
+              : ByteString.copyFrom(Files.readAllBytes(chunk.spillFile.toPath())));
+    }
+    // Concatenating the pieces does not copy them.
+    return assembly
+        .chunks
+        .get(0)
+        .firstChunk
+        .toBuilder()
+        .setData(ByteString.copyFrom(pieces))
+        .removeAttributes(MessageChunks.GROUP_ATTRIBUTE)
+        .removeAttributes(MessageChunks.INDEX_ATTRIBUTE)
+        .removeAttributes(MessageChunks.COUNT_ATTRIBUTE)
+        .removeAttributes(MessageChunks.HASH_ATTRIBUTE)
+        .build();
+  }
+
+  private void discard(Assembly assembly) {
+    for (Chunk chunk : assembly.chunks.values()) {
+      if (chunk.spillFile != null) {
+        spilledBytes -= chunk.size;
+        deleteSpillFile(chunk.spillFile);
+      } else {
+        bufferedBytes -= chunk.size;
+      }
+    }
+  }
+
+  private File getSpillDirectory() throws IOException {
+    if (spillDirectory == null) {
+      spillDirectory =
+          configuredSpillDirectory != null
+              ? configuredSpillDirectory
+              : Files.createTempDirectory("pubsub-chunks-").toFile();
+    }
+    return spillDirectory;
+  }
+
+  private static void deleteSpillFile(File file) {
+    if (!file.delete()) {
+      logger.log(Level.WARNING, "Failed to delete spill file " + file);
+    }
+  }
+
+  private static int parseAttribute(Map<String, String> attributes, String name)
+      throws IOException {
+    try {
+      return Integer.parseInt(attributes.get(name));
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed chunk attribute " + name, e);
+    }
+  }
+
+  /** Builder for ChunkReassembler. */
+  public static class Builder {
+    private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+    private int maxMessageBytes = DEFAULT_MAX_MESSAGE_BYTES;
+    private Duration assemblyTimeout = DEFAULT_ASSEMBLY_TIMEOUT;
+    private File spillDirectory;
+    private NanoClock clock = DefaultNanoClock.create();
+
+    private Builder() {}
+
+    /**
+     * Sets the maximum number of chunk bytes buffered in memory, beyond which chunks are spilled to
+     * disk. Defaults to 64 MiB.
+     */
+    public Builder setMaxBufferedBytes(long maxBufferedBytes) {
+      Preconditions.checkArgument(maxBufferedBytes >= 0);
+      this.maxBufferedBytes = maxBufferedBytes;
+      return this;
+    }
+
+    /**
+     * Sets the maximum data size of a reassembled message. Chunks of larger messages are rejected.
+     * Defaults to 1 GiB.
+     */
+    public Builder setMaxMessageBytes(int maxMessageBytes) {
+      Preconditions.checkArgument(maxMessageBytes > 0);
+      this.maxMessageBytes = maxMessageBytes;
+      return this;
+    }
+
+    /**
+     * Sets how long after its first chunk arrived an incomplete group is dropped. This should be
+     * shorter than the maximum ack extension period of the subscriber. Defaults to 10 minutes.
+     */
+    public Builder setAssemblyTimeout(Duration assemblyTimeout) {
+      this.assemblyTimeout = Preconditions.checkNotNull(assemblyTimeout);
+      return this;
+    }
+
+    /**
+     * Sets the directory chunks are spilled to. By default a temporary directory is created when
+     * the first chunk is spilled, and deleted when the reassembler is closed.
+     */
+    public Builder setSpillDirectory(File spillDirectory) {
+      this.spillDirectory = spillDirectory;
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder setClock(NanoClock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public ChunkReassembler build() {
+      return new ChunkReassembler(this);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.common.base.Preconditions;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PubsubMessage;
+import javax.annotation.Nullable;
+
+/**
+ * Settings for splitting messages with large data into chunks before they are published; see
+ * {@link MessageChunks}. By default nothing is split.
+ */
+public class ChunkingSettings {
+  private static final ChunkingSettings DEFAULT_INSTANCE = newBuilder().build();
+
+  @Nullable private final Integer maxChunkBytes;
+
+  private ChunkingSettings(Builder builder) {
+    this.maxChunkBytes = builder.maxChunkBytes;
+  }
+
+  /** Returns settings that do not split anything. */
+  public static ChunkingSettings getDefaultInstance() {
+    return DEFAULT_INSTANCE;
+  }
+
+  /** Returns a new builder for this class. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Returns a builder containing all the values of this settings class. */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /**
+   * Returns the maximum data size of a chunk, or null if chunking is disabled. Messages with larger
+   * data are split.
+   */
+  @Nullable
+  public Integer getMaxChunkBytes() {
+    return maxChunkBytes;
+  }
+
+  /** Returns whether any message of the given request must be split. */
+  public boolean requiresChunking(PublishRequest request) {
+    if (maxChunkBytes == null) {
+      return false;
+    }
+    for (PubsubMessage message : request.getMessagesList()) {
+      if (message.getData().size() > maxChunkBytes) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Builder for ChunkingSettings. */
+  public static class Builder {
+    private Integer maxChunkBytes;
+
+    private Builder() {}
+
+    private Builder(ChunkingSettings settings) {
+      this.maxChunkBytes = settings.maxChunkBytes;
+    }
+
+    /**
+     * Sets the maximum data size of a chunk. Messages with larger data are split. This should stay
+     * well below the request byte threshold of the publish bundling settings, so that chunks can be
+     * bundled. Null disables chunking.
+     */
+    public Builder setMaxChunkBytes(@Nullable Integer maxChunkBytes) {
+      Preconditions.checkArgument(maxChunkBytes == null || maxChunkBytes > 0);
+      this.maxChunkBytes = maxChunkBytes;
+      return this;
+    }
+
+    public ChunkingSettings build() {
+      return new ChunkingSettings(this);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.common.base.Preconditions;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PubsubMessage;
+import javax.annotation.Nullable;
+
+/**
+ * Settings for compressing message data before it is published. By default nothing is compressed.
+ */
+public class CompressionSettings {
+  private static final int DEFAULT_MIN_MESSAGE_BYTES = 1024;
+  private static final CompressionSettings DEFAULT_INSTANCE = newBuilder().build();
+
+  @Nullable private final MessageCodec codec;
+  private final int minMessageBytes;
+
+  private CompressionSettings(Builder builder) {
+    this.codec = builder.codec;
+    this.minMessageBytes = builder.minMessageBytes;
+  }
+
+  /** Returns settings that do not compress anything. */
+  public static CompressionSettings getDefaultInstance() {
+    return DEFAULT_INSTANCE;
+  }
+
+  /** Returns a new builder for this class. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Returns a builder containing all the values of this settings class. */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /** Returns the codec message data is compressed with, or null if compression is disabled. */
+  @Nullable
+  public MessageCodec getCodec() {
+    return codec;
+  }
+
+  /** Returns the data size below which messages are not compressed. */
+  public int getMinMessageBytes() {
+    return minMessageBytes;
+  }
+
+  /**
+   * Returns the given request with the data of its messages compressed according to these settings.
+   * The request itself is returned if no message was compressed.
+   */
+  public PublishRequest compress(PublishRequest request) {
+    if (codec == null) {
+      return request;
+    }
+    PublishRequest.Builder builder = null;
+    for (int i = 0; i < request.getMessagesCount(); i++) {
+      PubsubMessage message = request.getMessages(i);
+      PubsubMessage compressed = MessageCodecs.compress(message, codec, minMessageBytes);
+      if (compressed == message) {
+        continue;
+      }
+      if (builder == null) {
+        builder = request.toBuilder();
+      }
+      builder.setMessages(i, compressed);
+    }
+    return builder == null ? request : builder.build();
+  }
+
+  /** Builder for CompressionSettings. */
+  public static class Builder {
+    private MessageCodec codec;
+    private int minMessageBytes = DEFAULT_MIN_MESSAGE_BYTES;
+
+    private Builder() {}
+
+    private Builder(CompressionSettings settings) {
+      this.codec = settings.codec;
+      this.minMessageBytes = settings.minMessageBytes;
+    }
+
+    /**
+     * Sets the codec message data is compressed with, for example {@link MessageCodecs#GZIP}. Null
+     * disables compression. Custom codecs must also be registered with {@link
+     * MessageCodecs#register} by subscribers.
+     */
+    public Builder setCodec(@Nullable MessageCodec codec) {
+      this.codec = codec;
+      return this;
+    }
+
+    /** Sets the data size below which messages are not compressed. Defaults to 1024 bytes. */
+    public Builder setMinMessageBytes(int minMessageBytes) {
+      Preconditions.checkArgument(minMessageBytes >= 0);
+      this.minMessageBytes = minMessageBytes;
+      return this;
+    }
+
+    public CompressionSettings build() {
+      return new CompressionSettings(this);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.common.base.Preconditions;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of non-negative integer values in the range [0, maxValue), used to keep a
+ * running percentile of observed durations. Values outside the range are recorded in the last
+ * bucket.
+ */
+public class Distribution {
+  private final AtomicLongArray bucketCounts;
+  private final AtomicLong count = new AtomicLong();
+
+  public Distribution(int maxValue) {
+    Preconditions.checkArgument(maxValue > 0, "maxValue must be positive");
+    bucketCounts = new AtomicLongArray(maxValue);
+  }
+
+  /** Records one occurrence of the given value. */
+  public void record(int value) {
+    Preconditions.checkArgument(value >= 0, "value must not be negative");
+    bucketCounts.incrementAndGet(Math.min(value, bucketCounts.length() - 1));
+    count.incrementAndGet();
+  }
+
+  /** Returns the number of values recorded so far. */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Returns the smallest recorded value such that at least the given percentage of recorded values
+   * are less than or equal to it, or 0 if nothing has been recorded yet.
+   */
+  public int getNthPercentile(double percentile) {
+    Preconditions.checkArgument(
+        percentile > 0.0 && percentile <= 100.0, "percentile must be in (0, 100]");
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long threshold = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < bucketCounts.length(); i++) {
+      seen += bucketCounts.get(i);
+      if (seen >= threshold) {
+        return i;
+      }
+    }
+    return bucketCounts.length() - 1;
+  }
+}
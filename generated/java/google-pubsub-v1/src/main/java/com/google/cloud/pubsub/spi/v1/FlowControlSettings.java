@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.common.base.Preconditions;
+import javax.annotation.Nullable;
+
+/**
+ * Limits on the messages and bytes that may be outstanding in calls to an API method, and what to
+ * do when a call would exceed them. By default nothing is limited.
+ */
+public class FlowControlSettings {
+  private static final FlowControlSettings DEFAULT_INSTANCE = newBuilder().build();
+
+  /** What a call does when the limits are reached. */
+  public enum LimitExceededBehavior {
+    /** The calling thread blocks until enough capacity has been released. */
+    BLOCK,
+    /** The call fails with a {@link FlowController.MaxOutstandingExceededException}. */
+    THROW_EXCEPTION,
+    /**
+     * Asynchronous calls return immediately, and the request is sent once enough capacity has been
+     * released. Synchronous calls block.
+     */
+    DEFER
+  }
+
+  @Nullable private final Integer maxOutstandingElementCount;
+  @Nullable private final Integer maxOutstandingRequestBytes;
+  private final LimitExceededBehavior limitExceededBehavior;
+
+  private FlowControlSettings(Builder builder) {
+    this.maxOutstandingElementCount = builder.maxOutstandingElementCount;
+    this.maxOutstandingRequestBytes = builder.maxOutstandingRequestBytes;
+    this.limitExceededBehavior = builder.limitExceededBehavior;
+  }
+
+  /** Returns settings that do not limit anything. */
+  public static FlowControlSettings getDefaultInstance() {
+    return DEFAULT_INSTANCE;
+  }
+
+  /** Returns a new builder for this class. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Returns a builder containing all the values of this settings class. */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /** Returns the maximum number of outstanding messages, or null if it is not limited. */
+  @Nullable
+  public Integer getMaxOutstandingElementCount() {
+    return maxOutstandingElementCount;
+  }
+
+  /** Returns the maximum number of outstanding request bytes, or null if it is not limited. */
+  @Nullable
+  public Integer getMaxOutstandingRequestBytes() {
+    return maxOutstandingRequestBytes;
+  }
+
+  public LimitExceededBehavior getLimitExceededBehavior() {
+    return limitExceededBehavior;
+  }
+
+  /** Returns a new flow controller that enforces these limits. */
+  public FlowController createFlowController() {
+    return new FlowController(maxOutstandingElementCount, maxOutstandingRequestBytes);
+  }
+
+  /** Builder for FlowControlSettings. */
+  public static class Builder {
+    private Integer maxOutstandingElementCount;
+    private Integer maxOutstandingRequestBytes;
+    private LimitExceededBehavior limitExceededBehavior = LimitExceededBehavior.BLOCK;
+
+    private Builder() {}
+
+    private Builder(FlowControlSettings settings) {
+      this.maxOutstandingElementCount = settings.maxOutstandingElementCount;
+      this.maxOutstandingRequestBytes = settings.maxOutstandingRequestBytes;
+      this.limitExceededBehavior = settings.limitExceededBehavior;
+    }
+
+    /** Sets the maximum number of outstanding messages. Null means no limit. */
+    public Builder setMaxOutstandingElementCount(@Nullable Integer maxOutstandingElementCount) {
+      Preconditions.checkArgument(
+          maxOutstandingElementCount == null || maxOutstandingElementCount > 0);
+      this.maxOutstandingElementCount = maxOutstandingElementCount;
+      return this;
+    }
+
+    /** Sets the maximum number of outstanding request bytes. Null means no limit. */
+    public Builder setMaxOutstandingRequestBytes(@Nullable Integer maxOutstandingRequestBytes) {
+      Preconditions.checkArgument(
+          maxOutstandingRequestBytes == null || maxOutstandingRequestBytes > 0);
+      this.maxOutstandingRequestBytes = maxOutstandingRequestBytes;
+      return this;
+    }
+
+    /** Sets what a call does when the limits are reached. Defaults to BLOCK. */
+    public Builder setLimitExceededBehavior(LimitExceededBehavior limitExceededBehavior) {
+      this.limitExceededBehavior = Preconditions.checkNotNull(limitExceededBehavior);
+      return this;
+    }
+
+    public FlowControlSettings build() {
+      return new FlowControlSettings(this);
+    }
+  }
+}
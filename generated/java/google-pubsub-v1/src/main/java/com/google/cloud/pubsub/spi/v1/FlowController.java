@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Semaphore;
+import javax.annotation.Nullable;
+
+/**
+ * Bounds the number of elements and bytes that are outstanding at any point in time. Callers
+ * reserve capacity before handing work out and release it once the work is done; a reservation
+ * that does not fit blocks until enough capacity has been released.
+ *
+ * <p>A reservation larger than the configured element or byte limit is clamped to that limit, so
+ * that a single oversized request can still make progress once everything else has been released.
+ *
+ * <p>Reservations can also be made asynchronously with {@link #reserveAsync}, whose future
+ * completes once the capacity has been reserved. Pending asynchronous reservations are granted in
+ * the order in which they were requested, as capacity is released. Cancelling the future of a
+ * pending reservation withdraws it, and no capacity is held for it.
+ */
+public class FlowController {
+  /** Thrown when a reservation is refused because it does not fit in the configured limits. */
+  public static class MaxOutstandingExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public MaxOutstandingExceededException(String message) {
+      super(message);
+    }
+  }
+
+  private static class PendingReservation {
+    private final int elements;
+    private final int bytes;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    private PendingReservation(int elements, int bytes) {
+      this.elements = elements;
+      this.bytes = bytes;
+    }
+  }
+
+  @Nullable private final Integer maxOutstandingElementCount;
+  @Nullable private final Integer maxOutstandingBytes;
+  @Nullable private final Semaphore outstandingElementCount;
+  @Nullable private final Semaphore outstandingByteCount;
+  // Guarded by itself.
+  private final Queue<PendingReservation> pendingReservations = new ArrayDeque<>();
+
+  /**
+   * Constructs a flow controller with the given limits. A null limit means that the corresponding
+   * dimension is not bounded.
+   */
+  public FlowController(
+      @Nullable Integer maxOutstandingElementCount, @Nullable Integer maxOutstandingBytes) {
+    Preconditions.checkArgument(
+        maxOutstandingElementCount == null || maxOutstandingElementCount > 0,
+        "maxOutstandingElementCount must be positive");
+    Preconditions.checkArgument(
+        maxOutstandingBytes == null || maxOutstandingBytes > 0,
+        "maxOutstandingBytes must be positive");
+    this.maxOutstandingElementCount = maxOutstandingElementCount;
+    this.maxOutstandingBytes = maxOutstandingBytes;
+    this.outstandingElementCount =
+        maxOutstandingElementCount == null ? null : new Semaphore(maxOutstandingElementCount);
+    this.outstandingByteCount =
+        maxOutstandingBytes == null ? null : new Semaphore(maxOutstandingBytes);
+  }
+
+  /**
+   * Reserves capacity for the given number of elements and bytes, blocking until it is available.
+   */
+  public void reserve(int elements, int bytes) throws InterruptedException {
+    Preconditions.checkArgument(elements >= 0 && bytes >= 0);
+    if (outstandingElementCount != null) {
+      outstandingElementCount.acquire(clampElements(elements));
+    }
+    if (outstandingByteCount != null) {
+      try {
+        outstandingByteCount.acquire(clampBytes(bytes));
+      } catch (InterruptedException e) {
+        if (outstandingElementCount != null) {
+          outstandingElementCount.release(clampElements(elements));
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Reserves capacity for the given number of elements and bytes if it is immediately available.
+   * Returns whether the reservation was made.
+   */
+  public boolean tryReserve(int elements, int bytes) {
+    Preconditions.checkArgument(elements >= 0 && bytes >= 0);
+    if (outstandingElementCount != null
+        && !outstandingElementCount.tryAcquire(clampElements(elements))) {
+      return false;
+    }
+    if (outstandingByteCount != null && !outstandingByteCount.tryAcquire(clampBytes(bytes))) {
+      if (outstandingElementCount != null) {
+        outstandingElementCount.release(clampElements(elements));
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Reserves capacity for the given number of elements and bytes without blocking. The returned
+   * future completes once the reservation has been made, which is immediately if the capacity is
+   * available and no other asynchronous reservation is waiting.
+   */
+  public ListenableFuture<Void> reserveAsync(int elements, int bytes) {
+    Preconditions.checkArgument(elements >= 0 && bytes >= 0);
+    final PendingReservation reservation = new PendingReservation(elements, bytes);
+    synchronized (pendingReservations) {
+      if (pendingReservations.isEmpty() && tryReserve(elements, bytes)) {
+        return Futures.immediateFuture(null);
+      }
+      pendingReservations.add(reservation);
+    }
+    reservation.future.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (reservation.future.isCancelled()) {
+              withdraw(reservation);
+            }
+          }
+        },
+        MoreExecutors.directExecutor());
+    // Capacity may have been released between the failed attempt and the enqueue.
+    grantPendingReservations();
+    return reservation.future;
+  }
+
+  /**
+   * Releases capacity previously obtained through {@link #reserve}, {@link #tryReserve} or {@link
+   * #reserveAsync}.
+   */
+  public void release(int elements, int bytes) {
+    Preconditions.checkArgument(elements >= 0 && bytes >= 0);
+    if (outstandingElementCount != null) {
+      outstandingElementCount.release(clampElements(elements));
+    }
+    if (outstandingByteCount != null) {
+      outstandingByteCount.release(clampBytes(bytes));
+    }
+    grantPendingReservations();
+  }
+
+  /** Returns the number of asynchronous reservations waiting for capacity. */
+  public int getPendingReservationCount() {
+    synchronized (pendingReservations) {
+      return pendingReservations.size();
+    }
+  }
+
+  // Removes a cancelled reservation from the queue, which may let the ones behind it through.
+  private void withdraw(PendingReservation reservation) {
+    synchronized (pendingReservations) {
+      if (!pendingReservations.remove(reservation)) {
+        return;
+      }
+    }
+    grantPendingReservations();
+  }
+
+  private void grantPendingReservations() {
+    List<PendingReservation> granted = new ArrayList<>();
+    synchronized (pendingReservations) {
+      while (!pendingReservations.isEmpty()) {
+        PendingReservation next = pendingReservations.peek();
+        if (next.future.isCancelled()) {
+          pendingReservations.poll();
+          continue;
+        }
+        if (!tryReserve(next.elements, next.bytes)) {
+          break;
+        }
+        granted.add(pendingReservations.poll());
+      }
+    }
+    // Complete the futures outside the lock, since their listeners may run inline. A future that
+    // was cancelled in the meantime cannot be completed, so its capacity is given back.
+    for (PendingReservation reservation : granted) {
+      if (!reservation.future.set(null)) {
+        release(reservation.elements, reservation.bytes);
+      }
+    }
+  }
+
+  /** Returns the maximum number of outstanding elements, or null if it is not bounded. */
+  @Nullable
+  public Integer getMaxOutstandingElementCount() {
+    return maxOutstandingElementCount;
+  }
+
+  /** Returns the maximum number of outstanding bytes, or null if it is not bounded. */
+  @Nullable
+  public Integer getMaxOutstandingBytes() {
+    return maxOutstandingBytes;
+  }
+
+  /** Returns the number of elements currently reserved, or 0 if element count is not bounded. */
+  public int getOutstandingElementCount() {
+    if (outstandingElementCount == null) {
+      return 0;
+    }
+    return maxOutstandingElementCount - outstandingElementCount.availablePermits();
+  }
+
+  /** Returns the number of bytes currently reserved, or 0 if bytes are not bounded. */
+  public int getOutstandingBytes() {
+    if (outstandingByteCount == null) {
+      return 0;
+    }
+    return maxOutstandingBytes - outstandingByteCount.availablePermits();
+  }
+
+  private int clampElements(int elements) {
+    return Math.min(elements, maxOutstandingElementCount);
+  }
+
+  private int clampBytes(int bytes) {
+    return Math.min(bytes, maxOutstandingBytes);
+  }
+}
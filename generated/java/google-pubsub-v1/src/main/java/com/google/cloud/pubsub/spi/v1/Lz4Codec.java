@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+
+/**
+ * A pure-Java codec for the LZ4 block format. It trades compression ratio for speed: a single hash
+ * probe per position and no entropy coding.
+ *
+ * <p>The compressed form is the uncompressed length as a 4-byte big-endian integer, followed by one
+ * LZ4 block. That length is checked against the largest expansion the block format allows before
+ * anything is allocated for it.
+ */
+class Lz4Codec implements MessageCodec {
+  static final String NAME = "lz4";
+
+  private static final int MIN_MATCH = 4;
+  // The last match must start at least this many bytes before the end of the input.
+  private static final int MATCH_FIND_LIMIT = 12;
+  // The last bytes of the input are always emitted as literals.
+  private static final int LAST_LITERALS = 5;
+  private static final int MAX_OFFSET = 65535;
+  private static final int HASH_LOG = 12;
+  private static final int RUN_MASK = 15;
+  // Every byte of a block produces at most this many bytes of output, through a length byte of 255.
+  private static final int MAX_RATIO = 255;
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public ByteString compress(ByteString data) {
+    byte[] src = data.toByteArray();
+    int length = src.length;
+    byte[] dest = new byte[4 + length + length / 255 + 16];
+    writeInt(dest, 0, length);
+    int op = 4;
+
+    int anchor = 0;
+    if (length >= MATCH_FIND_LIMIT + 1) {
+      int[] hashTable = new int[1 << HASH_LOG];
+      int matchLimit = length - LAST_LITERALS;
+      int i = 0;
+      while (i < length - MATCH_FIND_LIMIT) {
+        int sequence = readInt(src, i);
+        int hash = hash(sequence);
+        // Entries are stored off by one, so that zero means empty.
+        int ref = hashTable[hash] - 1;
+        hashTable[hash] = i + 1;
+        if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+          i++;
+          continue;
+        }
+        int matchLength = MIN_MATCH;
+        while (i + matchLength < matchLimit && src[ref + matchLength] == src[i + matchLength]) {
+          matchLength++;
+        }
+        op = writeSequence(src, anchor, i - anchor, i - ref, matchLength, dest, op);
+        i += matchLength;
+        anchor = i;
+      }
+    }
+    op = writeLastLiterals(src, anchor, length - anchor, dest, op);
+    return ByteString.copyFrom(dest, 0, op);
+  }
+
+  @Override
+  public ByteString decompress(ByteString data) throws IOException {
+    byte[] src = data.toByteArray();
+    if (src.length < 4) {
+      throw new IOException("Truncated LZ4 data");
+    }
+    int length = readIntBigEndian(src, 0);
+    if (length < 0) {
+      throw new IOException("Corrupt LZ4 data");
+    }
+    if (length > (long) (src.length - 4) * MAX_RATIO
+        || length > MessageCodecs.MAX_DECOMPRESSED_BYTES) {
+      throw new IOException("Corrupt LZ4 data, or too large to decompress: " + length + " bytes");
+    }
+    byte[] dest = new byte[length];
+    int ip = 4;
+    int op = 0;
+    try {
+      while (true) {
+        int token = src[ip++] & 0xff;
+        int literalLength = token >>> 4;
+        if (literalLength == RUN_MASK) {
+          int b;
+          do {
+            b = src[ip++] & 0xff;
+            literalLength += b;
+          } while (b == 255);
+        }
+        System.arraycopy(src, ip, dest, op, literalLength);
+        ip += literalLength;
+        op += literalLength;
+        if (ip >= src.length) {
+          break;
+        }
+
+        int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+        ip += 2;
+        int matchLength = token & RUN_MASK;
+        if (matchLength == RUN_MASK) {
+          int b;
+          do {
+            b = src[ip++] & 0xff;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+        int ref = op - offset;
+        if (offset == 0 || ref < 0 || op + matchLength > length) {
+          throw new IOException("Corrupt LZ4 data");
+        }
+        // The match may overlap the bytes it produces, so it is copied byte by byte.
+        for (int end = op + matchLength; op < end; ) {
+          dest[op++] = dest[ref++];
+        }
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Corrupt LZ4 data", e);
+    }
+    if (op != length) {
+      throw new IOException("Corrupt LZ4 data");
+    }
+    return ByteString.copyFrom(dest);
+  }
+
+  private static int writeSequence(
+      byte[] src,
+      int literalStart,
+      int literalLength,
+      int offset,
+      int matchLength,
+      byte[] dest,
+      int op) {
+    int tokenPos = op++;
+    int token = Math.min(literalLength, RUN_MASK) << 4;
+    op = writeLength(literalLength, dest, op);
+    System.arraycopy(src, literalStart, dest, op, literalLength);
+    op += literalLength;
+    dest[op++] = (byte) offset;
+    dest[op++] = (byte) (offset >>> 8);
+    token |= Math.min(matchLength - MIN_MATCH, RUN_MASK);
+    op = writeLength(matchLength - MIN_MATCH, dest, op);
+    dest[tokenPos] = (byte) token;
+    return op;
+  }
+
+  private static int writeLastLiterals(
+      byte[] src, int literalStart, int literalLength, byte[] dest, int op) {
+    dest[op++] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+    op = writeLength(literalLength, dest, op);
+    System.arraycopy(src, literalStart, dest, op, literalLength);
+    return op + literalLength;
+  }
+
+  // Writes the part of a length that does not fit in its 4-bit token field.
+  private static int writeLength(int length, byte[] dest, int op) {
+    if (length < RUN_MASK) {
+      return op;
+    }
+    int remaining = length - RUN_MASK;
+    while (remaining >= 255) {
+      dest[op++] = (byte) 255;
+      remaining -= 255;
+    }
+    dest[op++] = (byte) remaining;
+    return op;
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  private static int readInt(byte[] src, int i) {
+    return (src[i] & 0xff)
+        | ((src[i + 1] & 0xff) << 8)
+        | ((src[i + 2] & 0xff) << 16)
+        | ((src[i + 3] & 0xff) << 24);
+  }
+
+  private static int readIntBigEndian(byte[] src, int i) {
+    return ((src[i] & 0xff) << 24)
+        | ((src[i + 1] & 0xff) << 16)
+        | ((src[i + 2] & 0xff) << 8)
+        | (src[i + 3] & 0xff);
+  }
+
+  private static void writeInt(byte[] dest, int i, int value) {
+    dest[i] = (byte) (value >>> 24);
+    dest[i + 1] = (byte) (value >>> 16);
+    dest[i + 2] = (byte) (value >>> 8);
+    dest[i + 3] = (byte) value;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Splits messages whose data is too large to publish comfortably into chunks, which are published
+ * as separate messages and reassembled by a {@link ChunkReassembler} on the subscriber side.
+ *
+ * <p>Every chunk carries the id of its group, its index, the number of chunks in the group and the
+ * SHA-256 hash of its own data in its attributes. The first chunk also carries the attributes of
+ * the original message, so that the reassembled message has them again.
+ */
+public final class MessageChunks {
+  /** The attribute that identifies the chunks of one original message. */
+  public static final String GROUP_ATTRIBUTE = "pubsub-chunk-group";
+  /** The attribute that holds the zero-based index of a chunk within its group. */
+  public static final String INDEX_ATTRIBUTE = "pubsub-chunk-index";
+  /** The attribute that holds the number of chunks in a group. */
+  public static final String COUNT_ATTRIBUTE = "pubsub-chunk-count";
+  /** The attribute that holds the hex-encoded SHA-256 hash of the data of a chunk. */
+  public static final String HASH_ATTRIBUTE = "pubsub-chunk-hash";
+
+  private MessageChunks() {}
+
+  /** Returns whether the given message is a chunk of a larger message. */
+  public static boolean isChunk(PubsubMessage message) {
+    return message.containsAttributes(GROUP_ATTRIBUTE);
+  }
+
+  /**
+   * Splits the data of the given message into chunks of at most maxChunkBytes bytes. The chunks
+   * share the data of the message rather than copying it. A message that is no larger than
+   * maxChunkBytes is returned as the only element of the list, without chunk attributes.
+   */
+  public static List<PubsubMessage> split(PubsubMessage message, int maxChunkBytes) {
+    Preconditions.checkArgument(maxChunkBytes > 0);
+    Preconditions.checkArgument(!isChunk(message), "Message is already a chunk");
+    ByteString data = message.getData();
+    if (data.size() <= maxChunkBytes) {
+      List<PubsubMessage> chunks = new ArrayList<>(1);
+      chunks.add(message);
+      return chunks;
+    }
+    int count = (data.size() + maxChunkBytes - 1) / maxChunkBytes;
+    String group = UUID.randomUUID().toString();
+    String countAttribute = Integer.toString(count);
+    List<PubsubMessage> chunks = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      ByteString chunkData =
+          data.substring(i * maxChunkBytes, Math.min(data.size(), (i + 1) * maxChunkBytes));
+      PubsubMessage.Builder chunk = i == 0 ? message.toBuilder() : PubsubMessage.newBuilder();
+      chunks.add(
+          chunk
+              .setData(chunkData)
+              .putAttributes(GROUP_ATTRIBUTE, group)
+              .putAttributes(INDEX_ATTRIBUTE, Integer.toString(i))
+              .putAttributes(COUNT_ATTRIBUTE, countAttribute)
+              .putAttributes(HASH_ATTRIBUTE, hash(chunkData))
+              .build());
+    }
+    return chunks;
+  }
+
+  /** Returns the hex-encoded SHA-256 hash of the given data. */
+  static String hash(ByteString data) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+    for (ByteBuffer buffer : data.asReadOnlyByteBufferList()) {
+      digest.update(buffer);
+    }
+    return BaseEncoding.base16().lowerCase().encode(digest.digest());
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+
+/**
+ * A compression codec for message data. The codec name is recorded in the attributes of every
+ * message it compresses, so that subscribers can find the codec to decompress it with; see {@link
+ * MessageCodecs}.
+ */
+public interface MessageCodec {
+  /** Returns the name of this codec, which is unique among registered codecs. */
+  String getName();
+
+  /** Compresses the given data. */
+  ByteString compress(ByteString data);
+
+  /** Decompresses data produced by {@link #compress}. */
+  ByteString decompress(ByteString data) throws IOException;
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PullResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * The built-in {@link MessageCodec}s, a registry of codecs by name, and the helpers that compress
+ * and decompress the data of a {@link PubsubMessage}.
+ *
+ * <p>A compressed message carries the name of its codec in the {@link #CODEC_ATTRIBUTE} attribute.
+ * Messages without that attribute are left untouched by {@link #decompress}, so compressed and
+ * uncompressed messages can share a subscription.
+ *
+ * <p>The built-in codecs reject data that would decompress to more than {@link
+ * #MAX_DECOMPRESSED_BYTES}, or to more than the largest expansion their format allows, with an
+ * {@link IOException}, so that a corrupt or hostile message cannot exhaust the heap.
+ */
+public final class MessageCodecs {
+  private static final Logger logger = Logger.getLogger(MessageCodecs.class.getName());
+
+  /** The attribute that names the codec a message's data was compressed with. */
+  public static final String CODEC_ATTRIBUTE = "pubsub-codec";
+
+  /** The largest data the built-in codecs decompress. */
+  public static final int MAX_DECOMPRESSED_BYTES = 1024 * 1024 * 1024;
+
+  // Deflate, which gzip is built on, expands its input by at most this factor.
+  private static final int MAX_DEFLATE_RATIO = 1032;
+
+  /** Compresses with gzip, including the gzip header and checksum. */
+  public static final MessageCodec GZIP =
+      new MessageCodec() {
+        @Override
+        public String getName() {
+          return "gzip";
+        }
+
+        @Override
+        public ByteString compress(ByteString data) {
+          ByteString.Output output = ByteString.newOutput();
+          try (OutputStream gzip = new GZIPOutputStream(output)) {
+            data.writeTo(gzip);
+          } catch (IOException e) {
+            throw new IllegalStateException("In-memory compression failed", e);
+          }
+          return output.toByteString();
+        }
+
+        @Override
+        public ByteString decompress(ByteString data) throws IOException {
+          try (InputStream gzip = new GZIPInputStream(data.newInput())) {
+            return readAtMost(gzip, maxDeflatedBytes(data));
+          }
+        }
+      };
+
+  /** Compresses with deflate in the zlib format, which has less framing than gzip. */
+  public static final MessageCodec DEFLATE =
+      new MessageCodec() {
+        @Override
+        public String getName() {
+          return "deflate";
+        }
+
+        @Override
+        public ByteString compress(ByteString data) {
+          ByteString.Output output = ByteString.newOutput();
+          Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+          try (OutputStream deflate = new DeflaterOutputStream(output, deflater)) {
+            data.writeTo(deflate);
+          } catch (IOException e) {
+            throw new IllegalStateException("In-memory compression failed", e);
+          } finally {
+            deflater.end();
+          }
+          return output.toByteString();
+        }
+
+        @Override
+        public ByteString decompress(ByteString data) throws IOException {
+          try (InputStream inflate = new InflaterInputStream(data.newInput())) {
+            return readAtMost(inflate, maxDeflatedBytes(data));
+          }
+        }
+      };
+
+  /** Compresses with LZ4, which is much faster than gzip but compresses less. */
+  public static final MessageCodec LZ4 = new Lz4Codec();
+
+  private static final Map<String, MessageCodec> codecs = new ConcurrentHashMap<>();
+
+  static {
+    register(GZIP);
+    register(DEFLATE);
+    register(LZ4);
+  }
+
+  private MessageCodecs() {}
+
+  /**
+   * Registers a codec so that messages compressed with it can be decompressed by {@link
+   * #decompress}. Registering a codec replaces any codec of the same name.
+   */
+  public static void register(MessageCodec codec) {
+    codecs.put(codec.getName(), codec);
+  }
+
+  /** Returns the registered codec with the given name, or null if there is none. */
+  @Nullable
+  public static MessageCodec forName(String name) {
+    return codecs.get(name);
+  }
+
+  private static long maxDeflatedBytes(ByteString data) {
+    return Math.min((long) data.size() * MAX_DEFLATE_RATIO, MAX_DECOMPRESSED_BYTES);
+  }
+
+  /**
+   * Reads the given stream to its end.
+   *
+   * @throws IOException if the stream holds more than maxBytes bytes
+   */
+  @VisibleForTesting
+  static ByteString readAtMost(InputStream input, long maxBytes) throws IOException {
+    ByteString.Output output = ByteString.newOutput();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      if (output.size() + read > maxBytes) {
+        throw new IOException("Decompressed data exceeds " + maxBytes + " bytes");
+      }
+      output.write(buffer, 0, read);
+    }
+    return output.toByteString();
+  }
+
+  /**
+   * Returns the given message with its data compressed by the given codec, unless the data is
+   * smaller than minBytes, the message is already compressed, or compression would not make it
+   * smaller. In those cases the message is returned unchanged.
+   */
+  public static PubsubMessage compress(PubsubMessage message, MessageCodec codec, int minBytes) {
+    Preconditions.checkNotNull(codec);
+    ByteString data = message.getData();
+    if (data.size() < minBytes || message.containsAttributes(CODEC_ATTRIBUTE)) {
+      return message;
+    }
+    ByteString compressed = codec.compress(data);
+    if (compressed.size() >= data.size()) {
+      return message;
+    }
+    return message
+        .toBuilder()
+        .setData(compressed)
+        .putAttributes(CODEC_ATTRIBUTE, codec.getName())
+        .build();
+  }
+
+  /**
+   * Returns the given message with its data decompressed and the codec attribute removed, or the
+   * message itself if it is not compressed.
+   *
+   * @throws IOException if the codec is not registered or the data is corrupt
+   */
+  public static PubsubMessage decompress(PubsubMessage message) throws IOException {
+    String name = message.getAttributesMap().get(CODEC_ATTRIBUTE);
+    if (name == null) {
+      return message;
+    }
+    MessageCodec codec = forName(name);
+    if (codec == null) {
+      throw new IOException("Unknown message codec: " + name);
+    }
+    return message
+        .toBuilder()
+        .setData(codec.decompress(message.getData()))
+        .removeAttributes(CODEC_ATTRIBUTE)
+        .build();
+  }
+
+  /**
+   * Decompresses the given message on the pull path. A message that cannot be decompressed is
+   * logged and returned as is, with its codec attribute, rather than failing the whole pull.
+   */
+  static PubsubMessage decompressOrKeep(PubsubMessage message) {
+    try {
+      return decompress(message);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to decompress message " + message.getMessageId(), e);
+      return message;
+    }
+  }
+
+  /** Decompresses the messages of the given pull response, as {@link #decompressOrKeep} does. */
+  static PullResponse decompressOrKeep(PullResponse response) {
+    PullResponse.Builder builder = null;
+    for (int i = 0; i < response.getReceivedMessagesCount(); i++) {
+      PubsubMessage message = response.getReceivedMessages(i).getMessage();
+      if (!message.containsAttributes(CODEC_ATTRIBUTE)) {
+        continue;
+      }
+      if (builder == null) {
+        builder = response.toBuilder();
+      }
+      builder.setReceivedMessages(
+          i, response.getReceivedMessages(i).toBuilder().setMessage(decompressOrKeep(message)));
+    }
+    return builder == null ? response : builder.build();
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.pubsub.v1.PubsubMessage;
+
+/** Handles the messages delivered by a {@link PullSubscriber}. */
+public interface MessageReceiver {
+
+  /** The outcome of processing a message. */
+  enum AckReply {
+    /** The message was processed and must not be delivered again. */
+    ACK,
+    /** The message was not processed and should be redelivered as soon as possible. */
+    NACK
+  }
+
+  /**
+   * Processes the given message. This is called on one of the subscriber's worker threads; throwing
+   * an exception has the same effect as returning {@link AckReply#NACK}.
+   */
+  AckReply receiveMessage(PubsubMessage message) throws Exception;
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes messages to one topic so that messages with the same ordering key are sent in the order
+ * in which they were published.
+ *
+ * <p>At most one PublishRequest is in flight per ordering key; messages published while it is
+ * outstanding are queued and sent together as the next request for that key once it completes.
+ * Requests for different keys are independent, so many keys are pipelined through the bundling of
+ * {@link PublisherApi#publishCallable()}, which may merge them into a single RPC.
+ *
+ * <p>When a request for a key fails, the key is paused: the futures of its in-flight and queued
+ * messages fail with the cause, and further publishes with that key fail immediately until {@link
+ * #resumePublish(String)} is called. This keeps a failure from reordering the key's messages.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (PublisherApi publisherApi = PublisherApi.create()) {
+ *   String formattedTopic = PublisherApi.formatTopicName("[PROJECT]", "[TOPIC]");
+ *   OrderedPublisher publisher = OrderedPublisher.newBuilder(publisherApi, formattedTopic).build();
+ *   ListenableFuture&lt;String&gt; messageId = publisher.publish("customer-42", message);
+ * }
+ * </code></pre>
+ */
+public class OrderedPublisher {
+  private static final int DEFAULT_MAX_BUNDLE_MESSAGES = 1000;
+  private static final int DEFAULT_MAX_BUNDLE_BYTES = 10485760;
+
+  private final PublisherApi publisherApi;
+  private final String topic;
+  private final int maxBundleMessages;
+  private final int maxBundleBytes;
+
+  // Guarded by this. Keys without queued or in-flight messages are removed unless paused.
+  private final Map<String, KeyState> keyStates = new HashMap<>();
+
+  private static class OutstandingMessage {
+    private final PubsubMessage message;
+    private final SettableFuture<String> messageIdFuture = SettableFuture.create();
+
+    private OutstandingMessage(PubsubMessage message) {
+      this.message = message;
+    }
+  }
+
+  private static class KeyState {
+    private final Deque<OutstandingMessage> queued = new ArrayDeque<>();
+    private List<OutstandingMessage> inFlight;
+    private Throwable pauseCause;
+  }
+
+  private OrderedPublisher(Builder builder) {
+    this.publisherApi = builder.publisherApi;
+    this.topic = builder.topic;
+    this.maxBundleMessages = builder.maxBundleMessages;
+    this.maxBundleBytes = builder.maxBundleBytes;
+  }
+
+  /**
+   * Returns a new builder for a publisher to the given topic, which must be a fully-qualified topic
+   * name.
+   */
+  public static Builder newBuilder(PublisherApi publisherApi, String topic) {
+    return new Builder(publisherApi, topic);
+  }
+
+  /** Returns the topic messages are published to. */
+  public String getTopic() {
+    return topic;
+  }
+
+  /**
+   * Schedules the given message to be published after all messages previously published with the
+   * same ordering key. Returns a future of the message id assigned by the service.
+   *
+   * <p>If the key is paused, the returned future fails with an {@link IllegalStateException} whose
+   * cause is the failure that paused the key.
+   */
+  public ListenableFuture<String> publish(String orderingKey, PubsubMessage message) {
+    Preconditions.checkNotNull(orderingKey);
+    Preconditions.checkNotNull(message);
+    OutstandingMessage outstanding = new OutstandingMessage(message);
+    List<OutstandingMessage> bundle;
+    synchronized (this) {
+      KeyState state = keyStates.get(orderingKey);
+      if (state == null) {
+        state = new KeyState();
+        keyStates.put(orderingKey, state);
+      }
+      if (state.pauseCause != null) {
+        return Futures.immediateFailedFuture(pausedException(orderingKey, state.pauseCause));
+      }
+      state.queued.add(outstanding);
+      bundle = state.inFlight == null ? nextBundle(state) : null;
+    }
+    if (bundle != null) {
+      send(orderingKey, bundle);
+    }
+    return outstanding.messageIdFuture;
+  }
+
+  /**
+   * Resumes publishing for an ordering key that was paused by a failure. Returns false if the key
+   * was not paused.
+   */
+  public synchronized boolean resumePublish(String orderingKey) {
+    KeyState state = keyStates.get(orderingKey);
+    if (state == null || state.pauseCause == null) {
+      return false;
+    }
+    keyStates.remove(orderingKey);
+    return true;
+  }
+
+  /** Returns whether publishing for the given ordering key is paused by a failure. */
+  public synchronized boolean isPaused(String orderingKey) {
+    KeyState state = keyStates.get(orderingKey);
+    return state != null && state.pauseCause != null;
+  }
+
+  /** Returns the number of messages that are queued or in flight, across all keys. */
+  public synchronized int getOutstandingMessageCount() {
+    int count = 0;
+    for (KeyState state : keyStates.values()) {
+      count += state.queued.size() + (state.inFlight == null ? 0 : state.inFlight.size());
+    }
+    return count;
+  }
+
+  // Must be called with the lock held. Moves the next bundle of queued messages in flight.
+  private List<OutstandingMessage> nextBundle(KeyState state) {
+    if (state.queued.isEmpty()) {
+      return null;
+    }
+    List<OutstandingMessage> bundle = new ArrayList<>();
+    long bytes = 0;
+    while (!state.queued.isEmpty() && bundle.size() < maxBundleMessages) {
+      int messageBytes = state.queued.peek().message.getSerializedSize();
+      if (!bundle.isEmpty() && bytes + messageBytes > maxBundleBytes) {
+        break;
+      }
+      bundle.add(state.queued.poll());
+      bytes += messageBytes;
+    }
+    state.inFlight = bundle;
+    return bundle;
+  }
+
+  private void send(final String orderingKey, final List<OutstandingMessage> bundle) {
+    PublishRequest.Builder request = PublishRequest.newBuilder().setTopic(topic);
+    for (OutstandingMessage outstanding : bundle) {
+      request.addMessages(outstanding.message);
+    }
+    Futures.addCallback(
+        publisherApi.publishCallable().futureCall(request.build()),
+        new FutureCallback<PublishResponse>() {
+          @Override
+          public void onSuccess(PublishResponse response) {
+            List<OutstandingMessage> next;
+            synchronized (OrderedPublisher.this) {
+              KeyState state = keyStates.get(orderingKey);
+              state.inFlight = null;
+              next = nextBundle(state);
+              if (next == null) {
+                keyStates.remove(orderingKey);
+              }
+            }
+            // The futures are completed after the state is updated, so that callers see a
+            // consistent outstanding message count once their futures are done.
+            for (int i = 0; i < bundle.size(); i++) {
+              bundle.get(i).messageIdFuture.set(response.getMessageIds(i));
+            }
+            if (next != null) {
+              send(orderingKey, next);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            List<OutstandingMessage> queued;
+            synchronized (OrderedPublisher.this) {
+              KeyState state = keyStates.get(orderingKey);
+              state.inFlight = null;
+              state.pauseCause = t;
+              queued = new ArrayList<>(state.queued);
+              state.queued.clear();
+            }
+            for (OutstandingMessage outstanding : bundle) {
+              outstanding.messageIdFuture.setException(t);
+            }
+            for (OutstandingMessage outstanding : queued) {
+              outstanding.messageIdFuture.setException(pausedException(orderingKey, t));
+            }
+          }
+        });
+  }
+
+  private static IllegalStateException pausedException(String orderingKey, Throwable cause) {
+    return new IllegalStateException(
+        "Publishing for ordering key " + orderingKey + " is paused by an earlier failure", cause);
+  }
+
+  /** Builder for OrderedPublisher. */
+  public static class Builder {
+    private final PublisherApi publisherApi;
+    private final String topic;
+    private int maxBundleMessages = DEFAULT_MAX_BUNDLE_MESSAGES;
+    private int maxBundleBytes = DEFAULT_MAX_BUNDLE_BYTES;
+
+    private Builder(PublisherApi publisherApi, String topic) {
+      this.publisherApi = Preconditions.checkNotNull(publisherApi);
+      this.topic = Preconditions.checkNotNull(topic);
+    }
+
+    /** Sets the maximum number of messages of one key sent in a single request. */
+    public Builder setMaxBundleMessages(int maxBundleMessages) {
+      Preconditions.checkArgument(maxBundleMessages > 0);
+      this.maxBundleMessages = maxBundleMessages;
+      return this;
+    }
+
+    /**
+     * Sets the maximum serialized size of the messages of one key sent in a single request. A
+     * single message larger than this is still sent on its own.
+     */
+    public Builder setMaxBundleBytes(int maxBundleBytes) {
+      Preconditions.checkArgument(maxBundleBytes > 0);
+      this.maxBundleBytes = maxBundleBytes;
+      return this;
+    }
+
+    public OrderedPublisher build() {
+      return new OrderedPublisher(this);
+    }
+  }
+}
@@ -38,12 +38,30 @@ public class PagedResponseWrappers {
   public static class ListTopicsPagedResponse
       extends PagedListResponseImpl<ListTopicsRequest, ListTopicsResponse, Topic> {
 
+    private final UnaryApiCallable<ListTopicsRequest, ListTopicsResponse> callable;
+    private final PageStreamingDescriptor<ListTopicsRequest, ListTopicsResponse, Topic>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListTopicsPagedResponse(
         UnaryApiCallable<ListTopicsRequest, ListTopicsResponse> callable,
         PageStreamingDescriptor<ListTopicsRequest, ListTopicsResponse, Topic> pageDescriptor,
         ListTopicsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListTopicsRequest, ListTopicsResponse, Topic> prefetch(
+        int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
     }
   }
 
@@ -51,6 +69,13 @@ public class PagedResponseWrappers {
       extends PagedListResponseImpl<
           ListTopicSubscriptionsRequest, ListTopicSubscriptionsResponse, String> {
 
+    private final UnaryApiCallable<ListTopicSubscriptionsRequest, ListTopicSubscriptionsResponse>
+        callable;
+    private final PageStreamingDescriptor<
+            ListTopicSubscriptionsRequest, ListTopicSubscriptionsResponse, String>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListTopicSubscriptionsPagedResponse(
         UnaryApiCallable<ListTopicSubscriptionsRequest, ListTopicSubscriptionsResponse> callable,
         PageStreamingDescriptor<
@@ -59,6 +84,19 @@ public class PagedResponseWrappers {
         ListTopicSubscriptionsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListTopicSubscriptionsRequest, ListTopicSubscriptionsResponse, String>
+        prefetch(int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
     }
   }
 
@@ -66,6 +104,12 @@ public class PagedResponseWrappers {
       extends PagedListResponseImpl<
           ListSubscriptionsRequest, ListSubscriptionsResponse, Subscription> {
 
+    private final UnaryApiCallable<ListSubscriptionsRequest, ListSubscriptionsResponse> callable;
+    private final PageStreamingDescriptor<
+            ListSubscriptionsRequest, ListSubscriptionsResponse, Subscription>
+        pageDescriptor;
+    private final CallContext context;
+
     public ListSubscriptionsPagedResponse(
         UnaryApiCallable<ListSubscriptionsRequest, ListSubscriptionsResponse> callable,
         PageStreamingDescriptor<ListSubscriptionsRequest, ListSubscriptionsResponse, Subscription>
@@ -73,6 +117,19 @@ public class PagedResponseWrappers {
         ListSubscriptionsRequest request,
         CallContext context) {
       super(callable, pageDescriptor, request, context);
+      this.callable = callable;
+      this.pageDescriptor = pageDescriptor;
+      this.context = context;
+    }
+
+    /**
+     * Returns a view of this response that fetches the following pages in the background, at
+     * most lookAheadPages pages and maxBufferedBytes bytes ahead of the caller.
+     */
+    public PagePrefetcher<ListSubscriptionsRequest, ListSubscriptionsResponse, Subscription>
+        prefetch(int lookAheadPages, long maxBufferedBytes) {
+      return new PagePrefetcher<>(
+          callable, pageDescriptor, getPage(), context, lookAheadPages, maxBufferedBytes);
     }
   }
 }
@@ -18,6 +18,13 @@ import static com.google.cloud.pubsub.spi.v1.PagedResponseWrappers.ListTopicsPag
 
 import com.google.api.gax.grpc.UnaryApiCallable;
 import com.google.api.gax.protobuf.PathTemplate;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.iam.v1.GetIamPolicyRequest;
 import com.google.iam.v1.Policy;
 import com.google.iam.v1.SetIamPolicyRequest;
@@ -39,6 +46,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 
 // AUTO-GENERATED DOCUMENTATION AND SERVICE
@@ -99,6 +107,7 @@ public class PublisherApi implements AutoCloseable {
   private final ManagedChannel channel;
   private final ScheduledExecutorService executor;
   private final List<AutoCloseable> closeables = new ArrayList<>();
+  private final FlowController publishFlowController;
 
   private final UnaryApiCallable<Topic, Topic> createTopicCallable;
   private final UnaryApiCallable<PublishRequest, PublishResponse> publishCallable;
@@ -178,6 +187,7 @@ public class PublisherApi implements AutoCloseable {
     if (settings.publishSettings().getBundlerFactory() != null) {
       closeables.add(settings.publishSettings().getBundlerFactory());
     }
+    this.publishFlowController = settings.publishFlowControlSettings().createFlowController();
     this.getTopicCallable =
         UnaryApiCallable.create(settings.getTopicSettings(), this.channel, this.executor);
     this.listTopicsCallable =
@@ -224,6 +234,14 @@ public class PublisherApi implements AutoCloseable {
     return settings;
   }
 
+  /**
+   * Returns the flow controller that enforces {@link PublisherSettings#publishFlowControlSettings}.
+   * Its outstanding element count and bytes are the current use of the publish budget.
+   */
+  public final FlowController getPublishFlowController() {
+    return publishFlowController;
+  }
+
   // AUTO-GENERATED DOCUMENTATION AND METHOD
   /**
    * Creates the given topic with the given name.
@@ -326,11 +344,42 @@ public class PublisherApi implements AutoCloseable {
     return publish(request);
   }
 
+  /**
+   * Adds one or more messages to the topic, like {@link #publish(String, List)}, for a topic name
+   * that was validated when it was created.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * TopicName topic = TopicName.of("[PROJECT]", "[TOPIC]");
+   * try (PublisherApi publisherApi = PublisherApi.create()) {
+   *   PubsubMessage message = PubsubMessage.newBuilder()
+   *     .setData(ByteString.copyFromUtf8("data"))
+   *     .build();
+   *   PublishResponse response = publisherApi.publish(topic, Arrays.asList(message));
+   * }
+   * </code></pre>
+   *
+   * @param topic The messages in the request will be published on this topic.
+   * @param messages The messages to publish.
+   * @throws com.google.api.gax.grpc.ApiException if the remote call fails
+   */
+  public final PublishResponse publish(TopicName topic, List<PubsubMessage> messages) {
+    PublishRequest request =
+        PublishRequest.newBuilder()
+            .setTopicBytes(topic.toByteString())
+            .addAllMessages(messages)
+            .build();
+    return publish(request);
+  }
+
   // AUTO-GENERATED DOCUMENTATION AND METHOD
   /**
    * Adds one or more messages to the topic. Returns `NOT_FOUND` if the topic does not exist. The
    * message payload must not be empty; it must contain either a non-empty data field, or at least
-   * one attribute.
+   * one attribute. Message data is compressed according to {@link
+   * PublisherSettings#publishCompressionSettings}, and split according to {@link
+   * PublisherSettings#publishChunkingSettings}.
    *
    * <p>Sample code:
    *
@@ -354,7 +403,163 @@ public class PublisherApi implements AutoCloseable {
    * @throws com.google.api.gax.grpc.ApiException if the remote call fails
    */
   public final PublishResponse publish(PublishRequest request) {
-    return publishCallable().call(request);
+    request = settings.publishCompressionSettings().compress(request);
+    if (settings.publishChunkingSettings().requiresChunking(request)) {
+      try {
+        return Uninterruptibles.getUninterruptibly(publishChunked(request));
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+    int elements = request.getMessagesCount();
+    int bytes = request.getSerializedSize();
+    if (settings.publishFlowControlSettings().getLimitExceededBehavior()
+        == FlowControlSettings.LimitExceededBehavior.THROW_EXCEPTION) {
+      if (!publishFlowController.tryReserve(elements, bytes)) {
+        throw publishLimitExceeded();
+      }
+    } else {
+      Futures.getUnchecked(publishFlowController.reserveAsync(elements, bytes));
+    }
+    try {
+      return publishCallable().call(request);
+    } finally {
+      publishFlowController.release(elements, bytes);
+    }
+  }
+
+  /**
+   * Adds one or more messages to the topic without blocking, within the limits of {@link
+   * PublisherSettings#publishFlowControlSettings}. Returns `NOT_FOUND` if the topic does not exist.
+   * Message data is compressed according to {@link PublisherSettings#publishCompressionSettings},
+   * and split according to {@link PublisherSettings#publishChunkingSettings}.
+   *
+   * <p>When the limits are reached, the behavior depends on the configured {@link
+   * FlowControlSettings.LimitExceededBehavior}: BLOCK blocks the calling thread until capacity is
+   * released, THROW_EXCEPTION returns a future that has failed with a {@link
+   * FlowController.MaxOutstandingExceededException}, and DEFER returns at once and sends the
+   * request when capacity is released.
+   *
+   * <p>Sample code:
+   *
+   * <pre><code>
+   * try (PublisherApi publisherApi = PublisherApi.create()) {
+   *   String formattedTopic = PublisherApi.formatTopicName("[PROJECT]", "[TOPIC]");
+   *   PublishRequest request = PublishRequest.newBuilder()
+   *     .setTopic(formattedTopic)
+   *     .addAllMessages(messages)
+   *     .build();
+   *   ListenableFuture&lt;PublishResponse&gt; future = publisherApi.publishAsync(request);
+   *   // Do something
+   *   PublishResponse response = future.get();
+   * }
+   * </code></pre>
+   *
+   * @param request The request object containing all of the parameters for the API call.
+   */
+  public final ListenableFuture<PublishResponse> publishAsync(PublishRequest request) {
+    request = settings.publishCompressionSettings().compress(request);
+    if (settings.publishChunkingSettings().requiresChunking(request)) {
+      return publishChunked(request);
+    }
+    return publishWithinLimits(request);
+  }
+
+  private ListenableFuture<PublishResponse> publishWithinLimits(final PublishRequest request) {
+    final int elements = request.getMessagesCount();
+    final int bytes = request.getSerializedSize();
+    ListenableFuture<Void> reservation;
+    switch (settings.publishFlowControlSettings().getLimitExceededBehavior()) {
+      case THROW_EXCEPTION:
+        if (!publishFlowController.tryReserve(elements, bytes)) {
+          return Futures.immediateFailedFuture(publishLimitExceeded());
+        }
+        reservation = Futures.immediateFuture(null);
+        break;
+      case BLOCK:
+        reservation = publishFlowController.reserveAsync(elements, bytes);
+        Futures.getUnchecked(reservation);
+        break;
+      default:
+        reservation = publishFlowController.reserveAsync(elements, bytes);
+        break;
+    }
+    return Futures.transform(
+        reservation,
+        new AsyncFunction<Void, PublishResponse>() {
+          @Override
+          public ListenableFuture<PublishResponse> apply(Void input) {
+            ListenableFuture<PublishResponse> response = publishCallable().futureCall(request);
+            response.addListener(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    publishFlowController.release(elements, bytes);
+                  }
+                },
+                MoreExecutors.directExecutor());
+            return response;
+          }
+        });
+  }
+
+  // Publishes every chunk of a large message in a request of its own, so that the chunks can be
+  // bundled within the bundling thresholds, and the small messages of the request together. The
+  // message id of a chunked message is that of its first chunk. If any request fails, the chunks
+  // that were published are acknowledged without being delivered by a PullSubscriber once their
+  // group times out in its ChunkReassembler.
+  private ListenableFuture<PublishResponse> publishChunked(PublishRequest request) {
+    int maxChunkBytes = settings.publishChunkingSettings().getMaxChunkBytes();
+    List<ListenableFuture<PublishResponse>> responses = new ArrayList<>();
+    // For every message, the response holding its message id, or -1 for the unchunked response.
+    final int[] responseIndexes = new int[request.getMessagesCount()];
+    final int[] messageIdIndexes = new int[request.getMessagesCount()];
+    PublishRequest.Builder unchunked = PublishRequest.newBuilder().setTopic(request.getTopic());
+    for (int i = 0; i < request.getMessagesCount(); i++) {
+      PubsubMessage message = request.getMessages(i);
+      if (message.getData().size() > maxChunkBytes) {
+        responseIndexes[i] = responses.size();
+        for (PubsubMessage chunk : MessageChunks.split(message, maxChunkBytes)) {
+          responses.add(
+              publishWithinLimits(
+                  PublishRequest.newBuilder()
+                      .setTopic(request.getTopic())
+                      .addMessages(chunk)
+                      .build()));
+        }
+      } else {
+        responseIndexes[i] = -1;
+        messageIdIndexes[i] = unchunked.getMessagesCount();
+        unchunked.addMessages(message);
+      }
+    }
+    final int unchunkedIndex = responses.size();
+    if (unchunked.getMessagesCount() > 0) {
+      responses.add(publishWithinLimits(unchunked.build()));
+    }
+    return Futures.transform(
+        Futures.allAsList(responses),
+        new Function<List<PublishResponse>, PublishResponse>() {
+          @Override
+          public PublishResponse apply(List<PublishResponse> responses) {
+            PublishResponse.Builder response = PublishResponse.newBuilder();
+            for (int i = 0; i < responseIndexes.length; i++) {
+              int responseIndex = responseIndexes[i] >= 0 ? responseIndexes[i] : unchunkedIndex;
+              response.addMessageIds(
+                  responses.get(responseIndex).getMessageIds(messageIdIndexes[i]));
+            }
+            return response.build();
+          }
+        });
+  }
+
+  private FlowController.MaxOutstandingExceededException publishLimitExceeded() {
+    return new FlowController.MaxOutstandingExceededException(
+        "Publish flow control limits exceeded: "
+            + publishFlowController.getOutstandingElementCount()
+            + " messages and "
+            + publishFlowController.getOutstandingBytes()
+            + " bytes outstanding");
   }
 
   // AUTO-GENERATED DOCUMENTATION AND METHOD
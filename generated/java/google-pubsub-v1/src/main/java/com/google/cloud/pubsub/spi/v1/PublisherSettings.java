@@ -31,6 +31,7 @@ import com.google.api.gax.grpc.SimpleCallSettings;
 import com.google.api.gax.grpc.UnaryApiCallSettings;
 import com.google.api.gax.grpc.UnaryApiCallable;
 import com.google.auth.Credentials;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -52,12 +53,10 @@ import com.google.pubsub.v1.ListTopicsResponse;
 import com.google.pubsub.v1.PublishRequest;
 import com.google.pubsub.v1.PublishResponse;
 import com.google.pubsub.v1.PublisherGrpc;
-import com.google.pubsub.v1.PubsubMessage;
 import com.google.pubsub.v1.Topic;
 import io.grpc.ManagedChannel;
 import io.grpc.Status;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
@@ -114,6 +113,9 @@ public class PublisherSettings extends ServiceApiSettings {
 
   private final SimpleCallSettings<Topic, Topic> createTopicSettings;
   private final BundlingCallSettings<PublishRequest, PublishResponse> publishSettings;
+  private final FlowControlSettings publishFlowControlSettings;
+  private final CompressionSettings publishCompressionSettings;
+  private final ChunkingSettings publishChunkingSettings;
   private final SimpleCallSettings<GetTopicRequest, Topic> getTopicSettings;
   private final PageStreamingCallSettings<
           ListTopicsRequest, ListTopicsResponse, ListTopicsPagedResponse>
@@ -138,6 +140,21 @@ public class PublisherSettings extends ServiceApiSettings {
     return publishSettings;
   }
 
+  /** Returns the limits on the messages and bytes outstanding in calls to publish. */
+  public FlowControlSettings publishFlowControlSettings() {
+    return publishFlowControlSettings;
+  }
+
+  /** Returns the settings for compressing message data in calls to publish. */
+  public CompressionSettings publishCompressionSettings() {
+    return publishCompressionSettings;
+  }
+
+  /** Returns the settings for splitting large messages in calls to publish. */
+  public ChunkingSettings publishChunkingSettings() {
+    return publishChunkingSettings;
+  }
+
   /** Returns the object with the settings used for calls to getTopic. */
   public SimpleCallSettings<GetTopicRequest, Topic> getTopicSettings() {
     return getTopicSettings;
@@ -219,6 +236,9 @@ public class PublisherSettings extends ServiceApiSettings {
 
     createTopicSettings = settingsBuilder.createTopicSettings().build();
     publishSettings = settingsBuilder.publishSettings().build();
+    publishFlowControlSettings = settingsBuilder.publishFlowControlSettings();
+    publishCompressionSettings = settingsBuilder.publishCompressionSettings();
+    publishChunkingSettings = settingsBuilder.publishChunkingSettings();
     getTopicSettings = settingsBuilder.getTopicSettings().build();
     listTopicsSettings = settingsBuilder.listTopicsSettings().build();
     listTopicSubscriptionsSettings = settingsBuilder.listTopicSubscriptionsSettings().build();
@@ -347,34 +367,41 @@ public class PublisherSettings extends ServiceApiSettings {
         @Override
         public PublishRequest mergeRequests(Collection<PublishRequest> requests) {
           PublishRequest firstRequest = requests.iterator().next();
+          if (requests.size() == 1) {
+            return firstRequest;
+          }
 
-          List<PubsubMessage> elements = new ArrayList<>();
+          // Append each request's messages straight into the bundle builder, without copying them
+          // into an intermediate list first.
+          PublishRequest.Builder bundleRequest =
+              PublishRequest.newBuilder().setTopic(firstRequest.getTopic());
           for (PublishRequest request : requests) {
-            elements.addAll(request.getMessagesList());
+            bundleRequest.addAllMessages(request.getMessagesList());
           }
-
-          PublishRequest bundleRequest =
-              PublishRequest.newBuilder()
-                  .setTopic(firstRequest.getTopic())
-                  .addAllMessages(elements)
-                  .build();
-          return bundleRequest;
+          return bundleRequest.build();
         }
 
         @Override
         public void splitResponse(
             PublishResponse bundleResponse,
             Collection<? extends RequestIssuer<PublishRequest, PublishResponse>> bundle) {
+          if (bundle.size() == 1) {
+            bundle.iterator().next().setResponse(bundleResponse);
+            return;
+          }
+
+          // Each caller's ids are copied once, from a view over the bundle's id list.
+          List<String> bundleMessageIds = bundleResponse.getMessageIdsList();
           int bundleMessageIndex = 0;
           for (RequestIssuer<PublishRequest, PublishResponse> responder : bundle) {
-            List<String> subresponseElements = new ArrayList<>();
             int subresponseCount = responder.getRequest().getMessagesCount();
-            for (int i = 0; i < subresponseCount; i++) {
-              subresponseElements.add(bundleResponse.getMessageIds(bundleMessageIndex));
-              bundleMessageIndex += 1;
-            }
             PublishResponse response =
-                PublishResponse.newBuilder().addAllMessageIds(subresponseElements).build();
+                PublishResponse.newBuilder()
+                    .addAllMessageIds(
+                        bundleMessageIds.subList(
+                            bundleMessageIndex, bundleMessageIndex + subresponseCount))
+                    .build();
+            bundleMessageIndex += subresponseCount;
             responder.setResponse(response);
           }
         }
@@ -405,6 +432,9 @@ public class PublisherSettings extends ServiceApiSettings {
 
     private final SimpleCallSettings.Builder<Topic, Topic> createTopicSettings;
     private final BundlingCallSettings.Builder<PublishRequest, PublishResponse> publishSettings;
+    private FlowControlSettings publishFlowControlSettings;
+    private CompressionSettings publishCompressionSettings;
+    private ChunkingSettings publishChunkingSettings;
     private final SimpleCallSettings.Builder<GetTopicRequest, Topic> getTopicSettings;
     private final PageStreamingCallSettings.Builder<
             ListTopicsRequest, ListTopicsResponse, ListTopicsPagedResponse>
@@ -473,6 +503,9 @@ public class PublisherSettings extends ServiceApiSettings {
       publishSettings =
           BundlingCallSettings.newBuilder(PublisherGrpc.METHOD_PUBLISH, PUBLISH_BUNDLING_DESC)
               .setBundlingSettingsBuilder(BundlingSettings.newBuilder());
+      publishFlowControlSettings = FlowControlSettings.getDefaultInstance();
+      publishCompressionSettings = CompressionSettings.getDefaultInstance();
+      publishChunkingSettings = ChunkingSettings.getDefaultInstance();
 
       getTopicSettings = SimpleCallSettings.newBuilder(PublisherGrpc.METHOD_GET_TOPIC);
 
@@ -572,6 +605,9 @@ public class PublisherSettings extends ServiceApiSettings {
 
       createTopicSettings = settings.createTopicSettings.toBuilder();
       publishSettings = settings.publishSettings.toBuilder();
+      publishFlowControlSettings = settings.publishFlowControlSettings;
+      publishCompressionSettings = settings.publishCompressionSettings;
+      publishChunkingSettings = settings.publishChunkingSettings;
       getTopicSettings = settings.getTopicSettings.toBuilder();
       listTopicsSettings = settings.listTopicsSettings.toBuilder();
       listTopicSubscriptionsSettings = settings.listTopicSubscriptionsSettings.toBuilder();
@@ -662,6 +698,53 @@ public class PublisherSettings extends ServiceApiSettings {
       return publishSettings;
     }
 
+    /**
+     * Returns the limits on the messages and bytes outstanding in calls to publish, across all
+     * topics.
+     */
+    public FlowControlSettings publishFlowControlSettings() {
+      return publishFlowControlSettings;
+    }
+
+    /**
+     * Sets the limits on the messages and bytes outstanding in calls to publish, across all topics.
+     * They apply to {@link PublisherApi#publish} and {@link PublisherApi#publishAsync}, but not to
+     * calls made directly through {@link PublisherApi#publishCallable}.
+     */
+    public Builder setPublishFlowControlSettings(FlowControlSettings publishFlowControlSettings) {
+      this.publishFlowControlSettings = Preconditions.checkNotNull(publishFlowControlSettings);
+      return this;
+    }
+
+    /** Returns the settings for compressing message data in calls to publish. */
+    public CompressionSettings publishCompressionSettings() {
+      return publishCompressionSettings;
+    }
+
+    /**
+     * Sets the settings for compressing message data in calls to publish. Like the flow control
+     * settings they apply to {@link PublisherApi#publish} and {@link PublisherApi#publishAsync}, but
+     * not to calls made directly through {@link PublisherApi#publishCallable}.
+     */
+    public Builder setPublishCompressionSettings(CompressionSettings publishCompressionSettings) {
+      this.publishCompressionSettings = Preconditions.checkNotNull(publishCompressionSettings);
+      return this;
+    }
+
+    /** Returns the settings for splitting large messages in calls to publish. */
+    public ChunkingSettings publishChunkingSettings() {
+      return publishChunkingSettings;
+    }
+
+    /**
+     * Sets the settings for splitting large messages in calls to publish. They apply to {@link
+     * PublisherApi#publish} and {@link PublisherApi#publishAsync}, after compression.
+     */
+    public Builder setPublishChunkingSettings(ChunkingSettings publishChunkingSettings) {
+      this.publishChunkingSettings = Preconditions.checkNotNull(publishChunkingSettings);
+      return this;
+    }
+
     /** Returns the builder for the settings used for calls to getTopic. */
     public SimpleCallSettings.Builder<GetTopicRequest, Topic> getTopicSettings() {
       return getTopicSettings;
@@ -0,0 +1,496 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.cloud.pubsub.spi.v1.MessageReceiver.AckReply;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.Empty;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PullRequest;
+import com.google.pubsub.v1.PullResponse;
+import com.google.pubsub.v1.ReceivedMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import org.joda.time.Duration;
+
+/**
+ * A long-lived subscriber which keeps several pull requests outstanding against one subscription
+ * and hands every received message to a {@link MessageReceiver} on a bounded pool of worker
+ * threads. Each message is acknowledged or nacked according to the receiver's reply. Messages that
+ * were compressed by the publisher are decompressed before they reach the receiver, and messages
+ * that were split into chunks are reassembled by a {@link ChunkReassembler} first.
+ *
+ * <p>The messages that have been pulled but not yet acknowledged are bounded in count and bytes by
+ * a {@link FlowController}. When the limits are reached the pulling threads stop issuing new pull
+ * requests until the receiver catches up, so a slow receiver does not grow the heap. While a
+ * message is waiting for a worker or being processed, its ack deadline is kept from expiring by an
+ * {@link AckLeaseManager}.
+ *
+ * <p>Sample code:
+ *
+ * <pre><code>
+ * try (SubscriberApi subscriberApi = SubscriberApi.create()) {
+ *   String formattedSubscription = SubscriberApi.formatSubscriptionName("[PROJECT]", "[SUBSCRIPTION]");
+ *   PullSubscriber subscriber =
+ *       PullSubscriber.newBuilder(subscriberApi, formattedSubscription, receiver)
+ *           .setMaxOutstandingElementCount(1000)
+ *           .build();
+ *   subscriber.start();
+ *   // Do something
+ *   subscriber.close();
+ * }
+ * </code></pre>
+ */
+public class PullSubscriber implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger(PullSubscriber.class.getName());
+
+  private static final int DEFAULT_CONCURRENT_PULL_COUNT = 4;
+  private static final int DEFAULT_MAX_MESSAGES_PER_PULL = 100;
+  private static final int DEFAULT_MAX_OUTSTANDING_ELEMENT_COUNT = 1000;
+  private static final int DEFAULT_MAX_OUTSTANDING_BYTES = 100 * 1024 * 1024;
+  private static final Duration INITIAL_PULL_BACKOFF = Duration.millis(100L);
+  private static final Duration MAX_PULL_BACKOFF = Duration.millis(10000L);
+  private static final Duration WORKER_SHUTDOWN_TIMEOUT = Duration.millis(60000L);
+
+  private final SubscriberApi subscriberApi;
+  private final String subscription;
+  private final MessageReceiver receiver;
+  private final int concurrentPullCount;
+  private final int maxMessagesPerPull;
+  private final FlowController flowController;
+  private final AckLeaseManager ackLeaseManager;
+  private final ChunkReassembler chunkReassembler;
+  private final ExecutorService workerExecutor;
+  private final boolean shouldCloseWorkerExecutor;
+
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final AtomicBoolean running = new AtomicBoolean();
+  private final List<Thread> pullThreads = new ArrayList<>();
+  private final Set<ListenableFuture<PullResponse>> outstandingPulls =
+      Collections.newSetFromMap(new ConcurrentHashMap<ListenableFuture<PullResponse>, Boolean>());
+  private final Set<ListenableFuture<?>> outstandingReplies =
+      Collections.newSetFromMap(new ConcurrentHashMap<ListenableFuture<?>, Boolean>());
+
+  private PullSubscriber(Builder builder) {
+    this.subscriberApi = builder.subscriberApi;
+    this.subscription = builder.subscription;
+    this.receiver = builder.receiver;
+    this.concurrentPullCount = builder.concurrentPullCount;
+    this.maxMessagesPerPull = builder.maxMessagesPerPull;
+    this.flowController =
+        new FlowController(builder.maxOutstandingElementCount, builder.maxOutstandingBytes);
+    this.ackLeaseManager =
+        AckLeaseManager.newBuilder(subscriberApi, subscription)
+            .setMaxAckExtensionPeriod(builder.maxAckExtensionPeriod)
+            .build();
+    this.chunkReassembler =
+        builder.chunkReassembler != null
+            ? builder.chunkReassembler
+            : ChunkReassembler.newBuilder().build();
+    if (builder.workerExecutor != null) {
+      this.workerExecutor = builder.workerExecutor;
+      this.shouldCloseWorkerExecutor = false;
+    } else {
+      ThreadFactory threadFactory =
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("pubsub-worker-%d").build();
+      this.workerExecutor = Executors.newFixedThreadPool(builder.workerCount, threadFactory);
+      this.shouldCloseWorkerExecutor = true;
+    }
+  }
+
+  /**
+   * Returns a new builder for a subscriber that pulls from the given subscription, which must be a
+   * fully-qualified subscription name.
+   */
+  public static Builder newBuilder(
+      SubscriberApi subscriberApi, String subscription, MessageReceiver receiver) {
+    return new Builder(subscriberApi, subscription, receiver);
+  }
+
+  /** Returns the fully-qualified name of the subscription this subscriber pulls from. */
+  public String getSubscription() {
+    return subscription;
+  }
+
+  /** Returns the flow controller which bounds the messages that are being processed. */
+  public FlowController getFlowController() {
+    return flowController;
+  }
+
+  /** Returns the lease manager which extends the ack deadlines of the messages being processed. */
+  public AckLeaseManager getAckLeaseManager() {
+    return ackLeaseManager;
+  }
+
+  /** Returns the reassembler which holds the chunks of messages that are not yet complete. */
+  public ChunkReassembler getChunkReassembler() {
+    return chunkReassembler;
+  }
+
+  /** Starts the pulling threads. A subscriber can only be started once. */
+  public void start() {
+    Preconditions.checkState(started.compareAndSet(false, true), "Subscriber already started.");
+    running.set(true);
+    ackLeaseManager.start();
+    ThreadFactory threadFactory =
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("pubsub-pull-%d").build();
+    synchronized (pullThreads) {
+      for (int i = 0; i < concurrentPullCount; i++) {
+        Thread thread =
+            threadFactory.newThread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    pullLoop();
+                  }
+                });
+        pullThreads.add(thread);
+        thread.start();
+      }
+    }
+  }
+
+  /** Returns whether the subscriber has been started and not yet closed. */
+  public boolean isRunning() {
+    return running.get();
+  }
+
+  /**
+   * Stops pulling new messages, waits for the messages that are being processed to be handled and
+   * their acknowledgements to be sent, and releases the worker threads if they were created by
+   * this subscriber. Messages that were pulled but not yet handed to the receiver, including the
+   * chunks of incomplete messages, are nacked so that they are redelivered promptly.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    if (!running.getAndSet(false)) {
+      return;
+    }
+    for (ListenableFuture<PullResponse> pull : outstandingPulls) {
+      pull.cancel(true);
+    }
+    synchronized (pullThreads) {
+      for (Thread thread : pullThreads) {
+        thread.interrupt();
+      }
+      for (Thread thread : pullThreads) {
+        thread.join();
+      }
+      pullThreads.clear();
+    }
+    nack(chunkReassembler.removeAll());
+    chunkReassembler.close();
+    if (shouldCloseWorkerExecutor) {
+      workerExecutor.shutdown();
+      workerExecutor.awaitTermination(WORKER_SHUTDOWN_TIMEOUT.getMillis(), TimeUnit.MILLISECONDS);
+    }
+    try {
+      Futures.successfulAsList(new ArrayList<>(outstandingReplies))
+          .get(WORKER_SHUTDOWN_TIMEOUT.getMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      logger.log(Level.WARNING, "Failed to send pending replies for " + subscription, e);
+    }
+    ackLeaseManager.close();
+  }
+
+  private void pullLoop() {
+    PullRequest request =
+        PullRequest.newBuilder()
+            .setSubscription(subscription)
+            .setReturnImmediately(false)
+            .setMaxMessages(maxMessagesPerPull)
+            .build();
+    long backoffMillis = INITIAL_PULL_BACKOFF.getMillis();
+    while (running.get()) {
+      ListenableFuture<PullResponse> future = subscriberApi.pullCallable().futureCall(request);
+      outstandingPulls.add(future);
+      PullResponse response;
+      try {
+        response = future.get();
+        backoffMillis = INITIAL_PULL_BACKOFF.getMillis();
+      } catch (InterruptedException | CancellationException e) {
+        return;
+      } catch (ExecutionException e) {
+        if (!running.get()) {
+          return;
+        }
+        logger.log(Level.WARNING, "Failed to pull from " + subscription, e.getCause());
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+        backoffMillis = Math.min(backoffMillis * 2, MAX_PULL_BACKOFF.getMillis());
+        continue;
+      } finally {
+        outstandingPulls.remove(future);
+      }
+
+      List<ReceivedMessage> messages = response.getReceivedMessagesList();
+      for (ReceivedMessage message : messages) {
+        ackLeaseManager.track(message.getAckId());
+      }
+      for (int i = 0; i < messages.size(); i++) {
+        ReceivedMessage message = messages.get(i);
+        PubsubMessage payload = message.getMessage();
+        List<String> ackIds = Collections.singletonList(message.getAckId());
+        if (MessageChunks.isChunk(payload)) {
+          ChunkReassembler.ReassembledMessage reassembled = reassemble(message);
+          if (reassembled == null) {
+            continue;
+          }
+          payload = reassembled.getMessage();
+          ackIds = reassembled.getAckIds();
+        }
+        int bytes = payload.getSerializedSize();
+        try {
+          flowController.reserve(1, bytes);
+        } catch (InterruptedException e) {
+          nack(ackIds);
+          nackUndelivered(messages.subList(i + 1, messages.size()));
+          return;
+        }
+        dispatch(payload, ackIds, bytes);
+      }
+      dropExpiredChunks(chunkReassembler.removeExpired());
+      nack(chunkReassembler.removeAbandoned());
+    }
+  }
+
+  // The rest of an expired group is unlikely to ever arrive, so its chunks are acknowledged rather
+  // than nacked, which would only let them expire again after every redelivery.
+  private void dropExpiredChunks(List<String> ackIds) {
+    if (ackIds.isEmpty()) {
+      return;
+    }
+    logger.log(
+        Level.WARNING,
+        "Dropping "
+            + ackIds.size()
+            + " chunks of messages that were not reassembled within the assembly timeout");
+    for (String ackId : ackIds) {
+      ackLeaseManager.release(ackId);
+      acknowledge(ackId);
+    }
+  }
+
+  @Nullable
+  private ChunkReassembler.ReassembledMessage reassemble(ReceivedMessage chunk) {
+    try {
+      return chunkReassembler.add(chunk);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to reassemble chunk, it will be nacked", e);
+      nack(Collections.singletonList(chunk.getAckId()));
+      return null;
+    }
+  }
+
+  private void dispatch(final PubsubMessage message, final List<String> ackIds, final int bytes) {
+    try {
+      workerExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              AckReply reply;
+              try {
+                reply = receiver.receiveMessage(MessageCodecs.decompressOrKeep(message));
+              } catch (Exception e) {
+                logger.log(Level.WARNING, "MessageReceiver failed, message will be nacked", e);
+                reply = AckReply.NACK;
+              }
+              if (reply == AckReply.ACK) {
+                for (String ackId : ackIds) {
+                  ackLeaseManager.release(ackId);
+                  acknowledge(ackId);
+                }
+              } else {
+                nack(ackIds);
+              }
+              flowController.release(1, bytes);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      flowController.release(1, bytes);
+      nack(ackIds);
+    }
+  }
+
+  private void nackUndelivered(List<ReceivedMessage> messages) {
+    List<String> ackIds = new ArrayList<>(messages.size());
+    for (ReceivedMessage message : messages) {
+      ackIds.add(message.getAckId());
+    }
+    nack(ackIds);
+  }
+
+  // Nacks go through the lease manager, so that their leases are not extended afterwards.
+  private void nack(List<String> ackIds) {
+    if (!ackIds.isEmpty()) {
+      trackReply(ackLeaseManager.nack(ackIds));
+    }
+  }
+
+  private void acknowledge(String ackId) {
+    AcknowledgeRequest request =
+        AcknowledgeRequest.newBuilder().setSubscription(subscription).addAckIds(ackId).build();
+    logFailure(subscriberApi.acknowledgeCallable().futureCall(request), "acknowledge", ackId);
+  }
+
+  // Keeps the reply outstanding until it completes, so that close() can wait for it.
+  private void trackReply(final ListenableFuture<?> future) {
+    outstandingReplies.add(future);
+    future.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            outstandingReplies.remove(future);
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private void logFailure(
+      final ListenableFuture<Empty> future, final String methodName, final String ackId) {
+    trackReply(future);
+    Futures.addCallback(
+        future,
+        new FutureCallback<Empty>() {
+          @Override
+          public void onSuccess(Empty result) {}
+
+          @Override
+          public void onFailure(Throwable t) {
+            logger.log(
+                Level.WARNING, "Failed to " + methodName + " " + ackId + " on " + subscription, t);
+          }
+        });
+  }
+
+  /** Builder for PullSubscriber. */
+  public static class Builder {
+    private final SubscriberApi subscriberApi;
+    private final String subscription;
+    private final MessageReceiver receiver;
+    private int concurrentPullCount = DEFAULT_CONCURRENT_PULL_COUNT;
+    private int maxMessagesPerPull = DEFAULT_MAX_MESSAGES_PER_PULL;
+    private Integer maxOutstandingElementCount = DEFAULT_MAX_OUTSTANDING_ELEMENT_COUNT;
+    private Integer maxOutstandingBytes = DEFAULT_MAX_OUTSTANDING_BYTES;
+    private Duration maxAckExtensionPeriod = Duration.standardMinutes(60);
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+    private ExecutorService workerExecutor;
+    private ChunkReassembler chunkReassembler;
+
+    private Builder(SubscriberApi subscriberApi, String subscription, MessageReceiver receiver) {
+      this.subscriberApi = Preconditions.checkNotNull(subscriberApi);
+      this.subscription = Preconditions.checkNotNull(subscription);
+      this.receiver = Preconditions.checkNotNull(receiver);
+    }
+
+    /** Sets the number of pull requests that are kept outstanding at the same time. */
+    public Builder setConcurrentPullCount(int concurrentPullCount) {
+      Preconditions.checkArgument(concurrentPullCount > 0);
+      this.concurrentPullCount = concurrentPullCount;
+      return this;
+    }
+
+    /** Sets the maximum number of messages requested by each pull request. */
+    public Builder setMaxMessagesPerPull(int maxMessagesPerPull) {
+      Preconditions.checkArgument(maxMessagesPerPull > 0);
+      this.maxMessagesPerPull = maxMessagesPerPull;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of messages that can be outstanding, that is, pulled but not yet
+     * acknowledged or nacked. A null value means no limit.
+     */
+    public Builder setMaxOutstandingElementCount(Integer maxOutstandingElementCount) {
+      this.maxOutstandingElementCount = maxOutstandingElementCount;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of message bytes that can be outstanding. A null value means no
+     * limit.
+     */
+    public Builder setMaxOutstandingBytes(Integer maxOutstandingBytes) {
+      this.maxOutstandingBytes = maxOutstandingBytes;
+      return this;
+    }
+
+    /**
+     * Sets the maximum period, counted from the time a message is pulled, for which its ack
+     * deadline is automatically extended.
+     */
+    public Builder setMaxAckExtensionPeriod(Duration maxAckExtensionPeriod) {
+      this.maxAckExtensionPeriod = Preconditions.checkNotNull(maxAckExtensionPeriod);
+      return this;
+    }
+
+    /**
+     * Sets the number of worker threads created by the subscriber. This is ignored if an executor
+     * is provided with {@link #setWorkerExecutor}.
+     */
+    public Builder setWorkerCount(int workerCount) {
+      Preconditions.checkArgument(workerCount > 0);
+      this.workerCount = workerCount;
+      return this;
+    }
+
+    /**
+     * Sets the executor on which the receiver is invoked. The executor is not shut down when the
+     * subscriber is closed.
+     */
+    public Builder setWorkerExecutor(ExecutorService workerExecutor) {
+      this.workerExecutor = workerExecutor;
+      return this;
+    }
+
+    /**
+     * Sets the reassembler for messages that were split into chunks. It is closed when the
+     * subscriber is closed, and must not be shared with other subscribers. Defaults to a
+     * reassembler with the default limits.
+     */
+    public Builder setChunkReassembler(ChunkReassembler chunkReassembler) {
+      this.chunkReassembler = chunkReassembler;
+      return this;
+    }
+
+    public PullSubscriber build() {
+      return new PullSubscriber(this);
+    }
+  }
+}
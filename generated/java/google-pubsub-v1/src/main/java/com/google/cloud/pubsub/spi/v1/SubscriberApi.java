@@ -215,6 +215,9 @@ public class SubscriberApi implements AutoCloseable {
         UnaryApiCallable.create(settings.modifyAckDeadlineSettings(), this.channel, this.executor);
     this.acknowledgeCallable =
         UnaryApiCallable.create(settings.acknowledgeSettings(), this.channel, this.executor);
+    if (settings.acknowledgeSettings().getBundlerFactory() != null) {
+      closeables.add(settings.acknowledgeSettings().getBundlerFactory());
+    }
     this.pullCallable =
         UnaryApiCallable.create(settings.pullSettings(), this.channel, this.executor);
     this.modifyPushConfigCallable =
@@ -846,7 +849,8 @@ public class SubscriberApi implements AutoCloseable {
   /**
    * Pulls messages from the server. Returns an empty list if there are no messages available in the
    * backlog. The server may return `UNAVAILABLE` if there are too many concurrent pull requests
-   * pending for the given subscription.
+   * pending for the given subscription. Messages that were compressed by the publisher are
+   * decompressed; see {@link MessageCodecs}.
    *
    * <p>Sample code:
    *
@@ -866,7 +870,7 @@ public class SubscriberApi implements AutoCloseable {
    * @throws com.google.api.gax.grpc.ApiException if the remote call fails
    */
   public final PullResponse pull(PullRequest request) {
-    return pullCallable().call(request);
+    return MessageCodecs.decompressOrKeep(pullCallable().call(request));
   }
 
   // AUTO-GENERATED DOCUMENTATION AND METHOD
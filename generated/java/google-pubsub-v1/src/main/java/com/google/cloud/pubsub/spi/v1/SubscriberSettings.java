@@ -17,10 +17,14 @@ import static com.google.cloud.pubsub.spi.v1.PagedResponseWrappers.ListSubscript
 
 import com.google.api.gax.core.ConnectionSettings;
 import com.google.api.gax.core.RetrySettings;
+import com.google.api.gax.grpc.BundlingCallSettings;
+import com.google.api.gax.grpc.BundlingDescriptor;
+import com.google.api.gax.grpc.BundlingSettings;
 import com.google.api.gax.grpc.CallContext;
 import com.google.api.gax.grpc.PageStreamingCallSettings;
 import com.google.api.gax.grpc.PageStreamingDescriptor;
 import com.google.api.gax.grpc.PagedListResponseFactory;
+import com.google.api.gax.grpc.RequestIssuer;
 import com.google.api.gax.grpc.ServiceApiSettings;
 import com.google.api.gax.grpc.SimpleCallSettings;
 import com.google.api.gax.grpc.UnaryApiCallSettings;
@@ -52,7 +56,10 @@ import com.google.pubsub.v1.Subscription;
 import io.grpc.ManagedChannel;
 import io.grpc.Status;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import org.joda.time.Duration;
 
@@ -112,7 +119,7 @@ public class SubscriberSettings extends ServiceApiSettings {
       listSubscriptionsSettings;
   private final SimpleCallSettings<DeleteSubscriptionRequest, Empty> deleteSubscriptionSettings;
   private final SimpleCallSettings<ModifyAckDeadlineRequest, Empty> modifyAckDeadlineSettings;
-  private final SimpleCallSettings<AcknowledgeRequest, Empty> acknowledgeSettings;
+  private final BundlingCallSettings<AcknowledgeRequest, Empty> acknowledgeSettings;
   private final SimpleCallSettings<PullRequest, PullResponse> pullSettings;
   private final SimpleCallSettings<ModifyPushConfigRequest, Empty> modifyPushConfigSettings;
   private final SimpleCallSettings<SetIamPolicyRequest, Policy> setIamPolicySettings;
@@ -148,7 +155,7 @@ public class SubscriberSettings extends ServiceApiSettings {
   }
 
   /** Returns the object with the settings used for calls to acknowledge. */
-  public SimpleCallSettings<AcknowledgeRequest, Empty> acknowledgeSettings() {
+  public BundlingCallSettings<AcknowledgeRequest, Empty> acknowledgeSettings() {
     return acknowledgeSettings;
   }
 
@@ -286,6 +293,60 @@ public class SubscriberSettings extends ServiceApiSettings {
             }
           };
 
+  private static final BundlingDescriptor<AcknowledgeRequest, Empty> ACKNOWLEDGE_BUNDLING_DESC =
+      new BundlingDescriptor<AcknowledgeRequest, Empty>() {
+        @Override
+        public String getBundlePartitionKey(AcknowledgeRequest request) {
+          return request.getSubscription() + "|";
+        }
+
+        @Override
+        public AcknowledgeRequest mergeRequests(Collection<AcknowledgeRequest> requests) {
+          AcknowledgeRequest firstRequest = requests.iterator().next();
+
+          // The same ackId may be acknowledged by several callers; send it once.
+          Set<String> ackIds = new LinkedHashSet<>();
+          for (AcknowledgeRequest request : requests) {
+            ackIds.addAll(request.getAckIdsList());
+          }
+
+          AcknowledgeRequest bundleRequest =
+              AcknowledgeRequest.newBuilder()
+                  .setSubscription(firstRequest.getSubscription())
+                  .addAllAckIds(ackIds)
+                  .build();
+          return bundleRequest;
+        }
+
+        @Override
+        public void splitResponse(
+            Empty bundleResponse,
+            Collection<? extends RequestIssuer<AcknowledgeRequest, Empty>> bundle) {
+          for (RequestIssuer<AcknowledgeRequest, Empty> responder : bundle) {
+            responder.setResponse(bundleResponse);
+          }
+        }
+
+        @Override
+        public void splitException(
+            Throwable throwable,
+            Collection<? extends RequestIssuer<AcknowledgeRequest, Empty>> bundle) {
+          for (RequestIssuer<AcknowledgeRequest, Empty> responder : bundle) {
+            responder.setException(throwable);
+          }
+        }
+
+        @Override
+        public long countElements(AcknowledgeRequest request) {
+          return request.getAckIdsCount();
+        }
+
+        @Override
+        public long countBytes(AcknowledgeRequest request) {
+          return request.getSerializedSize();
+        }
+      };
+
   /** Builder for SubscriberSettings. */
   public static class Builder extends ServiceApiSettings.Builder {
     private final ImmutableList<UnaryApiCallSettings.Builder> unaryMethodSettingsBuilders;
@@ -300,7 +361,7 @@ public class SubscriberSettings extends ServiceApiSettings {
         deleteSubscriptionSettings;
     private final SimpleCallSettings.Builder<ModifyAckDeadlineRequest, Empty>
         modifyAckDeadlineSettings;
-    private final SimpleCallSettings.Builder<AcknowledgeRequest, Empty> acknowledgeSettings;
+    private final BundlingCallSettings.Builder<AcknowledgeRequest, Empty> acknowledgeSettings;
     private final SimpleCallSettings.Builder<PullRequest, PullResponse> pullSettings;
     private final SimpleCallSettings.Builder<ModifyPushConfigRequest, Empty>
         modifyPushConfigSettings;
@@ -369,7 +430,10 @@ public class SubscriberSettings extends ServiceApiSettings {
       modifyAckDeadlineSettings =
           SimpleCallSettings.newBuilder(SubscriberGrpc.METHOD_MODIFY_ACK_DEADLINE);
 
-      acknowledgeSettings = SimpleCallSettings.newBuilder(SubscriberGrpc.METHOD_ACKNOWLEDGE);
+      acknowledgeSettings =
+          BundlingCallSettings.newBuilder(
+                  SubscriberGrpc.METHOD_ACKNOWLEDGE, ACKNOWLEDGE_BUNDLING_DESC)
+              .setBundlingSettingsBuilder(BundlingSettings.newBuilder());
 
       pullSettings = SimpleCallSettings.newBuilder(SubscriberGrpc.METHOD_PULL);
 
@@ -426,6 +490,15 @@ public class SubscriberSettings extends ServiceApiSettings {
           .setRetryableCodes(RETRYABLE_CODE_DEFINITIONS.get("non_idempotent"))
           .setRetrySettingsBuilder(RETRY_PARAM_DEFINITIONS.get("default"));
 
+      builder
+          .acknowledgeSettings()
+          .getBundlingSettingsBuilder()
+          .setElementCountThreshold(100)
+          .setElementCountLimit(1000)
+          .setRequestByteThreshold(65536)
+          .setRequestByteLimit(524288)
+          .setDelayThreshold(Duration.millis(100))
+          .setBlockingCallCountThreshold(1);
       builder
           .acknowledgeSettings()
           .setRetryableCodes(RETRYABLE_CODE_DEFINITIONS.get("non_idempotent"))
@@ -578,7 +651,7 @@ public class SubscriberSettings extends ServiceApiSettings {
     }
 
     /** Returns the builder for the settings used for calls to acknowledge. */
-    public SimpleCallSettings.Builder<AcknowledgeRequest, Empty> acknowledgeSettings() {
+    public BundlingCallSettings.Builder<AcknowledgeRequest, Empty> acknowledgeSettings() {
       return acknowledgeSettings;
     }
 
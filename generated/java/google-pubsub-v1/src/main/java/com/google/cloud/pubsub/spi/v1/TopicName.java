@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.protobuf.PathTemplate;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+
+/**
+ * A validated topic resource name, of the form "projects/{project}/topics/{topic}". The name is
+ * validated once, when it is created, and its string and encoded forms are cached, so the {@link
+ * PublisherApi} methods that take it do no validation or encoding of the name per call.
+ */
+public final class TopicName {
+  private static final PathTemplate PATH_TEMPLATE =
+      PathTemplate.createWithoutUrlEncoding("projects/{project}/topics/{topic}");
+
+  private final String project;
+  private final String topic;
+  private final String name;
+  private final ByteString nameBytes;
+
+  private TopicName(String project, String topic, String name) {
+    this.project = project;
+    this.topic = topic;
+    this.name = name;
+    this.nameBytes = ByteString.copyFromUtf8(name);
+  }
+
+  /**
+   * Returns the name of the given topic, for example {@code TopicName.of("my-project",
+   * "my-topic")}.
+   *
+   * @throws com.google.api.gax.protobuf.ValidationException if the result is not a valid name
+   */
+  public static TopicName of(String project, String topic) {
+    return parse(PATH_TEMPLATE.instantiate("project", project, "topic", topic));
+  }
+
+  /**
+   * Parses a formatted topic name.
+   *
+   * @throws com.google.api.gax.protobuf.ValidationException if the name is not valid
+   */
+  public static TopicName parse(String name) {
+    ImmutableMap<String, String> vars = PATH_TEMPLATE.validatedMatch(name, "TopicName.parse");
+    return new TopicName(vars.get("project"), vars.get("topic"), name);
+  }
+
+  /** Returns the project of this name. */
+  public String getProject() {
+    return project;
+  }
+
+  /** Returns the topic of this name. */
+  public String getTopic() {
+    return topic;
+  }
+
+  // Requests set the encoded name, so that it is not encoded again for every request.
+  ByteString toByteString() {
+    return nameBytes;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof TopicName && name.equals(((TopicName) o).name);
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  /** Returns the formatted name. */
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.grpc.NanoClock;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AckLeaseManagerTest {
+  private static final String SUBSCRIPTION =
+      SubscriberApi.formatSubscriptionName("[PROJECT]", "[SUBSCRIPTION]");
+
+  private static FakeSubscriberImpl fakeSubscriber;
+  private static MockServiceHelper serviceHelper;
+  private SubscriberApi api;
+  private FakeClock clock;
+
+  private static class FakeClock implements NanoClock {
+    private long nanos;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+
+    void advance(long seconds) {
+      nanos += TimeUnit.SECONDS.toNanos(seconds);
+    }
+  }
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeSubscriber = new FakeSubscriberImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-ack-lease-manager", Arrays.<MockGrpcService>asList(fakeSubscriber));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    SubscriberSettings settings =
+        SubscriberSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = SubscriberApi.create(settings);
+    clock = new FakeClock();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void extendsExpiringLeasesInOneBatch() throws Exception {
+    AckLeaseManager leaseManager =
+        AckLeaseManager.newBuilder(api, SUBSCRIPTION).setClock(clock).build();
+    leaseManager.track("ack-1");
+    leaseManager.track("ack-2");
+
+    clock.advance(2);
+    leaseManager.extendExpiringLeases();
+    Assert.assertEquals(0, awaitModifyAckDeadlineRequests(0).size());
+
+    clock.advance(6);
+    leaseManager.extendExpiringLeases();
+    List<ModifyAckDeadlineRequest> requests = awaitModifyAckDeadlineRequests(1);
+    Assert.assertEquals(1, requests.size());
+    Assert.assertEquals(2, requests.get(0).getAckIdsCount());
+    Assert.assertEquals(
+        AckLeaseManager.MIN_ACK_DEADLINE_SECONDS, requests.get(0).getAckDeadlineSeconds());
+
+    Assert.assertTrue(leaseManager.release("ack-1"));
+    Assert.assertTrue(leaseManager.release("ack-2"));
+    Assert.assertFalse(leaseManager.release("ack-2"));
+    Assert.assertEquals(0, leaseManager.getTrackedCount());
+    leaseManager.close();
+  }
+
+  @Test
+  public void extensionFollowsProcessingTimePercentile() throws Exception {
+    AckLeaseManager leaseManager =
+        AckLeaseManager.newBuilder(api, SUBSCRIPTION).setClock(clock).build();
+    for (int i = 0; i < 10; i++) {
+      leaseManager.track("processed-" + i);
+    }
+    clock.advance(42);
+    for (int i = 0; i < 10; i++) {
+      leaseManager.release("processed-" + i);
+    }
+    Assert.assertEquals(42, leaseManager.getAckDeadlineExtensionSeconds());
+    leaseManager.close();
+  }
+
+  @Test
+  public void nackedLeasesAreNotExtendedOrMeasured() throws Exception {
+    AckLeaseManager leaseManager =
+        AckLeaseManager.newBuilder(api, SUBSCRIPTION).setClock(clock).build();
+    leaseManager.track("nacked");
+    leaseManager.track("kept");
+    clock.advance(300);
+
+    leaseManager.nack(Arrays.asList("nacked")).get();
+    leaseManager.extendExpiringLeases();
+    List<ModifyAckDeadlineRequest> requests = awaitModifyAckDeadlineRequests(2);
+    Assert.assertEquals(2, requests.size());
+    Assert.assertEquals(Arrays.asList("nacked"), requests.get(0).getAckIdsList());
+    Assert.assertEquals(0, requests.get(0).getAckDeadlineSeconds());
+    Assert.assertEquals(Arrays.asList("kept"), requests.get(1).getAckIdsList());
+    Assert.assertEquals(1, leaseManager.getTrackedCount());
+    Assert.assertFalse(leaseManager.release("nacked"));
+    Assert.assertEquals(
+        AckLeaseManager.MIN_ACK_DEADLINE_SECONDS, leaseManager.getAckDeadlineExtensionSeconds());
+    leaseManager.close();
+  }
+
+  @Test
+  public void groupsByDeadlineAndStopsAtMaxExtension() throws Exception {
+    AckLeaseManager leaseManager =
+        AckLeaseManager.newBuilder(api, SUBSCRIPTION)
+            .setClock(clock)
+            .setMaxAckExtensionPeriod(Duration.standardSeconds(30))
+            .build();
+    leaseManager.track("old");
+    clock.advance(15);
+    leaseManager.track("new");
+    clock.advance(10);
+
+    // "old" has 5 seconds of extension left, "new" gets the full minimum deadline.
+    leaseManager.extendExpiringLeases();
+    List<ModifyAckDeadlineRequest> requests = awaitModifyAckDeadlineRequests(2);
+    Assert.assertEquals(2, requests.size());
+    for (ModifyAckDeadlineRequest request : requests) {
+      if (request.getAckIdsList().equals(Arrays.asList("old"))) {
+        Assert.assertEquals(5, request.getAckDeadlineSeconds());
+      } else {
+        Assert.assertEquals(Arrays.asList("new"), request.getAckIdsList());
+        Assert.assertEquals(10, request.getAckDeadlineSeconds());
+      }
+    }
+
+    clock.advance(10);
+    leaseManager.extendExpiringLeases();
+    requests = awaitModifyAckDeadlineRequests(3);
+    Assert.assertEquals(3, requests.size());
+    Assert.assertEquals(Arrays.asList("new"), requests.get(2).getAckIdsList());
+    Assert.assertEquals(1, leaseManager.getTrackedCount());
+    Assert.assertFalse(leaseManager.release("old"));
+    leaseManager.close();
+  }
+
+  private static List<ModifyAckDeadlineRequest> awaitModifyAckDeadlineRequests(int count)
+      throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      List<ModifyAckDeadlineRequest> requests = fakeSubscriber.getModifyAckDeadlineRequests();
+      if (requests.size() >= count && (count > 0 || i >= 5)) {
+        return requests;
+      }
+      Thread.sleep(10);
+    }
+    return fakeSubscriber.getModifyAckDeadlineRequests();
+  }
+}
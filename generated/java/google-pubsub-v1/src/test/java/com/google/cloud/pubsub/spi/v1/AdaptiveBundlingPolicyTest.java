@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.grpc.NanoClock;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveBundlingPolicyTest {
+  private FakeClock clock;
+  private AdaptiveBundlingPolicy policy;
+
+  private static class FakeClock implements NanoClock {
+    private long nanos;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    policy =
+        AdaptiveBundlingPolicy.newBuilder()
+            .setClock(clock)
+            .setElementCountBounds(10, 100)
+            .setRequestByteBounds(1000, 100000)
+            .setDelayBounds(Duration.millis(1), Duration.millis(50))
+            .setTargetLatency(Duration.millis(100))
+            .setInitialThresholds(20, 10000, Duration.millis(10))
+            .build();
+  }
+
+  @Test
+  public void growsWhileBackloggedAndWithinTarget() {
+    for (int i = 0; i < 20; i++) {
+      clock.advanceMillis(10);
+      policy.recordBundle(policy.getElementCountThreshold(), Duration.millis(20), 1000);
+    }
+    Assert.assertEquals(100, policy.getElementCountThreshold());
+    Assert.assertEquals(100000, policy.getRequestByteThreshold());
+  }
+
+  @Test
+  public void shrinksWhenLatencyExceedsTarget() {
+    for (int i = 0; i < 20; i++) {
+      clock.advanceMillis(10);
+      policy.recordBundle(20, Duration.millis(500), 1000);
+    }
+    Assert.assertEquals(10, policy.getElementCountThreshold());
+    Assert.assertEquals(1000, policy.getRequestByteThreshold());
+  }
+
+  @Test
+  public void shrinksOnFailure() {
+    policy.recordFailure();
+    Assert.assertEquals(15, policy.getElementCountThreshold());
+    Assert.assertEquals(7500, policy.getRequestByteThreshold());
+    for (int i = 0; i < 20; i++) {
+      policy.recordFailure();
+    }
+    Assert.assertEquals(10, policy.getElementCountThreshold());
+    Assert.assertEquals(1000, policy.getRequestByteThreshold());
+    Assert.assertEquals(0.0, policy.getMessagesPerSecond(), 0);
+  }
+
+  @Test
+  public void keepsThresholdsWithoutBacklog() {
+    clock.advanceMillis(10);
+    policy.recordBundle(5, Duration.millis(20), 0);
+    Assert.assertEquals(20, policy.getElementCountThreshold());
+    Assert.assertEquals(10000, policy.getRequestByteThreshold());
+  }
+
+  @Test
+  public void delayFollowsThroughput() {
+    // 20 messages every 10ms fill a 20 message bundle in 10ms.
+    for (int i = 0; i < 10; i++) {
+      clock.advanceMillis(10);
+      policy.recordBundle(20, Duration.millis(20), 0);
+    }
+    Assert.assertEquals(2000.0, policy.getMessagesPerSecond(), 1.0);
+    Assert.assertEquals(Duration.millis(10), policy.getDelayThreshold());
+
+    // A trickle of messages is not held back longer than the upper bound.
+    for (int i = 0; i < 50; i++) {
+      clock.advanceMillis(1000);
+      policy.recordBundle(1, Duration.millis(20), 0);
+    }
+    Assert.assertEquals(Duration.millis(50), policy.getDelayThreshold());
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PubsubMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BundlingPublisherTest {
+  private static final String TOPIC = PublisherApi.formatTopicName("[PROJECT]", "[TOPIC]");
+
+  private static FakePublisherImpl fakePublisher;
+  private static MockServiceHelper serviceHelper;
+  private PublisherApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakePublisher = new FakePublisherImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-bundling-publisher", Arrays.<MockGrpcService>asList(fakePublisher));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    PublisherSettings.Builder settingsBuilder =
+        PublisherSettings.defaultBuilder().provideChannelWith(serviceHelper.createChannel(), true);
+    settingsBuilder.publishSettings().getBundlingSettingsBuilder().setElementCountThreshold(1);
+    api = PublisherApi.create(settingsBuilder.build());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void sendsBundlesOfThePolicySize() throws Exception {
+    AdaptiveBundlingPolicy policy =
+        AdaptiveBundlingPolicy.newBuilder()
+            .setElementCountBounds(5, 5)
+            .setDelayBounds(Duration.millis(10), Duration.millis(10))
+            .build();
+    BundlingPublisher publisher =
+        BundlingPublisher.newBuilder(api, TOPIC).setPolicy(policy).build();
+    List<ListenableFuture<String>> futures = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      futures.add(
+          publisher.publish(
+              PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8("m" + i)).build()));
+    }
+    List<String> messageIds = Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+    publisher.close();
+
+    Assert.assertEquals(12, new HashSet<>(messageIds).size());
+    List<Integer> bundleSizes = new ArrayList<>();
+    for (PublishRequest request : fakePublisher.getPublishRequests()) {
+      bundleSizes.add(request.getMessagesCount());
+    }
+    Assert.assertEquals(Arrays.asList(5, 5, 2), bundleSizes);
+    Assert.assertEquals(0, publisher.getPendingMessageCount());
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.grpc.NanoClock;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.ReceivedMessage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChunkReassemblerTest {
+  private static final String TOPIC = PublisherApi.formatTopicName("[PROJECT]", "[TOPIC]");
+
+  private static FakePublisherImpl fakePublisher;
+  private static MockServiceHelper serviceHelper;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static class FakeClock implements NanoClock {
+    private long nanos;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+
+    void advance(long seconds) {
+      nanos += TimeUnit.SECONDS.toNanos(seconds);
+    }
+  }
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakePublisher = new FakePublisherImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-chunk-reassembler", Arrays.<MockGrpcService>asList(fakePublisher));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() {
+    serviceHelper.reset();
+  }
+
+  @Test
+  public void reassemblesChunksInAnyOrder() throws Exception {
+    PubsubMessage original = message(1000);
+    List<PubsubMessage> chunks = MessageChunks.split(original, 300);
+    Assert.assertEquals(4, chunks.size());
+    Collections.reverse(chunks);
+
+    try (ChunkReassembler reassembler = ChunkReassembler.newBuilder().build()) {
+      for (int i = 0; i < 3; i++) {
+        Assert.assertNull(reassembler.add(received("ack-" + i, chunks.get(i))));
+      }
+      // A redelivered chunk is not buffered twice.
+      Assert.assertNull(reassembler.add(received("ack-again", chunks.get(0))));
+      Assert.assertEquals(1, reassembler.getPendingGroupCount());
+      Assert.assertEquals(700, reassembler.getBufferedBytes());
+
+      ChunkReassembler.ReassembledMessage reassembled =
+          reassembler.add(received("ack-3", chunks.get(3)));
+      Assert.assertEquals(original, reassembled.getMessage());
+      Assert.assertEquals(
+          Arrays.asList("ack-0", "ack-1", "ack-2", "ack-again", "ack-3"), reassembled.getAckIds());
+      Assert.assertEquals(0, reassembler.getPendingGroupCount());
+      Assert.assertEquals(0, reassembler.getBufferedBytes());
+    }
+  }
+
+  @Test
+  public void spillsToDiskBeyondMemoryLimit() throws Exception {
+    File spillDirectory = temporaryFolder.newFolder();
+    PubsubMessage original = message(1000);
+    List<PubsubMessage> chunks = MessageChunks.split(original, 250);
+
+    try (ChunkReassembler reassembler =
+        ChunkReassembler.newBuilder()
+            .setMaxBufferedBytes(500)
+            .setSpillDirectory(spillDirectory)
+            .build()) {
+      for (int i = 0; i < 3; i++) {
+        Assert.assertNull(reassembler.add(received("ack-" + i, chunks.get(i))));
+      }
+      Assert.assertEquals(500, reassembler.getBufferedBytes());
+      Assert.assertEquals(250, reassembler.getSpilledBytes());
+      Assert.assertEquals(1, spillDirectory.list().length);
+
+      ChunkReassembler.ReassembledMessage reassembled =
+          reassembler.add(received("ack-3", chunks.get(3)));
+      Assert.assertEquals(original, reassembled.getMessage());
+      Assert.assertEquals(2, reassembler.getSpilledChunkCount());
+      Assert.assertEquals(0, reassembler.getSpilledBytes());
+      Assert.assertEquals(0, spillDirectory.list().length);
+    }
+  }
+
+  @Test
+  public void rejectsCorruptChunks() throws Exception {
+    PubsubMessage chunk = MessageChunks.split(message(100), 40).get(1);
+    PubsubMessage corrupt = chunk.toBuilder().setData(ByteString.copyFromUtf8("corrupt")).build();
+    try (ChunkReassembler reassembler = ChunkReassembler.newBuilder().build()) {
+      try {
+        reassembler.add(received("ack-1", corrupt));
+        Assert.fail("corrupt chunk should have been rejected");
+      } catch (IOException e) {
+        // Expected.
+      }
+      Assert.assertEquals(0, reassembler.getPendingGroupCount());
+    }
+  }
+
+  @Test
+  public void rejectsChunksOfOversizedMessages() throws Exception {
+    List<PubsubMessage> chunks = MessageChunks.split(message(100), 40);
+    PubsubMessage first = chunks.get(0);
+    PubsubMessage hugeCount =
+        first
+            .toBuilder()
+            .putAttributes(MessageChunks.COUNT_ATTRIBUTE, Integer.toString(Integer.MAX_VALUE))
+            .build();
+    PubsubMessage hugeLast =
+        chunks
+            .get(2)
+            .toBuilder()
+            .putAttributes(MessageChunks.INDEX_ATTRIBUTE, Integer.toString(Integer.MAX_VALUE - 1))
+            .putAttributes(MessageChunks.COUNT_ATTRIBUTE, Integer.toString(Integer.MAX_VALUE))
+            .build();
+
+    try (ChunkReassembler reassembler = ChunkReassembler.newBuilder().build()) {
+      for (PubsubMessage chunk : Arrays.asList(hugeCount, hugeLast)) {
+        try {
+          reassembler.add(received("ack-huge", chunk));
+          Assert.fail("chunk of an oversized message should have been rejected");
+        } catch (IOException e) {
+          // Expected.
+        }
+      }
+      Assert.assertEquals(0, reassembler.getPendingGroupCount());
+    }
+
+    // Three chunks of which the first two hold 40 bytes make a message of at least 81 bytes.
+    try (ChunkReassembler reassembler =
+        ChunkReassembler.newBuilder().setMaxMessageBytes(80).build()) {
+      try {
+        reassembler.add(received("ack-0", first));
+        Assert.fail("chunk of an oversized message should have been rejected");
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void expiresIncompleteGroups() throws Exception {
+    FakeClock clock = new FakeClock();
+    List<PubsubMessage> first = MessageChunks.split(message(100), 40);
+    List<PubsubMessage> second = MessageChunks.split(message(100), 40);
+    try (ChunkReassembler reassembler =
+        ChunkReassembler.newBuilder()
+            .setAssemblyTimeout(Duration.standardSeconds(60))
+            .setClock(clock)
+            .build()) {
+      reassembler.add(received("first-0", first.get(0)));
+      clock.advance(30);
+      reassembler.add(received("second-0", second.get(0)));
+      reassembler.add(received("first-1", first.get(1)));
+      Assert.assertTrue(reassembler.removeExpired().isEmpty());
+
+      clock.advance(30);
+      Assert.assertEquals(Arrays.asList("first-0", "first-1"), reassembler.removeExpired());
+      Assert.assertEquals(1, reassembler.getPendingGroupCount());
+      Assert.assertEquals(Arrays.asList("second-0"), reassembler.removeAll());
+      Assert.assertEquals(0, reassembler.getBufferedBytes());
+    }
+  }
+
+  @Test
+  public void publishSplitsLargeMessages() throws Exception {
+    PublisherSettings settings =
+        PublisherSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .setPublishChunkingSettings(ChunkingSettings.newBuilder().setMaxChunkBytes(400).build())
+            .build();
+    PubsubMessage small = message(100);
+    PubsubMessage large = message(1000);
+
+    try (PublisherApi api = PublisherApi.create(settings);
+        ChunkReassembler reassembler = ChunkReassembler.newBuilder().build()) {
+      PublishResponse response =
+          api.publish(
+              PublishRequest.newBuilder()
+                  .setTopic(TOPIC)
+                  .addMessages(small)
+                  .addMessages(large)
+                  .build());
+      Assert.assertEquals(2, response.getMessageIdsCount());
+
+      // The bundler may merge the requests for the chunks, so only the messages are counted.
+      int chunkCount = 0;
+      ChunkReassembler.ReassembledMessage reassembled = null;
+      for (PublishRequest request : fakePublisher.getPublishRequests()) {
+        for (PubsubMessage message : request.getMessagesList()) {
+          if (!MessageChunks.isChunk(message)) {
+            Assert.assertEquals(small, message);
+            continue;
+          }
+          Assert.assertTrue(message.getData().size() <= 400);
+          ChunkReassembler.ReassembledMessage result =
+              reassembler.add(received("ack-" + chunkCount++, message));
+          if (result != null) {
+            reassembled = result;
+          }
+        }
+      }
+      Assert.assertEquals(3, chunkCount);
+      Assert.assertEquals(large, reassembled.getMessage());
+    }
+  }
+
+  private static PubsubMessage message(int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return PubsubMessage.newBuilder()
+        .setData(ByteString.copyFrom(data))
+        .putAttributes("key", "value")
+        .build();
+  }
+
+  private static ReceivedMessage received(String ackId, PubsubMessage message) {
+    return ReceivedMessage.newBuilder().setAckId(ackId).setMessage(message).build();
+  }
+}
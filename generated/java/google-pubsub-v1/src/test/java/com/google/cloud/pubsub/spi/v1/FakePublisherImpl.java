@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PublisherGrpc.PublisherImplBase;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * A stateful fake of the Publisher service for tests of long-running clients. Publish requests
+ * succeed with sequential message ids, unless a failure was queued with {@link #addFailure}.
+ */
+public class FakePublisherImpl extends PublisherImplBase implements MockGrpcService {
+  private final List<GeneratedMessageV3> requests = new ArrayList<>();
+  private final Queue<Status> failures = new LinkedList<>();
+  private int nextMessageId;
+
+  /** Makes the next publish request fail with the given status. */
+  public synchronized void addFailure(Status status) {
+    failures.add(status);
+  }
+
+  /** Returns all publish requests, in the order they were received. */
+  public synchronized List<PublishRequest> getPublishRequests() {
+    List<PublishRequest> publishRequests = new ArrayList<>();
+    for (GeneratedMessageV3 request : requests) {
+      publishRequests.add((PublishRequest) request);
+    }
+    return publishRequests;
+  }
+
+  @Override
+  public synchronized List<GeneratedMessageV3> getRequests() {
+    return new ArrayList<>(requests);
+  }
+
+  @Override
+  public void setResponses(List<GeneratedMessageV3> responses) {
+    throw new UnsupportedOperationException("FakePublisherImpl generates its own responses");
+  }
+
+  @Override
+  public ServerServiceDefinition getServiceDefinition() {
+    return bindService();
+  }
+
+  @Override
+  public synchronized void reset() {
+    requests.clear();
+    failures.clear();
+    nextMessageId = 0;
+  }
+
+  @Override
+  public void publish(PublishRequest request, StreamObserver<PublishResponse> responseObserver) {
+    Status failure;
+    PublishResponse.Builder response = PublishResponse.newBuilder();
+    synchronized (this) {
+      requests.add(request);
+      failure = failures.poll();
+      if (failure == null) {
+        for (int i = 0; i < request.getMessagesCount(); i++) {
+          response.addMessageIds(Integer.toString(nextMessageId++));
+        }
+      }
+    }
+    if (failure != null) {
+      responseObserver.onError(failure.asRuntimeException());
+      return;
+    }
+    responseObserver.onNext(response.build());
+    responseObserver.onCompleted();
+  }
+}
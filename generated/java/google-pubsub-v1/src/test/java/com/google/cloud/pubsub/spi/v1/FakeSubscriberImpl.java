@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.protobuf.Empty;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import com.google.pubsub.v1.PullRequest;
+import com.google.pubsub.v1.PullResponse;
+import com.google.pubsub.v1.SubscriberGrpc.SubscriberImplBase;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stateful fake of the Subscriber service for tests of long-running clients. Unlike
+ * MockSubscriberImpl it does not require the responses of every call to be queued up front: pull
+ * requests are served from a queue of pending responses, and return an empty response once it is
+ * drained, while acknowledge and modifyAckDeadline requests always succeed.
+ */
+public class FakeSubscriberImpl extends SubscriberImplBase implements MockGrpcService {
+  private static final long PULL_WAIT_MILLIS = 10;
+
+  private final BlockingQueue<PullResponse> pullResponses = new LinkedBlockingQueue<>();
+  private final List<GeneratedMessageV3> requests = new ArrayList<>();
+
+  public void addPullResponse(PullResponse response) {
+    pullResponses.add(response);
+  }
+
+  /** Returns the ackIds of all acknowledge requests, in the order they were received. */
+  public synchronized List<String> getAcknowledgedIds() {
+    List<String> ackIds = new ArrayList<>();
+    for (GeneratedMessageV3 request : requests) {
+      if (request instanceof AcknowledgeRequest) {
+        ackIds.addAll(((AcknowledgeRequest) request).getAckIdsList());
+      }
+    }
+    return ackIds;
+  }
+
+  /** Returns all modifyAckDeadline requests, in the order they were received. */
+  public synchronized List<ModifyAckDeadlineRequest> getModifyAckDeadlineRequests() {
+    List<ModifyAckDeadlineRequest> modifyRequests = new ArrayList<>();
+    for (GeneratedMessageV3 request : requests) {
+      if (request instanceof ModifyAckDeadlineRequest) {
+        modifyRequests.add((ModifyAckDeadlineRequest) request);
+      }
+    }
+    return modifyRequests;
+  }
+
+  @Override
+  public synchronized List<GeneratedMessageV3> getRequests() {
+    return new ArrayList<>(requests);
+  }
+
+  @Override
+  public void setResponses(List<GeneratedMessageV3> responses) {
+    for (GeneratedMessageV3 response : responses) {
+      addPullResponse((PullResponse) response);
+    }
+  }
+
+  @Override
+  public ServerServiceDefinition getServiceDefinition() {
+    return bindService();
+  }
+
+  @Override
+  public synchronized void reset() {
+    requests.clear();
+    pullResponses.clear();
+  }
+
+  @Override
+  public void pull(PullRequest request, StreamObserver<PullResponse> responseObserver) {
+    PullResponse response;
+    try {
+      response = pullResponses.poll(PULL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      responseObserver.onError(e);
+      return;
+    }
+    recordRequest(request);
+    responseObserver.onNext(response == null ? PullResponse.getDefaultInstance() : response);
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void acknowledge(AcknowledgeRequest request, StreamObserver<Empty> responseObserver) {
+    recordRequest(request);
+    responseObserver.onNext(Empty.getDefaultInstance());
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void modifyAckDeadline(
+      ModifyAckDeadlineRequest request, StreamObserver<Empty> responseObserver) {
+    recordRequest(request);
+    responseObserver.onNext(Empty.getDefaultInstance());
+    responseObserver.onCompleted();
+  }
+
+  private synchronized void recordRequest(GeneratedMessageV3 request) {
+    requests.add(request);
+  }
+}
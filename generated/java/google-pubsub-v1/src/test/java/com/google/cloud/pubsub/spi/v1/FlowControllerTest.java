@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlowControllerTest {
+
+  @Test
+  public void tryReserveRespectsLimits() {
+    FlowController flowController = new FlowController(2, 100);
+    Assert.assertTrue(flowController.tryReserve(1, 60));
+    Assert.assertFalse(flowController.tryReserve(1, 60));
+    Assert.assertEquals(1, flowController.getOutstandingElementCount());
+    Assert.assertEquals(60, flowController.getOutstandingBytes());
+
+    // Oversized reservations are clamped to the byte limit.
+    flowController.release(1, 60);
+    Assert.assertTrue(flowController.tryReserve(1, 1000));
+    Assert.assertEquals(100, flowController.getOutstandingBytes());
+  }
+
+  @Test
+  public void reserveAsyncCompletesInOrderAsCapacityIsReleased() {
+    FlowController flowController = new FlowController(1, null);
+    ListenableFuture<Void> first = flowController.reserveAsync(1, 10);
+    ListenableFuture<Void> second = flowController.reserveAsync(1, 10);
+    ListenableFuture<Void> third = flowController.reserveAsync(1, 10);
+    Assert.assertTrue(first.isDone());
+    Assert.assertFalse(second.isDone());
+    Assert.assertEquals(2, flowController.getPendingReservationCount());
+
+    // A synchronous reservation cannot jump the queue while capacity is taken.
+    Assert.assertFalse(flowController.tryReserve(1, 10));
+
+    flowController.release(1, 10);
+    Assert.assertTrue(second.isDone());
+    Assert.assertFalse(third.isDone());
+    flowController.release(1, 10);
+    Assert.assertTrue(third.isDone());
+    Assert.assertEquals(0, flowController.getPendingReservationCount());
+    Assert.assertEquals(1, flowController.getOutstandingElementCount());
+  }
+
+  @Test
+  public void cancelledReservationsHoldNoCapacity() {
+    FlowController flowController = new FlowController(1, 100);
+    ListenableFuture<Void> first = flowController.reserveAsync(1, 10);
+    ListenableFuture<Void> cancelled = flowController.reserveAsync(1, 10);
+    ListenableFuture<Void> next = flowController.reserveAsync(1, 10);
+    Assert.assertTrue(first.isDone());
+
+    Assert.assertTrue(cancelled.cancel(false));
+    Assert.assertEquals(1, flowController.getPendingReservationCount());
+
+    flowController.release(1, 10);
+    Assert.assertTrue(next.isDone());
+    flowController.release(1, 10);
+    Assert.assertEquals(0, flowController.getPendingReservationCount());
+    Assert.assertEquals(0, flowController.getOutstandingElementCount());
+    Assert.assertEquals(0, flowController.getOutstandingBytes());
+  }
+
+  @Test
+  public void cancellingThroughATransformReleasesTheCapacity() {
+    FlowController flowController = new FlowController(1, 100);
+    ListenableFuture<Void> first = flowController.reserveAsync(1, 10);
+    ListenableFuture<Void> pending = flowController.reserveAsync(1, 10);
+    ListenableFuture<Void> transformed =
+        Futures.transform(
+            pending,
+            new AsyncFunction<Void, Void>() {
+              @Override
+              public ListenableFuture<Void> apply(Void input) {
+                return Futures.immediateFuture(null);
+              }
+            });
+    Assert.assertTrue(first.isDone());
+
+    Assert.assertTrue(transformed.cancel(false));
+    Assert.assertTrue(pending.isCancelled());
+
+    flowController.release(1, 10);
+    Assert.assertEquals(0, flowController.getPendingReservationCount());
+    Assert.assertEquals(0, flowController.getOutstandingElementCount());
+    Assert.assertEquals(0, flowController.getOutstandingBytes());
+  }
+
+  @Test
+  public void oversizedReservationsAreClampedToTheLimits() {
+    FlowController flowController = new FlowController(2, 1000);
+    ListenableFuture<Void> oversized = flowController.reserveAsync(3, 10);
+    ListenableFuture<Void> next = flowController.reserveAsync(1, 10);
+    Assert.assertTrue(oversized.isDone());
+    Assert.assertFalse(next.isDone());
+    Assert.assertEquals(2, flowController.getOutstandingElementCount());
+
+    flowController.release(3, 10);
+    Assert.assertTrue(next.isDone());
+    Assert.assertEquals(1, flowController.getOutstandingElementCount());
+    flowController.release(1, 10);
+    Assert.assertTrue(flowController.tryReserve(5, 2000));
+    Assert.assertEquals(1000, flowController.getOutstandingBytes());
+  }
+}
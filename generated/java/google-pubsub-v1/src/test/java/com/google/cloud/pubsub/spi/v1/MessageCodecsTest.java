@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PullResponse;
+import com.google.pubsub.v1.ReceivedMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MessageCodecsTest {
+  private static final String TOPIC = PublisherApi.formatTopicName("[PROJECT]", "[TOPIC]");
+  private static final String SUBSCRIPTION =
+      SubscriberApi.formatSubscriptionName("[PROJECT]", "[SUBSCRIPTION]");
+  private static final List<MessageCodec> CODECS =
+      Arrays.asList(MessageCodecs.GZIP, MessageCodecs.DEFLATE, MessageCodecs.LZ4);
+
+  private static FakePublisherImpl fakePublisher;
+  private static FakeSubscriberImpl fakeSubscriber;
+  private static MockServiceHelper serviceHelper;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakePublisher = new FakePublisherImpl();
+    fakeSubscriber = new FakeSubscriberImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-message-codecs",
+            Arrays.<MockGrpcService>asList(fakePublisher, fakeSubscriber));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() {
+    serviceHelper.reset();
+  }
+
+  @Test
+  public void codecsRoundTrip() throws Exception {
+    Random random = new Random(42);
+    byte[] noise = new byte[10000];
+    random.nextBytes(noise);
+    byte[] longRun = new byte[5000];
+    Arrays.fill(longRun, (byte) 'a');
+    List<ByteString> inputs =
+        Arrays.asList(
+            ByteString.EMPTY,
+            ByteString.copyFromUtf8("short"),
+            ByteString.copyFromUtf8("abcdefghijklmnop"),
+            ByteString.copyFrom(noise),
+            ByteString.copyFrom(longRun),
+            ByteString.copyFrom(noise).concat(ByteString.copyFrom(longRun)),
+            json(200));
+    for (MessageCodec codec : CODECS) {
+      for (ByteString input : inputs) {
+        Assert.assertEquals(codec.getName(), input, codec.decompress(codec.compress(input)));
+      }
+    }
+  }
+
+  @Test
+  public void codecsShrinkRepetitiveData() {
+    ByteString data = json(200);
+    for (MessageCodec codec : CODECS) {
+      Assert.assertTrue(codec.getName(), codec.compress(data).size() < data.size() / 4);
+    }
+  }
+
+  @Test
+  public void corruptLz4DataIsRejected() {
+    ByteString compressed = MessageCodecs.LZ4.compress(json(50));
+    List<ByteString> corrupt =
+        Arrays.asList(
+            compressed.substring(0, 3),
+            compressed.substring(0, compressed.size() / 2),
+            ByteString.copyFrom(new byte[] {0, 0, 0, 10, 0x0f, 1, 2}),
+            // The header claims far more data than the block can expand to.
+            ByteString.copyFrom(new byte[] {0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 1}));
+    for (ByteString data : corrupt) {
+      try {
+        MessageCodecs.LZ4.decompress(data);
+        Assert.fail("corrupt data should have been rejected");
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void decompressedSizeIsBounded() throws Exception {
+    ByteString data = ByteString.copyFrom(new byte[100000]);
+    for (MessageCodec codec : Arrays.asList(MessageCodecs.GZIP, MessageCodecs.DEFLATE)) {
+      Assert.assertEquals(data, codec.decompress(codec.compress(data)));
+    }
+
+    ByteString gzipped = MessageCodecs.GZIP.compress(data);
+    try {
+      MessageCodecs.readAtMost(new GZIPInputStream(gzipped.newInput()), data.size() - 1);
+      Assert.fail("oversized data should have been rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+    Assert.assertEquals(
+        data, MessageCodecs.readAtMost(new GZIPInputStream(gzipped.newInput()), data.size()));
+  }
+
+  @Test
+  public void compressSkipsSmallMessages() throws Exception {
+    PubsubMessage small = PubsubMessage.newBuilder().setData(json(1)).build();
+    Assert.assertSame(small, MessageCodecs.compress(small, MessageCodecs.GZIP, 1024));
+
+    PubsubMessage large = PubsubMessage.newBuilder().setData(json(100)).build();
+    PubsubMessage compressed = MessageCodecs.compress(large, MessageCodecs.GZIP, 1024);
+    Assert.assertEquals("gzip", compressed.getAttributesMap().get(MessageCodecs.CODEC_ATTRIBUTE));
+    Assert.assertSame(compressed, MessageCodecs.compress(compressed, MessageCodecs.LZ4, 0));
+    Assert.assertEquals(large, MessageCodecs.decompress(compressed));
+  }
+
+  @Test
+  public void publishCompressesAndPullDecompresses() throws Exception {
+    PublisherSettings publisherSettings =
+        PublisherSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .setPublishCompressionSettings(
+                CompressionSettings.newBuilder()
+                    .setCodec(MessageCodecs.LZ4)
+                    .setMinMessageBytes(1024)
+                    .build())
+            .build();
+    SubscriberSettings subscriberSettings =
+        SubscriberSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    PubsubMessage large =
+        PubsubMessage.newBuilder().setData(json(100)).putAttributes("key", "value").build();
+    PubsubMessage small = PubsubMessage.newBuilder().setData(json(1)).build();
+
+    try (PublisherApi publisherApi = PublisherApi.create(publisherSettings);
+        SubscriberApi subscriberApi = SubscriberApi.create(subscriberSettings)) {
+      publisherApi.publish(
+          PublishRequest.newBuilder()
+              .setTopic(TOPIC)
+              .addMessages(large)
+              .addMessages(small)
+              .build());
+      List<PubsubMessage> sent = fakePublisher.getPublishRequests().get(0).getMessagesList();
+      Assert.assertEquals("lz4", sent.get(0).getAttributesMap().get(MessageCodecs.CODEC_ATTRIBUTE));
+      Assert.assertTrue(sent.get(0).getData().size() < large.getData().size());
+      Assert.assertEquals(small, sent.get(1));
+
+      List<ReceivedMessage> received = new ArrayList<>();
+      for (PubsubMessage message : sent) {
+        received.add(
+            ReceivedMessage.newBuilder()
+                .setAckId("ack" + received.size())
+                .setMessage(message)
+                .build());
+      }
+      fakeSubscriber.addPullResponse(
+          PullResponse.newBuilder().addAllReceivedMessages(received).build());
+      PullResponse response = subscriberApi.pull(SUBSCRIPTION, true, 10);
+      Assert.assertEquals(large, response.getReceivedMessages(0).getMessage());
+      Assert.assertEquals(small, response.getReceivedMessages(1).getMessage());
+    }
+  }
+
+  private static ByteString json(int records) {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < records; i++) {
+      json.append("{\"id\":")
+          .append(i)
+          .append(",\"name\":\"record-")
+          .append(i)
+          .append("\",\"status\":\"ACTIVE\",\"tags\":[\"alpha\",\"beta\"]},");
+    }
+    return ByteString.copyFromUtf8(json.append("]").toString());
+  }
+}
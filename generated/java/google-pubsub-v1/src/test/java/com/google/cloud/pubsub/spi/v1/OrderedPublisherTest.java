@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PubsubMessage;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class OrderedPublisherTest {
+  private static final String TOPIC = PublisherApi.formatTopicName("[PROJECT]", "[TOPIC]");
+
+  private static FakePublisherImpl fakePublisher;
+  private static MockServiceHelper serviceHelper;
+  private PublisherApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakePublisher = new FakePublisherImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-ordered-publisher", Arrays.<MockGrpcService>asList(fakePublisher));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    PublisherSettings settings =
+        PublisherSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = PublisherApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void preservesOrderPerKey() throws Exception {
+    OrderedPublisher publisher =
+        OrderedPublisher.newBuilder(api, TOPIC).setMaxBundleMessages(2).build();
+    List<ListenableFuture<String>> futures = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      futures.add(publisher.publish("a", message("a-" + i)));
+      futures.add(publisher.publish("b", message("b-" + i)));
+    }
+    Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(0, publisher.getOutstandingMessageCount());
+
+    List<String> aData = new ArrayList<>();
+    List<String> bData = new ArrayList<>();
+    for (PublishRequest request : fakePublisher.getPublishRequests()) {
+      Assert.assertEquals(TOPIC, request.getTopic());
+      for (PubsubMessage message : request.getMessagesList()) {
+        String data = message.getData().toStringUtf8();
+        (data.startsWith("a") ? aData : bData).add(data);
+      }
+    }
+    Assert.assertEquals(Arrays.asList("a-0", "a-1", "a-2", "a-3", "a-4"), aData);
+    Assert.assertEquals(Arrays.asList("b-0", "b-1", "b-2", "b-3", "b-4"), bData);
+  }
+
+  @Test
+  public void pausesKeyOnFailure() throws Exception {
+    OrderedPublisher publisher = OrderedPublisher.newBuilder(api, TOPIC).build();
+    fakePublisher.addFailure(Status.INVALID_ARGUMENT);
+    ListenableFuture<String> failed = publisher.publish("a", message("a-0"));
+    try {
+      failed.get(10, TimeUnit.SECONDS);
+      Assert.fail("publish should have failed");
+    } catch (ExecutionException e) {
+      // Expected.
+    }
+    Assert.assertTrue(publisher.isPaused("a"));
+
+    try {
+      publisher.publish("a", message("a-1")).get(10, TimeUnit.SECONDS);
+      Assert.fail("publish on a paused key should fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    Assert.assertNotNull(publisher.publish("b", message("b-0")).get(10, TimeUnit.SECONDS));
+
+    Assert.assertTrue(publisher.resumePublish("a"));
+    Assert.assertFalse(publisher.isPaused("a"));
+    Assert.assertNotNull(publisher.publish("a", message("a-2")).get(10, TimeUnit.SECONDS));
+  }
+
+  private static PubsubMessage message(String data) {
+    return PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8(data)).build();
+  }
+}
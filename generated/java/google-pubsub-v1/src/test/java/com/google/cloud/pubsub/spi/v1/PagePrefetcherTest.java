@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import static com.google.cloud.pubsub.spi.v1.PagedResponseWrappers.ListTopicsPagedResponse;
+
+import com.google.api.gax.grpc.ApiException;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.pubsub.v1.ListTopicsRequest;
+import com.google.pubsub.v1.ListTopicsResponse;
+import com.google.pubsub.v1.Topic;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PagePrefetcherTest {
+  private static final String PROJECT = PublisherApi.formatProjectName("[PROJECT]");
+
+  private static MockPublisher mockPublisher;
+  private static MockServiceHelper serviceHelper;
+  private PublisherApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    mockPublisher = new MockPublisher();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-page-prefetcher", Arrays.<MockGrpcService>asList(mockPublisher));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    PublisherSettings settings =
+        PublisherSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = PublisherApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void fetchesUpToLookAheadPages() throws Exception {
+    mockPublisher.setResponses(pages(4, true));
+    ListTopicsPagedResponse response = api.listTopics(PROJECT);
+
+    Iterator<Topic> topics = response.prefetch(2, Long.MAX_VALUE).iterateAllElements().iterator();
+    Assert.assertEquals("topic-0", topics.next().getName());
+    awaitRequestCount(3);
+    // Pages 2 and 3 fill the look-ahead, so page 4 is not requested yet.
+    Thread.sleep(100);
+    Assert.assertEquals(3, mockPublisher.getRequests().size());
+
+    List<String> names = new ArrayList<>();
+    while (topics.hasNext()) {
+      names.add(topics.next().getName());
+    }
+    Assert.assertEquals(Arrays.asList("topic-1", "topic-2", "topic-3"), names);
+    List<String> tokens = new ArrayList<>();
+    for (GeneratedMessageV3 request : mockPublisher.getRequests()) {
+      tokens.add(((ListTopicsRequest) request).getPageToken());
+    }
+    Assert.assertEquals(Arrays.asList("", "1", "2", "3"), tokens);
+  }
+
+  @Test
+  public void memoryCapPausesFetching() throws Exception {
+    mockPublisher.setResponses(pages(3, true));
+    ListTopicsPagedResponse response = api.listTopics(PROJECT);
+
+    Iterator<ListTopicsResponse> pages = response.prefetch(10, 1).iteratePages().iterator();
+    // The first page is over the cap until the caller takes it.
+    Thread.sleep(100);
+    Assert.assertEquals(1, mockPublisher.getRequests().size());
+    Assert.assertEquals("1", pages.next().getNextPageToken());
+    awaitRequestCount(2);
+    Assert.assertEquals("2", pages.next().getNextPageToken());
+    Assert.assertEquals("", pages.next().getNextPageToken());
+    Assert.assertFalse(pages.hasNext());
+    Assert.assertEquals(3, mockPublisher.getRequests().size());
+  }
+
+  @Test
+  public void failureIsThrownAfterFetchedPages() throws Exception {
+    mockPublisher.setResponses(pages(2, false));
+    ListTopicsPagedResponse response = api.listTopics(PROJECT);
+
+    Iterator<Topic> topics = response.prefetch(4, Long.MAX_VALUE).iterateAllElements().iterator();
+    Assert.assertEquals("topic-0", topics.next().getName());
+    Assert.assertEquals("topic-1", topics.next().getName());
+    try {
+      topics.hasNext();
+      Assert.fail("the failure to fetch the third page should have been thrown");
+    } catch (ApiException e) {
+      // Expected.
+    }
+  }
+
+  // Returns pages with one topic each. If lastPageIsFinal is false, the last page still has a
+  // next page token, but the following page is missing.
+  private static List<GeneratedMessageV3> pages(int count, boolean lastPageIsFinal) {
+    List<GeneratedMessageV3> pages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String nextPageToken = i == count - 1 && lastPageIsFinal ? "" : Integer.toString(i + 1);
+      pages.add(
+          ListTopicsResponse.newBuilder()
+              .setNextPageToken(nextPageToken)
+              .addTopics(Topic.newBuilder().setName("topic-" + i))
+              .build());
+    }
+    return pages;
+  }
+
+  private static void awaitRequestCount(int count) throws InterruptedException {
+    for (int i = 0; i < 500 && mockPublisher.getRequests().size() < count; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(count, mockPublisher.getRequests().size());
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PublisherBundlingTest {
+  private static final String TOPIC = PublisherApi.formatTopicName("[PROJECT]", "[TOPIC]");
+
+  private static FakePublisherImpl fakePublisher;
+  private static MockServiceHelper serviceHelper;
+  private PublisherApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakePublisher = new FakePublisherImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-publisher-bundling", Arrays.<MockGrpcService>asList(fakePublisher));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    PublisherSettings settings =
+        PublisherSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = PublisherApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void splitsMessageIdsOfMergedRequests() throws Exception {
+    List<ListenableFuture<PublishResponse>> futures = new ArrayList<>();
+    for (int count : new int[] {1, 3, 2}) {
+      PublishRequest.Builder request = PublishRequest.newBuilder().setTopic(TOPIC);
+      for (int i = 0; i < count; i++) {
+        request.addMessages(PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8("data")));
+      }
+      futures.add(api.publishCallable().futureCall(request.build()));
+    }
+    List<PublishResponse> responses = Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+
+    Assert.assertEquals(1, fakePublisher.getPublishRequests().size());
+    Assert.assertEquals(6, fakePublisher.getPublishRequests().get(0).getMessagesCount());
+    Assert.assertEquals(Arrays.asList("0"), responses.get(0).getMessageIdsList());
+    Assert.assertEquals(Arrays.asList("1", "2", "3"), responses.get(1).getMessageIdsList());
+    Assert.assertEquals(Arrays.asList("4", "5"), responses.get(2).getMessageIdsList());
+  }
+}
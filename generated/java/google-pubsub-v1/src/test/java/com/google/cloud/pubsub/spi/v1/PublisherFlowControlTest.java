@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.cloud.pubsub.spi.v1.FlowControlSettings.LimitExceededBehavior;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PublisherFlowControlTest {
+  private static final String TOPIC = PublisherApi.formatTopicName("[PROJECT]", "[TOPIC]");
+
+  private static FakePublisherImpl fakePublisher;
+  private static MockServiceHelper serviceHelper;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakePublisher = new FakePublisherImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-publisher-flow-control", Arrays.<MockGrpcService>asList(fakePublisher));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() {
+    serviceHelper.reset();
+  }
+
+  @Test
+  public void deferredPublishesWaitForCapacity() throws Exception {
+    try (PublisherApi api = createApi(LimitExceededBehavior.DEFER)) {
+      FlowController flowController = api.getPublishFlowController();
+      Assert.assertTrue(flowController.tryReserve(1, 0));
+
+      List<ListenableFuture<PublishResponse>> futures = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        futures.add(api.publishAsync(request()));
+      }
+      Assert.assertEquals(3, flowController.getPendingReservationCount());
+      Assert.assertTrue(fakePublisher.getPublishRequests().isEmpty());
+
+      flowController.release(1, 0);
+      Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(3, fakePublisher.getPublishRequests().size());
+      Assert.assertEquals(0, flowController.getOutstandingElementCount());
+      Assert.assertEquals(0, flowController.getOutstandingBytes());
+    }
+  }
+
+  @Test
+  public void failsFastWhenLimitIsReached() throws Exception {
+    try (PublisherApi api = createApi(LimitExceededBehavior.THROW_EXCEPTION)) {
+      FlowController flowController = api.getPublishFlowController();
+      Assert.assertTrue(flowController.tryReserve(1, 0));
+      try {
+        api.publishAsync(request()).get();
+        Assert.fail("publish should have been refused");
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof FlowController.MaxOutstandingExceededException);
+      }
+      try {
+        api.publish(request());
+        Assert.fail("publish should have been refused");
+      } catch (FlowController.MaxOutstandingExceededException e) {
+        // Expected.
+      }
+
+      flowController.release(1, 0);
+      Assert.assertEquals(1, api.publish(request()).getMessageIdsCount());
+      Assert.assertEquals(0, flowController.getOutstandingElementCount());
+    }
+  }
+
+  @Test
+  public void oversizedRequestIsPublishedUnderEveryBehavior() throws Exception {
+    PublishRequest oversized =
+        request().toBuilder().addAllMessages(request().getMessagesList()).build();
+    for (LimitExceededBehavior behavior : LimitExceededBehavior.values()) {
+      try (PublisherApi api = createApi(behavior)) {
+        FlowController flowController = api.getPublishFlowController();
+        // The request has more messages than the limit allows, so it is clamped to the limit.
+        Assert.assertEquals(
+            2, api.publishAsync(oversized).get(10, TimeUnit.SECONDS).getMessageIdsCount());
+        Assert.assertEquals(2, api.publish(oversized).getMessageIdsCount());
+        Assert.assertEquals(behavior.toString(), 0, flowController.getOutstandingElementCount());
+        Assert.assertEquals(0, flowController.getPendingReservationCount());
+      }
+    }
+  }
+
+  private static PublisherApi createApi(LimitExceededBehavior behavior) throws Exception {
+    PublisherSettings settings =
+        PublisherSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .setPublishFlowControlSettings(
+                FlowControlSettings.newBuilder()
+                    .setMaxOutstandingElementCount(1)
+                    .setMaxOutstandingRequestBytes(1024 * 1024)
+                    .setLimitExceededBehavior(behavior)
+                    .build())
+            .build();
+    return PublisherApi.create(settings);
+  }
+
+  private static PublishRequest request() {
+    return PublishRequest.newBuilder()
+        .setTopic(TOPIC)
+        .addMessages(PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8("data")))
+        .build();
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.cloud.pubsub.spi.v1.MessageReceiver.AckReply;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PullResponse;
+import com.google.pubsub.v1.ReceivedMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PullSubscriberTest {
+  private static final String SUBSCRIPTION =
+      SubscriberApi.formatSubscriptionName("[PROJECT]", "[SUBSCRIPTION]");
+
+  private static FakeSubscriberImpl fakeSubscriber;
+  private static MockServiceHelper serviceHelper;
+  private SubscriberApi api;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    fakeSubscriber = new FakeSubscriberImpl();
+    serviceHelper =
+        new MockServiceHelper(
+            "in-process-pull-subscriber", Arrays.<MockGrpcService>asList(fakeSubscriber));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    SubscriberSettings settings =
+        SubscriberSettings.defaultBuilder()
+            .provideChannelWith(serviceHelper.createChannel(), true)
+            .build();
+    api = SubscriberApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    api.close();
+  }
+
+  @Test
+  public void acksAndNacksAccordingToReceiver() throws Exception {
+    fakeSubscriber.addPullResponse(pullResponse("ack-1", "ack-2"));
+    fakeSubscriber.addPullResponse(pullResponse("nack-3"));
+
+    final CountDownLatch received = new CountDownLatch(3);
+    MessageReceiver receiver =
+        new MessageReceiver() {
+          @Override
+          public AckReply receiveMessage(PubsubMessage message) {
+            received.countDown();
+            return message.getData().toStringUtf8().startsWith("nack")
+                ? AckReply.NACK
+                : AckReply.ACK;
+          }
+        };
+
+    PullSubscriber subscriber =
+        PullSubscriber.newBuilder(api, SUBSCRIPTION, receiver).setConcurrentPullCount(2).build();
+    subscriber.start();
+    Assert.assertTrue(received.await(10, TimeUnit.SECONDS));
+    subscriber.close();
+
+    List<String> acked = fakeSubscriber.getAcknowledgedIds();
+    Assert.assertEquals(2, acked.size());
+    Assert.assertTrue(acked.containsAll(Arrays.asList("ack-1", "ack-2")));
+
+    List<ModifyAckDeadlineRequest> nacks = fakeSubscriber.getModifyAckDeadlineRequests();
+    Assert.assertEquals(1, nacks.size());
+    Assert.assertEquals(Arrays.asList("nack-3"), nacks.get(0).getAckIdsList());
+    Assert.assertEquals(0, nacks.get(0).getAckDeadlineSeconds());
+    Assert.assertEquals(0, subscriber.getFlowController().getOutstandingElementCount());
+  }
+
+  @Test
+  public void flowControlBoundsOutstandingMessages() throws Exception {
+    fakeSubscriber.addPullResponse(pullResponse("ack-1", "ack-2", "ack-3", "ack-4"));
+    fakeSubscriber.addPullResponse(pullResponse("ack-5", "ack-6"));
+
+    final AtomicInteger inProcess = new AtomicInteger();
+    final AtomicInteger maxInProcess = new AtomicInteger();
+    final CountDownLatch received = new CountDownLatch(6);
+    MessageReceiver receiver =
+        new MessageReceiver() {
+          @Override
+          public AckReply receiveMessage(PubsubMessage message) throws InterruptedException {
+            int current = inProcess.incrementAndGet();
+            synchronized (maxInProcess) {
+              maxInProcess.set(Math.max(maxInProcess.get(), current));
+            }
+            Thread.sleep(5);
+            inProcess.decrementAndGet();
+            received.countDown();
+            return AckReply.ACK;
+          }
+        };
+
+    PullSubscriber subscriber =
+        PullSubscriber.newBuilder(api, SUBSCRIPTION, receiver)
+            .setMaxOutstandingElementCount(2)
+            .setWorkerCount(4)
+            .build();
+    subscriber.start();
+    Assert.assertTrue(received.await(10, TimeUnit.SECONDS));
+    subscriber.close();
+
+    Assert.assertTrue(maxInProcess.get() <= 2);
+    Assert.assertEquals(6, fakeSubscriber.getAcknowledgedIds().size());
+  }
+
+  @Test
+  public void acknowledgementsAreCoalesced() throws Exception {
+    List<ListenableFuture<Empty>> futures = new ArrayList<>();
+    for (String ackId : Arrays.asList("ack-1", "ack-2", "ack-2", "ack-3")) {
+      futures.add(
+          api.acknowledgeCallable()
+              .futureCall(
+                  AcknowledgeRequest.newBuilder()
+                      .setSubscription(SUBSCRIPTION)
+                      .addAckIds(ackId)
+                      .build()));
+    }
+    Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+
+    List<GeneratedMessageV3> requests = fakeSubscriber.getRequests();
+    Assert.assertEquals(1, requests.size());
+    Assert.assertEquals(
+        Arrays.asList("ack-1", "ack-2", "ack-3"),
+        ((AcknowledgeRequest) requests.get(0)).getAckIdsList());
+  }
+
+  @Test
+  public void chunkedMessagesAreReassembled() throws Exception {
+    PubsubMessage original =
+        PubsubMessage.newBuilder()
+            .setData(ByteString.copyFromUtf8("0123456789abcdefghij"))
+            .putAttributes("key", "value")
+            .build();
+    List<PubsubMessage> chunks = MessageChunks.split(original, 8);
+    Assert.assertEquals(3, chunks.size());
+    fakeSubscriber.addPullResponse(
+        PullResponse.newBuilder()
+            .addReceivedMessages(
+                ReceivedMessage.newBuilder().setAckId("chunk-2").setMessage(chunks.get(2)))
+            .addReceivedMessages(
+                ReceivedMessage.newBuilder().setAckId("chunk-0").setMessage(chunks.get(0)))
+            .build());
+    fakeSubscriber.addPullResponse(
+        PullResponse.newBuilder()
+            .addReceivedMessages(
+                ReceivedMessage.newBuilder().setAckId("chunk-1").setMessage(chunks.get(1)))
+            .build());
+
+    final List<PubsubMessage> received = new ArrayList<>();
+    final CountDownLatch receivedLatch = new CountDownLatch(1);
+    MessageReceiver receiver =
+        new MessageReceiver() {
+          @Override
+          public AckReply receiveMessage(PubsubMessage message) {
+            synchronized (received) {
+              received.add(message);
+            }
+            receivedLatch.countDown();
+            return AckReply.ACK;
+          }
+        };
+
+    PullSubscriber subscriber =
+        PullSubscriber.newBuilder(api, SUBSCRIPTION, receiver).setConcurrentPullCount(1).build();
+    subscriber.start();
+    Assert.assertTrue(receivedLatch.await(10, TimeUnit.SECONDS));
+    subscriber.close();
+
+    Assert.assertEquals(Arrays.asList(original), received);
+    List<String> acked = fakeSubscriber.getAcknowledgedIds();
+    Assert.assertEquals(3, acked.size());
+    Assert.assertTrue(acked.containsAll(Arrays.asList("chunk-0", "chunk-1", "chunk-2")));
+    Assert.assertEquals(0, subscriber.getChunkReassembler().getPendingGroupCount());
+  }
+
+  @Test
+  public void expiredChunksAreAcknowledgedWithoutDelivery() throws Exception {
+    PubsubMessage original =
+        PubsubMessage.newBuilder().setData(ByteString.copyFrom(new byte[1000])).build();
+    List<PubsubMessage> chunks = MessageChunks.split(original, 400);
+    PullResponse response = pullResponse("ack-1");
+    fakeSubscriber.addPullResponse(
+        response
+            .toBuilder()
+            .addReceivedMessages(
+                ReceivedMessage.newBuilder().setAckId("chunk-0").setMessage(chunks.get(0)))
+            .build());
+
+    final CountDownLatch received = new CountDownLatch(1);
+    MessageReceiver receiver =
+        new MessageReceiver() {
+          @Override
+          public AckReply receiveMessage(PubsubMessage message) {
+            received.countDown();
+            return AckReply.ACK;
+          }
+        };
+
+    PullSubscriber subscriber =
+        PullSubscriber.newBuilder(api, SUBSCRIPTION, receiver)
+            .setConcurrentPullCount(1)
+            .setChunkReassembler(
+                ChunkReassembler.newBuilder().setAssemblyTimeout(Duration.ZERO).build())
+            .build();
+    subscriber.start();
+    Assert.assertTrue(received.await(10, TimeUnit.SECONDS));
+    subscriber.close();
+
+    List<String> acked = fakeSubscriber.getAcknowledgedIds();
+    Assert.assertEquals(2, acked.size());
+    Assert.assertTrue(acked.containsAll(Arrays.asList("ack-1", "chunk-0")));
+    Assert.assertTrue(fakeSubscriber.getModifyAckDeadlineRequests().isEmpty());
+    Assert.assertEquals(0, subscriber.getChunkReassembler().getPendingGroupCount());
+  }
+
+  private static PullResponse pullResponse(String... ackIds) {
+    PullResponse.Builder response = PullResponse.newBuilder();
+    for (String ackId : ackIds) {
+      response.addReceivedMessages(
+          ReceivedMessage.newBuilder()
+              .setAckId(ackId)
+              .setMessage(PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8(ackId))));
+    }
+    return response.build();
+  }
+}
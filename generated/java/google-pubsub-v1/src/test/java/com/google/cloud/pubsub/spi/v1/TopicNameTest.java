@@ -0,0 +1,36 @@
+
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.pubsub.spi.v1;
+
+import com.google.api.gax.protobuf.ValidationException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TopicNameTest {
+  @Test
+  public void ofFormatsName() {
+    TopicName topic = TopicName.of("my-project", "my-topic");
+    Assert.assertEquals("projects/my-project/topics/my-topic", topic.toString());
+    Assert.assertEquals("my-project", topic.getProject());
+    Assert.assertEquals("my-topic", topic.getTopic());
+    Assert.assertEquals(TopicName.parse(topic.toString()), topic);
+    Assert.assertEquals(PublisherApi.formatTopicName("my-project", "my-topic"), topic.toString());
+  }
+
+  @Test(expected = ValidationException.class)
+  public void parseRejectsSubscriptionName() {
+    TopicName.parse("projects/my-project/subscriptions/my-subscription");
+  }
+}